@@ -1,23 +1,40 @@
 package hk.edu.polyu.comp.vlabcontroller.api;
 
+import hk.edu.polyu.comp.vlabcontroller.log.LiveLog;
+import hk.edu.polyu.comp.vlabcontroller.log.LogChunk;
+import hk.edu.polyu.comp.vlabcontroller.log.LogRange;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.RuntimeSetting;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import hk.edu.polyu.comp.vlabcontroller.service.LogService;
 import hk.edu.polyu.comp.vlabcontroller.service.ProxyService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 @RestController
 public class ProxyController extends BaseController {
+    private static final long LOG_STREAM_TIMEOUT_MS = TimeUnit.HOURS.toMillis(1);
+
     private final ProxyService proxyService;
+    private final LogService logService;
 
-    public ProxyController(ProxyService proxyService) {
+    public ProxyController(ProxyService proxyService, LogService logService) {
         this.proxyService = proxyService;
+        this.logService = logService;
     }
 
     @GetMapping(value = "/api/proxyspec", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -39,7 +56,7 @@ public class ProxyController extends BaseController {
 
     @GetMapping(value = "/api/proxy/{proxyId}", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Proxy> getProxy(@PathVariable String proxyId) {
-        Proxy proxy = proxyService.findProxy(p -> p.getId().equals(proxyId), false);
+        Proxy proxy = proxyService.getProxy(proxyId, false);
         if (proxy == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
         return new ResponseEntity<>(proxy, HttpStatus.OK);
     }
@@ -50,23 +67,123 @@ public class ProxyController extends BaseController {
         if (baseSpec == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 
         ProxySpec spec = proxyService.resolveProxySpec(baseSpec, null, runtimeSettings);
-        Proxy proxy = proxyService.startProxy(spec, false);
+        Proxy proxy = proxyService.startProxyAsync(spec, false);
         return new ResponseEntity<>(proxy, HttpStatus.CREATED);
     }
 
     @PostMapping(value = "/api/proxy", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Proxy> startProxy(@RequestBody ProxySpec proxySpec) {
         ProxySpec spec = proxyService.resolveProxySpec(null, proxySpec, null);
-        Proxy proxy = proxyService.startProxy(spec, false);
+        Proxy proxy = proxyService.startProxyAsync(spec, false);
         return new ResponseEntity<>(proxy, HttpStatus.CREATED);
     }
 
     @DeleteMapping(value = "/api/proxy/{proxyId}", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<String> stopProxy(@PathVariable String proxyId) {
-        Proxy proxy = proxyService.findProxy(p -> p.getId().equals(proxyId), false);
+        Proxy proxy = proxyService.getProxy(proxyId, false);
         if (proxy == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 
         proxyService.stopProxy(proxy, true, false, 0);
         return new ResponseEntity<>("Proxy stopped", HttpStatus.OK);
     }
+
+    /**
+     * Read a part of the log of a proxy: the last <code>lines</code> lines (default 100), the bytes from offset
+     * <code>from</code> to offset <code>to</code>, or the output written between the timestamps (in milliseconds)
+     * <code>since</code> and <code>until</code>. The offsets of the returned part are given in the headers.
+     */
+    @GetMapping(value = "/api/proxy/{proxyId}/logs", produces = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<byte[]> readLog(@PathVariable String proxyId,
+                                          @RequestParam(defaultValue = "stdout") String stream,
+                                          @RequestParam(required = false) Integer lines,
+                                          @RequestParam(required = false) Long from,
+                                          @RequestParam(required = false) Long to,
+                                          @RequestParam(required = false) Long since,
+                                          @RequestParam(required = false) Long until) {
+        Proxy proxy = proxyService.getProxy(proxyId, false);
+        if (proxy == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+        LogRange range;
+        if (from != null || to != null) {
+            try {
+                range = LogRange.bytes(from == null ? 0 : from, to == null ? Long.MAX_VALUE : to);
+            } catch (IllegalArgumentException e) {
+                return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+            }
+        } else if (since != null || until != null) {
+            range = LogRange.time(since == null ? 0 : since, until == null ? Long.MAX_VALUE : until);
+        } else {
+            range = LogRange.lastLines(lines == null ? 100 : lines);
+        }
+        LogChunk chunk = logService.readLog(proxy, stream.equals("stderr") ? 1 : 0, range);
+        if (chunk == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        return ResponseEntity.ok()
+                .header("X-Log-Start", String.valueOf(chunk.getStart()))
+                .header("X-Log-End", String.valueOf(chunk.getEnd()))
+                .header("X-Log-Length", String.valueOf(chunk.getLength()))
+                .body(chunk.getContent());
+    }
+
+    /**
+     * Follow the standard output of a proxy live, as server-sent events. The recent output is replayed first, from the
+     * offset given by the <code>Last-Event-ID</code> header when reconnecting. The id of every event is the offset
+     * following its data. All viewers of a proxy share the stream of its output, see {@link LiveLog}.
+     */
+    @GetMapping(value = "/api/proxy/{proxyId}/logs/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamLog(@PathVariable String proxyId,
+                                                @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        Proxy proxy = proxyService.getProxy(proxyId, false);
+        if (proxy == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+        SseEmitter emitter = new SseEmitter(LOG_STREAM_TIMEOUT_MS);
+        LiveLog.Subscription subscription = logService.followLog(proxy, lastEventId == null ? 0 : lastEventId, new LogStreamListener(emitter));
+        if (subscription == null) return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+        emitter.onCompletion(subscription::cancel);
+        emitter.onTimeout(subscription::cancel);
+        emitter.onError(throwable -> subscription.cancel());
+        return new ResponseEntity<>(emitter, HttpStatus.OK);
+    }
+
+    /**
+     * Sends the output of a proxy as events, decoding it as UTF-8 across chunk boundaries. A line break would end the
+     * data field of an event, hence every line of the output is sent as a data line of its own (line breaks are
+     * received as <code>\n</code>).
+     */
+    static class LogStreamListener implements LiveLog.Listener {
+        private static final Pattern LINE_BREAK = Pattern.compile("\r\n|\r|\n");
+
+        private final SseEmitter emitter;
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private ByteBuffer leftover = ByteBuffer.allocate(0);
+
+        LogStreamListener(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void onData(long offset, byte[] data) throws IOException {
+            ByteBuffer in = ByteBuffer.allocate(leftover.remaining() + data.length).put(leftover).put(data).flip();
+            CharBuffer out = CharBuffer.allocate(in.remaining());
+            decoder.decode(in, out, false);
+            leftover = in;
+            SseEmitter.SseEventBuilder event = SseEmitter.event().id(String.valueOf(offset + data.length));
+            for (String line : LINE_BREAK.split(out.flip(), -1)) {
+                // the receiver drops one space following "data:"
+                event.data(line.startsWith(" ") ? " " + line : line);
+            }
+            emitter.send(event);
+        }
+
+        @Override
+        public void onEnd(boolean dropped) {
+            try {
+                if (dropped) emitter.send(SseEmitter.event().name("dropped").data("The viewer fell behind the output"));
+                emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+            }
+        }
+    }
 }
@@ -36,7 +36,7 @@ public class ProxyRouteController extends BaseController {
             String prefix = proxyId;
             if (proxyId != null) {
                 boolean isAdmin = userService.isAdmin();
-                Proxy proxy = proxyService.findProxy(p -> proxyId.equals(p.getId()), true);
+                Proxy proxy = proxyService.getProxy(proxyId);
                 String[] path = mapping.split("/");
                 String mappingType = path.length > 1 ? path[1] : "";
                 int targetPort = -1;
@@ -50,4 +50,12 @@ public interface IAuthenticationBackend {
         // Default: do nothing.
     }
 
+    /**
+     * Return true if {@link #customizeContainerEnv(List)} adds user specific values to the environment,
+     * which e.g. a pre-warmed container cannot have.
+     */
+    default boolean customizesContainerEnv() {
+        return false;
+    }
+
 }
@@ -122,13 +122,24 @@ public class OpenIDAuthenticationBackend implements IAuthenticationBackend {
         return logoutURL;
     }
 
+    @Override
+    public boolean customizesContainerEnv() {
+        return true;
+    }
+
     @Override
     public void customizeContainerEnv(List<String> env) {
         Authentication auth = SecurityContextHolder.getContext().getAuthentication();
         if (auth == null) return;
 
         OidcUser user = (OidcUser) auth.getPrincipal();
-        HttpServletRequest request = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes()).getRequest();
+        // the authorized client is kept in the session: ProxyService calls this on the request thread of the user
+        ServletRequestAttributes requestAttributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
+        if (requestAttributes == null) {
+            log.warn(String.format("No request bound, cannot pass the access token of user %s to the container", auth.getName()));
+            return;
+        }
+        HttpServletRequest request = requestAttributes.getRequest();
         OAuth2AuthorizedClient client = oAuth2AuthorizedClientRepository.loadAuthorizedClient(REG_ID, auth, request);
         if (client == null || client.getAccessToken() == null) return;
 
@@ -93,7 +93,7 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
 
     @Override
     public void startProxy(Proxy proxy) throws VLabControllerException {
-        proxy.setId(UUID.randomUUID().toString());
+        if (proxy.getId() == null) proxy.setId(UUID.randomUUID().toString());
         proxy.setStatus(ProxyStatus.Starting);
         proxy.setCreatedTimestamp(System.currentTimeMillis());
 
@@ -104,12 +104,12 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
                 throw new VLabControllerException("Failed to start container", t);
             }
 
-            if (!testStrategy.testProxy(proxy)) {
+            if (!testStrategy.testProxyAsync(proxy).join()) {
                 throw new VLabControllerException("Container did not respond in time");
             }
 
+            // the proxy stays Starting: it is Up once the caller has mapped it
             proxy.setStartupTimestamp(System.currentTimeMillis());
-            proxy.setStatus(ProxyStatus.Up);
 
         } catch (VLabControllerException e) {
             try {
@@ -137,9 +137,8 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
             String[] groups = userService.getGroups(userService.getCurrentAuth());
             spec.addRuntimeLabel(RUNTIME_LABEL_USER_GROUPS, false, String.join(",", groups));
 
-            return new ExpressionAwareContainerSpec(spec, proxy, expressionResolver);
+            return new ExpressionAwareContainerSpec(spec, proxy, expressionResolver).resolve();
         })
-        .map(ContainerSpec.class::cast)
         .collect(Collectors.toList());
 
         ContainerGroup c = startContainer(eSpecs, proxy);
@@ -200,10 +199,13 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
 
     protected List<String> buildEnv(ContainerSpec containerSpec, Proxy proxy) throws IOException {
         List<String> env = new ArrayList<>();
-        env.add(String.format("%s=%s", ENV_VAR_USER_NAME, proxy.getUserId()));
+        // proxies without a user (e.g. the idle pods of a pool) get no identity
+        if (proxy.getUserId() != null) {
+            env.add(String.format("%s=%s", ENV_VAR_USER_NAME, proxy.getUserId()));
 
-        String[] groups = userService.getGroups(userService.getCurrentAuth());
-        env.add(String.format("%s=%s", ENV_VAR_USER_GROUPS, String.join(",", groups)));
+            String[] groups = userService.getGroups(userService.getCurrentAuth());
+            env.add(String.format("%s=%s", ENV_VAR_USER_GROUPS, String.join(",", groups)));
+        }
 
         String envFile = containerSpec.getEnvFile();
         if (envFile != null && Files.isRegularFile(Paths.get(envFile))) {
@@ -220,8 +222,8 @@ public abstract class AbstractContainerBackend implements IContainerBackend {
             }
         }
 
-        // Allow the authentication backend to add values to the environment, if needed.
-        if (authBackend != null) authBackend.customizeContainerEnv(env);
+        // Values added by the authentication backend, if needed.
+        env.addAll(proxy.getAuthEnv());
 
         return env;
     }
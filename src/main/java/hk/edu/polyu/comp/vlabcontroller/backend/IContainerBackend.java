@@ -1,10 +1,12 @@
 package hk.edu.polyu.comp.vlabcontroller.backend;
 
 import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
+import hk.edu.polyu.comp.vlabcontroller.log.LogPump;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
 
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.BiConsumer;
 
 public interface IContainerBackend {
@@ -20,7 +22,8 @@ public interface IContainerBackend {
     /**
      * Start the given proxy, which may take some time depending on the type of backend.
      * The proxy will be in the {@link ProxyStatus#New} state before entering this method.
-     * When this method returns, the proxy should be in the {@link ProxyStatus#Up} state.
+     * When this method returns, the containers of the proxy are running and responding, and the proxy is still in
+     * the {@link ProxyStatus#Starting} state: the caller marks it {@link ProxyStatus#Up} once it is mapped.
      *
      * @param proxy The proxy to start up.
      * @throws VLabControllerException If the startup fails for any reason.
@@ -47,4 +50,20 @@ public interface IContainerBackend {
      * not support output attaching.
      */
     BiConsumer<OutputStream, OutputStream> getOutputAttacher(Proxy proxy);
+
+    /**
+     * Start forwarding the output of the given proxy's containers to the log pump,
+     * without blocking a thread while waiting for output.
+     *
+     * @param proxy  The proxy whose container output should be forwarded.
+     * @param pump   The log pump, which writes the output to the storage.
+     * @param stdOut The stream receiving the standard output.
+     * @param stdErr The stream receiving the standard error.
+     * @return A future completing when the output ends, with false if the output could not be followed at all (e.g.
+     * the request for it was rejected), or null if this backend does not support it. In both cases
+     * {@link #getOutputAttacher(Proxy)} is used instead.
+     */
+    default CompletableFuture<Boolean> pumpOutput(Proxy proxy, LogPump pump, OutputStream stdOut, OutputStream stdErr) {
+        return null;
+    }
 }
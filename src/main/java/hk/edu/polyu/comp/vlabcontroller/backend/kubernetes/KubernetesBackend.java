@@ -1,38 +1,51 @@
 package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-import com.fasterxml.jackson.datatype.jsr353.JSR353Module;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
 import hk.edu.polyu.comp.vlabcontroller.backend.AbstractContainerBackend;
+import hk.edu.polyu.comp.vlabcontroller.log.LogPump;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.ContainerGroup;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.ContainerSpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
 import hk.edu.polyu.comp.vlabcontroller.service.ProxyService;
 import hk.edu.polyu.comp.vlabcontroller.spec.expression.SpecExpressionContext;
-import hk.edu.polyu.comp.vlabcontroller.util.Retrying;
 import io.fabric8.kubernetes.api.model.*;
 import io.fabric8.kubernetes.client.ConfigBuilder;
 import io.fabric8.kubernetes.client.DefaultKubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.internal.readiness.Readiness;
 import io.fabric8.kubernetes.client.utils.Serialization;
-import javax.json.JsonPatch;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.inject.Inject;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
+import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -61,8 +74,19 @@ public class KubernetesBackend extends AbstractContainerBackend {
     private static final String PARAM_PVC = "persistentvolumeclaim";
     private static final String PARAM_NAMESPACE = "namespace";
 
+    private static final String PROPERTY_POOL_RECONCILE_INTERVAL = "pool-reconcile-interval";
+    private static final String PROPERTY_CLEANUP_THREADS = "cleanup-threads";
+    private static final String PROPERTY_PROVISIONING_THREADS = "provisioning-threads";
+
     private static final String SECRET_KEY_REF = "secretKeyRef";
 
+    private static final String LABEL_BOOT_ID = "comp.polyu.edu.hk/vl-boot-id";
+
+    private static final String POD_INFO_VOLUME = "vl-pod-info";
+    private static final String POD_INFO_PATH = "/etc/vlab/podinfo";
+
+    private static final long SERVICE_READY_TIMEOUT_SECONDS = 60;
+
     private final Logger log = LogManager.getLogger(KubernetesBackend.class);
 
     @Inject
@@ -76,6 +100,36 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
     private KubernetesClient kubeClient;
 
+    /**
+     * Identifies the objects created by this instance of the controller, see {@link KubernetesCleaner}.
+     */
+    private final String bootId = UUID.randomUUID().toString();
+
+    private static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
+
+    /**
+     * Templates of the volumes, PVCs, additional manifests and pod patches of the specs, keyed by the (identity of
+     * the) objects of the loaded spec, so that they are only parsed once per configuration.
+     */
+    private final Cache<Object, ManifestTemplate> manifestTemplates = CacheBuilder.newBuilder().weakKeys().build();
+
+    private KubernetesResourceCache resourceCache;
+
+    private KubernetesPodPool podPool;
+
+    /**
+     * Runs the independent stages of the provisioning of the proxies, see {@link ProvisioningPlan}.
+     */
+    private ExecutorService provisioningExecutor;
+
+    @Inject
+    private MeterRegistry meterRegistry;
+
+    /**
+     * Follows the output of the pods for the log pump, created on first use.
+     */
+    private volatile KubernetesLogClient logClient;
+
     @Override
     public void initialize() throws VLabControllerException {
         super.initialize();
@@ -89,9 +143,7 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
         cleanBeforeStart();
 
-        var cleanFailedThread = new Thread(new ErrorPodsCleaner(), ErrorPodsCleaner.class.getSimpleName());
-        cleanFailedThread.setDaemon(true);
-        cleanFailedThread.start();
+        startServices();
     }
 
     private void attachTLSCerts(ConfigBuilder configBuilder) {
@@ -109,13 +161,34 @@ public class KubernetesBackend extends AbstractContainerBackend {
     public void initialize(KubernetesClient client) {
         super.initialize();
         kubeClient = client;
-        var cleanFailedThread = new Thread(new ErrorPodsCleaner(), ErrorPodsCleaner.class.getSimpleName());
-        cleanFailedThread.setDaemon(true);
-        cleanFailedThread.start();
+        startServices();
+    }
+
+    private void startServices() {
+        var provisioningThreads = Integer.parseInt(getProperty(PROPERTY_PROVISIONING_THREADS, "16"));
+        provisioningExecutor = Executors.newFixedThreadPool(provisioningThreads, r -> {
+            var thread = new Thread(r, "kubernetes-provisioning");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        var identifierLabel = environment.getProperty("proxy.identifier-label", "comp.polyu.edu.hk/vl-identifier");
+        var identifierValue = environment.getProperty("proxy.identifier-value", "default-identifier");
+        resourceCache = new KubernetesResourceCache(kubeClient, Map.of(identifierLabel, identifierValue, LABEL_BOOT_ID, bootId), this::onPodFailed, this::onPodReady);
+        resourceCache.start();
+        log.info("Enable failed and unknown phase pods detection & cleaning");
+
+        var reconcileInterval = Long.parseLong(getProperty(PROPERTY_POOL_RECONCILE_INTERVAL, "15000"));
+        podPool = new KubernetesPodPool(kubeClient, resourceCache,
+                () -> proxyService.getProxySpecs(null, true),
+                baseSpec -> proxyService.resolveProxySpec(baseSpec, null, null),
+                this::createIdlePod, objectMapper, meterRegistry, reconcileInterval);
+        podPool.start();
     }
 
     @Override
     protected ContainerGroup startContainer(List<ContainerSpec> specs, Proxy proxy) throws Exception {
+        var launchStart = System.nanoTime();
         var containerGroup = new ContainerGroup();
         containerGroup.setSpecs(specs);
         containerGroup.setId(UUID.randomUUID().toString());
@@ -125,7 +198,7 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
         var kubeNamespace = getProperty(PROPERTY_NAMESPACE, DEFAULT_NAMESPACE);
         var namespacePrefix = getProperty(PROPERTY_NAMESPACE_PREFIX);
-        var uidNamespace = Boolean.parseBoolean(getProperty(PROPERTY_UID_NAMESPACE, "false"));
+        var uidNamespace = isUidNamespace();
         log.debug("UserID Namespace Mode: {}", uidNamespace);
         if (uidNamespace) {
             kubeNamespace = Strings.isNullOrEmpty(namespacePrefix) ? proxy.getUserId() : String.format("%s-%s", namespacePrefix, proxy.getUserId());
@@ -134,14 +207,6 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
         var apiVersion = getProperty(PROPERTY_API_VERSION, DEFAULT_API_VERSION);
 
-        var imagePullSecrets = Optional.ofNullable(getProperty(PROPERTY_IMG_PULL_SECRET))
-                .map(List::of)
-                .or(() -> Optional.ofNullable(getProperty(PROPERTY_IMG_PULL_SECRETS)).map(x -> x.split(",")).map(List::of))
-                .orElse(List.of())
-                .stream().map(LocalObjectReference::new).collect(Collectors.toList());
-
-        log.debug("imagePullSecrets: {}", imagePullSecrets);
-
         var specLabels = proxy.getSpec().getLabels();
 
         log.debug("all labels (map): {}", specLabels);
@@ -157,11 +222,120 @@ public class KubernetesBackend extends AbstractContainerBackend {
                 .filter(p -> !p.getValue().getFirst())
                 .collect(Collectors.toMap(Map.Entry::getKey, m -> m.getValue().getSecond(), (v1, v2) -> v2));
 
+        // Try to bind a pre-warmed pod. Pods in a user namespace, pods with admin-only mounts and pods that need
+        // user credentials from the authentication backend in their environment are never pooled.
+        var pooledPod = uidNamespace || (proxy.isAdmin() && specs.stream().anyMatch(x -> !x.getAdminVolumeMounts().isEmpty())) || (authBackend != null && authBackend.customizesContainerEnv()) ? null
+                : podPool.acquire(proxy.getSpec(), runtimeLabels, runtimeAnnotations);
+
+        String effectiveKubeNamespace;
+        var plan = new ProvisioningPlan(provisioningExecutor, proxy.getStartupTimings());
+        CompletableFuture<Pod> createdPod;
+        CompletableFuture<Pod> readyPod;
+        List<CompletableFuture<PersistentVolumeClaim>> pvcs = new ArrayList<>();
+        if (pooledPod != null) {
+            // the pod name is derived from the id of the container group, see createIdlePod
+            containerGroup.setId(pooledPod.getMetadata().getName().substring("vl-pod-".length()));
+            containerGroup.getParameters().put(PARAM_CONTAINER, pooledPod.getSpec().getContainers());
+            effectiveKubeNamespace = pooledPod.getMetadata().getNamespace();
+            containerGroup.getParameters().put(PARAM_NAMESPACE, effectiveKubeNamespace);
+            createdPod = CompletableFuture.completedFuture(pooledPod);
+            readyPod = createdPod;
+            log.debug("pooled pod bound");
+        } else {
+            var patchedPod = buildPod(specs, proxy, containerGroup.getId(), kubeNamespace, runtimeLabels, runtimeAnnotations, proxy.isAdmin());
+            containerGroup.getParameters().put(PARAM_CONTAINER, patchedPod.getSpec().getContainers());
+            effectiveKubeNamespace = patchedPod.getMetadata().getNamespace(); // use the namespace of the patched Pod, in case the patch changes the namespace.
+            containerGroup.getParameters().put(PARAM_NAMESPACE, effectiveKubeNamespace);
+
+            // the PVCs and additional manifests are independent of each other, the pod depends on all of them
+            var prerequisites = new ArrayList<CompletableFuture<?>>();
+            SpecExpressionContext context = SpecExpressionContext.create(proxy, proxy.getSpec());
+            for (var pvc : proxy.getSpec().getKubernetes().getPersistentVolumeClaims()) {
+                PersistentVolumeClaim expressionPVC;
+                try {
+                    expressionPVC = getTemplate(pvc, () -> ManifestTemplate.fromObject(pvc, objectMapper))
+                            .render(expression -> expressionResolver.evaluateToString(expression, context), objectMapper, PersistentVolumeClaim.class);
+                } catch (Exception e) {
+                    log.error(e);
+                    continue;
+                }
+                var labelCache = expressionPVC.getMetadata().getLabels();
+                if (labelCache == null) {
+                    labelCache = new HashMap<>();
+                }
+                labelCache.putAll(specLabels);
+                labelCache.putAll(runtimeLabels);
+                labelCache.put(identifierLabel, identifierValue);
+                labelCache.put(LABEL_BOOT_ID, bootId);
+                expressionPVC.getMetadata().setLabels(labelCache);
+                var createdPVC = plan.submit("pvc/" + expressionPVC.getMetadata().getName(), () -> {
+                    try {
+                        return kubeClient.persistentVolumeClaims().inNamespace(effectiveKubeNamespace).createOrReplace(expressionPVC);
+                    } catch (Exception e) {
+                        log.error(e);
+                        return null;
+                    }
+                }, List.of());
+                pvcs.add(createdPVC);
+                prerequisites.add(createdPVC);
+            }
+
+            // create additional manifests -> use the effective (i.e. patched) namespace if no namespace is provided
+            for (var manifest : getAdditionManifestsAsObjects(proxy, effectiveKubeNamespace)) {
+                prerequisites.add(plan.submit("manifest/" + manifest.getKind() + "/" + manifest.getMetadata().getName(),
+                        () -> createAdditionalManifest(manifest, specLabels, runtimeLabels), List.of()));
+            }
+
+            createdPod = plan.submit("pod", () -> kubeClient.pods().inNamespace(effectiveKubeNamespace).create(patchedPod), prerequisites);
+            readyPod = plan.submitAsync("podReady", () -> waitUntilPodReadyOrDie(createdPod.join()), List.of(createdPod));
+        }
+
+        // If SP runs inside the cluster, it can access pods directly and doesn't need any port publishing service.
+        // The service only selects the pod by its labels, so it can be created while the pod is starting.
+        var createdService = plan.submit("service",
+                () -> makeServiceIfNecessary(specs, proxy, containerGroup, apiVersion, effectiveKubeNamespace, specLabels, runtimeLabels),
+                List.of(createdPod));
+        var readyService = plan.submitAsync("serviceReady", () -> waitUntilServiceReady(createdService.join(), effectiveKubeNamespace), List.of(createdService));
+        plan.await();
+
+        var createdPVCs = pvcs.stream().map(CompletableFuture::join).filter(Objects::nonNull).collect(Collectors.toList());
+        containerGroup.getParameters().put(PARAM_PVC, createdPVCs);
+        log.debug("created {} PVCs", createdPVCs.size());
+        containerGroup.getParameters().put(PARAM_POD, readyPod.join());
+        log.debug("pod registered");
+        var service = readyService.join();
+        containerGroup.getParameters().put(PARAM_SERVICE, service);
+        log.debug("service registered");
+
+        calculateProxyRoutes(specs, proxy, containerGroup, service);
+
+        meterRegistry.timer("podLaunchTime", "spec.id", proxy.getSpec().getId(), "pooled", String.valueOf(pooledPod != null))
+                .record(System.nanoTime() - launchStart, TimeUnit.NANOSECONDS);
+        return containerGroup;
+    }
+
+    /**
+     * Build the manifest of the pod of a proxy, including the pod patches of its spec.
+     */
+    private Pod buildPod(List<ContainerSpec> specs, Proxy proxy, String containerGroupId, String kubeNamespace, Map<String, String> runtimeLabels, Map<String, String> runtimeAnnotations, boolean withAdminVolumeMounts) throws Exception {
+        var identifierLabel = environment.getProperty("proxy.identifier-label", "comp.polyu.edu.hk/vl-identifier");
+        var identifierValue = environment.getProperty("proxy.identifier-value", "default-identifier");
+        var apiVersion = getProperty(PROPERTY_API_VERSION, DEFAULT_API_VERSION);
+
+        var imagePullSecrets = Optional.ofNullable(getProperty(PROPERTY_IMG_PULL_SECRET))
+                .map(List::of)
+                .or(() -> Optional.ofNullable(getProperty(PROPERTY_IMG_PULL_SECRETS)).map(x -> x.split(",")).map(List::of))
+                .orElse(List.of())
+                .stream().map(LocalObjectReference::new).collect(Collectors.toList());
+
+        log.debug("imagePullSecrets: {}", imagePullSecrets);
+
         var objectMetaBuilder = new ObjectMetaBuilder()
                 .withNamespace(kubeNamespace)
-                .withName("vl-pod-" + containerGroup.getId())
-                .addToLabels(specLabels)
+                .withName("vl-pod-" + containerGroupId)
+                .addToLabels(proxy.getSpec().getLabels())
                 .addToLabels(identifierLabel, identifierValue)
+                .addToLabels(LABEL_BOOT_ID, bootId)
                 .addToLabels(runtimeLabels)
                 .addToAnnotations(runtimeAnnotations);
 
@@ -172,8 +346,8 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
         var containers = specs.stream()
                 .map(unchecked(spec -> {
-                    var volumeMounts = spec.getVolumeMounts();
-                    if (proxy.isAdmin()) {
+                    var volumeMounts = new ArrayList<>(spec.getVolumeMounts());
+                    if (withAdminVolumeMounts) {
                         var adminVolumeMounts = spec.getAdminVolumeMounts();
                         if (!adminVolumeMounts.isEmpty()) {
                             volumeMounts.addAll(adminVolumeMounts);
@@ -234,13 +408,11 @@ public class KubernetesBackend extends AbstractContainerBackend {
                     return containerBuilder.build();
                 }))
                 .collect(Collectors.toList());
-        containerGroup.getParameters().put(PARAM_CONTAINER, containers);
         SpecExpressionContext context = SpecExpressionContext.create(proxy, proxy.getSpec());
         List<Volume> volumes = proxy.getSpec().getKubernetes().getVolumes().stream().map(volume -> {
             try {
-                String volumeString = objectMapper.writeValueAsString(volume);
-                volumeString = expressionResolver.evaluateToString(volumeString, context);
-                return objectMapper.readValue(volumeString, Volume.class);
+                return getTemplate(volume, () -> ManifestTemplate.fromObject(volume, objectMapper))
+                        .render(expression -> expressionResolver.evaluateToString(expression, context), objectMapper, Volume.class);
             } catch (Exception e) {
                 log.error(e);
                 return null;
@@ -266,79 +438,64 @@ public class KubernetesBackend extends AbstractContainerBackend {
                 .withSpec(podSpec)
                 .build();
 
-        JsonPatch patch = readPatchFromSpec(proxy);
-        Pod patchedPod = podPatcher.patchWithDebug(startupPod, patch);
-        final String effectiveKubeNamespace = patchedPod.getMetadata().getNamespace(); // use the namespace of the patched Pod, in case the patch changes the namespace.
-        containerGroup.getParameters().put(PARAM_NAMESPACE, effectiveKubeNamespace);
-
-        var pvcs = proxy.getSpec().getKubernetes().getPersistentVolumeClaims().stream().map(pvc -> {
-            try {
-                String pvcString = objectMapper.writeValueAsString(pvc);
-                pvcString = expressionResolver.evaluateToString(pvcString, context);
-                var expressionPVC = objectMapper.readValue(pvcString, PersistentVolumeClaim.class);
-                var labelCache = expressionPVC.getMetadata().getLabels();
-                if (labelCache == null) {
-                    labelCache = new HashMap<>();
-                }
-                labelCache.putAll(specLabels);
-                labelCache.putAll(runtimeLabels);
-                labelCache.put(identifierLabel, identifierValue);
-                expressionPVC.getMetadata().setLabels(labelCache);
-                return kubeClient.persistentVolumeClaims().inNamespace(effectiveKubeNamespace).createOrReplace(expressionPVC);
-            } catch (Exception e) {
-                log.error(e);
-                return null;
-            }
-        }).collect(Collectors.toList());
-        containerGroup.getParameters().put(PARAM_PVC, pvcs.stream().filter(Objects::nonNull).collect(Collectors.toList()));
-        log.debug("created {} PVCs", pvcs.stream().filter(Objects::nonNull).count());
-
-        // create additional manifests -> use the effective (i.e. patched) namespace if no namespace is provided
-        createAdditionalManifests(proxy, effectiveKubeNamespace, specLabels, runtimeLabels);
-
-        var startedPod = kubeClient
-                .pods()
-                .inNamespace(effectiveKubeNamespace)
-                .create(patchedPod);
-
-        log.debug("pod started");
-
-        var pod = waitUntilPodReadyOrDie(startedPod);
-        containerGroup.getParameters().put(PARAM_POD, pod);
-        log.debug("pod registered");
-
-        // If SP runs inside the cluster, it can access pods directly and doesn't need any port publishing service.
-        var service = makeServiceIfNecessary(specs, proxy, containerGroup, apiVersion, effectiveKubeNamespace, specLabels, runtimeLabels);
-        containerGroup.getParameters().put(PARAM_SERVICE, service);
-
-        log.debug("service registered");
+        JsonNode patch = readPatchFromSpec(proxy);
+        return podPatcher.patchWithDebug(startupPod, patch);
+    }
 
-        calculateProxyRoutes(specs, proxy, containerGroup, service);
+    /**
+     * Create an idle pod for the pool of a spec. The pod has no user, so its environment holds no user name, groups
+     * or credentials: the labels and annotations of the proxy are only added when it is bound, and are exposed to the
+     * containers through the downward API.
+     */
+    private void createIdlePod(ProxySpec spec, Map<String, String> poolLabels) throws Exception {
+        var containerGroupId = UUID.randomUUID().toString();
+        var idleProxy = new Proxy();
+        idleProxy.setId(containerGroupId);
+        idleProxy.setSpec(spec);
+
+        var pod = buildPod(spec.getContainerSpecs(), idleProxy, containerGroupId, getProperty(PROPERTY_NAMESPACE, DEFAULT_NAMESPACE), poolLabels, Map.of(), false);
+        pod.getSpec().getVolumes().add(new VolumeBuilder()
+                .withName(POD_INFO_VOLUME)
+                .withNewDownwardAPI()
+                .addNewItem().withPath("labels").withNewFieldRef().withFieldPath("metadata.labels").endFieldRef().endItem()
+                .addNewItem().withPath("annotations").withNewFieldRef().withFieldPath("metadata.annotations").endFieldRef().endItem()
+                .endDownwardAPI()
+                .build());
+        for (var container : pod.getSpec().getContainers()) {
+            container.getVolumeMounts().add(new VolumeMountBuilder().withName(POD_INFO_VOLUME).withMountPath(POD_INFO_PATH).withReadOnly(true).build());
+        }
+        kubeClient.pods().inNamespace(pod.getMetadata().getNamespace()).create(pod);
+    }
 
-        return containerGroup;
+    private boolean isUidNamespace() {
+        return Boolean.parseBoolean(getProperty(PROPERTY_UID_NAMESPACE, "false"));
     }
 
-    private void createAdditionalManifests(Proxy proxy, String namespace, Map<String, String> specLabels, Map<String, String> runtimeLabels) {
-        for (HasMetadata fullObject : getAdditionManifestsAsObjects(proxy, namespace)) {
-            if (kubeClient.resource(fullObject).fromServer().get() == null) {
-                String identifierLabel = environment.getProperty("proxy.identifier-label", "comp.polyu.edu.hk/vl-identifier");
-                String identifierValue = environment.getProperty("proxy.identifier-value", "default-identifier");
-                ObjectMeta cache = fullObject.getMetadata();
-                Map<String, String> labels = cache.getLabels();
-                if (labels == null) {
-                    labels = new HashMap<>();
-                }
-                labels.put(identifierLabel, identifierValue);
-                labels.putAll(specLabels);
-                labels.putAll(runtimeLabels);
-                cache.setLabels(labels);
-                fullObject.setMetadata(cache);
-                kubeClient.resource(fullObject).createOrReplace();
-            }
+    private HasMetadata createAdditionalManifest(HasMetadata fullObject, Map<String, String> specLabels, Map<String, String> runtimeLabels) {
+        if (kubeClient.resource(fullObject).fromServer().get() != null) {
+            return fullObject;
+        }
+        String identifierLabel = environment.getProperty("proxy.identifier-label", "comp.polyu.edu.hk/vl-identifier");
+        String identifierValue = environment.getProperty("proxy.identifier-value", "default-identifier");
+        ObjectMeta cache = fullObject.getMetadata();
+        Map<String, String> labels = cache.getLabels();
+        if (labels == null) {
+            labels = new HashMap<>();
         }
+        labels.put(identifierLabel, identifierValue);
+        labels.put(LABEL_BOOT_ID, bootId);
+        labels.putAll(specLabels);
+        labels.putAll(runtimeLabels);
+        cache.setLabels(labels);
+        fullObject.setMetadata(cache);
+        return kubeClient.resource(fullObject).createOrReplace();
     }
 
-    private JsonPatch readPatchFromSpec(Proxy proxy) throws JsonProcessingException {
+    /**
+     * @return The pod patch of the spec, with its expressions resolved. The patch is parsed once per configuration,
+     * see {@link #getTemplate(Object, Callable)}.
+     */
+    private JsonNode readPatchFromSpec(Proxy proxy) throws JsonProcessingException {
         String patchAsString = proxy.getSpec().getKubernetes().getPodPatches();
         if (patchAsString == null) {
             return null;
@@ -346,30 +503,31 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
         // resolve expressions
         SpecExpressionContext context = SpecExpressionContext.create(proxy, proxy.getSpec());
-        String expressionAwarePatch = expressionResolver.evaluateToString(patchAsString, context);
+        return getTemplate(patchAsString, () -> ManifestTemplate.fromDocument(patchAsString, YAML_MAPPER))
+                .render(expression -> expressionResolver.evaluateToString(expression, context), YAML_MAPPER);
+    }
 
-        ObjectMapper yamlReader = new ObjectMapper(new YAMLFactory());
-        yamlReader.registerModule(new JSR353Module());
-        return yamlReader.readValue(expressionAwarePatch, JsonPatch.class);
+    private ManifestTemplate getTemplate(Object source, Callable<ManifestTemplate> compiler) throws JsonProcessingException {
+        try {
+            return manifestTemplates.get(source, compiler);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof JsonProcessingException) throw (JsonProcessingException) e.getCause();
+            throw new VLabControllerException("Cannot parse template of the spec", e.getCause());
+        }
     }
 
 
-    private Pod waitUntilPodReadyOrDie(Pod startedPod) {
+    private CompletableFuture<Pod> waitUntilPodReadyOrDie(Pod startedPod) {
         var totalWaitMs = Integer.parseInt(environment.getProperty("proxy.kubernetes.pod-wait-time", "60000"));
-        var maxTries = totalWaitMs / 1000;
-        boolean result = Retrying.retry(i -> {
-            var pod = kubeClient.resource(startedPod).fromServer().get();
-            if (!Readiness.isPodReady(pod)) {
-                if (i > 1)
-                    log.debug(String.format("Container not ready yet, trying again (%d/%d)", i, maxTries));
-                return false;
+        var readyPod = resourceCache.waitForPodReady(startedPod.getMetadata().getNamespace(), startedPod.getMetadata().getName());
+        return readyPod.orTimeout(totalWaitMs, TimeUnit.MILLISECONDS).handle((pod, throwable) -> {
+            if (throwable == null) return pod;
+            var cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+            if (cause instanceof TimeoutException) {
+                throw new VLabControllerException("Container did not become ready in time");
             }
-            return true;
-        }, maxTries, 1000);
-        if (!result){
-            throw new VLabControllerException("Container did not become ready in time");
-        }
-        return kubeClient.resource(startedPod).fromServer().get();
+            throw new VLabControllerException("Container failed to start", cause);
+        });
     }
 
     // Calculate proxy routes for all configured ports.
@@ -405,6 +563,7 @@ public class KubernetesBackend extends AbstractContainerBackend {
                     .withNewMetadata()
                     .withName("vl-service-" + containerGroup.getId())
                     .addToLabels(identifierLabel, identifierValue)
+                    .addToLabels(LABEL_BOOT_ID, bootId)
                     .addToLabels(specLabels)
                     .addToLabels(runtimeLabels)
                     .endMetadata()
@@ -414,15 +573,28 @@ public class KubernetesBackend extends AbstractContainerBackend {
                     .withPorts(servicePorts)
                     .endSpec()
                     .build();
-            kubeClient.services().inNamespace(effectiveKubeNamespace).createOrReplace(startupService);
-            // Workaround: waitUntilReady appears to be buggy.
-            Retrying.retry(i -> isServiceReady(kubeClient.resource(startupService).fromServer().get()), 60, 1000);
-
-            service = kubeClient.resource(startupService).fromServer().get();
+            service = kubeClient.services().inNamespace(effectiveKubeNamespace).createOrReplace(startupService);
         }
         return service;
     }
 
+    /**
+     * @return A future that completes with the service once it is ready, without holding a provisioning thread while
+     * waiting. If the service does not become ready in time, the future completes with its current state.
+     */
+    private CompletableFuture<Service> waitUntilServiceReady(Service service, String effectiveKubeNamespace) {
+        if (service == null) return CompletableFuture.completedFuture(null);
+        var name = service.getMetadata().getName();
+        return resourceCache.waitForService(effectiveKubeNamespace, name, this::isServiceReady)
+                .orTimeout(SERVICE_READY_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .handle((readyService, throwable) -> readyService != null ? CompletableFuture.completedFuture(readyService)
+                        : CompletableFuture.supplyAsync(() -> {
+                            log.warn("Service {} did not become ready in time", name);
+                            return kubeClient.services().inNamespace(effectiveKubeNamespace).withName(name).get();
+                        }, provisioningExecutor))
+                .thenCompose(Function.identity());
+    }
+
     /**
      * Converts the additional manifests of the spec into HasMetadata objects.
      * When the resource has no namespace definition, the provided namespace
@@ -433,16 +605,17 @@ public class KubernetesBackend extends AbstractContainerBackend {
 
         var result = new ArrayList<HasMetadata>();
         for (var manifest : proxy.getSpec().getKubernetes().getAdditionalManifests()) {
-            var expressionManifest = expressionResolver.evaluateToString(manifest, context);
-            HasMetadata object = Serialization.unmarshal(new ByteArrayInputStream(expressionManifest.getBytes())); // used to determine whether the manifest has specified a namespace
-
-            var fullObject = kubeClient.load(new ByteArrayInputStream(expressionManifest.getBytes())).get().get(0);
-            if (object.getMetadata().getNamespace() == null) {
-                // the load method (in some cases) automatically sets a namespace when no namespace is provided
-                // therefore we overwrite this namespace with the namespace of the pod.
-                fullObject.getMetadata().setNamespace(namespace);
+            try {
+                var tree = getTemplate(manifest, () -> ManifestTemplate.fromDocument(manifest, YAML_MAPPER))
+                        .render(expression -> expressionResolver.evaluateToString(expression, context), YAML_MAPPER);
+                var fullObject = (HasMetadata) Serialization.jsonMapper().treeToValue(tree, KubernetesResource.class);
+                if (fullObject.getMetadata().getNamespace() == null) {
+                    fullObject.getMetadata().setNamespace(namespace);
+                }
+                result.add(fullObject);
+            } catch (JsonProcessingException e) {
+                throw new VLabControllerException("Invalid additional manifest in spec " + proxy.getSpec().getId(), e);
             }
-            result.add(fullObject);
         }
         return result;
     }
@@ -514,69 +687,87 @@ public class KubernetesBackend extends AbstractContainerBackend {
     }
 
     @Override
-    protected String getPropertyPrefix() {
-        return PROPERTY_PREFIX;
-    }
-
-    public void cleanBeforeStart() {
-        var identifierLabel = environment.getProperty("proxy.identifier-label", "comp.polyu.edu.hk/vl-identifier");
-        var identifierValue = environment.getProperty("proxy.identifier-value", "default-identifier");
-        var orphanPods = kubeClient.pods().inAnyNamespace().withLabel(identifierLabel, identifierValue).list();
-        if (orphanPods != null) {
-            for (var pod : orphanPods.getItems()) {
-                var namespace = pod.getMetadata().getNamespace();
-                kubeClient.pods().inNamespace(namespace).delete(pod);
-            }
-            log.info("Cleaned {} pods", orphanPods.getItems().size());
+    public CompletableFuture<Boolean> pumpOutput(Proxy proxy, LogPump pump, OutputStream stdOut, OutputStream stdErr) {
+        var logClient = getLogClient(pump);
+        if (logClient == null) return null;
+        var containerGroup = proxy.getContainerGroup();
+        var kubeNamespace = (String) containerGroup.getParameters().get(PARAM_NAMESPACE);
+        if (kubeNamespace == null) {
+            kubeNamespace = getProperty(PROPERTY_NAMESPACE, DEFAULT_NAMESPACE);
         }
-        var orphanServices = kubeClient.services().inAnyNamespace().withLabel(identifierLabel, identifierValue).list();
-        if (orphanServices != null) {
-            for (var service : orphanServices.getItems()) {
-                var namespace = service.getMetadata().getNamespace();
-                kubeClient.services().inNamespace(namespace).delete(service);
+        var subscriber = pump.subscriber(proxy, stdOut);
+        var followed = new AtomicBoolean();
+        HttpResponse.BodyHandler<Void> bodyHandler = info -> {
+            if (info.statusCode() < 400) {
+                followed.set(true);
+                return subscriber;
             }
-            log.info("Cleaned " + orphanServices.getItems().size() + " services");
-        }
-        var orphanPVCs = kubeClient.persistentVolumeClaims().inAnyNamespace().withLabel(identifierLabel, identifierValue).list();
-        if (orphanPVCs != null) {
-            for (var pvc : orphanPVCs.getItems()) {
-                var namespace = pvc.getMetadata().getNamespace();
-                kubeClient.persistentVolumeClaims().inNamespace(namespace).delete(pvc);
+            log.warn(String.format("Failed to follow output of proxy %s: status code %d", proxy.getId(), info.statusCode()));
+            return HttpResponse.BodySubscribers.replacing(null);
+        };
+        return logClient.followLog(kubeNamespace, "vl-pod-" + containerGroup.getId(), bodyHandler).handle((response, throwable) -> {
+            if (followed.get()) {
+                if (throwable != null) throw new CompletionException(throwable);
+                return true;
+            }
+            // e.g. the credentials or the certificate of the API server were rejected: no output was received yet
+            if (throwable != null) log.warn(String.format("Failed to follow output of proxy %s: %s", proxy.getId(), throwable));
+            pump.stop(proxy.getId());
+            return false;
+        });
+    }
+
+    private KubernetesLogClient getLogClient(LogPump pump) {
+        if (logClient == null) {
+            synchronized (this) {
+                if (logClient == null) {
+                    if (!KubernetesLogClient.supports(kubeClient.getConfiguration())) {
+                        log.debug("The configuration of the Kubernetes client needs log watches to follow container output");
+                        return null;
+                    }
+                    try {
+                        logClient = new KubernetesLogClient(kubeClient.getConfiguration(), pump.getExecutor());
+                    } catch (Exception e) {
+                        log.warn("Cannot follow container output asynchronously, falling back to log watches", e);
+                        return null;
+                    }
+                }
             }
-            log.info("Cleaned " + orphanPVCs.getItems().size() + " PersistentVolumeClaims");
         }
+        return logClient;
+    }
+
+    @Override
+    protected String getPropertyPrefix() {
+        return PROPERTY_PREFIX;
     }
 
-    public PodList getFailedAndUnknownPods() {
+    /**
+     * Start removing the objects left behind by previous runs of the controller, in the background.
+     */
+    public CompletableFuture<Void> cleanBeforeStart() {
         var identifierLabel = environment.getProperty("proxy.identifier-label", "comp.polyu.edu.hk/vl-identifier");
         var identifierValue = environment.getProperty("proxy.identifier-value", "default-identifier");
-        return kubeClient.pods().inAnyNamespace()
-                .withLabel(identifierLabel, identifierValue)
-                .withoutField("status.phase", "Pending")
-                .withoutField("status.phase", "Running")
-                .withoutField("status.phase", "Succeeded")
-                .list();
+        var parallelism = Integer.parseInt(getProperty(PROPERTY_CLEANUP_THREADS, "8"));
+        return new KubernetesCleaner(kubeClient, Map.of(identifierLabel, identifierValue), LABEL_BOOT_ID, bootId, parallelism, meterRegistry).start();
     }
 
-    private class ErrorPodsCleaner implements Runnable {
-        @Override
-        public void run() {
-            log.info("Enable failed and unknown phase pods detection & cleaning");
-            while (true) {
-                var failedPods = getFailedAndUnknownPods();
-                if (failedPods != null && !failedPods.getItems().isEmpty()) {
-                    for (var pod : failedPods.getItems()) {
-                        var proxyId = pod.getMetadata().getLabels().get("comp.polyu.edu.hk/vl-proxy-id");
-                        proxyService.stopProxy(proxyService.getProxy(proxyId), true, true, 0);
-                        log.error("Cleaned error proxy {}", proxyId);
-                    }
-                }
-                try {
-                    Thread.sleep(30000);
-                } catch (Exception e) {
-                    log.error(e);
-                }
-            }
-        }
+    private void onPodFailed(Pod pod) {
+        var labels = pod.getMetadata().getLabels();
+        var proxyId = labels == null ? null : labels.get(RUNTIME_LABEL_PROXY_ID);
+        var proxy = proxyService.getProxy(proxyId);
+        // a proxy that is still starting is handled by waitUntilPodReadyOrDie
+        if (proxy == null || proxy.getStatus() != ProxyStatus.Up) return;
+        proxyService.stopProxy(proxy, true, true, 0);
+        log.error("Cleaned error proxy {} (pod phase: {})", proxyId, pod.getStatus().getPhase());
+    }
+
+    private void onPodReady(Pod pod) {
+        var labels = pod.getMetadata().getLabels();
+        var proxyId = labels == null ? null : labels.get(RUNTIME_LABEL_PROXY_ID);
+        var proxy = proxyId == null ? null : proxyService.getProxy(proxyId);
+        // wake up the test of a starting proxy, e.g. after a readiness probe of the pod succeeded
+        if (proxy == null || proxy.getStatus() != ProxyStatus.Starting) return;
+        testStrategy.notifyTargetReady(proxy);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,176 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.KubernetesResourceList;
+import io.fabric8.kubernetes.client.HttpClientAware;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.dsl.MixedOperation;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Removes the pods, services and persistent volume claims left behind by previous runs of the VLab controller.
+ * </p><p>
+ * Every object created by a controller carries the boot id of that controller, so the cleanup can run in the
+ * background while new proxies are started: it only selects objects with the identifier labels and a different
+ * (or no) boot id. The namespaces holding such objects are discovered with one list call per kind, after which
+ * every namespace is cleaned on a bounded executor with one DeleteCollection call per kind.
+ * If the API server refuses a DeleteCollection (e.g. services before Kubernetes 1.23), the objects of that kind
+ * are deleted one by one instead.
+ * </p>
+ */
+class KubernetesCleaner {
+
+    enum Kind {
+        POD("pods", KubernetesClient::pods),
+        SERVICE("services", KubernetesClient::services),
+        PERSISTENT_VOLUME_CLAIM("persistentvolumeclaims", KubernetesClient::persistentVolumeClaims);
+
+        private final String resource;
+        private final Function<KubernetesClient, MixedOperation<? extends HasMetadata, ? extends KubernetesResourceList<? extends HasMetadata>, ?>> operation;
+
+        Kind(String resource, Function<KubernetesClient, MixedOperation<? extends HasMetadata, ? extends KubernetesResourceList<? extends HasMetadata>, ?>> operation) {
+            this.resource = resource;
+            this.operation = operation;
+        }
+    }
+
+    private final Logger log = LogManager.getLogger(KubernetesCleaner.class);
+
+    private final KubernetesClient kubeClient;
+    private final Map<String, String> labels;
+    private final String bootLabel;
+    private final String bootId;
+    private final int parallelism;
+    private final MeterRegistry registry;
+
+    KubernetesCleaner(KubernetesClient kubeClient, Map<String, String> labels, String bootLabel, String bootId, int parallelism, MeterRegistry registry) {
+        this.kubeClient = kubeClient;
+        this.labels = labels;
+        this.bootLabel = bootLabel;
+        this.bootId = bootId;
+        this.parallelism = parallelism;
+        this.registry = registry;
+    }
+
+    /**
+     * Start the cleanup on a background thread.
+     *
+     * @return A future that completes when all namespaces are cleaned.
+     */
+    public CompletableFuture<Void> start() {
+        var result = new CompletableFuture<Void>();
+        var thread = new Thread(() -> {
+            try {
+                clean();
+                result.complete(null);
+            } catch (Throwable t) {
+                log.error("Error while cleaning up orphan objects", t);
+                result.completeExceptionally(t);
+            }
+        }, "kubernetes-cleaner");
+        thread.setDaemon(true);
+        thread.start();
+        return result;
+    }
+
+    void clean() {
+        var startTime = System.currentTimeMillis();
+
+        // namespace -> number of orphans per kind
+        Map<String, Map<Kind, Integer>> orphans = new TreeMap<>();
+        for (var kind : Kind.values()) {
+            for (var object : kind.operation.apply(kubeClient).inAnyNamespace().withLabels(labels).withoutLabel(bootLabel, bootId).list().getItems()) {
+                orphans.computeIfAbsent(object.getMetadata().getNamespace(), ns -> new EnumMap<>(Kind.class)).merge(kind, 1, Integer::sum);
+            }
+        }
+        if (orphans.isEmpty()) {
+            log.info("No orphan objects to clean");
+            return;
+        }
+        log.info("Cleaning orphan objects in {} namespaces", orphans.size());
+
+        var executor = Executors.newFixedThreadPool(Math.min(parallelism, orphans.size()), r -> {
+            var thread = new Thread(r, "kubernetes-cleaner-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            var done = new AtomicInteger();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            orphans.forEach((namespace, counts) -> futures.add(CompletableFuture.runAsync(() -> {
+                cleanNamespace(namespace, counts);
+                log.info("Cleaned namespace {} ({}/{}): {}", namespace, done.incrementAndGet(), orphans.size(), counts);
+            }, executor).exceptionally(t -> {
+                log.warn("Failed to clean namespace {} ({}/{})", namespace, done.incrementAndGet(), orphans.size(), t);
+                return null;
+            })));
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        var totals = orphans.values().stream()
+                .flatMap(counts -> counts.entrySet().stream())
+                .collect(Collectors.groupingBy(Map.Entry::getKey, () -> new EnumMap<>(Kind.class), Collectors.summingInt(Map.Entry::getValue)));
+        log.info("Cleaned {} in {} ms", totals, System.currentTimeMillis() - startTime);
+    }
+
+    private void cleanNamespace(String namespace, Map<Kind, Integer> counts) {
+        counts.forEach((kind, count) -> {
+            if (!deleteCollection(namespace, kind)) {
+                kind.operation.apply(kubeClient).inNamespace(namespace).withLabels(labels).withoutLabel(bootLabel, bootId).delete();
+            }
+            registry.counter("kubernetesCleanupObjects", "kind", kind.resource).increment(count);
+        });
+    }
+
+    /**
+     * Delete all orphans of a kind in a namespace with a single DeleteCollection call.
+     * The fabric8 client of this version lists and deletes the objects one by one instead, hence the raw request.
+     *
+     * @return False if the call was refused, in which case the objects must be deleted one by one.
+     */
+    private boolean deleteCollection(String namespace, Kind kind) {
+        if (!(kubeClient instanceof HttpClientAware)) return false;
+        var url = HttpUrl.get(kubeClient.getMasterUrl().toString()).newBuilder()
+                .addPathSegments("api/v1/namespaces")
+                .addPathSegment(namespace)
+                .addPathSegment(kind.resource)
+                .addQueryParameter("labelSelector", labelSelector())
+                .build();
+        var request = new Request.Builder().url(url).delete().build();
+        try (Response response = ((HttpClientAware) kubeClient).getHttpClient().newCall(request).execute()) {
+            if (response.isSuccessful()) return true;
+            log.debug("DeleteCollection of {} in namespace {} refused: {}", kind.resource, namespace, response.code());
+            return false;
+        } catch (IOException | KubernetesClientException e) {
+            log.debug("DeleteCollection of {} in namespace {} failed: {}", kind.resource, namespace, e.getMessage());
+            return false;
+        }
+    }
+
+    String labelSelector() {
+        var selector = new StringBuilder();
+        labels.forEach((key, value) -> selector.append(key).append('=').append(value).append(','));
+        return selector.append(bootLabel).append("!=").append(bootId).toString();
+    }
+}
@@ -0,0 +1,82 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.internal.SSLUtils;
+
+import javax.net.ssl.SSLContext;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * Follows the logs of pods with an asynchronous HTTP client, as an alternative to the log watches of the fabric8
+ * client, which need a thread blocking on every log stream.
+ * </p><p>
+ * The client connects to the API server with the master URL, credentials and certificates of the configuration of the
+ * fabric8 client, and runs on the given executor. Configurations that this client cannot honour (see
+ * {@link #supports(Config)}) keep using the log watches.
+ * </p>
+ */
+class KubernetesLogClient {
+
+    private final Config config;
+    private final HttpClient httpClient;
+
+    KubernetesLogClient(Config config, Executor executor) throws Exception {
+        this.config = config;
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(SSLUtils.keyManagers(config), SSLUtils.trustManagers(config), null);
+        this.httpClient = HttpClient.newBuilder()
+                .executor(executor)
+                .sslContext(sslContext)
+                .build();
+    }
+
+    /**
+     * @return Whether the connection to the API server can be made as configured: the JDK client can neither disable
+     * the verification of the hostname per client, nor go through the HTTP(S) proxies of the configuration.
+     */
+    static boolean supports(Config config) {
+        return !config.isDisableHostnameVerification() && config.getHttpProxy() == null && config.getHttpsProxy() == null;
+    }
+
+    /**
+     * Follow the log of a pod, from the start of its container.
+     *
+     * @param bodyHandler Receives the log as the body of the response.
+     * @return A future completing with the response, after the body is completely received.
+     */
+    <T> CompletableFuture<HttpResponse<T>> followLog(String namespace, String podName, HttpResponse.BodyHandler<T> bodyHandler) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(logURI(config.getMasterUrl(), namespace, podName)).GET();
+        String authorization = authorization();
+        if (authorization != null) request.header("Authorization", authorization);
+        return httpClient.sendAsync(request.build(), bodyHandler);
+    }
+
+    static URI logURI(String masterUrl, String namespace, String podName) {
+        String base = masterUrl.endsWith("/") ? masterUrl : masterUrl + "/";
+        return URI.create(base + "api/v1/namespaces/" + encode(namespace) + "/pods/" + encode(podName) + "/log?follow=true");
+    }
+
+    private String authorization() {
+        String token = config.getOauthToken();
+        if (token == null && config.getOauthTokenProvider() != null) token = config.getOauthTokenProvider().getToken();
+        if (token != null && !token.isEmpty()) return "Bearer " + token;
+        if (config.getUsername() != null && config.getPassword() != null) {
+            String credentials = config.getUsername() + ":" + config.getPassword();
+            return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        }
+        return null;
+    }
+
+    private static String encode(String segment) {
+        return URLEncoder.encode(segment, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,293 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.hash.Hashing;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.PodPoolScheduleSpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.PodPoolSpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpecKubernetes;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.internal.readiness.Readiness;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.scheduling.support.CronExpression;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Pools of pre-warmed pods, one per spec that has a {@link PodPoolSpec} enabled.
+ * </p><p>
+ * A reconcile loop keeps the number of idle pods of every pool at its target: the min-idle of the pool, raised by
+ * any schedule that is active (or about to become active), and capped by max-idle.
+ * Idle pods are created with a neutral identity. When a proxy is started, a ready idle pod is bound to it by
+ * patching the proxy labels and annotations onto the pod; the containers can read them through the downward API.
+ * </p><p>
+ * Since the environment and volumes of a running pod cannot be changed, only specs that do not depend on the user
+ * can be pooled: specs that opt in with {@link PodPoolSpec#isIdentityFromPodInfo()} (idle pods get no user name and
+ * groups in their environment), without expressions, persistent volume claims or additional manifests.
+ * The pods are also stamped with a hash of the spec they were created from, so that a proxy launched with a
+ * different (e.g. runtime customized or reloaded) spec falls back to a cold start. The sizing of the pool is not part
+ * of the hash, so that resizing a pool keeps its idle pods.
+ * </p>
+ */
+class KubernetesPodPool {
+
+    static final String LABEL_POOL_SPEC_ID = "comp.polyu.edu.hk/vl-pool-spec-id";
+    static final String LABEL_POOL_STATE = "comp.polyu.edu.hk/vl-pool-state";
+    static final String LABEL_POOL_HASH = "comp.polyu.edu.hk/vl-pool-hash";
+    static final String STATE_IDLE = "idle";
+    static final String STATE_BOUND = "bound";
+
+    private static final int MAX_CREATIONS_PER_ROUND = 20;
+
+    /**
+     * Creates an idle pod for the given (resolved) spec, labeled with the given pool labels.
+     */
+    interface PodFactory {
+        void createIdlePod(ProxySpec spec, Map<String, String> poolLabels) throws Exception;
+    }
+
+    private final Logger log = LogManager.getLogger(KubernetesPodPool.class);
+
+    private final KubernetesClient kubeClient;
+    private final KubernetesResourceCache resourceCache;
+    private final Supplier<List<ProxySpec>> specSupplier;
+    private final Function<ProxySpec, ProxySpec> specResolver;
+    private final PodFactory podFactory;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry registry;
+    private final long reconcileInterval;
+
+    /**
+     * Pods that were claimed for binding or deletion, by key.
+     */
+    private final Set<String> claimedPods = ConcurrentHashMap.newKeySet();
+    private final Map<String, AtomicInteger> idleGauges = new ConcurrentHashMap<>();
+    private final Set<String> unpoolableSpecs = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "pod-pool-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    KubernetesPodPool(KubernetesClient kubeClient, KubernetesResourceCache resourceCache,
+                      Supplier<List<ProxySpec>> specSupplier, Function<ProxySpec, ProxySpec> specResolver,
+                      PodFactory podFactory, ObjectMapper objectMapper, MeterRegistry registry, long reconcileInterval) {
+        this.kubeClient = kubeClient;
+        this.resourceCache = resourceCache;
+        this.specSupplier = specSupplier;
+        this.specResolver = specResolver;
+        this.podFactory = podFactory;
+        this.objectMapper = objectMapper;
+        this.registry = registry;
+        this.reconcileInterval = reconcileInterval;
+    }
+
+    public void start() {
+        reconciler.scheduleWithFixedDelay(() -> {
+            try {
+                reconcile();
+            } catch (Throwable t) {
+                log.error("Error while reconciling pod pools", t);
+            }
+        }, reconcileInterval, reconcileInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        reconciler.shutdownNow();
+    }
+
+    /**
+     * Bind a ready idle pod of the pool of the given spec.
+     *
+     * @param spec        The resolved spec of the proxy.
+     * @param labels      The labels to add to the pod.
+     * @param annotations The annotations to add to the pod.
+     * @return The bound pod, or null if the spec is not pooled or no idle pod is available.
+     */
+    public Pod acquire(ProxySpec spec, Map<String, String> labels, Map<String, String> annotations) {
+        if (!spec.getKubernetes().getPool().isEnabled()) return null;
+        String hash = hash(spec);
+        if (hash != null) {
+            List<Pod> candidates = resourceCache.getPods(pod -> isIdle(pod, spec.getId())
+                    && hash.equals(pod.getMetadata().getLabels().get(LABEL_POOL_HASH))
+                    && Readiness.isPodReady(pod));
+            for (Pod candidate : candidates) {
+                String key = KubernetesResourceCache.key(candidate);
+                if (!claimedPods.add(key)) continue;
+                try {
+                    Pod bound = kubeClient.pods()
+                            .inNamespace(candidate.getMetadata().getNamespace())
+                            .withName(candidate.getMetadata().getName())
+                            .edit(pod -> new PodBuilder(pod)
+                                    .editMetadata()
+                                    .addToLabels(labels)
+                                    .addToLabels(LABEL_POOL_STATE, STATE_BOUND)
+                                    .addToAnnotations(annotations)
+                                    .endMetadata()
+                                    .build());
+                    registry.counter("podPoolRequests", "spec.id", spec.getId(), "result", "hit").increment();
+                    log.debug("Bound pooled pod {} for spec {}", key, spec.getId());
+                    return bound;
+                } catch (KubernetesClientException e) {
+                    // e.g. the pod was deleted in the meantime
+                    log.warn("Failed to bind pooled pod {}: {}", key, e.getMessage());
+                }
+            }
+        }
+        registry.counter("podPoolRequests", "spec.id", spec.getId(), "result", "miss").increment();
+        return null;
+    }
+
+    /**
+     * @return A hash identifying the pods that can be created for the given resolved spec,
+     * or null if the spec cannot be pooled.
+     */
+    String hash(ProxySpec spec) {
+        ProxySpecKubernetes kubernetes = spec.getKubernetes();
+        if (!kubernetes.getPool().isIdentityFromPodInfo()
+                || !kubernetes.getPersistentVolumeClaims().isEmpty() || !kubernetes.getAdditionalManifests().isEmpty()) {
+            return null;
+        }
+        try {
+            ObjectNode kubernetesNode = objectMapper.valueToTree(kubernetes);
+            kubernetesNode.remove("pool");
+            String json = objectMapper.writeValueAsString(List.of(spec.getContainerSpecs(), spec.getLabels(), kubernetesNode));
+            if (json.contains("#{")) return null;
+            return Hashing.sha256().hashString(json, StandardCharsets.UTF_8).toString().substring(0, 40);
+        } catch (JsonProcessingException | IllegalArgumentException e) {
+            log.warn("Cannot compute the pool hash of spec " + spec.getId(), e);
+            return null;
+        }
+    }
+
+    void reconcile() {
+        ZonedDateTime now = ZonedDateTime.now();
+        Set<String> pooledSpecIds = new HashSet<>();
+        for (ProxySpec baseSpec : specSupplier.get()) {
+            PodPoolSpec pool = baseSpec.getKubernetes().getPool();
+            if (!pool.isEnabled()) continue;
+
+            ProxySpec spec = specResolver.apply(baseSpec);
+            String hash = hash(spec);
+            if (hash == null) {
+                if (unpoolableSpecs.add(spec.getId())) {
+                    log.warn("Spec {} has a pod pool, but depends on the user (no identity-from-pod-info, expressions, PVCs or additional manifests): pods will be cold started", spec.getId());
+                }
+                continue;
+            }
+            pooledSpecIds.add(spec.getId());
+            reconcile(spec, hash, targetIdle(pool, now));
+        }
+
+        // drop the idle pods of specs that are no longer pooled
+        for (Pod pod : resourceCache.getPods(pod -> STATE_IDLE.equals(label(pod, LABEL_POOL_STATE)) && !pooledSpecIds.contains(label(pod, LABEL_POOL_SPEC_ID)))) {
+            delete(pod);
+        }
+
+        // forget claims on pods that are gone
+        Set<String> existingPods = new HashSet<>();
+        for (Pod pod : resourceCache.getPods(pod -> label(pod, LABEL_POOL_STATE) != null)) {
+            existingPods.add(KubernetesResourceCache.key(pod));
+        }
+        claimedPods.retainAll(existingPods);
+    }
+
+    private void reconcile(ProxySpec spec, String hash, int target) {
+        List<Pod> idlePods = resourceCache.getPods(pod -> isIdle(pod, spec.getId()) && !claimedPods.contains(KubernetesResourceCache.key(pod)));
+
+        // pods of an older version of the spec, or failed pods, can never be bound
+        idlePods.removeIf(pod -> {
+            if (hash.equals(label(pod, LABEL_POOL_HASH)) && !KubernetesResourceCache.isFailed(pod)) return false;
+            delete(pod);
+            return true;
+        });
+
+        idleGauges.computeIfAbsent(spec.getId(), id -> registry.gauge("podPoolIdle", Tags.of("spec.id", id), new AtomicInteger()))
+                .set(idlePods.size());
+
+        if (idlePods.size() < target) {
+            int missing = Math.min(target - idlePods.size(), MAX_CREATIONS_PER_ROUND);
+            log.debug("Creating {} idle pods for spec {} (idle: {}, target: {})", missing, spec.getId(), idlePods.size(), target);
+            Map<String, String> poolLabels = new LinkedHashMap<>();
+            poolLabels.put(LABEL_POOL_SPEC_ID, spec.getId());
+            poolLabels.put(LABEL_POOL_STATE, STATE_IDLE);
+            poolLabels.put(LABEL_POOL_HASH, hash);
+            for (int i = 0; i < missing; i++) {
+                try {
+                    podFactory.createIdlePod(spec, poolLabels);
+                } catch (Exception e) {
+                    log.error("Failed to create idle pod for spec " + spec.getId(), e);
+                    break;
+                }
+            }
+        } else if (idlePods.size() > target) {
+            log.debug("Deleting {} idle pods of spec {} (idle: {}, target: {})", idlePods.size() - target, spec.getId(), idlePods.size(), target);
+            // delete the pods that are not ready yet first
+            idlePods.sort(Comparator.comparing(Readiness::isPodReady));
+            for (Pod pod : idlePods.subList(0, idlePods.size() - target)) {
+                delete(pod);
+            }
+        }
+    }
+
+    private void delete(Pod pod) {
+        String key = KubernetesResourceCache.key(pod);
+        if (!claimedPods.add(key)) return;
+        try {
+            kubeClient.pods().inNamespace(pod.getMetadata().getNamespace()).withName(pod.getMetadata().getName()).delete();
+        } catch (KubernetesClientException e) {
+            log.warn("Failed to delete pooled pod {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * @return The number of idle pods the pool of a spec should have at the given moment.
+     */
+    static int targetIdle(PodPoolSpec pool, ZonedDateTime now) {
+        int target = pool.getMinIdle();
+        for (PodPoolScheduleSpec schedule : pool.getSchedules()) {
+            if (schedule.getCron() == null) continue;
+            // the schedule is active when an occurrence lies in (horizon - duration, horizon]
+            ZonedDateTime horizon = now.plus(schedule.getLeadTime());
+            ZonedDateTime occurrence = CronExpression.parse(schedule.getCron()).next(horizon.minus(schedule.getDuration()));
+            if (occurrence != null && !occurrence.isAfter(horizon)) {
+                target = Math.max(target, schedule.getMinIdle());
+            }
+        }
+        return Math.max(0, Math.min(target, pool.getMaxIdle()));
+    }
+
+    private static boolean isIdle(Pod pod, String specId) {
+        return pod.getMetadata().getDeletionTimestamp() == null
+                && STATE_IDLE.equals(label(pod, LABEL_POOL_STATE))
+                && specId.equals(label(pod, LABEL_POOL_SPEC_ID));
+    }
+
+    private static String label(Pod pod, String key) {
+        Map<String, String> labels = pod.getMetadata().getLabels();
+        return labels == null ? null : labels.get(key);
+    }
+}
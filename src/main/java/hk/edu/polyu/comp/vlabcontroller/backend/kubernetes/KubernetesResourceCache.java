@@ -0,0 +1,253 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.Service;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import io.fabric8.kubernetes.client.internal.readiness.Readiness;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Cache of the pods and services managed by this VLab controller, fed by shared informers that watch all namespaces
+ * for objects carrying the given labels (i.e. the identifier label and the boot id of this controller).
+ * </p><p>
+ * Instead of polling the API server, callers register a waiter for a pod or service, which is completed from the
+ * watch events as soon as the object matches the requested condition.
+ * Pods that enter the <code>Failed</code> or <code>Unknown</code> phase are reported once to the failed pod listener,
+ * pods that become ready are reported to the ready pod listener.
+ * </p>
+ */
+class KubernetesResourceCache {
+
+    private static final long RESYNC_PERIOD = 0;
+
+    private final Logger log = LogManager.getLogger(KubernetesResourceCache.class);
+
+    private final KubernetesClient kubeClient;
+    private final Map<String, String> selector;
+    private final Consumer<Pod> failedPodListener;
+    private final Consumer<Pod> readyPodListener;
+
+    private final Map<String, Queue<Waiter<Pod>>> podWaiters = new ConcurrentHashMap<>();
+    private final Map<String, Queue<Waiter<Service>>> serviceWaiters = new ConcurrentHashMap<>();
+    private final Set<String> reportedFailedPods = ConcurrentHashMap.newKeySet();
+
+    private SharedIndexInformer<Pod> podInformer;
+    private SharedIndexInformer<Service> serviceInformer;
+
+    KubernetesResourceCache(KubernetesClient kubeClient, Map<String, String> selector, Consumer<Pod> failedPodListener, Consumer<Pod> readyPodListener) {
+        this.kubeClient = kubeClient;
+        this.selector = selector;
+        this.failedPodListener = failedPodListener;
+        this.readyPodListener = readyPodListener;
+    }
+
+    public void start() {
+        podInformer = kubeClient.pods().inAnyNamespace()
+                .withLabels(selector)
+                .inform(new ResourceEventHandler<Pod>() {
+                    @Override
+                    public void onAdd(Pod pod) {
+                        podChanged(null, pod);
+                    }
+
+                    @Override
+                    public void onUpdate(Pod oldPod, Pod newPod) {
+                        podChanged(oldPod, newPod);
+                    }
+
+                    @Override
+                    public void onDelete(Pod pod, boolean deletedFinalStateUnknown) {
+                        podDeleted(pod);
+                    }
+                }, RESYNC_PERIOD);
+        serviceInformer = kubeClient.services().inAnyNamespace()
+                .withLabels(selector)
+                .inform(new ResourceEventHandler<Service>() {
+                    @Override
+                    public void onAdd(Service service) {
+                        serviceChanged(service);
+                    }
+
+                    @Override
+                    public void onUpdate(Service oldService, Service newService) {
+                        serviceChanged(newService);
+                    }
+
+                    @Override
+                    public void onDelete(Service service, boolean deletedFinalStateUnknown) {
+                        serviceDeleted(service);
+                    }
+                }, RESYNC_PERIOD);
+        log.info("Started pod and service informers for {}", selector);
+    }
+
+    public void stop() {
+        if (podInformer != null) podInformer.stop();
+        if (serviceInformer != null) serviceInformer.stop();
+    }
+
+    public Pod getPod(String namespace, String name) {
+        return podInformer == null ? null : podInformer.getIndexer().getByKey(key(namespace, name));
+    }
+
+    /**
+     * @return The cached pods matching the given filter.
+     */
+    public List<Pod> getPods(Predicate<Pod> filter) {
+        if (podInformer == null) return List.of();
+        return podInformer.getIndexer().list().stream().filter(filter).collect(Collectors.toList());
+    }
+
+    public Service getService(String namespace, String name) {
+        return serviceInformer == null ? null : serviceInformer.getIndexer().getByKey(key(namespace, name));
+    }
+
+    /**
+     * @return A future that completes with the pod as soon as it is ready, or completes exceptionally when the pod
+     * fails or is deleted. The caller is responsible for applying a timeout.
+     */
+    public CompletableFuture<Pod> waitForPodReady(String namespace, String name) {
+        String key = key(namespace, name);
+        Waiter<Pod> waiter = new Waiter<>(Readiness::isPodReady);
+        register(podWaiters, key, waiter);
+        // the pod may have become ready before the waiter was registered
+        Pod pod = getPod(namespace, name);
+        if (pod != null) notifyPod(waiter, pod);
+        return waiter.future;
+    }
+
+    /**
+     * @return A future that completes with the service as soon as it matches the given condition, or completes
+     * exceptionally when the service is deleted. The caller is responsible for applying a timeout.
+     */
+    public CompletableFuture<Service> waitForService(String namespace, String name, Predicate<Service> condition) {
+        String key = key(namespace, name);
+        Waiter<Service> waiter = new Waiter<>(condition);
+        register(serviceWaiters, key, waiter);
+        Service service = getService(namespace, name);
+        if (service != null && condition.test(service)) waiter.future.complete(service);
+        return waiter.future;
+    }
+
+    private void podChanged(Pod previous, Pod pod) {
+        String key = key(pod);
+
+        Queue<Waiter<Pod>> waiters = podWaiters.get(key);
+        if (waiters != null) {
+            for (Waiter<Pod> waiter : waiters) {
+                notifyPod(waiter, pod);
+            }
+        }
+
+        if (isFailed(pod) && reportedFailedPods.add(key)) {
+            try {
+                failedPodListener.accept(pod);
+            } catch (Exception e) {
+                log.error("Error while handling failed pod " + key, e);
+            }
+        }
+
+        if (Readiness.isPodReady(pod) && (previous == null || !Readiness.isPodReady(previous))) {
+            try {
+                readyPodListener.accept(pod);
+            } catch (Exception e) {
+                log.error("Error while handling ready pod " + key, e);
+            }
+        }
+    }
+
+    private void podDeleted(Pod pod) {
+        String key = key(pod);
+        reportedFailedPods.remove(key);
+        Queue<Waiter<Pod>> waiters = podWaiters.get(key);
+        if (waiters != null) {
+            for (Waiter<Pod> waiter : waiters) {
+                waiter.future.completeExceptionally(new VLabControllerException("Pod " + key + " was deleted"));
+            }
+        }
+    }
+
+    private void serviceChanged(Service service) {
+        String key = key(service);
+        Queue<Waiter<Service>> waiters = serviceWaiters.get(key);
+        if (waiters != null) {
+            for (Waiter<Service> waiter : waiters) {
+                if (waiter.condition.test(service)) waiter.future.complete(service);
+            }
+        }
+    }
+
+    private void serviceDeleted(Service service) {
+        String key = key(service);
+        Queue<Waiter<Service>> waiters = serviceWaiters.get(key);
+        if (waiters != null) {
+            for (Waiter<Service> waiter : waiters) {
+                waiter.future.completeExceptionally(new VLabControllerException("Service " + key + " was deleted"));
+            }
+        }
+    }
+
+    private void notifyPod(Waiter<Pod> waiter, Pod pod) {
+        if (isFailed(pod)) {
+            waiter.future.completeExceptionally(new VLabControllerException(String.format("Pod %s failed (phase: %s)", key(pod), pod.getStatus().getPhase())));
+        } else if (waiter.condition.test(pod)) {
+            waiter.future.complete(pod);
+        }
+    }
+
+    private static <T> void register(Map<String, Queue<Waiter<T>>> waiters, String key, Waiter<T> waiter) {
+        waiters.compute(key, (k, queue) -> {
+            if (queue == null) queue = new ConcurrentLinkedQueue<>();
+            queue.add(waiter);
+            return queue;
+        });
+        // unregister once the waiter is done, whatever the reason (including a timeout or cancellation by the caller)
+        waiter.future.whenComplete((result, throwable) -> waiters.computeIfPresent(key, (k, queue) -> {
+            queue.remove(waiter);
+            return queue.isEmpty() ? null : queue;
+        }));
+    }
+
+    static boolean isFailed(Pod pod) {
+        if (pod.getStatus() == null || pod.getStatus().getPhase() == null) return false;
+        String phase = pod.getStatus().getPhase();
+        return !phase.equals("Pending") && !phase.equals("Running") && !phase.equals("Succeeded");
+    }
+
+    static String key(HasMetadata object) {
+        return key(object.getMetadata().getNamespace(), object.getMetadata().getName());
+    }
+
+    /**
+     * The key of an object in the indexers of the informers, i.e. <code>namespace/name</code>.
+     */
+    private static String key(String namespace, String name) {
+        return namespace + "/" + name;
+    }
+
+    private static class Waiter<T> {
+        private final Predicate<T> condition;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private Waiter(Predicate<T> condition) {
+            this.condition = condition;
+        }
+    }
+}
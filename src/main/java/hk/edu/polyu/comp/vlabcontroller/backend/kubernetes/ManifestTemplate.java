@@ -0,0 +1,102 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>
+ * Template of a Kubernetes object (e.g. a volume, a PVC or an additional manifest) whose string fields may contain
+ * SpEL expressions.
+ * </p><p>
+ * The object is converted into a JSON tree once, and the fields containing an expression are located up front.
+ * Rendering the template copies the tree and resolves only those fields, instead of serializing the whole object,
+ * resolving the expressions over the serialized text and parsing it again.
+ * Expressions in field names are still supported, by resolving the whole serialized tree.
+ * </p>
+ */
+class ManifestTemplate {
+
+    private static final String EXPRESSION_PREFIX = "#{";
+
+    private final JsonNode skeleton;
+    private final List<List<Object>> expressionFields = new ArrayList<>(); // path of each field: field names and array indexes
+    private boolean expressionInFieldName;
+
+    private ManifestTemplate(JsonNode skeleton) {
+        this.skeleton = skeleton;
+        collectExpressionFields(skeleton, new ArrayList<>());
+    }
+
+    static ManifestTemplate fromObject(Object object, ObjectMapper mapper) {
+        return new ManifestTemplate(mapper.valueToTree(object));
+    }
+
+    static ManifestTemplate fromDocument(String document, ObjectMapper mapper) throws JsonProcessingException {
+        return new ManifestTemplate(mapper.readTree(document));
+    }
+
+    boolean hasExpressions() {
+        return expressionInFieldName || !expressionFields.isEmpty();
+    }
+
+    /**
+     * @param resolver Resolves the expressions of a single field.
+     * @return A new tree, in which all expressions are resolved.
+     */
+    JsonNode render(UnaryOperator<String> resolver, ObjectMapper mapper) throws JsonProcessingException {
+        if (expressionInFieldName) {
+            return mapper.readTree(resolver.apply(mapper.writeValueAsString(skeleton)));
+        }
+        JsonNode tree = skeleton.deepCopy();
+        for (List<Object> path : expressionFields) {
+            JsonNode parent = tree;
+            for (int i = 0; i < path.size() - 1; i++) {
+                parent = path.get(i) instanceof Integer ? parent.get((Integer) path.get(i)) : parent.get((String) path.get(i));
+            }
+            Object last = path.get(path.size() - 1);
+            if (last instanceof Integer) {
+                ArrayNode array = (ArrayNode) parent;
+                array.set((Integer) last, TextNode.valueOf(resolver.apply(array.get((Integer) last).textValue())));
+            } else {
+                ObjectNode object = (ObjectNode) parent;
+                object.set((String) last, TextNode.valueOf(resolver.apply(object.get((String) last).textValue())));
+            }
+        }
+        return tree;
+    }
+
+    <T> T render(UnaryOperator<String> resolver, ObjectMapper mapper, Class<T> type) throws JsonProcessingException {
+        return mapper.treeToValue(render(resolver, mapper), type);
+    }
+
+    private void collectExpressionFields(JsonNode node, List<Object> path) {
+        if (node.isTextual()) {
+            if (node.textValue().contains(EXPRESSION_PREFIX)) expressionFields.add(new ArrayList<>(path));
+        } else if (node.isObject()) {
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                if (field.getKey().contains(EXPRESSION_PREFIX)) expressionInFieldName = true;
+                path.add(field.getKey());
+                collectExpressionFields(field.getValue(), path);
+                path.remove(path.size() - 1);
+            }
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                path.add(i);
+                collectExpressionFields(node.get(i), path);
+                path.remove(path.size() - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * Applies the <code>add</code> and <code>replace</code> operations of a JSON patch directly on a fabric8 model object,
+ * i.e. without converting the whole object to JSON and back.
+ * </p><p>
+ * The path of every operation is followed through the properties (as named in JSON), maps and lists of the model.
+ * Patches with other operations, or with paths that cannot be followed in the model (e.g. through a missing object),
+ * are not supported: the caller should then apply the patch on the JSON representation of the object.
+ * </p>
+ */
+class ModelPatcher {
+
+    private final ObjectMapper mapper;
+    private final Map<JavaType, Map<String, BeanPropertyDefinition>> getters = new ConcurrentHashMap<>();
+    private final Map<JavaType, Map<String, BeanPropertyDefinition>> setters = new ConcurrentHashMap<>();
+
+    ModelPatcher(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    /**
+     * @return Whether all operations of the patch can be applied on the model, judging by their type only.
+     */
+    static boolean isSupported(JsonNode patch) {
+        if (!patch.isArray()) return false;
+        for (JsonNode operation : patch) {
+            String op = operation.path("op").asText();
+            if (!op.equals("add") && !op.equals("replace")) return false;
+            if (!operation.path("path").isTextual() || !operation.has("value")) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Apply the patch on the given object. The object may be partially patched when this fails.
+     *
+     * @return false if an operation could not be applied.
+     */
+    boolean apply(Object target, JsonNode patch) {
+        if (!isSupported(patch)) return false;
+        try {
+            for (JsonNode operation : patch) {
+                if (!apply(target, operation.get("op").asText(), operation.get("path").asText(), operation.get("value"))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IllegalArgumentException | UnsupportedOperationException e) {
+            // e.g. a value that does not match the type of the property, or an unmodifiable collection
+            return false;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean apply(Object target, String op, String path, JsonNode value) {
+        List<String> tokens = tokens(path);
+        if (tokens.isEmpty()) return false;
+        Object parent = target;
+        JavaType parentType = mapper.constructType(target.getClass());
+        for (String token : tokens.subList(0, tokens.size() - 1)) {
+            if (parent instanceof Map) {
+                parent = ((Map<String, Object>) parent).get(token);
+                parentType = parentType.getContentType();
+            } else if (parent instanceof List) {
+                List<Object> list = (List<Object>) parent;
+                int index = index(token);
+                if (index < 0 || index >= list.size()) return false;
+                parent = list.get(index);
+                parentType = parentType.getContentType();
+            } else {
+                BeanPropertyDefinition property = getters(parentType).get(token);
+                if (property == null || property.getAccessor() == null) return false;
+                parent = property.getAccessor().getValue(parent);
+                parentType = property.getPrimaryType();
+            }
+            if (parent == null || parentType == null) return false;
+        }
+
+        String last = tokens.get(tokens.size() - 1);
+        if (parent instanceof Map) {
+            Map<String, Object> map = (Map<String, Object>) parent;
+            if (op.equals("replace") && !map.containsKey(last)) return false;
+            map.put(last, mapper.convertValue(value, parentType.getContentType()));
+        } else if (parent instanceof List) {
+            List<Object> list = (List<Object>) parent;
+            Object element = mapper.convertValue(value, parentType.getContentType());
+            if (last.equals("-") && op.equals("add")) {
+                list.add(element);
+            } else {
+                int index = index(last);
+                if (op.equals("add") && index >= 0 && index <= list.size()) {
+                    list.add(index, element);
+                } else if (op.equals("replace") && index >= 0 && index < list.size()) {
+                    list.set(index, element);
+                } else {
+                    return false;
+                }
+            }
+        } else {
+            if (op.equals("replace")) {
+                // like in JSON, where null properties are omitted, only an existing value can be replaced
+                BeanPropertyDefinition getter = getters(parentType).get(last);
+                if (getter == null || getter.getAccessor() == null || getter.getAccessor().getValue(parent) == null) return false;
+            }
+            BeanPropertyDefinition property = setters(parentType).get(last);
+            if (property == null) return false;
+            AnnotatedMember mutator = property.getSetter() != null ? property.getSetter() : property.getField();
+            if (mutator == null) return false;
+            mutator.setValue(parent, mapper.convertValue(value, property.getPrimaryType()));
+        }
+        return true;
+    }
+
+    private Map<String, BeanPropertyDefinition> getters(JavaType type) {
+        return getters.computeIfAbsent(type, t -> properties(mapper.getSerializationConfig().introspect(t).findProperties()));
+    }
+
+    private Map<String, BeanPropertyDefinition> setters(JavaType type) {
+        return setters.computeIfAbsent(type, t -> properties(mapper.getDeserializationConfig().introspect(t).findProperties()));
+    }
+
+    private static Map<String, BeanPropertyDefinition> properties(List<BeanPropertyDefinition> properties) {
+        return properties.stream().collect(Collectors.toMap(BeanPropertyDefinition::getName, Function.identity(), (a, b) -> a));
+    }
+
+    /**
+     * @return The reference tokens of a JSON pointer (RFC 6901).
+     */
+    private static List<String> tokens(String path) {
+        List<String> tokens = new ArrayList<>();
+        if (!path.startsWith("/")) return tokens;
+        for (String token : path.substring(1).split("/", -1)) {
+            tokens.add(token.replace("~1", "/").replace("~0", "~"));
+        }
+        return tokens;
+    }
+
+    private static int index(String token) {
+        if (token.isEmpty() || !token.chars().allMatch(Character::isDigit)) return -1;
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
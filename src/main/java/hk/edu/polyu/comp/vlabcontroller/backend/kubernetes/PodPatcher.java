@@ -1,9 +1,11 @@
 package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr353.JSR353Module;
 import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
 import io.fabric8.kubernetes.client.internal.SerializationUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -20,6 +22,7 @@ public class PodPatcher {
 
     private static final String DEBUG_PROPERTY = "proxy.kubernetes.debug-patches";
     private final ObjectMapper mapper = new ObjectMapper();
+    private final ModelPatcher modelPatcher = new ModelPatcher(mapper);
     private final Logger log = LogManager.getLogger(getClass());
     private final Environment environment;
     private boolean loggingEnabled = false;
@@ -51,6 +54,42 @@ public class PodPatcher {
         return mapper.convertValue(patchedPodAsJsonValue, Pod.class);
     }
 
+    /**
+     * Applies a JSON patch, given as a JSON tree, to the given Pod.
+     * <p>
+     * Patches consisting of <code>add</code> and <code>replace</code> operations only are applied directly on (a copy of)
+     * the Pod, see {@link ModelPatcher}. Other patches, or patches whose paths cannot be followed in the model,
+     * are applied as a JsonPatch, see {@link #patch(Pod, JsonPatch)}.
+     */
+    public Pod patch(Pod pod, JsonNode patch) {
+        if (patch == null || patch.isNull() || patch.isMissingNode()) {
+            return pod;
+        }
+        if (ModelPatcher.isSupported(patch)) {
+            Pod copy = new PodBuilder(pod).build();
+            if (modelPatcher.apply(copy, patch)) {
+                return copy;
+            }
+            log.debug("Cannot patch the pod model directly, falling back to a JSON patch");
+        }
+        return patch(pod, mapper.convertValue(patch, JsonPatch.class));
+    }
+
+    /**
+     * Applies a JSON patch to the given Pod. When proxy.kubernetes.debug-patches is
+     * enabled the original and patched specification will be logged as YAML.
+     */
+    public Pod patchWithDebug(Pod pod, JsonNode patch) throws JsonProcessingException {
+        if (loggingEnabled) {
+            log.info("Original Pod: " + SerializationUtils.dumpAsYaml(pod));
+        }
+        Pod patchedPod = patch(pod, patch);
+        if (loggingEnabled) {
+            log.info("Patched Pod: " + SerializationUtils.dumpAsYaml(patchedPod));
+        }
+        return patchedPod;
+    }
+
     /**
      * Applies a JsonPatch to the given Pod. When proxy.kubernetes.debug-patches is
      * enabled the original and patched specification will be logged as YAML.
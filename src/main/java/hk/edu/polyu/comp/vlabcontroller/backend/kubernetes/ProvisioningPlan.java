@@ -0,0 +1,92 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * <p>
+ * Dependency graph of the resources created for a proxy.
+ * </p><p>
+ * Every stage is submitted together with the stages it depends on, and starts as soon as they have completed:
+ * independent stages (e.g. the persistent volume claims and additional manifests) run concurrently on the
+ * provisioning executor. If a stage fails, the stages depending on it are not started.
+ * The duration of every stage, in milliseconds, is recorded in the given timings map.
+ * </p>
+ */
+class ProvisioningPlan {
+
+    private final Executor executor;
+    private final Map<String, Long> timings;
+    private final List<CompletableFuture<?>> stages = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<Void> failure = new CompletableFuture<>();
+
+    ProvisioningPlan(Executor executor, Map<String, Long> timings) {
+        this.executor = executor;
+        this.timings = timings;
+    }
+
+    /**
+     * Submit a blocking stage, which runs on the provisioning executor.
+     */
+    public <T> CompletableFuture<T> submit(String name, Callable<T> task, List<? extends CompletableFuture<?>> dependencies) {
+        return track(allOf(dependencies).thenApplyAsync(ignored -> {
+            var startTime = System.currentTimeMillis();
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                timings.put(name, System.currentTimeMillis() - startTime);
+            }
+        }, executor));
+    }
+
+    /**
+     * Submit a non-blocking stage, e.g. waiting for a watch event, which must not hold a provisioning thread.
+     */
+    public <T> CompletableFuture<T> submitAsync(String name, Supplier<CompletableFuture<T>> task, List<? extends CompletableFuture<?>> dependencies) {
+        return track(allOf(dependencies).thenCompose(ignored -> {
+            var startTime = System.currentTimeMillis();
+            return task.get().whenComplete((result, throwable) -> timings.put(name, System.currentTimeMillis() - startTime));
+        }));
+    }
+
+    /**
+     * Wait for all stages to complete, or for the first stage to fail.
+     *
+     * @throws VLabControllerException If any stage failed. The stages that are still pending are cancelled.
+     */
+    public void await() {
+        try {
+            CompletableFuture.anyOf(allOf(stages), failure).join();
+        } catch (CompletionException e) {
+            stages.forEach(stage -> stage.cancel(false));
+            Throwable cause = e;
+            while (cause instanceof CompletionException && cause.getCause() != null) cause = cause.getCause();
+            if (cause instanceof VLabControllerException) throw (VLabControllerException) cause;
+            throw new VLabControllerException("Failed to provision the resources of the proxy", cause);
+        }
+    }
+
+    private <T> CompletableFuture<T> track(CompletableFuture<T> stage) {
+        stages.add(stage);
+        stage.whenComplete((result, throwable) -> {
+            if (throwable != null) failure.completeExceptionally(throwable);
+        });
+        return stage;
+    }
+
+    private static CompletableFuture<Void> allOf(List<? extends CompletableFuture<?>> dependencies) {
+        return CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]));
+    }
+}
@@ -2,6 +2,8 @@ package hk.edu.polyu.comp.vlabcontroller.backend.strategy;
 
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * Defines a strategy for testing the responsiveness of a newly launched proxy.
  * If a proxy is not responsive, the launch will be aborted and an error will be generated.
@@ -10,4 +12,21 @@ public interface IProxyTestStrategy {
 
     boolean testProxy(Proxy proxy);
 
+    /**
+     * Test the proxy without blocking the calling thread.
+     * By default, this runs {@link #testProxy(Proxy)} on the calling thread.
+     *
+     * @return A future completing with the result of the test.
+     */
+    default CompletableFuture<Boolean> testProxyAsync(Proxy proxy) {
+        return CompletableFuture.completedFuture(testProxy(proxy));
+    }
+
+    /**
+     * Signal that the targets of a proxy are likely to respond now, e.g. because its container became ready.
+     * Strategies that wait between their attempts may use this to test the proxy again right away.
+     */
+    default void notifyTargetReady(Proxy proxy) {
+    }
+
 }
@@ -19,7 +19,7 @@ public class DefaultProxyLogoutStrategy implements IProxyLogoutStrategy {
 
     @Override
     public void onLogout(String userId, boolean expired) {
-        for (var proxy : proxyService.getProxies(p -> p.getUserId().equals(userId), true)) {
+        for (var proxy : proxyService.getUserProxies(userId, null, true)) {
             proxyService.stopProxy(proxy, true, true, 0);
         }
     }
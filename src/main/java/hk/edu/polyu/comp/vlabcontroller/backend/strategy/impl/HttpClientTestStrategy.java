@@ -0,0 +1,157 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.strategy.impl;
+
+import hk.edu.polyu.comp.vlabcontroller.backend.strategy.IProxyTestStrategy;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ReadinessProbeSpec;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * <p>
+ * This component tests the responsiveness of containers by making HTTP GET requests to all targets of the proxy,
+ * concurrently and without blocking any thread while waiting.
+ * </p><p>
+ * A target is ready as soon as it responds with an expected status code (see {@link ReadinessProbeSpec}, by default any
+ * non-error (5xx) response). Between attempts, the strategy waits with an exponential backoff, starting at
+ * <b>proxy.container-wait-initial-backoff</b> (default 100ms) and capped at 2 seconds. A signal that the container became
+ * ready (see {@link #notifyTargetReady(Proxy)}) cuts the wait of every target short. Failed attempts are only logged
+ * as warnings once the backoff is capped. If not all targets are ready within
+ * <b>proxy.container-wait-time</b>, the container is considered to be unresponsive.
+ * </p>
+ */
+@Component
+@Primary
+public class HttpClientTestStrategy implements IProxyTestStrategy {
+
+    private static final long MAX_BACKOFF_MS = 2000;
+
+    private final Environment environment;
+    private final Logger log = LogManager.getLogger(HttpClientTestStrategy.class);
+    private final Map<String, Map<URI, CompletableFuture<Void>>> wakeUps = new ConcurrentHashMap<>(); // proxyId -> probe URI -> wake-up signal
+    private volatile HttpClient httpClient;
+
+    public HttpClientTestStrategy(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public boolean testProxy(Proxy proxy) {
+        return testProxyAsync(proxy).join();
+    }
+
+    @Override
+    public CompletableFuture<Boolean> testProxyAsync(Proxy proxy) {
+        if (proxy.getTargets().isEmpty()) return CompletableFuture.completedFuture(false);
+
+        long totalWaitMs = Long.parseLong(environment.getProperty("proxy.container-wait-time", "20000"));
+        long initialBackoffMs = Long.parseLong(environment.getProperty("proxy.container-wait-initial-backoff", "100"));
+        long deadline = System.currentTimeMillis() + totalWaitMs;
+        ReadinessProbeSpec probeSpec = proxy.getSpec() == null || proxy.getSpec().getReadinessProbe() == null
+                ? new ReadinessProbeSpec() : proxy.getSpec().getReadinessProbe();
+
+        List<URI> uris = proxy.getTargets().values().stream()
+                .map(target -> probeURI(target, probeSpec.getPath()))
+                .distinct()
+                .collect(Collectors.toList());
+        // every target has a signal of its own: a signal received while a request is in flight is kept until its next wait
+        Map<URI, CompletableFuture<Void>> signals = new ConcurrentHashMap<>();
+        uris.forEach(uri -> signals.put(uri, new CompletableFuture<>()));
+        wakeUps.put(proxy.getId(), signals);
+        List<CompletableFuture<Boolean>> targets = uris.stream()
+                .map(uri -> probe(proxy, uri, probeSpec, deadline, initialBackoffMs, 1))
+                .collect(Collectors.toList());
+        return CompletableFuture.allOf(targets.toArray(new CompletableFuture[0]))
+                .thenApply(v -> targets.stream().allMatch(CompletableFuture::join))
+                .whenComplete((result, throwable) -> wakeUps.remove(proxy.getId()));
+    }
+
+    @Override
+    public void notifyTargetReady(Proxy proxy) {
+        Map<URI, CompletableFuture<Void>> signals = wakeUps.get(proxy.getId());
+        if (signals != null) signals.values().forEach(wakeUp -> wakeUp.complete(null));
+    }
+
+    private CompletableFuture<Boolean> probe(Proxy proxy, URI uri, ReadinessProbeSpec probeSpec, long deadline, long backoffMs, int attempt) {
+        if (proxy.getStatus() == ProxyStatus.Stopping || proxy.getStatus() == ProxyStatus.Stopped) {
+            return CompletableFuture.completedFuture(true);
+        }
+        long timeoutMs = Long.parseLong(environment.getProperty("proxy.container-wait-timeout", "5000"));
+        HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofMillis(timeoutMs)).GET().build();
+        return getHttpClient(timeoutMs).sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, throwable) -> {
+                    if (throwable == null && probeSpec.isExpectedStatusCode(response.statusCode())) return true;
+                    if (attempt > 1) {
+                        String reason = throwable == null ? "status code " + response.statusCode() : throwable.toString();
+                        String message = String.format("Container unresponsive, trying again (attempt %d): %s (%s)", attempt, uri, reason);
+                        // the first attempts are expected to fail while the container boots
+                        if (backoffMs >= MAX_BACKOFF_MS) log.warn(message);
+                        else log.debug(message);
+                    }
+                    return false;
+                })
+                .thenCompose(ready -> {
+                    if (ready) return CompletableFuture.completedFuture(true);
+                    long remainingMs = deadline - System.currentTimeMillis();
+                    if (remainingMs <= 0) return CompletableFuture.completedFuture(false);
+                    return waitFor(proxy, uri, Math.min(backoffMs, remainingMs)).thenCompose(wokenUp ->
+                            probe(proxy, uri, probeSpec, deadline, wokenUp ? backoffMs : nextBackoff(backoffMs), attempt + 1));
+                });
+    }
+
+    /**
+     * @return A future completing after the given delay with false, or earlier with true if the targets of the proxy
+     * are signalled to be ready.
+     */
+    private CompletableFuture<Boolean> waitFor(Proxy proxy, URI uri, long delayMs) {
+        Map<URI, CompletableFuture<Void>> signals = wakeUps.get(proxy.getId());
+        CompletableFuture<Void> wakeUp = signals == null ? null : signals.get(uri);
+        if (wakeUp == null) return CompletableFuture.supplyAsync(() -> false, CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS));
+        if (wakeUp.isDone()) {
+            // consume the signal of this target only, so that its next wait is a full one again
+            signals.replace(uri, wakeUp, new CompletableFuture<>());
+            return CompletableFuture.completedFuture(true);
+        }
+        return wakeUp.thenApply(v -> true).completeOnTimeout(false, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    static long nextBackoff(long backoffMs) {
+        return Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+    }
+
+    private HttpClient getHttpClient(long timeoutMs) {
+        if (httpClient == null) {
+            synchronized (this) {
+                if (httpClient == null) {
+                    httpClient = HttpClient.newBuilder()
+                            .connectTimeout(Duration.ofMillis(timeoutMs))
+                            .followRedirects(HttpClient.Redirect.NEVER)
+                            .build();
+                }
+            }
+        }
+        return httpClient;
+    }
+
+    static URI probeURI(URI target, String path) {
+        if (path == null || path.isEmpty()) return target;
+        String base = target.toString();
+        if (base.endsWith("/")) base = base.substring(0, base.length() - 1);
+        return URI.create(base + (path.startsWith("/") ? path : "/" + path));
+    }
+}
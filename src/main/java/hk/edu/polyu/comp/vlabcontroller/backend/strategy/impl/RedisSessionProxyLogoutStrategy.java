@@ -35,7 +35,7 @@ public class RedisSessionProxyLogoutStrategy implements IProxyLogoutStrategy {
         if (redisSessionHelper.getSessionByUsername(userId).size() > 1 - (expired ? 1 : 0)) {
             return;
         }
-        for (Proxy proxy : proxyService.getProxies(p -> p.getUserId().equals(userId), true)) {
+        for (Proxy proxy : proxyService.getUserProxies(userId, null, true)) {
             proxyService.stopProxy(proxy, true, true, 0);
         }
     }
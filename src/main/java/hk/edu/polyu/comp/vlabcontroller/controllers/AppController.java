@@ -4,6 +4,7 @@ import com.google.common.base.Strings;
 import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
 import hk.edu.polyu.comp.vlabcontroller.auth.IAuthenticationBackend;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.EntryPointSpec;
 import hk.edu.polyu.comp.vlabcontroller.service.ProxyService;
@@ -23,6 +24,7 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
@@ -35,12 +37,11 @@ import java.util.Base64;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
-import static hk.edu.polyu.comp.vlabcontroller.controllers.FileBrowserController.awaitReadyHelper;
-
 @Controller
 public class AppController extends BaseController {
 
@@ -63,12 +64,11 @@ public class AppController extends BaseController {
         Proxy proxy = findUserProxy(request);
         if (proxy == null && !userService.isAdmin()) {
             int containerLimit = environment.getProperty("proxy.container-quantity-limit", Integer.class, 2);
-            int proxies = proxyService.getProxies(p -> p.getUserId().equals(userService.getCurrentUserId()) && !p.getSpec().getId().equals("filebrowser"), false).size();
+            int proxies = proxyService.getUserProxies(userService.getCurrentUserId(), p -> !p.getSpec().getId().equals("filebrowser"), false).size();
             if (proxies >= containerLimit) {
                 return "limit-error";
             }
         }
-        awaitReady(proxy);
 
         map.put("appTitle", getAppTitle(request));
         String baseDomain = environment.getProperty("proxy.domain");
@@ -82,7 +82,7 @@ public class AppController extends BaseController {
             map.put("container", (proxy == null) ? "" : buildContainerPath(request));
         }
         map.put("proxyId", (proxy == null) ? "" : proxy.getId());
-        map.put("startTime", (proxy == null) ? System.currentTimeMillis() : proxy.getStartupTimestamp());
+        map.put("startTime", (proxy == null || proxy.getStartupTimestamp() == 0) ? System.currentTimeMillis() : proxy.getStartupTimestamp());
         map.put("maxAge", Duration.parse(environment.getProperty("proxy.engagement.max-age", "PT4H")).toMillis());
         String markdownURL;
         try {
@@ -110,6 +110,7 @@ public class AppController extends BaseController {
             Map<String, String> response = new HashMap<>();
             response.put("containerPath", containerPath);
             response.put("proxyId", proxy.getId());
+            response.put("status", proxy.getStatus().toString());
             return response;
         } catch (IllegalArgumentException e) {
             log.error(e.getMessage());
@@ -131,7 +132,10 @@ public class AppController extends BaseController {
     @RequestMapping(value = "/app_direct/**")
     public void appDirect(HttpServletRequest request, HttpServletResponse response) throws IOException {
         Proxy proxy = findUserProxy(request);
-        awaitReady(proxy);
+        if (proxy != null && proxy.getStatus() == ProxyStatus.Starting) {
+            awaitStartup(proxy, request, response);
+            return;
+        }
 
         String mapping = getProxyEndpoint(proxy);
         String appPort = getAppPort(request);
@@ -196,6 +200,33 @@ public class AppController extends BaseController {
         }
     }
 
+    /**
+     * Suspend the request until the startup of the proxy completes, without holding a worker thread, and dispatch it
+     * again once the proxy is mapped. The startup is bounded by the timeouts of the backend, so is the request.
+     */
+    private void awaitStartup(Proxy proxy, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        CompletableFuture<Proxy> startup = proxyService.getStartupFuture(proxy.getId());
+        if (startup == null) {
+            response.sendError(404);
+            return;
+        }
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(0);
+        startup.whenComplete((startedProxy, error) -> {
+            try {
+                if (error == null) {
+                    asyncContext.dispatch();
+                    return;
+                }
+                ((HttpServletResponse) asyncContext.getResponse()).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                asyncContext.complete();
+            } catch (Exception e) {
+                log.debug("Error resuming proxy request: {}", request.getRequestURI(), e);
+                asyncContext.complete();
+            }
+        });
+    }
+
     private Proxy getOrStart(HttpServletRequest request) {
         Proxy proxy = findUserProxy(request);
         if (proxy == null) {
@@ -203,15 +234,12 @@ public class AppController extends BaseController {
             ProxySpec spec = proxyService.getProxySpec(specId);
             if (spec == null) throw new IllegalArgumentException("Unknown proxy spec: " + specId);
             ProxySpec resolvedSpec = proxyService.resolveProxySpec(spec, null, null);
-            proxy = proxyService.startProxy(resolvedSpec, false);
+            // do not hold the worker thread during the startup: the requests to the proxy wait for it, see appDirect
+            proxy = proxyService.startProxyAsync(resolvedSpec, false);
         }
         return proxy;
     }
 
-    private boolean awaitReady(Proxy proxy) {
-        return awaitReadyHelper(proxy, environment.getProperty("proxy.container-wait-time", "20000"));
-    }
-
     private String buildContainerPath(HttpServletRequest request) {
         String appName = getAppName(request);
         if (appName == null) return "";
@@ -86,7 +86,7 @@ public abstract class BaseController {
     protected Proxy findUserProxy(HttpServletRequest request) {
         String appName = getAppName(request);
         if (appName == null) return null;
-        return proxyService.findProxy(p -> appName.equals(p.getSpec().getId()) && userService.isOwner(p), false);
+        return proxyService.findUserProxy(userService.getCurrentUserId(), appName, false);
     }
 
     protected String getProxyEndpoint(Proxy proxy) {
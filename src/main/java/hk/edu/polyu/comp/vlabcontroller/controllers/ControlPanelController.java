@@ -25,7 +25,7 @@ public class ControlPanelController extends BaseController {
     private String panel(ModelMap map, HttpServletRequest request) {
         prepareMap(map, request);
         String username = getUserName(request);
-        List<Proxy> proxies = proxyService.getProxies(p -> p.getUserId().equals(username), false);
+        List<Proxy> proxies = proxyService.getUserProxies(username, null, false);
 
         Map<String, String> proxyUptimes = new HashMap<>();
         for (Proxy proxy : proxies) {
@@ -39,7 +39,7 @@ public class ControlPanelController extends BaseController {
         }
 
         int containerLimit = environment.getProperty("proxy.container-quantity-limit", Integer.class, 2);
-        map.put("withFileBrowser", proxyService.findProxy(p -> p.getSpec().getId().equals("filebrowser"), false) != null);
+        map.put("withFileBrowser", proxyService.findUserProxy(username, "filebrowser", false) != null);
         map.put("containerLimit", containerLimit);
         map.put("proxies", proxies);
         map.put("proxyUptimes", proxyUptimes);
@@ -3,12 +3,10 @@ package hk.edu.polyu.comp.vlabcontroller.controllers;
 import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
 import hk.edu.polyu.comp.vlabcontroller.auth.IAuthenticationBackend;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
-import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
 import hk.edu.polyu.comp.vlabcontroller.service.ProxyService;
 import hk.edu.polyu.comp.vlabcontroller.service.UserService;
 import hk.edu.polyu.comp.vlabcontroller.spec.FileBrowserProperties;
-import hk.edu.polyu.comp.vlabcontroller.util.Retrying;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.context.annotation.Lazy;
@@ -42,8 +40,7 @@ public class FileBrowserController extends BaseController {
     public String fileBrowser(ModelMap map, HttpServletRequest request) {
         prepareMap(map, request);
         String id = "filebrowser";
-        Proxy proxy = proxyService.findProxy(p -> p.getSpec().getId().equals(id) && userService.isOwner(p), false);
-        awaitReady(proxy);
+        Proxy proxy = proxyService.findUserProxy(userService.getCurrentUserId(), id, false);
         map.put("appTitle", "File Browser");
         map.put("container", (proxy == null) ? "" : buildContainerPath(request));
         return "filebrowser";
@@ -53,13 +50,14 @@ public class FileBrowserController extends BaseController {
     @ResponseBody
     public Map<String, String> startFileBrowser(HttpServletRequest request) {
         String id = "filebrowser";
-        Proxy proxy = proxyService.findProxy(p -> p.getSpec().getId().equals(id) && userService.isOwner(p), false);
+        Proxy proxy = proxyService.findUserProxy(userService.getCurrentUserId(), id, false);
         if (proxy == null) {
             if (fileBrowserProperties != null) {
                 ProxySpec spec = fileBrowserSpecTranslate(fileBrowserProperties);
                 ProxySpec resolvedSpec = proxyService.resolveProxySpec(spec, null, null);
                 try {
-                    proxy = proxyService.startProxy(resolvedSpec, false);
+                    // the requests to the file browser wait for its startup, see AppController.appDirect
+                    proxy = proxyService.startProxyAsync(resolvedSpec, false);
                 } catch (VLabControllerException e) {
                     String errorMessage = "Failed to start file browser";
                     log.error(errorMessage);
@@ -78,7 +76,6 @@ public class FileBrowserController extends BaseController {
                 return response;
             }
         }
-        awaitReady(proxy);
         String containerPath = buildContainerPath(request);
         Map<String, String> response = new HashMap<>();
         response.put("containerPath", containerPath);
@@ -93,23 +90,6 @@ public class FileBrowserController extends BaseController {
         return spec;
     }
 
-    private boolean awaitReady(Proxy proxy) {
-        return awaitReadyHelper(proxy, environment.getProperty("proxy.container-wait-time", "20000"));
-    }
-
-    static boolean awaitReadyHelper(Proxy proxy, String property) {
-        if (proxy == null) return false;
-        if (proxy.getStatus() == ProxyStatus.Up) return true;
-        if (proxy.getStatus() == ProxyStatus.Stopping || proxy.getStatus() == ProxyStatus.Stopped) return false;
-
-        int totalWaitMs = Integer.parseInt(property);
-        int waitMs = Math.min(500, totalWaitMs);
-        int maxTries = totalWaitMs / waitMs;
-        Retrying.retry(i -> proxy.getStatus() != ProxyStatus.Starting, maxTries, waitMs);
-
-        return (proxy.getStatus() == ProxyStatus.Up);
-    }
-
     private String buildContainerPath(HttpServletRequest request) {
         String queryString = ServletUriComponentsBuilder.fromRequest(request).replaceQueryParam("sp_hide_navbar").build().getQuery();
         queryString = (queryString == null) ? "" : "?" + queryString;
@@ -6,6 +6,8 @@ import org.springframework.context.ApplicationEvent;
 import java.time.Duration;
 
 public class ProxyStartEvent extends ApplicationEvent {
+    @Getter
+    private final String proxyId;
     @Getter
     private final String userId;
     @Getter
@@ -13,8 +15,9 @@ public class ProxyStartEvent extends ApplicationEvent {
     @Getter
     private final Duration startupTime;
 
-    public ProxyStartEvent(Object source, String userId, String specId, Duration startupTime) {
+    public ProxyStartEvent(Object source, String proxyId, String userId, String specId, Duration startupTime) {
         super(source);
+        this.proxyId = proxyId;
         this.userId = userId;
         this.specId = specId;
         this.startupTime = startupTime;
@@ -6,6 +6,8 @@ import org.springframework.context.ApplicationEvent;
 import java.time.Duration;
 
 public class ProxyStopEvent extends ApplicationEvent {
+    @Getter
+    private final String proxyId;
     @Getter
     private final String userId;
     @Getter
@@ -13,8 +15,9 @@ public class ProxyStopEvent extends ApplicationEvent {
     @Getter
     private final Duration usageTime;
 
-    public ProxyStopEvent(Object source, String userId, String specId, Duration usageTime) {
+    public ProxyStopEvent(Object source, String proxyId, String userId, String specId, Duration usageTime) {
         super(source);
+        this.proxyId = proxyId;
         this.userId = userId;
         this.specId = specId;
         this.usageTime = usageTime;
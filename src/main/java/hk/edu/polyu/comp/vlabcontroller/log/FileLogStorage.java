@@ -1,27 +1,98 @@
 package hk.edu.polyu.comp.vlabcontroller.log;
 
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
-
-import static com.pivovarit.function.ThrowingFunction.unchecked;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * <p>
+ * Stores the container logs as files, in segments (see {@link RotatingFileOutputStream}). A segment is closed when it
+ * exceeds <b>proxy.container-log-max-size</b> bytes (default 64 MB) or is older than
+ * <b>proxy.container-log-max-age</b> milliseconds (default 1 day). Closed segments are compressed with gzip in the
+ * background, unless <b>proxy.container-log-compress</b> is false. The last segment stays at the path of the log, also
+ * once the proxy stops.
+ * </p><p>
+ * The files are written behind (see {@link WriteBehindLogWriter}): at most <b>proxy.container-log-write-buffer-size</b>
+ * bytes (default 1 MB) are buffered per log, so that a slow disk never slows down the reading of the container output.
+ * </p><p>
+ * Parts of the logs can be read through their indexes (see {@link LogFileReader}), returning at most
+ * <b>proxy.container-log-max-read-size</b> bytes (default 1 MB) at once.
+ * </p>
+ */
 public class FileLogStorage extends AbstractLogStorage {
 
+    private final Logger log = LogManager.getLogger(FileLogStorage.class);
+    private long maxSize;
+    private long maxAge;
+    private boolean compress;
+    private int writeBufferSize;
+    private int maxReadSize;
+    private WriteBehindLogWriter writer;
+    private ExecutorService compressor;
+
     @Override
     public void initialize() throws IOException {
         super.initialize();
         Files.createDirectories(Paths.get(containerLogPath));
+        maxSize = Long.parseLong(environment.getProperty("proxy.container-log-max-size", String.valueOf(64 * 1024 * 1024)));
+        maxAge = Long.parseLong(environment.getProperty("proxy.container-log-max-age", String.valueOf(TimeUnit.DAYS.toMillis(1))));
+        compress = Boolean.parseBoolean(environment.getProperty("proxy.container-log-compress", "true"));
+        writeBufferSize = Integer.parseInt(environment.getProperty("proxy.container-log-write-buffer-size", String.valueOf(1024 * 1024)));
+        maxReadSize = Integer.parseInt(environment.getProperty("proxy.container-log-max-read-size", String.valueOf(1024 * 1024)));
+        writer = new WriteBehindLogWriter("file-log-writer");
+        compressor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "file-log-compressor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            writer.shutdown(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compressor.shutdown();
     }
 
     @Override
     public OutputStream[] createOutputStreams(Proxy proxy) throws IOException {
-        return Arrays.stream(getLogs(proxy)).map(unchecked(FileOutputStream::new)).toArray(OutputStream[]::new);
+        String[] paths = getLogs(proxy);
+        OutputStream[] streams = new OutputStream[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            RotatingFileOutputStream file = new RotatingFileOutputStream(Paths.get(paths[i]), maxSize, maxAge, this::onSegmentClosed);
+            streams[i] = writer.open(file, writeBufferSize);
+        }
+        return streams;
+    }
+
+    @Override
+    public LogChunk readLog(Proxy proxy, int logIndex, LogRange range) throws IOException {
+        String[] paths = getLogs(proxy);
+        if (logIndex < 0 || logIndex >= paths.length) return null;
+        return new LogFileReader(Paths.get(paths[logIndex]), maxReadSize).read(range);
+    }
+
+    private void onSegmentClosed(Path segment) {
+        if (!compress) return;
+        compressor.execute(() -> {
+            try {
+                RotatingFileOutputStream.gzip(segment);
+            } catch (IOException e) {
+                log.error("Failed to compress log file " + segment, e);
+            }
+        });
     }
 
 }
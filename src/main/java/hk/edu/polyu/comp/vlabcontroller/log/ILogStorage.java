@@ -15,4 +15,21 @@ public interface ILogStorage {
 
     String[] getLogs(Proxy proxy) throws IOException;
 
+    /**
+     * Read a part of a log of a proxy, without reading the whole log.
+     *
+     * @param logIndex The index of the log, as returned by {@link #getLogs(Proxy)} (0 for stdout, 1 for stderr).
+     * @param range    The part of the log to read.
+     * @return The part of the log, or null if this storage does not support reading logs.
+     */
+    default LogChunk readLog(Proxy proxy, int logIndex, LogRange range) throws IOException {
+        return null;
+    }
+
+    /**
+     * Release the resources of the storage, e.g. background threads.
+     */
+    default void shutdown() {
+    }
+
 }
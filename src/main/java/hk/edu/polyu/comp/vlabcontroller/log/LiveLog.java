@@ -0,0 +1,225 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>
+ * The recent output of a proxy, kept in memory so that any number of viewers can follow it live.
+ * </p><p>
+ * The output is appended to a ring buffer holding its last bytes. A new subscriber first receives this backlog (or the
+ * part of it following a given offset), and then every appended chunk. The chunks are delivered to the subscribers by
+ * the given executor, never by the thread appending the output: a subscriber that falls behind by more than
+ * <code>maxPending</code> bytes is dropped, instead of slowing down the output or buffering it without bounds.
+ * A dropped subscriber stops receiving output at once, even while a chunk is being delivered to it; it is notified
+ * once that delivery returns. Since every subscriber is drained by one task at a time, an executor that does not bound
+ * its number of threads keeps stalled subscribers from holding up the others.
+ * </p>
+ */
+@Log4j2
+public class LiveLog {
+
+    private final byte[] ring;
+    private final int maxPending;
+    private final Executor executor;
+    private final Set<Subscriber> subscribers = new HashSet<>();
+
+    // guarded by this
+    private long length; // total number of bytes appended
+    private boolean closed;
+
+    LiveLog(int capacity, int maxPending, Executor executor) {
+        this.ring = new byte[capacity];
+        this.maxPending = maxPending;
+        this.executor = executor;
+    }
+
+    void append(byte[] b, int off, int len) {
+        if (len <= 0) return;
+        byte[] chunk = new byte[len];
+        System.arraycopy(b, off, chunk, 0, len);
+        synchronized (this) {
+            if (closed) return;
+            long offset = length;
+            for (int copied = 0; copied < len; ) {
+                int position = (int) ((length + copied) % ring.length);
+                int count = Math.min(len - copied, ring.length - position);
+                System.arraycopy(b, off + copied, ring, position, count);
+                copied += count;
+            }
+            length += len;
+            subscribers.removeIf(subscriber -> !subscriber.offer(offset, chunk));
+        }
+    }
+
+    /**
+     * End the log: the subscribers receive the pending chunks, and are then notified of the end.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            subscribers.forEach(Subscriber::end);
+            subscribers.clear();
+        }
+    }
+
+    /**
+     * Follow the log, starting with the backlog following the given offset. If the backlog does not reach back to that
+     * offset, it starts at the beginning of the first complete line in the ring buffer instead.
+     *
+     * @param fromOffset The offset from which the output is replayed, e.g. 0 to replay the whole backlog.
+     * @return The subscription, which can be cancelled, or null if the log is closed.
+     */
+    public synchronized Subscription subscribe(long fromOffset, Listener listener) {
+        if (closed) return null;
+        Subscriber subscriber = new Subscriber(listener);
+        long backlogStart = Math.max(0, length - ring.length);
+        long start = Math.min(Math.max(fromOffset, backlogStart), length);
+        if (fromOffset < backlogStart) {
+            // skip the line that was cut by the ring buffer
+            for (long i = start; i < length; i++) {
+                if (ring[(int) (i % ring.length)] == '\n') {
+                    start = i + 1;
+                    break;
+                }
+            }
+        }
+        if (start < length) {
+            byte[] backlog = new byte[(int) (length - start)];
+            for (int copied = 0; copied < backlog.length; ) {
+                int position = (int) ((start + copied) % ring.length);
+                int count = Math.min(backlog.length - copied, ring.length - position);
+                System.arraycopy(ring, position, backlog, copied, count);
+                copied += count;
+            }
+            subscriber.offer(start, backlog);
+        }
+        subscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public synchronized int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public interface Listener {
+
+        /**
+         * Receive a chunk of output. Throwing cancels the subscription.
+         *
+         * @param offset The offset of the chunk in the output.
+         */
+        void onData(long offset, byte[] data) throws Exception;
+
+        /**
+         * Called once, when the log ends, the subscriber is dropped because it fell behind, or the subscription is
+         * cancelled.
+         *
+         * @param dropped Whether the subscriber was dropped.
+         */
+        void onEnd(boolean dropped);
+    }
+
+    public interface Subscription {
+        void cancel();
+    }
+
+    private class Subscriber implements Subscription {
+
+        private final Listener listener;
+
+        // guarded by this
+        private final Deque<Chunk> pending = new ArrayDeque<>();
+        private long pendingBytes;
+        private boolean scheduled;
+        private boolean ended;
+        private boolean dropped;
+        private boolean notified;
+
+        private Subscriber(Listener listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * @return false if the subscriber is dropped or ended.
+         */
+        private synchronized boolean offer(long offset, byte[] data) {
+            if (ended) return false;
+            if (pendingBytes > 0 && pendingBytes + data.length > maxPending) {
+                log.debug("Dropping live log subscriber: {} bytes pending", pendingBytes);
+                dropped = true;
+                ended = true;
+                pending.clear();
+                schedule();
+                return false;
+            }
+            pending.add(new Chunk(offset, data));
+            pendingBytes += data.length;
+            schedule();
+            return true;
+        }
+
+        private synchronized void end() {
+            ended = true;
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (LiveLog.this) {
+                subscribers.remove(this);
+            }
+            synchronized (this) {
+                ended = true;
+                pending.clear();
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled) return;
+            scheduled = true;
+            executor.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                Chunk chunk;
+                boolean notifyEnd;
+                synchronized (this) {
+                    chunk = pending.poll();
+                    if (chunk != null) pendingBytes -= chunk.data.length;
+                    notifyEnd = chunk == null && ended && !notified;
+                    if (notifyEnd) notified = true;
+                    if (chunk == null) scheduled = false;
+                }
+                if (chunk == null) {
+                    if (notifyEnd) listener.onEnd(dropped);
+                    return;
+                }
+                try {
+                    listener.onData(chunk.offset, chunk.data);
+                } catch (Exception e) {
+                    log.debug("Live log subscriber failed: {}", e.toString());
+                    cancel();
+                }
+            }
+        }
+    }
+
+    private static class Chunk {
+        private final long offset;
+        private final byte[] data;
+
+        private Chunk(long offset, byte[] data) {
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Keeps the {@link LiveLog} of every proxy whose output is logged, so that viewers can follow the output without
+ * opening another stream to the container.
+ * </p><p>
+ * The live log of a proxy holds the last <b>proxy.container-log-live-buffer-size</b> bytes of its output (default
+ * 64 KB), and drops viewers that fall behind by more than <b>proxy.container-log-live-max-pending</b> bytes (default
+ * 256 KB). The output is delivered to the viewers by an elastic set of threads, with at most one thread per viewer:
+ * a viewer whose connection stalls blocks only its own delivery, never the delivery to the other viewers.
+ * </p>
+ */
+@Component
+public class LiveLogHub {
+
+    private final Map<String, LiveLog> liveLogs = new ConcurrentHashMap<>(); // proxyId -> live log
+    private final int bufferSize;
+    private final int maxPending;
+    private final ExecutorService executor;
+
+    public LiveLogHub(Environment environment) {
+        bufferSize = Math.max(1, environment.getProperty("proxy.container-log-live-buffer-size", Integer.class, 64 * 1024));
+        maxPending = environment.getProperty("proxy.container-log-live-max-pending", Integer.class, 256 * 1024);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "live-log-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        liveLogs.values().forEach(LiveLog::close);
+        executor.shutdown();
+    }
+
+    /**
+     * Start the live log of a proxy.
+     *
+     * @param target The stream to which the output of the proxy is written.
+     * @return A stream writing to the target and to the live log. Closing it ends the live log.
+     */
+    public OutputStream tee(String proxyId, OutputStream target) {
+        LiveLog liveLog = new LiveLog(bufferSize, maxPending, executor);
+        LiveLog previous = liveLogs.put(proxyId, liveLog);
+        if (previous != null) previous.close();
+        return new FilterOutputStream(target) {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                liveLog.append(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                remove(proxyId, liveLog);
+                super.close();
+            }
+        };
+    }
+
+    /**
+     * @return The live log of a proxy, or null if its output is not followed.
+     */
+    public LiveLog get(String proxyId) {
+        return liveLogs.get(proxyId);
+    }
+
+    /**
+     * End the live log of a proxy.
+     */
+    public void remove(String proxyId) {
+        LiveLog liveLog = liveLogs.remove(proxyId);
+        if (liveLog != null) liveLog.close();
+    }
+
+    private void remove(String proxyId, LiveLog liveLog) {
+        liveLogs.remove(proxyId, liveLog);
+        liveLog.close();
+    }
+}
@@ -0,0 +1,36 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import lombok.Getter;
+
+/**
+ * A part of a container log, as read by {@link ILogStorage#readLog(hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy, int, LogRange)}.
+ * The offsets count the bytes from the start of the log, over all its segments, so that a client can e.g. follow the
+ * log by reading from the end offset of the previous chunk.
+ */
+public class LogChunk {
+
+    /**
+     * Offset of the first byte of the content.
+     */
+    @Getter
+    private final long start;
+    /**
+     * Offset following the last byte of the content.
+     */
+    @Getter
+    private final long end;
+    /**
+     * Total length of the log when it was read.
+     */
+    @Getter
+    private final long length;
+    @Getter
+    private final byte[] content;
+
+    public LogChunk(long start, long length, byte[] content) {
+        this.start = start;
+        this.end = start + content.length;
+        this.length = length;
+        this.content = content;
+    }
+}
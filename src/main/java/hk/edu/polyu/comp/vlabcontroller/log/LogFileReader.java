@@ -0,0 +1,193 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * <p>
+ * Reads parts of a log written by {@link RotatingFileOutputStream}, over all its segments.
+ * </p><p>
+ * Only the requested bytes are read: uncompressed segments are read through a memory-mapped {@link FileChannel}, and
+ * the length of compressed segments is known from their index (see {@link LogIndex}). The last lines are found by
+ * scanning backwards from the end of the log, and time ranges are located with binary searches over the timestamps of
+ * the indexes. Compressed segments cannot be read at random positions though: reading a part of such a segment
+ * decompresses it up to that part. Hence a read decompresses every segment at most once, and the last lines of a
+ * compressed segment are read at once, from the index entry preceding them. At most <code>maxReadSize</code> bytes are
+ * returned.
+ * </p>
+ */
+class LogFileReader {
+
+    private static final int TAIL_WINDOW = 8 * 1024;
+
+    private final Path activeFile;
+    private final int maxReadSize;
+
+    LogFileReader(Path activeFile, int maxReadSize) {
+        this.activeFile = activeFile;
+        this.maxReadSize = maxReadSize;
+    }
+
+    LogChunk read(LogRange range) throws IOException {
+        List<Segment> segments = segments();
+        long length = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).end();
+        switch (range.getType()) {
+            case LAST_LINES:
+                return readLastLines(segments, length, range.getFrom());
+            case TIME:
+                return readTime(segments, length, range.getFrom(), range.getTo());
+            default:
+                return readBytes(segments, length, range.getFrom(), range.getTo());
+        }
+    }
+
+    private LogChunk readBytes(List<Segment> segments, long length, long from, long to) throws IOException {
+        long start = Math.min(from, length);
+        long end = Math.min(Math.min(to, length), start + maxReadSize);
+        return new LogChunk(start, length, read(segments, start, end));
+    }
+
+    private LogChunk readLastLines(List<Segment> segments, long length, long lines) throws IOException {
+        if (lines == 0) return new LogChunk(length, length, new byte[0]);
+        // the window grows backwards from the end of the log, until it holds enough lines
+        byte[] tail = new byte[0];
+        long start = length;
+        long newlines = 0;
+        int current = segments.size() - 1;
+        while (start > 0 && tail.length < maxReadSize) {
+            while (segments.get(current).start >= start) current--;
+            Segment segment = segments.get(current);
+            long windowStart;
+            if (segment.compressed) {
+                long from = segment.start;
+                if (start == segment.end()) {
+                    // one more line than missing, for a newline ending the log
+                    LogIndex.Entry entry = LogIndex.lastWithLinesAtMost(segment.file, segment.lines - (lines - newlines) - 2);
+                    if (entry != null) from += entry.offset;
+                }
+                windowStart = Math.max(start - (maxReadSize - tail.length), from);
+            } else {
+                windowStart = Math.max(segment.start, start - Math.min(Math.max(TAIL_WINDOW, tail.length), maxReadSize - tail.length));
+            }
+            byte[] window = read(segments, windowStart, start);
+            for (int i = window.length - 1; i >= 0; i--) {
+                // a newline at the very end of the log terminates the last line, rather than starting a new one
+                if (window[i] == '\n' && windowStart + i != length - 1 && ++newlines == lines) {
+                    byte[] content = new byte[window.length - i - 1 + tail.length];
+                    System.arraycopy(window, i + 1, content, 0, window.length - i - 1);
+                    System.arraycopy(tail, 0, content, window.length - i - 1, tail.length);
+                    return new LogChunk(windowStart + i + 1, length, content);
+                }
+            }
+            byte[] grown = new byte[window.length + tail.length];
+            System.arraycopy(window, 0, grown, 0, window.length);
+            System.arraycopy(tail, 0, grown, window.length, tail.length);
+            tail = grown;
+            start = windowStart;
+        }
+        return new LogChunk(start, length, tail);
+    }
+
+    private LogChunk readTime(List<Segment> segments, long length, long fromMs, long toMs) throws IOException {
+        // the bytes between two entries were written between the timestamps of the entries
+        long start = 0;
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            LogIndex.Entry entry = LogIndex.lastWrittenAtOrBefore(segments.get(i).file, fromMs);
+            if (entry != null) {
+                start = segments.get(i).start + entry.offset;
+                break;
+            }
+        }
+        long end = length;
+        for (Segment segment : segments) {
+            LogIndex.Entry entry = LogIndex.firstWrittenAfter(segment.file, toMs);
+            if (entry != null) {
+                end = segment.start + entry.offset;
+                break;
+            }
+        }
+        return readBytes(segments, length, start, Math.max(start, end));
+    }
+
+    private byte[] read(List<Segment> segments, long start, long end) throws IOException {
+        byte[] result = new byte[(int) (end - start)];
+        for (Segment segment : segments) {
+            if (segment.end() <= start || segment.start >= end) continue;
+            long from = Math.max(start, segment.start) - segment.start;
+            long to = Math.min(end, segment.end()) - segment.start;
+            int position = (int) (segment.start + from - start);
+            if (segment.compressed) {
+                try (InputStream in = new GZIPInputStream(Files.newInputStream(RotatingFileOutputStream.gzipFile(segment.file)))) {
+                    long skipped = 0;
+                    while (skipped < from) {
+                        long count = in.skip(from - skipped);
+                        if (count <= 0) throw new IOException("Unexpected end of log segment " + segment.file);
+                        skipped += count;
+                    }
+                    if (in.readNBytes(result, position, (int) (to - from)) < to - from) {
+                        throw new IOException("Unexpected end of log segment " + segment.file);
+                    }
+                }
+            } else {
+                try (FileChannel channel = FileChannel.open(segment.file, StandardOpenOption.READ)) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+                    buffer.get(result, position, (int) (to - from));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The closed segments of the log in order, followed by the active file.
+     */
+    private List<Segment> segments() throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        long start = 0;
+        for (int i = 1; ; i++) {
+            Path file = RotatingFileOutputStream.segmentFile(activeFile, i);
+            Segment segment;
+            if (Files.exists(file)) {
+                segment = new Segment(file, false, start, Files.size(file), 0);
+            } else if (Files.exists(RotatingFileOutputStream.gzipFile(file))) {
+                LogIndex.Entry last = LogIndex.readLast(file);
+                if (last == null) throw new IOException("Missing index of log segment " + file);
+                segment = new Segment(file, true, start, last.offset, last.lines);
+            } else {
+                break;
+            }
+            segments.add(segment);
+            start = segment.end();
+        }
+        if (Files.exists(activeFile)) segments.add(new Segment(activeFile, false, start, Files.size(activeFile), 0));
+        return segments;
+    }
+
+    private static class Segment {
+        private final Path file; // the uncompressed file, even if the segment is compressed
+        private final boolean compressed;
+        private final long start;
+        private final long length;
+        private final long lines; // only known if the segment is compressed
+
+        private Segment(Path file, boolean compressed, long start, long length, long lines) {
+            this.file = file;
+            this.compressed = compressed;
+            this.start = start;
+            this.length = length;
+            this.lines = lines;
+        }
+
+        private long end() {
+            return start + length;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * Sparse index of a log segment, stored next to the segment (e.g. <code>x_stdout.1.log.idx</code> for
+ * <code>x_stdout.1.log</code>, also once the segment is compressed).
+ * </p><p>
+ * Every entry records an offset in the (uncompressed) segment, the number of lines before that offset, and the time at
+ * which the bytes following the offset were written. An entry is written when the segment is opened, before the first
+ * write following every {@link #INTERVAL} bytes, and when the segment is closed, so that the last entry of a closed
+ * segment holds its length and number of lines.
+ * </p>
+ */
+class LogIndex {
+
+    static final int INTERVAL = 64 * 1024;
+    private static final int ENTRY_SIZE = 3 * Long.BYTES;
+
+    private LogIndex() {
+    }
+
+    static Path indexFile(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + ".idx");
+    }
+
+    static DataOutputStream openWriter(Path segment) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile(segment), StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    static void write(DataOutputStream index, long offset, long lines, long timestamp) throws IOException {
+        index.writeLong(offset);
+        index.writeLong(lines);
+        index.writeLong(timestamp);
+    }
+
+    /**
+     * @return The last entry of the index of a segment, reading only that entry, or null if there is none.
+     */
+    static Entry readLast(Path segment) throws IOException {
+        return search(segment, entry -> false, false);
+    }
+
+    /**
+     * @return The last entry written at or before the given time, or null if there is none.
+     */
+    static Entry lastWrittenAtOrBefore(Path segment, long timestamp) throws IOException {
+        return search(segment, entry -> entry.timestamp > timestamp, false);
+    }
+
+    /**
+     * @return The first entry written after the given time, or null if there is none.
+     */
+    static Entry firstWrittenAfter(Path segment, long timestamp) throws IOException {
+        return search(segment, entry -> entry.timestamp > timestamp, true);
+    }
+
+    /**
+     * @return The last entry preceded by at most the given number of lines, or null if there is none.
+     */
+    static Entry lastWithLinesAtMost(Path segment, long lines) throws IOException {
+        return search(segment, entry -> entry.lines > lines, false);
+    }
+
+    /**
+     * Binary search of the index of a segment, reading only the visited entries. The entries are ordered by offset,
+     * hence by number of lines and (the clock permitting) by time.
+     *
+     * @param isAfter    Whether an entry comes after the searched position, false for all entries preceding it.
+     * @param firstAfter Whether to return the first entry after the position, rather than the last one before it.
+     * @return The entry, or null if there is none (or no index).
+     */
+    private static Entry search(Path segment, Predicate<Entry> isAfter, boolean firstAfter) throws IOException {
+        Path indexFile = indexFile(segment);
+        if (!Files.exists(indexFile)) return null;
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            // the last entry may still be partially written, if the segment is active
+            long entries = channel.size() / ENTRY_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+            long low = 0;
+            long high = entries;
+            while (low < high) {
+                long middle = (low + high) >>> 1;
+                if (isAfter.test(readEntry(channel, middle, buffer))) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            long found = firstAfter ? low : low - 1;
+            if (found < 0 || found >= entries) return null;
+            return readEntry(channel, found, buffer);
+        }
+    }
+
+    private static Entry readEntry(FileChannel channel, long entry, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        long position = entry * ENTRY_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("Unexpected end of log index");
+        }
+        buffer.flip();
+        return new Entry(buffer.getLong(), buffer.getLong(), buffer.getLong());
+    }
+
+    static class Entry {
+        final long offset;
+        final long lines;
+        final long timestamp;
+
+        Entry(long offset, long lines, long timestamp) {
+            this.offset = offset;
+            this.lines = lines;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * Copies the output of the containers of all proxies into the log storage, using two small fixed sets of threads.
+ * </p><p>
+ * The output is read without blocking by an asynchronous HTTP client (see
+ * {@link hk.edu.polyu.comp.vlabcontroller.backend.IContainerBackend#pumpOutput}) that runs on the client threads of the
+ * pump (<b>proxy.container-log-pump-threads</b>, default 2). Every chunk of output is written to the storage by a writer
+ * thread (<b>proxy.container-log-pump-writer-threads</b>, default 4), so that blocking writes (e.g. the upload of a
+ * part to S3) never hold up the clients, and the next chunk is only requested once it is written: a slow storage thus
+ * slows down its own stream, without buffering the output in memory. Chunks that are not backed by an accessible array
+ * are copied through a scratch buffer of the writer thread (<b>proxy.container-log-pump-buffer-size</b>, default 8 KB),
+ * so that the memory used for copying is bounded by the number of threads instead of the number of streams.
+ * </p><p>
+ * Per stream, the bytes written (<b>logPumpBytes</b>) and the delay between receiving a chunk and writing it
+ * (<b>logPumpLag</b>) are exposed, tagged with the proxy and spec ids.
+ * </p>
+ */
+@Log4j2
+@Component
+public class LogPump {
+
+    private final MeterRegistry registry;
+    private final ExecutorService clientExecutor;
+    private final ExecutorService writerExecutor;
+    private final ThreadLocal<byte[]> scratchBuffers;
+    private final Map<String, PumpedStream> streams = new ConcurrentHashMap<>(); // proxyId -> stream
+
+    public LogPump(Environment environment, MeterRegistry registry) {
+        this.registry = registry;
+        int clientThreads = environment.getProperty("proxy.container-log-pump-threads", Integer.class, 2);
+        int writerThreads = environment.getProperty("proxy.container-log-pump-writer-threads", Integer.class, 4);
+        int bufferSize = environment.getProperty("proxy.container-log-pump-buffer-size", Integer.class, 8 * 1024);
+        this.clientExecutor = newExecutor(clientThreads, "log-pump-client-");
+        this.writerExecutor = newExecutor(writerThreads, "log-pump-writer-");
+        this.scratchBuffers = ThreadLocal.withInitial(() -> new byte[bufferSize]);
+        Gauge.builder("logPumpStreams", streams, Map::size).register(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        streams.values().forEach(PumpedStream::cancel);
+        clientExecutor.shutdown();
+        writerExecutor.shutdown();
+    }
+
+    /**
+     * @return The executor that reading clients should use, so that the streams are read by the client threads.
+     */
+    public ExecutorService getExecutor() {
+        return clientExecutor;
+    }
+
+    private static ExecutorService newExecutor(int threads, String namePrefix) {
+        AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Create a body subscriber that pumps the body of a response into the given stream, replacing any previous stream
+     * of the same proxy. The body completes when the response ends, or when the stream is stopped.
+     */
+    public HttpResponse.BodySubscriber<Void> subscriber(Proxy proxy, OutputStream sink) {
+        PumpedStream stream = new PumpedStream(proxy, sink);
+        PumpedStream previous = streams.put(proxy.getId(), stream);
+        if (previous != null) previous.cancel();
+        return HttpResponse.BodySubscribers.fromSubscriber(stream);
+    }
+
+    /**
+     * Stop pumping the output of a proxy. The sink is not closed.
+     */
+    public void stop(String proxyId) {
+        PumpedStream stream = streams.remove(proxyId);
+        if (stream != null) stream.cancel();
+    }
+
+    private class PumpedStream implements Flow.Subscriber<List<ByteBuffer>> {
+
+        private final String proxyId;
+        private final OutputStream sink;
+        private final Counter bytes;
+        private final Timer lag;
+        private final CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+        private volatile boolean cancelled;
+
+        private PumpedStream(Proxy proxy, OutputStream sink) {
+            this.proxyId = proxy.getId();
+            this.sink = sink;
+            Tags tags = Tags.of("proxy.id", proxy.getId(), "spec.id", proxy.getSpec() == null ? "" : proxy.getSpec().getId());
+            this.bytes = Counter.builder("logPumpBytes").baseUnit("bytes").tags(tags).register(registry);
+            this.lag = Timer.builder("logPumpLag").tags(tags).register(registry);
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            if (!this.subscription.complete(subscription) || cancelled) {
+                subscription.cancel();
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> chunk) {
+            long receivedAt = System.nanoTime();
+            writerExecutor.execute(() -> {
+                if (cancelled) return;
+                try {
+                    for (ByteBuffer buffer : chunk) {
+                        bytes.increment(write(buffer));
+                    }
+                    sink.flush();
+                } catch (IOException e) {
+                    log.debug("Stopped pumping output of proxy {}: {}", proxyId, e.toString());
+                    cancel();
+                    return;
+                } finally {
+                    lag.record(System.nanoTime() - receivedAt, TimeUnit.NANOSECONDS);
+                }
+                subscription.join().request(1);
+            });
+        }
+
+        private int write(ByteBuffer buffer) throws IOException {
+            int length = buffer.remaining();
+            if (buffer.hasArray()) {
+                sink.write(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+                buffer.position(buffer.limit());
+                return length;
+            }
+            byte[] scratch = scratchBuffers.get();
+            while (buffer.hasRemaining()) {
+                int count = Math.min(scratch.length, buffer.remaining());
+                buffer.get(scratch, 0, count);
+                sink.write(scratch, 0, count);
+            }
+            return length;
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (!cancelled) log.warn("Error while pumping output of proxy {}: {}", proxyId, throwable.toString());
+            end();
+        }
+
+        @Override
+        public void onComplete() {
+            log.debug("Output of proxy {} ended", proxyId);
+            end();
+        }
+
+        private void cancel() {
+            cancelled = true;
+            subscription.thenAccept(Flow.Subscription::cancel);
+            end();
+        }
+
+        private void end() {
+            streams.remove(proxyId, this);
+            registry.remove(bytes);
+            registry.remove(lag);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import lombok.Getter;
+
+/**
+ * A part of a container log to read, see {@link ILogStorage#readLog(hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy, int, LogRange)}.
+ */
+public class LogRange {
+
+    public enum Type {
+        /**
+         * The last lines of the log, <code>from</code> being the number of lines.
+         */
+        LAST_LINES,
+        /**
+         * The bytes from offset <code>from</code> (inclusive) to offset <code>to</code> (exclusive).
+         */
+        BYTES,
+        /**
+         * The output written between the timestamps (in milliseconds) <code>from</code> and <code>to</code>.
+         */
+        TIME
+    }
+
+    @Getter
+    private final Type type;
+    @Getter
+    private final long from;
+    @Getter
+    private final long to;
+
+    private LogRange(Type type, long from, long to) {
+        this.type = type;
+        this.from = from;
+        this.to = to;
+    }
+
+    public static LogRange lastLines(int lines) {
+        return new LogRange(Type.LAST_LINES, Math.max(lines, 0), Long.MAX_VALUE);
+    }
+
+    /**
+     * @throws IllegalArgumentException If <code>to</code> is before <code>from</code>.
+     */
+    public static LogRange bytes(long from, long to) {
+        from = Math.max(from, 0);
+        if (to < from) throw new IllegalArgumentException(String.format("Invalid byte range: %d to %d", from, to));
+        return new LogRange(Type.BYTES, from, to);
+    }
+
+    public static LogRange time(long fromMs, long toMs) {
+        return new LogRange(Type.TIME, fromMs, toMs);
+    }
+}
@@ -0,0 +1,170 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * <p>
+ * Writes a log file in segments.
+ * </p><p>
+ * The bytes are written to the active file (e.g. <code>x_stdout.log</code>). As soon as the active file exceeds the
+ * maximum size, or is older than the maximum age, it is closed and renamed to the next segment (e.g.
+ * <code>x_stdout.1.log</code>, <code>x_stdout.2.log</code>, ...), and a new active file is started. Every closed
+ * segment is handed to the segment listener, e.g. to compress it with {@link #gzip(Path)}. Every segment is indexed,
+ * see {@link LogIndex}.
+ * </p><p>
+ * Closing the stream keeps the active file, so that the end of the log stays at the path of the log (see
+ * {@link ILogStorage#getLogs}). Reopening the stream appends to it.
+ * </p><p>
+ * Not thread-safe: the stream is meant to be written by a single thread.
+ * </p>
+ */
+class RotatingFileOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path activeFile;
+    private final long maxSize;
+    private final long maxAgeMs;
+    private final Consumer<Path> segmentListener;
+
+    private OutputStream out;
+    private DataOutputStream index;
+    private long size;
+    private long lines;
+    private long indexedOffset;
+    private long openedAt;
+    private int segment;
+
+    /**
+     * @param maxSize         The maximum size of a segment in bytes, or 0 to not rotate by size.
+     * @param maxAgeMs        The maximum age of a segment in milliseconds, or 0 to not rotate by age.
+     * @param segmentListener Called with the path of every closed segment.
+     */
+    RotatingFileOutputStream(Path activeFile, long maxSize, long maxAgeMs, Consumer<Path> segmentListener) throws IOException {
+        this.activeFile = activeFile;
+        this.maxSize = maxSize;
+        this.maxAgeMs = maxAgeMs;
+        this.segmentListener = segmentListener;
+        open();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (out == null) throw new IOException("Stream closed");
+        if (size > 0 && (maxSize > 0 && size + len > maxSize || maxAgeMs > 0 && System.currentTimeMillis() - openedAt >= maxAgeMs)) {
+            rotate();
+            open();
+        }
+        if (size - indexedOffset >= LogIndex.INTERVAL) writeIndexEntry();
+        out.write(b, off, len);
+        size += len;
+        for (int i = off; i < off + len; i++) {
+            if (b[i] == '\n') lines++;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (out == null) return;
+        out.flush();
+        index.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (out == null) return;
+        out.close();
+        if (size > indexedOffset) writeIndexEntry();
+        index.close();
+        out = null;
+        if (size == 0) {
+            Files.deleteIfExists(activeFile);
+            Files.deleteIfExists(LogIndex.indexFile(activeFile));
+        }
+    }
+
+    private void open() throws IOException {
+        out = new BufferedOutputStream(Files.newOutputStream(activeFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND), BUFFER_SIZE);
+        size = Files.size(activeFile);
+        lines = size == 0 ? 0 : countLines(activeFile);
+        openedAt = System.currentTimeMillis();
+        index = LogIndex.openWriter(activeFile);
+        writeIndexEntry();
+    }
+
+    private void writeIndexEntry() throws IOException {
+        LogIndex.write(index, size, lines, System.currentTimeMillis());
+        indexedOffset = size;
+    }
+
+    private static long countLines(Path file) throws IOException {
+        long count = 0;
+        try (InputStream in = Files.newInputStream(file)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private void rotate() throws IOException {
+        out.close();
+        writeIndexEntry();
+        index.close();
+        out = null;
+        Path segmentFile;
+        do {
+            segmentFile = segmentFile(activeFile, ++segment);
+        } while (Files.exists(segmentFile) || Files.exists(gzipFile(segmentFile)));
+        Files.move(activeFile, segmentFile);
+        Files.move(LogIndex.indexFile(activeFile), LogIndex.indexFile(segmentFile));
+        segmentListener.accept(segmentFile);
+    }
+
+    /**
+     * @return The path of the given segment of a log file, e.g. <code>x_stdout.2.log</code> for <code>x_stdout.log</code>.
+     */
+    static Path segmentFile(Path activeFile, int segment) {
+        String name = activeFile.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        String segmentName = extension < 0 ? name + "." + segment : name.substring(0, extension) + "." + segment + name.substring(extension);
+        return activeFile.resolveSibling(segmentName);
+    }
+
+    static Path gzipFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".gz");
+    }
+
+    /**
+     * Compress a file with gzip, streaming, and replace it by the compressed file.
+     */
+    static void gzip(Path file) throws IOException {
+        Path target = gzipFile(file);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (InputStream in = Files.newInputStream(file);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp), BUFFER_SIZE)) {
+            in.transferTo(out);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        Files.delete(file);
+    }
+}
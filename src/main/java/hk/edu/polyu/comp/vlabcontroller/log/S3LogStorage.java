@@ -1,31 +1,39 @@
 package hk.edu.polyu.comp.vlabcontroller.log;
 
-import com.amazonaws.AmazonClientException;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.S3Object;
-import com.amazonaws.services.s3.transfer.TransferManager;
-import com.amazonaws.services.s3.transfer.TransferManagerBuilder;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.bouncycastle.util.Arrays;
 
-import java.io.*;
-
-//TODO Optimize flushing behaviour
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the container logs on S3, see {@link S3MultipartOutputStream}.
+ * The logs are uploaded in parts of at most <b>proxy.container-log-s3-part-size</b> bytes (default and minimum 5 MB),
+ * and the buffered logs are flushed every <b>proxy.container-log-s3-flush-interval</b> milliseconds (default 60000),
+ * each flush completing an object of the log. A proxy buffers at most two parts in memory, one per output stream,
+ * and only as much as its containers wrote since the last flush.
+ */
 public class S3LogStorage extends AbstractLogStorage {
 
     private final Logger log = LogManager.getLogger(S3LogStorage.class);
     private AmazonS3 s3;
-    private TransferManager transferMgr;
     private String bucketName;
     private String bucketPath;
     private boolean enableSSE;
+    private int partSize;
+    private long flushInterval;
+    private ScheduledExecutorService flusher;
 
     @Override
     public void initialize() throws IOException {
@@ -35,6 +43,8 @@ public class S3LogStorage extends AbstractLogStorage {
         String accessSecret = environment.getProperty("proxy.container-log-s3-access-secret");
         String endpoint = environment.getProperty("proxy.container-log-s3-endpoint", "https://s3-eu-west-1.amazonaws.com");
         enableSSE = Boolean.valueOf(environment.getProperty("proxy.container-log-s3-sse", "false"));
+        partSize = Integer.parseInt(environment.getProperty("proxy.container-log-s3-part-size", String.valueOf(S3MultipartOutputStream.MIN_PART_SIZE)));
+        flushInterval = Long.parseLong(environment.getProperty("proxy.container-log-s3-flush-interval", "60000"));
 
         String subPath = containerLogPath.substring("s3://".length()).trim();
         if (subPath.endsWith("/")) subPath = subPath.substring(0, subPath.length() - 1);
@@ -53,9 +63,11 @@ public class S3LogStorage extends AbstractLogStorage {
                 .enablePathStyleAccess()
                 .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, accessSecret)))
                 .build();
-        transferMgr = TransferManagerBuilder.standard()
-                .withS3Client(s3)
-                .build();
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "s3-log-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Override
@@ -64,73 +76,43 @@ public class S3LogStorage extends AbstractLogStorage {
         OutputStream[] streams = new OutputStream[2];
         for (int i = 0; i < streams.length; i++) {
             String fileName = paths[i].substring(paths[i].lastIndexOf("/") + 1);
-            // TODO kubernetes never flushes. So perform timed flushes, and also flush upon container shutdown
-            streams[i] = new BufferedOutputStream(new S3OutputStream(bucketPath + fileName), 1024 * 1024);
+            streams[i] = new TimedFlushStream(new S3MultipartOutputStream(s3, bucketName, bucketPath + fileName, partSize, enableSSE));
         }
         return streams;
     }
 
-    private void doUpload(String key, byte[] bytes) throws IOException {
-        byte[] bytesToUpload = bytes;
-
-        byte[] originalBytes = getContent(key);
-        if (originalBytes != null) {
-            bytesToUpload = Arrays.copyOf(originalBytes, originalBytes.length + bytes.length);
-            System.arraycopy(bytes, 0, bytesToUpload, originalBytes.length, bytes.length);
-        }
-
-        ObjectMetadata metadata = new ObjectMetadata();
-        metadata.setContentLength(bytesToUpload.length);
-        if (enableSSE) metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
-
-        if (log.isDebugEnabled())
-            log.debug(String.format("Writing log file to S3 [size: %d] [path: %s]", bytesToUpload.length, key));
-
-        InputStream bufferedInput = new BufferedInputStream(new ByteArrayInputStream(bytesToUpload), 20 * 1024 * 1024);
-        try {
-            transferMgr.upload(bucketName, key, bufferedInput, metadata).waitForCompletion();
-        } catch (AmazonClientException | InterruptedException e) {
-            throw new IOException(e);
-        }
-    }
-
-    private byte[] getContent(String key) throws IOException {
-        if (s3.doesObjectExist(bucketName, key)) {
-            S3Object o = s3.getObject(bucketName, key);
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            try (InputStream in = o.getObjectContent()) {
-                byte[] buffer = new byte[40 * 1024];
-                int len = 0;
-                while ((len = in.read(buffer)) > 0) {
-                    out.write(buffer, 0, len);
-                }
-            }
-            return out.toByteArray();
-        } else {
-            return null;
-        }
+    @Override
+    public void shutdown() {
+        if (flusher != null) flusher.shutdown();
     }
 
-    private class S3OutputStream extends OutputStream {
+    /**
+     * Registers the stream for the timed flushes as long as it is open, because Kubernetes never flushes the streams.
+     */
+    private class TimedFlushStream extends FilterOutputStream {
 
-        private final String s3Key;
+        private final ScheduledFuture<?> flushTask;
 
-        public S3OutputStream(String s3Key) {
-            this.s3Key = s3Key;
+        private TimedFlushStream(OutputStream out) {
+            super(out);
+            flushTask = flusher.scheduleWithFixedDelay(() -> {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    log.error("Failed to flush container log to S3", e);
+                }
+            }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
         }
 
         @Override
-        public void write(int b) throws IOException {
-            // Warning: highly inefficient. Always write arrays.
-            byte[] bytesToCopy = new byte[]{(byte) b};
-            write(bytesToCopy, 0, 1);
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
         }
 
         @Override
-        public void write(byte[] b, int off, int len) throws IOException {
-            byte[] bytesToCopy = new byte[len];
-            System.arraycopy(b, off, bytesToCopy, 0, len);
-            doUpload(s3Key, bytesToCopy);
+        public void close() throws IOException {
+            flushTask.cancel(false);
+            out.close();
         }
     }
 }
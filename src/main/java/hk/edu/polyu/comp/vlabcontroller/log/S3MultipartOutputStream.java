@@ -0,0 +1,194 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Writes a log file to S3 as a sequence of objects, each one written with a multipart upload.
+ * </p><p>
+ * The written bytes are buffered in memory, and uploaded as a part as soon as the buffer reaches the part size.
+ * Hence at most one part is kept in memory: the buffer grows with the written bytes up to the part size, is reused
+ * for every part, and uploaded bytes are never read again.
+ * </p><p>
+ * {@link #flush()} and {@link #close()} upload the remaining bytes and complete the current object, after which it is
+ * available (objects that never fill a part are uploaded at once instead). After a flush, the next bytes go to a new
+ * object, numbered like the rotated log files: <code>x_stdout.log</code>, <code>x_stdout.1.log</code>,
+ * <code>x_stdout.2.log</code>, ...
+ * </p>
+ */
+class S3MultipartOutputStream extends OutputStream {
+
+    static final int MIN_PART_SIZE = 5 * 1024 * 1024;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final Logger log = LogManager.getLogger(S3MultipartOutputStream.class);
+    private final AmazonS3 s3;
+    private final String bucketName;
+    private final String key;
+    private final int partSize;
+    private final boolean enableSSE;
+
+    private byte[] buffer;
+    private int count;
+    private final List<PartETag> partETags = new ArrayList<>();
+    private String uploadId;
+    private int segment;
+    private boolean closed;
+
+    S3MultipartOutputStream(AmazonS3 s3, String bucketName, String key, int partSize, boolean enableSSE) {
+        this.s3 = s3;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.partSize = Math.max(partSize, MIN_PART_SIZE);
+        this.enableSSE = enableSSE;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        while (len > 0) {
+            ensureCapacity(Math.min(partSize, count + len));
+            int n = Math.min(len, partSize - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count >= partSize) uploadPart();
+        }
+    }
+
+    /**
+     * Complete the current object, if anything was written to it, and continue with the next one.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (closed || (count == 0 && uploadId == null)) return;
+        try {
+            completeObject();
+        } finally {
+            segment++;
+            uploadId = null;
+            partETags.clear();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            completeObject();
+        } finally {
+            buffer = null;
+        }
+    }
+
+    private void completeObject() throws IOException {
+        try {
+            if (uploadId == null) {
+                if (count > 0) putObject();
+                return;
+            }
+            if (count > 0) uploadPart();
+            s3.completeMultipartUpload(new CompleteMultipartUploadRequest(bucketName, currentKey(), uploadId, partETags));
+            if (log.isDebugEnabled()) log.debug(String.format("Completed log file on S3 [parts: %d] [path: %s]", partETags.size(), currentKey()));
+        } catch (IOException | AmazonClientException e) {
+            abort();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        } finally {
+            count = 0;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer == null) {
+            buffer = new byte[Math.min(partSize, Math.max(INITIAL_BUFFER_SIZE, capacity))];
+        } else if (buffer.length < capacity) {
+            buffer = Arrays.copyOf(buffer, Math.min(partSize, Math.max(buffer.length * 2, capacity)));
+        }
+    }
+
+    /**
+     * @return The key of the object that is being written: the key of the log file, numbered after the first flush.
+     */
+    private String currentKey() {
+        return segmentKey(key, segment);
+    }
+
+    static String segmentKey(String key, int segment) {
+        if (segment == 0) return key;
+        int extension = key.lastIndexOf('.');
+        if (extension <= key.lastIndexOf('/')) return key + "." + segment;
+        return key.substring(0, extension) + "." + segment + key.substring(extension);
+    }
+
+    private void uploadPart() throws IOException {
+        try {
+            if (uploadId == null) {
+                InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucketName, currentKey(), newMetadata());
+                uploadId = s3.initiateMultipartUpload(request).getUploadId();
+            }
+            int partNumber = partETags.size() + 1;
+            UploadPartRequest request = new UploadPartRequest()
+                    .withBucketName(bucketName)
+                    .withKey(currentKey())
+                    .withUploadId(uploadId)
+                    .withPartNumber(partNumber)
+                    .withPartSize(count)
+                    .withInputStream(new ByteArrayInputStream(buffer, 0, count));
+            partETags.add(s3.uploadPart(request).getPartETag());
+            if (log.isDebugEnabled()) log.debug(String.format("Uploaded log part to S3 [part: %d] [size: %d] [path: %s]", partNumber, count, currentKey()));
+            count = 0;
+        } catch (AmazonClientException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void putObject() throws IOException {
+        ObjectMetadata metadata = newMetadata();
+        metadata.setContentLength(count);
+        if (log.isDebugEnabled()) log.debug(String.format("Writing log file to S3 [size: %d] [path: %s]", count, currentKey()));
+        try {
+            s3.putObject(new PutObjectRequest(bucketName, currentKey(), new ByteArrayInputStream(buffer, 0, count), metadata));
+        } catch (AmazonClientException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void abort() {
+        if (uploadId == null) return;
+        try {
+            s3.abortMultipartUpload(new AbortMultipartUploadRequest(bucketName, currentKey(), uploadId));
+        } catch (AmazonClientException e) {
+            log.warn("Failed to abort upload of log file " + currentKey(), e);
+        }
+    }
+
+    private ObjectMetadata newMetadata() {
+        ObjectMetadata metadata = new ObjectMetadata();
+        if (enableSSE) metadata.setSSEAlgorithm(ObjectMetadata.AES_256_SERVER_SIDE_ENCRYPTION);
+        return metadata;
+    }
+}
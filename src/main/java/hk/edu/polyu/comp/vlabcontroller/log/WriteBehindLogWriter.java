@@ -0,0 +1,197 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>
+ * Writes log streams to their targets (e.g. files) on a single background thread.
+ * </p><p>
+ * The bytes written to a stream opened by this writer are copied into a ring buffer, and written to the target later
+ * on by the background thread. Writing never waits for the target: if the buffer of a stream is full, e.g. because the
+ * disk is slow, the bytes are dropped, and a marker with the number of dropped bytes is written to the target instead.
+ * The buffers start small and grow up to their capacity when needed, so that idle streams use little memory.
+ * </p><p>
+ * Closing a stream does not wait either: the target is closed by the background thread, once the buffered bytes are
+ * written.
+ * </p>
+ */
+class WriteBehindLogWriter {
+
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final Logger log = LogManager.getLogger(WriteBehindLogWriter.class);
+    private final BlockingQueue<Stream> pending = new LinkedBlockingQueue<>();
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    WriteBehindLogWriter(String threadName) {
+        thread = new Thread(this::run, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @param target   The stream to write to, only used by the background thread.
+     * @param capacity The maximum number of bytes buffered for the stream.
+     */
+    OutputStream open(OutputStream target, int capacity) {
+        return new Stream(target, capacity);
+    }
+
+    /**
+     * Write all buffered bytes and stop the background thread, waiting at most the given time.
+     */
+    void shutdown(long timeoutMs) throws InterruptedException {
+        running = false;
+        thread.join(timeoutMs);
+    }
+
+    private void run() {
+        while (running || !pending.isEmpty()) {
+            try {
+                Stream stream = pending.poll(100, TimeUnit.MILLISECONDS);
+                if (stream != null) stream.drain();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Error while writing log stream", e);
+            }
+        }
+    }
+
+    private class Stream extends OutputStream {
+
+        private final OutputStream target;
+        private final int capacity;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        // guarded by this
+        private byte[] buffer = new byte[0];
+        private int start;
+        private int count;
+        private long dropped;
+        private boolean closed;
+
+        // only accessed by the background thread
+        private boolean failed;
+
+        private Stream(OutputStream target, int capacity) {
+            this.target = target;
+            this.capacity = Math.max(capacity, 1);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (this) {
+                if (closed) throw new IOException("Stream closed");
+                if (count + len > buffer.length && buffer.length < capacity) grow(count + len);
+                int accepted = Math.min(len, buffer.length - count);
+                int end = (start + count) % Math.max(buffer.length, 1);
+                int first = Math.min(accepted, buffer.length - end);
+                System.arraycopy(b, off, buffer, end, first);
+                System.arraycopy(b, off + first, buffer, 0, accepted - first);
+                count += accepted;
+                dropped += len - accepted;
+            }
+            schedule();
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
+            schedule();
+        }
+
+        private void grow(int required) {
+            int size = Math.min(Math.max(buffer.length, INITIAL_BUFFER_SIZE), capacity);
+            while (size < required && size < capacity) size = Math.min(size * 2, capacity);
+            byte[] grown = new byte[size];
+            int first = Math.min(count, buffer.length - start);
+            System.arraycopy(buffer, start, grown, 0, first);
+            System.arraycopy(buffer, 0, grown, first, count - first);
+            buffer = grown;
+            start = 0;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) pending.add(this);
+        }
+
+        /**
+         * Write the buffered bytes to the target, and close it if the stream is closed.
+         */
+        private void drain() {
+            scheduled.set(false);
+            boolean close;
+            while (true) {
+                int length;
+                long droppedBytes;
+                synchronized (this) {
+                    close = closed;
+                    length = Math.min(count, chunk.length);
+                    // the bytes were dropped after the buffered ones
+                    droppedBytes = length == count ? dropped : 0;
+                    if (length == count) dropped = 0;
+                    int first = Math.min(length, buffer.length - start);
+                    System.arraycopy(buffer, start, chunk, 0, first);
+                    System.arraycopy(buffer, 0, chunk, first, length - first);
+                    start = count == length ? 0 : (start + length) % buffer.length;
+                    count -= length;
+                }
+                if (length == 0 && droppedBytes == 0) break;
+                writeToTarget(chunk, length, droppedBytes);
+            }
+            try {
+                if (failed) return;
+                if (close) {
+                    target.close();
+                } else {
+                    target.flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void writeToTarget(byte[] bytes, int length, long droppedBytes) {
+            if (failed) return;
+            try {
+                target.write(bytes, 0, length);
+                if (droppedBytes > 0) {
+                    target.write(String.format("%n[... %d bytes of output dropped ...]%n", droppedBytes).getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        private void fail(IOException e) {
+            log.error("Failed to write log stream, dropping its output", e);
+            failed = true;
+            try {
+                target.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
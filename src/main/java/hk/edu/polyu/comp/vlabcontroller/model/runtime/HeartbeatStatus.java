@@ -3,30 +3,45 @@ package hk.edu.polyu.comp.vlabcontroller.model.runtime;
 import lombok.Getter;
 import lombok.Setter;
 
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Websocket traffic statistics of a single proxy.
+ * <p>
+ * The payload counter is updated from XNIO I/O threads while the other fields are
+ * maintained by the idle detector, therefore all fields can be read and written without locking.
+ */
 public class HeartbeatStatus {
     @Getter
-    private long startRecordTimestamp;
-    @Getter
-    @Setter
-    private long lastRecordTimestamp;
+    private volatile long startRecordTimestamp;
     @Getter
     @Setter
-    private int totalPayloadLength;
+    private volatile long lastRecordTimestamp;
+    private final LongAdder totalPayloadLength = new LongAdder();
     @Getter
-    private int terminateCounter;
+    private volatile int terminateCounter;
 
     public HeartbeatStatus() {
         this.startRecordTimestamp = System.currentTimeMillis();
         this.lastRecordTimestamp = this.startRecordTimestamp;
     }
 
-    public void increaseCounter() {
-        terminateCounter++;
+    public long getTotalPayloadLength() {
+        return totalPayloadLength.sum();
+    }
+
+    public void addPayloadLength(long length) {
+        totalPayloadLength.add(length);
+    }
+
+    public void increaseCounter(int count) {
+        // single writer (the idle detector), no atomic increment needed
+        terminateCounter = terminateCounter + count;
     }
 
     public void clearAll() {
         startRecordTimestamp = System.currentTimeMillis();
-        totalPayloadLength = 0;
+        totalPayloadLength.reset();
         terminateCounter = 0;
     }
 }
@@ -1,12 +1,15 @@
 package hk.edu.polyu.comp.vlabcontroller.model.runtime;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
 import lombok.Getter;
 import lombok.Setter;
 
 import java.net.URI;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Proxy {
     @Getter
@@ -39,4 +42,18 @@ public class Proxy {
     @Getter
     @Setter
     private Map<String, URI> targets = new HashMap<>();
+    /**
+     * Duration of every stage of the startup of the proxy, in milliseconds.
+     */
+    @Getter
+    @Setter
+    private Map<String, Long> startupTimings = new ConcurrentHashMap<>();
+    /**
+     * Environment variables added by the authentication backend (e.g. an access token), resolved when the proxy is
+     * created, on the request thread of the user.
+     */
+    @Getter
+    @Setter
+    @JsonIgnore
+    private List<String> authEnv = List.of();
 }
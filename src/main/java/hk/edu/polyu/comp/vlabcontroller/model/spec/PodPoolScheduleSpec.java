@@ -0,0 +1,33 @@
+package hk.edu.polyu.comp.vlabcontroller.model.spec;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.Duration;
+
+/**
+ * A recurring period (e.g. a timetabled class) during which the pool of a spec keeps more idle pods.
+ * The pool is scaled up <b>lead-time</b> before every occurrence of the <b>cron</b> expression,
+ * and keeps at least <b>min-idle</b> pods until <b>duration</b> after the occurrence.
+ */
+public class PodPoolScheduleSpec {
+    @Getter
+    @Setter
+    private String cron;
+    @Getter
+    @Setter
+    private Duration duration = Duration.ofHours(1);
+    @Getter
+    @Setter
+    private Duration leadTime = Duration.ofMinutes(10);
+    @Getter
+    @Setter
+    private int minIdle = 0;
+
+    public void copy(PodPoolScheduleSpec target) {
+        target.setCron(cron);
+        target.setDuration(duration);
+        target.setLeadTime(leadTime);
+        target.setMinIdle(minIdle);
+    }
+}
@@ -0,0 +1,46 @@
+package hk.edu.polyu.comp.vlabcontroller.model.spec;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Configuration of the pool of pre-warmed pods of a spec.
+ * The pool is disabled unless max-idle is greater than zero.
+ * Since idle pods are created before their user is known, a spec must also declare that its containers read the
+ * identity of their user from the pod labels and annotations exposed through the downward API (identity-from-pod-info),
+ * instead of from the VLAB_USERNAME and VLAB_USERGROUPS environment variables.
+ */
+public class PodPoolSpec {
+    @Getter
+    @Setter
+    private int minIdle = 0;
+    @Getter
+    @Setter
+    private int maxIdle = 0;
+    @Getter
+    @Setter
+    private List<PodPoolScheduleSpec> schedules = new ArrayList<>();
+    @Getter
+    @Setter
+    private boolean identityFromPodInfo = false;
+
+    @JsonIgnore
+    public boolean isEnabled() {
+        return maxIdle > 0;
+    }
+
+    public void copy(PodPoolSpec target) {
+        target.setMinIdle(minIdle);
+        target.setMaxIdle(maxIdle);
+        target.setIdentityFromPodInfo(identityFromPodInfo);
+        for (PodPoolScheduleSpec schedule : schedules) {
+            PodPoolScheduleSpec copy = new PodPoolScheduleSpec();
+            schedule.copy(copy);
+            target.getSchedules().add(copy);
+        }
+    }
+}
@@ -41,6 +41,12 @@ public class ProxySpec {
     private ProxySpecKubernetes kubernetes = new ProxySpecKubernetes();
     @Getter
     @Setter
+    private ProxySpecUpstream upstream = new ProxySpecUpstream();
+    @Getter
+    @Setter
+    private ReadinessProbeSpec readinessProbe = new ReadinessProbeSpec();
+    @Getter
+    @Setter
     private String defaultTutorialLink;
 
     public void setContainerSpecs(List<ContainerSpec> containerSpecs) {
@@ -76,6 +82,12 @@ public class ProxySpec {
         ProxySpecKubernetes proxySpecKubernetesCopy = new ProxySpecKubernetes();
         kubernetes.copy(proxySpecKubernetesCopy);
         target.setKubernetes(proxySpecKubernetesCopy);
+        ProxySpecUpstream proxySpecUpstreamCopy = new ProxySpecUpstream();
+        upstream.copy(proxySpecUpstreamCopy);
+        target.setUpstream(proxySpecUpstreamCopy);
+        ReadinessProbeSpec readinessProbeCopy = new ReadinessProbeSpec();
+        readinessProbe.copy(readinessProbeCopy);
+        target.setReadinessProbe(readinessProbeCopy);
     }
 
 }
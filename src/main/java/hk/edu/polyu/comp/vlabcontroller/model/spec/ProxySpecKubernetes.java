@@ -21,11 +21,15 @@ public class ProxySpecKubernetes {
     @Getter
     @Setter
     private List<PersistentVolumeClaim> persistentVolumeClaims = new ArrayList<>();
+    @Getter
+    @Setter
+    private PodPoolSpec pool = new PodPoolSpec();
 
     public void copy(ProxySpecKubernetes target){
         target.getVolumes().addAll(volumes);
         target.setPodPatches(podPatches);
         target.getAdditionalManifests().addAll(additionalManifests);
         target.getPersistentVolumeClaims().addAll(persistentVolumeClaims);
+        pool.copy(target.getPool());
     }
 }
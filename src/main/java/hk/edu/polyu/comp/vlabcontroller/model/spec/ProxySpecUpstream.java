@@ -0,0 +1,49 @@
+package hk.edu.polyu.comp.vlabcontroller.model.spec;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Settings of the connections to the targets of the proxies of a spec.
+ * Settings that are not set fall back to the <b>proxy.upstream.*</b> properties.
+ */
+public class ProxySpecUpstream {
+    /**
+     * Hard limit of connections to a target, per I/O thread.
+     */
+    @Getter
+    @Setter
+    private Integer connectionsPerThread;
+    /**
+     * Number of connections to a target, per I/O thread, that are kept alive when idle.
+     */
+    @Getter
+    @Setter
+    private Integer softMaxConnectionsPerThread;
+    /**
+     * Number of requests that can wait for a connection, requests beyond this are rejected with a 503.
+     */
+    @Getter
+    @Setter
+    private Integer maxQueueSize;
+    /**
+     * Time in milliseconds after which idle connections above the soft limit are closed.
+     */
+    @Getter
+    @Setter
+    private Integer ttl;
+    /**
+     * Time in seconds before a target that could not be reached is tried again.
+     */
+    @Getter
+    @Setter
+    private Integer problemServerRetry;
+
+    public void copy(ProxySpecUpstream target) {
+        target.setConnectionsPerThread(connectionsPerThread);
+        target.setSoftMaxConnectionsPerThread(softMaxConnectionsPerThread);
+        target.setMaxQueueSize(maxQueueSize);
+        target.setTtl(ttl);
+        target.setProblemServerRetry(problemServerRetry);
+    }
+}
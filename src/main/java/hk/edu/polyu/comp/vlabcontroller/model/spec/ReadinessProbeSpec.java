@@ -0,0 +1,35 @@
+package hk.edu.polyu.comp.vlabcontroller.model.spec;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How the targets of the proxies of a spec are tested before the proxies are considered up.
+ */
+public class ReadinessProbeSpec {
+    /**
+     * Path that is requested on every target, relative to the target. By default the target itself is requested.
+     */
+    @Getter
+    @Setter
+    private String path;
+    /**
+     * Status codes that indicate a target is ready. By default, any status code below 500 does.
+     */
+    @Getter
+    @Setter
+    private List<Integer> expectedStatusCodes = new ArrayList<>();
+
+    public boolean isExpectedStatusCode(int statusCode) {
+        if (expectedStatusCodes.isEmpty()) return statusCode < 500;
+        return expectedStatusCodes.contains(statusCode);
+    }
+
+    public void copy(ReadinessProbeSpec target) {
+        target.setPath(path);
+        target.getExpectedStatusCodes().addAll(expectedStatusCodes);
+    }
+}
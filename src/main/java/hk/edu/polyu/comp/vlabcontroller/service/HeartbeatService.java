@@ -1,5 +1,7 @@
 package hk.edu.polyu.comp.vlabcontroller.service;
 
+import hk.edu.polyu.comp.vlabcontroller.event.ProxyStartEvent;
+import hk.edu.polyu.comp.vlabcontroller.event.ProxyStopEvent;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.HeartbeatStatus;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
@@ -7,9 +9,12 @@ import hk.edu.polyu.comp.vlabcontroller.spec.EngagementProperties;
 import hk.edu.polyu.comp.vlabcontroller.util.ChannelActiveListener;
 import hk.edu.polyu.comp.vlabcontroller.util.DelegatingStreamSinkConduit;
 import hk.edu.polyu.comp.vlabcontroller.util.DelegatingStreamSourceConduit;
+import hk.edu.polyu.comp.vlabcontroller.util.WebSocketFrameParser;
 import io.undertow.server.HttpServerExchange;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.undertow.server.protocol.http.HttpServerConnection;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.context.event.EventListener;
 import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 import org.xnio.StreamConnection;
@@ -17,12 +22,12 @@ import org.xnio.conduits.ConduitStreamSinkChannel;
 import org.xnio.conduits.ConduitStreamSourceChannel;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -36,27 +41,38 @@ public class HeartbeatService {
     private static final String PROP_TIMEOUT = "proxy.heartbeat-timeout";
 
     private static final byte[] WEBSOCKET_PING = {(byte) 0b10001001, (byte) 0b00000000};
-    private static final byte WEBSOCKET_PONG = (byte) 0b10001010;
+    private static final int PING_WHEEL_SIZE = 64;
+    private static final long MIN_CHECK_DELAY = 1000;
+    private static final String FILEBROWSER_SPEC_ID = "filebrowser";
 
-    private final Map<String, Long> proxyHeartbeats = Collections.synchronizedMap(new HashMap<>());
-    private final Map<String, HeartbeatStatus> websocketHeartbeats = Collections.synchronizedMap(new HashMap<>());
-    private final ScheduledExecutorService heartbeatExecutor = Executors.newScheduledThreadPool(3);
+    private final HeartbeatStore heartbeatStore = new HeartbeatStore();
+    private final IdleDeadlineQueue idleDeadlines = new IdleDeadlineQueue();
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor();
+    private WebsocketPingScheduler pingScheduler;
 
     private volatile boolean enabled;
 
     private final ProxyService proxyService;
     private final Environment environment;
+    private final MeterRegistry meterRegistry;
 
     @Resource
     private EngagementProperties engagementProperties;
 
-    public HeartbeatService(ProxyService proxyService, Environment environment) {
+    public HeartbeatService(ProxyService proxyService, Environment environment, MeterRegistry meterRegistry) {
         this.proxyService = proxyService;
         this.environment = environment;
+        this.meterRegistry = meterRegistry;
     }
 
     @PostConstruct
     public void init() {
+        pingScheduler = new WebsocketPingScheduler(getHeartbeatRate(), PING_WHEEL_SIZE, meterRegistry);
+        pingScheduler.start();
+
+        long timeout = getHeartbeatTimeout();
+        heartbeatExecutor.scheduleWithFixedDelay(() -> heartbeatStore.prune(proxyId -> proxyService.getProxy(proxyId) != null), timeout, timeout, TimeUnit.MILLISECONDS);
+
         enabled = Boolean.parseBoolean(environment.getProperty(PROP_ENABLED, "false"));
         if (!enabled) {
             enabled = environment.getProperty(PROP_RATE) != null || environment.getProperty(PROP_TIMEOUT) != null;
@@ -70,16 +86,22 @@ public class HeartbeatService {
         }
     }
 
+    @PreDestroy
+    public void shutdown() {
+        pingScheduler.stop();
+        heartbeatExecutor.shutdownNow();
+    }
+
     public void setEnabled(boolean enabled) {
         this.enabled = enabled;
     }
 
     public Map<String, HeartbeatStatus> getWebsocketHeartbeats() {
-        return websocketHeartbeats;
+        return heartbeatStore.snapshotWebsocketHeartbeats();
     }
 
     public Map<String, Long> getProxyHeartbeats() {
-        return proxyHeartbeats;
+        return heartbeatStore.snapshotHttpHeartbeats();
     }
 
     public void attachHeartbeatChecker(HttpServerExchange exchange, String proxyId) {
@@ -112,7 +134,7 @@ public class HeartbeatService {
     private void heartbeatReceived(String proxyId) {
         Proxy proxy = proxyService.getProxy(proxyId);
         if (log.isDebugEnabled()) log.debug("Heartbeat received for proxy " + proxyId);
-        if (proxy != null) proxyHeartbeats.put(proxyId, System.currentTimeMillis());
+        if (proxy != null) heartbeatStore.recordHttpHeartbeat(proxyId, System.currentTimeMillis());
     }
 
     private long getHeartbeatRate() {
@@ -123,9 +145,11 @@ public class HeartbeatService {
         return Long.parseLong(environment.getProperty(PROP_TIMEOUT, "60000"));
     }
 
-    private class HeartbeatConnector {
+    private class HeartbeatConnector implements WebsocketPingScheduler.PingTarget {
 
         private final String proxyId;
+        private final ChannelActiveListener writeListener = new ChannelActiveListener();
+        private StreamConnection streamConn;
 
         public HeartbeatConnector(String proxyId) {
             this.proxyId = proxyId;
@@ -133,165 +157,98 @@ public class HeartbeatService {
 
         private void wrapChannels(StreamConnection streamConn) {
             if (!streamConn.isOpen()) return;
+            this.streamConn = streamConn;
 
             ConduitStreamSinkChannel sinkChannel = streamConn.getSinkChannel();
-            ChannelActiveListener writeListener = new ChannelActiveListener();
             DelegatingStreamSinkConduit conduitWrapper = new DelegatingStreamSinkConduit(sinkChannel.getConduit(), writeListener);
             sinkChannel.setConduit(conduitWrapper);
 
             ConduitStreamSourceChannel sourceChannel = streamConn.getSourceChannel();
-            DelegatingStreamSourceConduit srcConduitWrapper = new DelegatingStreamSourceConduit(sourceChannel.getConduit(), data -> checkPong(data));
+            // frames sent by the client are always masked
+            WebSocketFrameParser frameParser = new WebSocketFrameParser(this::checkPong, true);
+            DelegatingStreamSourceConduit srcConduitWrapper = new DelegatingStreamSourceConduit(sourceChannel.getConduit(), frameParser);
             sourceChannel.setConduit(srcConduitWrapper);
 
-            heartbeatExecutor.schedule(() -> sendPing(writeListener, streamConn), getHeartbeatRate(), TimeUnit.MILLISECONDS);
+            pingScheduler.register(this);
         }
 
-        private void sendPing(ChannelActiveListener writeListener, StreamConnection streamConn) {
-            if (writeListener.isActive(getHeartbeatRate())) {
-                // active means that data was written to the channel in the least heartbeat interval
-                // therefore we don't send a ping now to not cause collisions
+        @Override
+        public Executor getExecutor() {
+            return streamConn.getIoThread();
+        }
 
-                // reschedule ping
-                heartbeatExecutor.schedule(() -> sendPing(writeListener, streamConn), getHeartbeatRate(), TimeUnit.MILLISECONDS);
-                // mark as we received a heartbeat
-                // heartbeatReceived(proxyId);
-                return;
-            }
-            if (!streamConn.isOpen()) return;
+        @Override
+        public boolean isOpen() {
+            return streamConn.isOpen();
+        }
+
+        @Override
+        public boolean needsPing() {
+            // active means that data was written to the channel in the least heartbeat interval
+            // therefore we don't send a ping now to not cause collisions
+            return !writeListener.isActive(getHeartbeatRate());
+        }
 
+        @Override
+        public void ping() {
             try {
                 ((DelegatingStreamSinkConduit) streamConn.getSinkChannel().getConduit()).writeWithoutNotifying(ByteBuffer.wrap(WEBSOCKET_PING));
                 streamConn.getSinkChannel().flush();
             } catch (IOException e) {
                 // Ignore failure, keep trying as long as the stream connection is valid.
             }
-
-            heartbeatExecutor.schedule(() -> sendPing(writeListener, streamConn), getHeartbeatRate(), TimeUnit.MILLISECONDS);
         }
 
-        private void checkPong(byte[] response) {
-            if (response.length <= 2) return;
-            if (response[0] == WEBSOCKET_PONG) {
+        private void checkPong(int opcode, long payloadLength) {
+            if (opcode == WebSocketFrameParser.OPCODE_PONG) {
                 // ignore websocket PING PONG (native heart beat)
                 // heartbeatReceived(proxyId);
                 return;
             }
-
-            // payload length analyzer
-            // https://datatracker.ietf.org/doc/html/rfc6455#section-5.2
-            int payloadLength = response[1] & 0x7F;
-            if (payloadLength == 126) {
-                if (response.length < 4) {
-                    // handle broken packet
-                    payloadLength = 0;
-                    log.debug("broken packet");
-                } else {
-                    payloadLength = ByteBuffer.wrap(new byte[]{response[2], response[3]}).getShort() & 0xFFFF;
-                }
-            } else if (payloadLength == 127) {
-                if (response.length < 10) {
-                    // handle broken packet
-                    payloadLength = 0;
-                    log.debug("broken huge packet");
-                } else {
-                    // We don't calculate the exact payload length of such packet because its payload length greater than 65535 bytes.
-                    // Calculating it is meaningless.
-                    // If you really want to calculate it, use BigInteger(1, <byte array of response[2] to response[9]>)
-                    payloadLength = 65535 * 2;
-                }
-            }
-            log.debug("Websocket packet received, length={} bytes", payloadLength);
+            if (log.isDebugEnabled()) log.debug("Websocket payload received, opcode={}, length={} bytes", opcode, payloadLength);
 
             Proxy proxy = proxyService.getProxy(proxyId);
 
             // if a proxy is terminated manually before status block created, stop checkPong.
             if (proxy == null || (proxy.getStatus() == ProxyStatus.Stopping || proxy.getStatus() == ProxyStatus.Stopped)) {
-                websocketHeartbeats.remove(proxyId);
+                heartbeatStore.remove(proxyId);
                 return;
             }
 
-            HeartbeatStatus heartbeatStatus = websocketHeartbeats.computeIfAbsent(proxyId, k -> new HeartbeatStatus());
-            int lastLength = heartbeatStatus.getTotalPayloadLength();
-            heartbeatStatus.setTotalPayloadLength(lastLength + payloadLength);
+            heartbeatStore.recordWebsocketPayload(proxyId, payloadLength);
         }
     }
 
+    @EventListener
+    public void onProxyStart(ProxyStartEvent event) {
+        if (!enabled || event.getProxyId() == null || FILEBROWSER_SPEC_ID.equals(event.getSpecId())) return;
+        idleDeadlines.schedule(event.getProxyId(), System.currentTimeMillis() + getHeartbeatRate());
+    }
+
+    @EventListener
+    public void onProxyStop(ProxyStopEvent event) {
+        if (event.getProxyId() == null) return;
+        idleDeadlines.cancel(event.getProxyId());
+        heartbeatStore.remove(event.getProxyId());
+    }
+
+    /**
+     * Waits for the next idle deadline of a proxy, and then either releases the proxy or computes the next moment at
+     * which it could possibly become releasable: the earliest of its max-age, and, when engagement detection is
+     * enabled, the moment at which both its HTTP silence and its websocket idle window are exceeded.
+     * HTTP heartbeats and websocket traffic never touch the deadline queue, a proxy is re-evaluated lazily instead.
+     */
     private class InactiveProxyKiller implements Runnable {
         @Override
         public void run() {
-            long cleanupInterval = getHeartbeatRate();
-            long heartbeatTimeout = getHeartbeatTimeout();
+            long now = System.currentTimeMillis();
+            for (Proxy proxy : proxyService.getProxies(null, true)) {
+                if (!FILEBROWSER_SPEC_ID.equals(proxy.getSpec().getId())) idleDeadlines.schedule(proxy.getId(), now);
+            }
 
             while (true) {
                 try {
-                    long currentTimestamp = System.currentTimeMillis();
-                    for (Proxy proxy : proxyService.getProxies(null, true)) {
-                        if (proxy.getStatus() != ProxyStatus.Up) continue;
-                        else if (proxy.getSpec().getId().equals("filebrowser")) continue;
-
-                        // reached max-age limitation
-                        if (currentTimestamp - proxy.getStartupTimestamp() > engagementProperties.getMaxAge().toMillis()) {
-                            log.info(String.format("Releasing timeout proxy [user: %s] [spec: %s] [id: %s] [duration: %dhr]", proxy.getUserId(), proxy.getSpec().getId(), proxy.getId(), engagementProperties.getMaxAge().toHours()));
-                            proxyHeartbeats.remove(proxy.getId());
-                            websocketHeartbeats.remove(proxy.getId());
-                            proxyService.stopProxy(proxy, true, true, 0);
-                            continue;
-                        }
-
-                        // websocket idle termination
-                        boolean isPureHttp = false;
-                        boolean isIdled = false;
-                        int idleRetryLimit = engagementProperties.getIdleRetry();
-                        if (engagementProperties.isEnabled()) {
-                            HeartbeatStatus heartbeatStatus = websocketHeartbeats.get(proxy.getId());
-
-                            // 230 bytes per second default (10% load, 2300 bytes/sec when working on vscode)
-                            int threshold = engagementProperties.getThreshold();
-
-                            if (heartbeatStatus == null) {
-                                isPureHttp = true;
-                            } else {
-                                long duration = currentTimestamp - heartbeatStatus.getStartRecordTimestamp();
-                                // idle
-                                double rate = heartbeatStatus.getTotalPayloadLength() / (duration / 1000.0);
-                                if (rate < threshold) {
-                                    heartbeatStatus.increaseCounter();
-                                    log.debug("proxy {} websocket idle detected ({}/{})! average speed={} bytes/sec, threshold={} bytes/sec", proxy.getId(), heartbeatStatus.getTerminateCounter(), idleRetryLimit, rate, threshold);
-                                }
-                                // active
-                                else {
-                                    log.debug("proxy {} websocket active, average speed={} bytes/sec, threshold={} bytes/sec", proxy.getId(), rate, threshold);
-                                    heartbeatStatus.clearAll();
-                                }
-
-                                // idle confirmed
-                                if (heartbeatStatus.getTerminateCounter() >= idleRetryLimit) {
-                                    isIdled = true;
-                                }
-
-                                heartbeatStatus.setLastRecordTimestamp(System.currentTimeMillis());
-                            }
-
-                            Long lastHeartbeat = proxyHeartbeats.get(proxy.getId());
-                            if (lastHeartbeat == null) lastHeartbeat = proxy.getStartupTimestamp();
-                            long proxySilence = currentTimestamp - lastHeartbeat;
-                            if ((proxySilence > heartbeatTimeout) && (isPureHttp | isIdled)) {
-                                long silence = isPureHttp ? proxySilence : cleanupInterval * (heartbeatStatus.getTerminateCounter() - 1);
-                                log.info("Releasing {} proxy [user: {}] [spec: {}] [id: {}] [silence: {}ms]",
-                                        isPureHttp ? "inactive" : "idled",
-                                        proxy.getUserId(),
-                                        proxy.getSpec().getId(),
-                                        proxy.getId(),
-                                        silence);
-
-                                proxyHeartbeats.remove(proxy.getId());
-                                websocketHeartbeats.remove(proxy.getId());
-                                proxyService.stopProxy(proxy, true, true, silence);
-                            }
-                            log.debug("proxy {} received HTTP requests {} ms ago, inactive threshold={} ms", proxy.getId(), proxySilence, heartbeatTimeout);
-                        }
-                    }
-                    Thread.sleep(cleanupInterval);
+                    checkProxy(idleDeadlines.take());
                 } catch (InterruptedException e) {
                     log.error("Inactive proxy killer was interrupted, stop cleanup work");
                     break;
@@ -300,5 +257,92 @@ public class HeartbeatService {
                 }
             }
         }
+
+        private void checkProxy(String proxyId) {
+            long cleanupInterval = getHeartbeatRate();
+            long heartbeatTimeout = getHeartbeatTimeout();
+            long currentTimestamp = System.currentTimeMillis();
+
+            Proxy proxy = proxyService.getProxy(proxyId);
+            if (proxy == null || proxy.getStatus() == ProxyStatus.Stopping || proxy.getStatus() == ProxyStatus.Stopped) {
+                heartbeatStore.remove(proxyId);
+                return;
+            }
+            if (proxy.getStatus() != ProxyStatus.Up) {
+                idleDeadlines.schedule(proxyId, currentTimestamp + cleanupInterval);
+                return;
+            }
+
+            // reached max-age limitation
+            long maxAgeDeadline = proxy.getStartupTimestamp() + engagementProperties.getMaxAge().toMillis();
+            if (currentTimestamp > maxAgeDeadline) {
+                log.info(String.format("Releasing timeout proxy [user: %s] [spec: %s] [id: %s] [duration: %dhr]", proxy.getUserId(), proxy.getSpec().getId(), proxy.getId(), engagementProperties.getMaxAge().toHours()));
+                heartbeatStore.remove(proxy.getId());
+                proxyService.stopProxy(proxy, true, true, 0);
+                return;
+            }
+            long activityDeadline = Long.MAX_VALUE;
+
+            // websocket idle termination
+            if (engagementProperties.isEnabled()) {
+                boolean isPureHttp = false;
+                boolean isIdled = false;
+                long websocketDeadline = currentTimestamp;
+                int idleRetryLimit = engagementProperties.getIdleRetry();
+                HeartbeatStatus heartbeatStatus = heartbeatStore.getWebsocketStatus(proxy.getId());
+
+                // 230 bytes per second default (10% load, 2300 bytes/sec when working on vscode)
+                int threshold = engagementProperties.getThreshold();
+
+                if (heartbeatStatus == null) {
+                    isPureHttp = true;
+                } else {
+                    long duration = currentTimestamp - heartbeatStatus.getStartRecordTimestamp();
+                    // idle
+                    double rate = heartbeatStatus.getTotalPayloadLength() / (duration / 1000.0);
+                    if (rate < threshold) {
+                        heartbeatStatus.increaseCounter(IdleDeadlines.idleIntervals(currentTimestamp, heartbeatStatus.getLastRecordTimestamp(), cleanupInterval, idleRetryLimit));
+                        log.debug("proxy {} websocket idle detected ({}/{})! average speed={} bytes/sec, threshold={} bytes/sec", proxy.getId(), heartbeatStatus.getTerminateCounter(), idleRetryLimit, rate, threshold);
+                    }
+                    // active
+                    else {
+                        log.debug("proxy {} websocket active, average speed={} bytes/sec, threshold={} bytes/sec", proxy.getId(), rate, threshold);
+                        heartbeatStatus.clearAll();
+                    }
+
+                    // idle confirmed
+                    if (heartbeatStatus.getTerminateCounter() >= idleRetryLimit) {
+                        isIdled = true;
+                    } else {
+                        websocketDeadline = IdleDeadlines.websocketDeadline(currentTimestamp, cleanupInterval, idleRetryLimit, heartbeatStatus.getTerminateCounter());
+                    }
+
+                    heartbeatStatus.setLastRecordTimestamp(currentTimestamp);
+                }
+
+                Long lastHeartbeat = heartbeatStore.getLastHttpHeartbeat(proxy.getId());
+                if (lastHeartbeat == null) lastHeartbeat = proxy.getStartupTimestamp();
+                long proxySilence = currentTimestamp - lastHeartbeat;
+                if ((proxySilence > heartbeatTimeout) && (isPureHttp | isIdled)) {
+                    long silence = isPureHttp ? proxySilence : cleanupInterval * (heartbeatStatus.getTerminateCounter() - 1);
+                    log.info("Releasing {} proxy [user: {}] [spec: {}] [id: {}] [silence: {}ms]",
+                            isPureHttp ? "inactive" : "idled",
+                            proxy.getUserId(),
+                            proxy.getSpec().getId(),
+                            proxy.getId(),
+                            silence);
+
+                    heartbeatStore.remove(proxy.getId());
+                    proxyService.stopProxy(proxy, true, true, silence);
+                    return;
+                }
+                log.debug("proxy {} received HTTP requests {} ms ago, inactive threshold={} ms", proxy.getId(), proxySilence, heartbeatTimeout);
+
+                long silenceDeadline = lastHeartbeat + heartbeatTimeout + 1;
+                activityDeadline = Math.max(silenceDeadline, websocketDeadline);
+            }
+
+            idleDeadlines.schedule(proxyId, IdleDeadlines.nextCheck(currentTimestamp, maxAgeDeadline, activityDeadline, MIN_CHECK_DELAY));
+        }
     }
 }
@@ -0,0 +1,107 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.HeartbeatStatus;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * <p>
+ * Heartbeat bookkeeping for all proxies.
+ * </p><p>
+ * Every proxy gets a single {@link Slot}, allocated the first time a heartbeat arrives.
+ * After that, recording an HTTP heartbeat or websocket payload is a plain
+ * {@link ConcurrentHashMap#get(Object)} followed by a volatile write or a
+ * {@link java.util.concurrent.atomic.LongAdder} increment: no locks and no allocation,
+ * which keeps the XNIO I/O threads from serializing on a shared monitor.
+ * </p>
+ */
+class HeartbeatStore {
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    public void recordHttpHeartbeat(String proxyId, long timestamp) {
+        slot(proxyId).lastHttpHeartbeat = timestamp;
+    }
+
+    public void recordWebsocketPayload(String proxyId, long payloadLength) {
+        slot(proxyId).websocketStatus().addPayloadLength(payloadLength);
+    }
+
+    /**
+     * @return The timestamp of the last HTTP heartbeat, or null if none was received.
+     */
+    public Long getLastHttpHeartbeat(String proxyId) {
+        Slot slot = slots.get(proxyId);
+        if (slot == null || slot.lastHttpHeartbeat == 0) return null;
+        return slot.lastHttpHeartbeat;
+    }
+
+    /**
+     * @return The websocket statistics of the proxy, or null if no websocket traffic was seen.
+     */
+    public HeartbeatStatus getWebsocketStatus(String proxyId) {
+        Slot slot = slots.get(proxyId);
+        return slot == null ? null : slot.websocket.get();
+    }
+
+    public void remove(String proxyId) {
+        slots.remove(proxyId);
+    }
+
+    /**
+     * Drop the slots of proxies that are no longer active, e.g. slots allocated again by a heartbeat that raced
+     * with the removal of its proxy.
+     *
+     * @param isActive Tells whether a proxy id still belongs to an active proxy.
+     */
+    public void prune(Predicate<String> isActive) {
+        slots.keySet().removeIf(proxyId -> !isActive.test(proxyId));
+    }
+
+    /**
+     * @return A point-in-time copy of the HTTP heartbeats, keyed by proxy id.
+     */
+    public Map<String, Long> snapshotHttpHeartbeats() {
+        Map<String, Long> snapshot = new HashMap<>();
+        slots.forEach((proxyId, slot) -> {
+            if (slot.lastHttpHeartbeat != 0) snapshot.put(proxyId, slot.lastHttpHeartbeat);
+        });
+        return snapshot;
+    }
+
+    /**
+     * @return A point-in-time copy of the websocket statistics, keyed by proxy id.
+     */
+    public Map<String, HeartbeatStatus> snapshotWebsocketHeartbeats() {
+        Map<String, HeartbeatStatus> snapshot = new HashMap<>();
+        slots.forEach((proxyId, slot) -> {
+            HeartbeatStatus status = slot.websocket.get();
+            if (status != null) snapshot.put(proxyId, status);
+        });
+        return snapshot;
+    }
+
+    private Slot slot(String proxyId) {
+        Slot slot = slots.get(proxyId);
+        if (slot == null) slot = slots.computeIfAbsent(proxyId, k -> new Slot());
+        return slot;
+    }
+
+    private static class Slot {
+        private volatile long lastHttpHeartbeat;
+        private final AtomicReference<HeartbeatStatus> websocket = new AtomicReference<>();
+
+        private HeartbeatStatus websocketStatus() {
+            HeartbeatStatus status = websocket.get();
+            if (status == null) {
+                websocket.compareAndSet(null, new HeartbeatStatus());
+                status = websocket.get();
+            }
+            return status;
+        }
+    }
+}
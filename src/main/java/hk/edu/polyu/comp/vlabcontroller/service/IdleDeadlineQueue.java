@@ -0,0 +1,84 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Queue of the moments at which the idle state of a proxy must be checked again.
+ * </p><p>
+ * Every proxy has at most one pending deadline: scheduling or cancelling a proxy removes its previous deadline from
+ * the queue. Removing is linear in the number of proxies, but it happens at most once per check of a proxy, while
+ * heartbeats never touch the queue.
+ * The consumer only wakes up when a deadline expires, so the cost of idle detection depends
+ * on the number of proxies that are due, not on the total number of proxies.
+ * </p>
+ */
+class IdleDeadlineQueue {
+
+    private final DelayQueue<Deadline> queue = new DelayQueue<>();
+    private final Map<String, Deadline> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Schedule a check of the given proxy at the given time, replacing any pending check.
+     */
+    public void schedule(String proxyId, long timestamp) {
+        Deadline deadline = new Deadline(proxyId, timestamp);
+        Deadline previous = pending.put(proxyId, deadline);
+        if (previous != null) queue.remove(previous);
+        queue.add(deadline);
+    }
+
+    public void cancel(String proxyId) {
+        Deadline previous = pending.remove(proxyId);
+        if (previous != null) queue.remove(previous);
+    }
+
+    /**
+     * Wait until the deadline of a proxy expires.
+     *
+     * @return The id of the proxy that must be checked.
+     */
+    public String take() throws InterruptedException {
+        while (true) {
+            // a deadline replaced concurrently with its expiry can still be taken, it is skipped
+            Deadline deadline = queue.take();
+            if (pending.remove(deadline.proxyId, deadline)) return deadline.proxyId;
+        }
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    /**
+     * @return The number of deadlines in the queue, including the ones that are about to be skipped.
+     */
+    int queuedSize() {
+        return queue.size();
+    }
+
+    private static class Deadline implements Delayed {
+
+        private final String proxyId;
+        private final long timestamp;
+
+        private Deadline(String proxyId, long timestamp) {
+            this.proxyId = proxyId;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(timestamp - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(timestamp, ((Deadline) other).timestamp);
+        }
+    }
+}
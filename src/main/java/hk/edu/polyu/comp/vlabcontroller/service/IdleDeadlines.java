@@ -0,0 +1,37 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+/**
+ * Deadline arithmetic of the idle detection of {@link HeartbeatService}.
+ */
+final class IdleDeadlines {
+
+    private IdleDeadlines() {
+    }
+
+    /**
+     * A proxy is not visited every interval: count all intervals since the previous visit, at least one, but never
+     * more than the number of retries left before the proxy is considered idle.
+     */
+    static int idleIntervals(long now, long lastVisit, long interval, int retryLimit) {
+        long intervals = Math.max(1, (now - lastVisit) / interval);
+        return (int) Math.min(intervals, retryLimit);
+    }
+
+    /**
+     * @return The earliest moment at which the idle counter of the websocket traffic can reach the retry limit.
+     */
+    static long websocketDeadline(long now, long interval, int retryLimit, int idleCounter) {
+        return now + interval * Math.max(0, retryLimit - idleCounter);
+    }
+
+    /**
+     * @param maxAgeDeadline   The moment at which the proxy reaches its max-age.
+     * @param activityDeadline The moment at which the proxy could be idle, or {@link Long#MAX_VALUE} if idle
+     *                         detection is disabled.
+     * @param minDelay         The minimum delay between two checks of the proxy.
+     * @return The moment of the next check of the proxy.
+     */
+    static long nextCheck(long now, long maxAgeDeadline, long activityDeadline, long minDelay) {
+        return Math.max(Math.min(maxAgeDeadline + 1, activityDeadline), now + minDelay);
+    }
+}
@@ -1,8 +1,15 @@
 package hk.edu.polyu.comp.vlabcontroller.service;
 
+import hk.edu.polyu.comp.vlabcontroller.backend.IContainerBackend;
 import hk.edu.polyu.comp.vlabcontroller.log.ILogStorage;
+import hk.edu.polyu.comp.vlabcontroller.log.LiveLog;
+import hk.edu.polyu.comp.vlabcontroller.log.LiveLogHub;
+import hk.edu.polyu.comp.vlabcontroller.log.LogChunk;
+import hk.edu.polyu.comp.vlabcontroller.log.LogPump;
+import hk.edu.polyu.comp.vlabcontroller.log.LogRange;
 import hk.edu.polyu.comp.vlabcontroller.log.NoopLogStorage;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.core.env.Environment;
@@ -12,6 +19,7 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.function.BiConsumer;
@@ -23,12 +31,16 @@ public class LogService {
     private final Logger log = LogManager.getLogger(LogService.class);
     final Environment environment;
     final ILogStorage logStorage;
+    final LogPump logPump;
+    final LiveLogHub liveLogHub;
     private ExecutorService executor;
     private boolean loggingEnabled;
 
-    public LogService(Environment environment, ILogStorage logStorage) {
+    public LogService(Environment environment, ILogStorage logStorage, LogPump logPump, LiveLogHub liveLogHub) {
         this.environment = environment;
         this.logStorage = logStorage;
+        this.logPump = logPump;
+        this.liveLogHub = liveLogHub;
     }
 
     @PostConstruct
@@ -41,6 +53,7 @@ public class LogService {
         }
 
         if (isLoggingEnabled()) {
+            // only used for the output that cannot be pumped, see attachToOutput
             executor = Executors.newCachedThreadPool();
             log.info("Container logging enabled. Log files will be saved to " + logStorage.getStorageLocation());
         }
@@ -49,41 +62,105 @@ public class LogService {
     @PreDestroy
     public void shutdown() {
         if (executor != null) executor.shutdown();
+        logStorage.shutdown();
     }
 
     public boolean isLoggingEnabled() {
         return loggingEnabled;
     }
 
-    public void attachToOutput(Proxy proxy, BiConsumer<OutputStream, OutputStream> outputAttacher) {
+    /**
+     * Attach the logging to the output of the containers of a proxy. The output is pumped by the {@link LogPump} if the
+     * backend supports it and the output can be followed, otherwise a thread blocks on the output attacher of the
+     * backend until the proxy stops.
+     */
+    public void attachToOutput(Proxy proxy, IContainerBackend backend) {
         if (!isLoggingEnabled()) return;
 
-        executor.submit(() -> {
-            try {
-                OutputStream[] streams = logStorage.createOutputStreams(proxy);
-                if (streams == null || streams.length < 2) {
-                    log.error("Failed to attach logging of proxy " + proxy.getId() + ": no output streams defined");
-                } else {
-                    proxy.getContainerGroup().getParameters().put(PARAM_STREAMS, streams);
-                    if (log.isDebugEnabled()) log.debug("Container logging started for proxy " + proxy.getId());
-                    // Note that this call will block until the container is stopped.
-                    outputAttacher.accept(streams[0], streams[1]);
-                }
-            } catch (Exception e) {
-                log.error("Failed to attach logging of proxy " + proxy.getId(), e);
+        OutputStream[] streams = createOutputStreams(proxy);
+        if (streams == null) return;
+
+        CompletableFuture<Boolean> output = backend.pumpOutput(proxy, logPump, streams[0], streams[1]);
+        if (output == null) {
+            attachBlocking(proxy, backend, streams);
+            return;
+        }
+
+        proxy.getContainerGroup().getParameters().put(PARAM_STREAMS, streams);
+        if (log.isDebugEnabled()) log.debug("Container logging started for proxy " + proxy.getId());
+        output.whenComplete((followed, throwable) -> {
+            if (throwable != null) {
+                log.error("Failed to attach logging of proxy " + proxy.getId(), throwable);
+            } else if (!followed && proxy.getStatus() != ProxyStatus.Stopping && proxy.getStatus() != ProxyStatus.Stopped) {
+                log.info("Cannot pump the output of proxy " + proxy.getId() + ", falling back to the output attacher");
+                attachBlocking(proxy, backend, streams);
+                return;
             }
             if (log.isDebugEnabled()) log.debug("Container logging ended for proxy " + proxy.getId());
         });
     }
 
+    private void attachBlocking(Proxy proxy, IContainerBackend backend, OutputStream[] streams) {
+        BiConsumer<OutputStream, OutputStream> outputAttacher = backend.getOutputAttacher(proxy);
+        if (outputAttacher == null) {
+            log.warn("Cannot log proxy output: " + backend.getClass() + " does not support output attaching.");
+            closeStreams(streams);
+        } else {
+            executor.submit(() -> attachBlocking(proxy, outputAttacher, streams));
+        }
+    }
+
+    public void attachToOutput(Proxy proxy, BiConsumer<OutputStream, OutputStream> outputAttacher) {
+        if (!isLoggingEnabled()) return;
+
+        executor.submit(() -> {
+            OutputStream[] streams = createOutputStreams(proxy);
+            if (streams != null) attachBlocking(proxy, outputAttacher, streams);
+        });
+    }
+
+    private OutputStream[] createOutputStreams(Proxy proxy) {
+        try {
+            OutputStream[] streams = logStorage.createOutputStreams(proxy);
+            if (streams == null || streams.length < 2) {
+                log.error("Failed to attach logging of proxy " + proxy.getId() + ": no output streams defined");
+                return null;
+            }
+            // the standard output can be followed live, see followLog
+            streams[0] = liveLogHub.tee(proxy.getId(), streams[0]);
+            return streams;
+        } catch (IOException e) {
+            log.error("Failed to attach logging of proxy " + proxy.getId(), e);
+            return null;
+        }
+    }
+
+    private void attachBlocking(Proxy proxy, BiConsumer<OutputStream, OutputStream> outputAttacher, OutputStream[] streams) {
+        try {
+            proxy.getContainerGroup().getParameters().put(PARAM_STREAMS, streams);
+            if (log.isDebugEnabled()) log.debug("Container logging started for proxy " + proxy.getId());
+            // Note that this call will block until the container is stopped.
+            outputAttacher.accept(streams[0], streams[1]);
+        } catch (Exception e) {
+            log.error("Failed to attach logging of proxy " + proxy.getId(), e);
+        }
+        if (log.isDebugEnabled()) log.debug("Container logging ended for proxy " + proxy.getId());
+    }
+
     public void detach(Proxy proxy) {
         if (!isLoggingEnabled()) return;
 
+        logPump.stop(proxy.getId());
+        liveLogHub.remove(proxy.getId());
         OutputStream[] streams = (OutputStream[]) proxy.getContainerGroup().getParameters().get(PARAM_STREAMS);
         if (streams == null || streams.length < 2) {
             log.warn("Cannot detach container logging: streams not found");
             return;
         }
+        closeStreams(streams);
+    }
+
+    private void closeStreams(OutputStream[] streams) {
         for (int i = 0; i < streams.length; i++) {
             try {
                 streams[i].flush();
@@ -94,6 +171,37 @@ public class LogService {
         }
     }
 
+    /**
+     * Read a part of a log of a proxy, see {@link ILogStorage#readLog(Proxy, int, LogRange)}.
+     *
+     * @return The part of the log, or null if it cannot be read.
+     */
+    public LogChunk readLog(Proxy proxy, int logIndex, LogRange range) {
+        if (!isLoggingEnabled()) return null;
+
+        try {
+            return logStorage.readLog(proxy, logIndex, range);
+        } catch (IOException e) {
+            log.error("Failed to read logs of proxy " + proxy.getId(), e);
+        }
+
+        return null;
+    }
+
+    /**
+     * Follow the standard output of a proxy live, starting with its recent output (see {@link LiveLog}).
+     *
+     * @param fromOffset The offset from which the recent output is replayed.
+     * @return The subscription, or null if the output of the proxy is not being logged.
+     */
+    public LiveLog.Subscription followLog(Proxy proxy, long fromOffset, LiveLog.Listener listener) {
+        if (!isLoggingEnabled()) return null;
+
+        LiveLog liveLog = liveLogHub.get(proxy.getId());
+        if (liveLog == null) return null;
+        return liveLog.subscribe(fromOffset, listener);
+    }
+
     public String[] getLogs(Proxy proxy) {
         if (!isLoggingEnabled()) return null;
 
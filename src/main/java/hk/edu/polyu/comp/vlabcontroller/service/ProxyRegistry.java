@@ -0,0 +1,113 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Registry of the active proxies, with a primary index by proxy id and
+ * secondary indexes by user id and spec id.
+ * </p><p>
+ * All lookups are lock-free: they read directly from {@link ConcurrentHashMap}s,
+ * and the returned collections are weakly consistent views that never throw
+ * {@link java.util.ConcurrentModificationException}.
+ * Writers only contend on the index bucket of the affected user or spec.
+ * </p>
+ */
+class ProxyRegistry {
+
+    private final Map<String, Proxy> proxiesById = new ConcurrentHashMap<>();
+    private final Map<String, Set<Proxy>> proxiesByUser = new ConcurrentHashMap<>();
+    private final Map<String, Set<Proxy>> proxiesBySpec = new ConcurrentHashMap<>();
+
+    /**
+     * Register a proxy. The proxy must already have an id, a user id and a spec.
+     *
+     * @throws IllegalStateException If another proxy with the same id is registered.
+     */
+    public void add(Proxy proxy) {
+        if (proxiesById.putIfAbsent(proxy.getId(), proxy) != null) {
+            throw new IllegalStateException("Proxy " + proxy.getId() + " is already registered");
+        }
+        index(proxiesByUser, proxy.getUserId(), proxy);
+        index(proxiesBySpec, specIdOf(proxy), proxy);
+    }
+
+    /**
+     * Unregister a proxy.
+     *
+     * @return True if the proxy was registered.
+     */
+    public boolean remove(Proxy proxy) {
+        if (proxy.getId() == null || !proxiesById.remove(proxy.getId(), proxy)) return false;
+        unindex(proxiesByUser, proxy.getUserId(), proxy);
+        unindex(proxiesBySpec, specIdOf(proxy), proxy);
+        return true;
+    }
+
+    public Proxy get(String id) {
+        if (id == null) return null;
+        return proxiesById.get(id);
+    }
+
+    public Collection<Proxy> getAll() {
+        return Collections.unmodifiableCollection(proxiesById.values());
+    }
+
+    public Set<Proxy> getByUser(String userId) {
+        return lookup(proxiesByUser, userId);
+    }
+
+    public Set<Proxy> getBySpec(String specId) {
+        return lookup(proxiesBySpec, specId);
+    }
+
+    /**
+     * Find the proxy of the given user that was launched from the given spec.
+     * This only walks the proxies of a single user, which is bounded by the container quantity limit.
+     */
+    public Proxy findByUserAndSpec(String userId, String specId) {
+        if (specId == null) return null;
+        for (Proxy proxy : getByUser(userId)) {
+            if (specId.equals(specIdOf(proxy))) return proxy;
+        }
+        return null;
+    }
+
+    public int size() {
+        return proxiesById.size();
+    }
+
+    private static String specIdOf(Proxy proxy) {
+        return proxy.getSpec() == null ? null : proxy.getSpec().getId();
+    }
+
+    private static Set<Proxy> lookup(Map<String, Set<Proxy>> index, String key) {
+        if (key == null) return Collections.emptySet();
+        Set<Proxy> proxies = index.get(key);
+        return proxies == null ? Collections.emptySet() : Collections.unmodifiableSet(proxies);
+    }
+
+    private static void index(Map<String, Set<Proxy>> index, String key, Proxy proxy) {
+        if (key == null) return;
+        index.compute(key, (k, proxies) -> {
+            if (proxies == null) proxies = ConcurrentHashMap.newKeySet();
+            proxies.add(proxy);
+            return proxies;
+        });
+    }
+
+    private static void unindex(Map<String, Set<Proxy>> index, String key, Proxy proxy) {
+        if (key == null) return;
+        // drop the bucket once it is empty, so that the index does not grow with every user that ever logged in
+        index.computeIfPresent(key, (k, proxies) -> {
+            proxies.remove(proxy);
+            return proxies.isEmpty() ? null : proxies;
+        });
+    }
+}
@@ -1,6 +1,7 @@
 package hk.edu.polyu.comp.vlabcontroller.service;
 
 import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
+import hk.edu.polyu.comp.vlabcontroller.auth.IAuthenticationBackend;
 import hk.edu.polyu.comp.vlabcontroller.backend.IContainerBackend;
 import hk.edu.polyu.comp.vlabcontroller.event.ProxyStartEvent;
 import hk.edu.polyu.comp.vlabcontroller.event.ProxyStartFailedEvent;
@@ -17,21 +18,26 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.Environment;
 import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
 import org.springframework.stereotype.Service;
 
 import javax.annotation.PreDestroy;
-import java.io.OutputStream;
 import java.net.URI;
 import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.function.BiConsumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -51,34 +57,42 @@ import java.util.stream.Collectors;
 public class ProxyService {
 
     private final Logger log = LogManager.getLogger(ProxyService.class);
-    private final List<Proxy> activeProxies = Collections.synchronizedList(new ArrayList<>());
+    private final ProxyRegistry activeProxies = new ProxyRegistry();
     private final ExecutorService containerKiller = Executors.newSingleThreadExecutor();
+    private final Map<String, CompletableFuture<Proxy>> pendingStartups = new ConcurrentHashMap<>();
+    private final ExecutorService startupExecutor;
 
     private final IProxySpecProvider baseSpecProvider;
     private final IProxySpecMergeStrategy specMergeStrategy;
     private final IContainerBackend backend;
     private final ProxyMappingManager mappingManager;
     private final UserService userService;
+    private final IAuthenticationBackend authBackend;
     private final LogService logService;
     private final ApplicationEventPublisher applicationEventPublisher;
 
     @Lazy
-    public ProxyService(IProxySpecProvider baseSpecProvider, IProxySpecMergeStrategy specMergeStrategy, IContainerBackend backend, ProxyMappingManager mappingManager, UserService userService, LogService logService, ApplicationEventPublisher applicationEventPublisher) {
+    public ProxyService(IProxySpecProvider baseSpecProvider, IProxySpecMergeStrategy specMergeStrategy, IContainerBackend backend, ProxyMappingManager mappingManager, UserService userService, @Lazy IAuthenticationBackend authBackend, LogService logService, ApplicationEventPublisher applicationEventPublisher, Environment environment) {
         this.baseSpecProvider = baseSpecProvider;
         this.specMergeStrategy = specMergeStrategy;
         this.backend = backend;
         this.mappingManager = mappingManager;
         this.userService = userService;
+        this.authBackend = authBackend;
         this.logService = logService;
         this.applicationEventPublisher = applicationEventPublisher;
+        // the security context of the caller is needed while the container is being created (e.g. for user groups)
+        int startupThreads = Integer.parseInt(environment.getProperty("proxy.startup-threads", "32"));
+        this.startupExecutor = new DelegatingSecurityContextExecutorService(Executors.newFixedThreadPool(startupThreads));
     }
 
     @PreDestroy
     public void shutdown() {
         try {
+            startupExecutor.shutdownNow();
             containerKiller.shutdown();
         } finally {
-            for (Proxy proxy : activeProxies) {
+            for (Proxy proxy : activeProxies.getAll()) {
                 try {
                     backend.stopProxy(proxy);
                 } catch (Exception exception) {
@@ -146,7 +160,20 @@ public class ProxyService {
      * @return The matching proxy, or null if no match was found.
      */
     public Proxy getProxy(String id) {
-        return findProxy(proxy -> proxy.getId().equals(id), true);
+        return activeProxies.get(id);
+    }
+
+    /**
+     * Find a proxy using its ID.
+     *
+     * @param id                  The ID of the proxy to find.
+     * @param ignoreAccessControl True to search in all proxies, regardless of the current security context.
+     * @return The matching proxy, or null if no match was found.
+     */
+    public Proxy getProxy(String id, boolean ignoreAccessControl) {
+        Proxy proxy = activeProxies.get(id);
+        if (proxy == null || !hasAccess(proxy, ignoreAccessControl)) return null;
+        return proxy;
     }
 
     /**
@@ -160,6 +187,20 @@ public class ProxyService {
         return getProxies(filter, ignoreAccessControl).stream().findAny().orElse(null);
     }
 
+    /**
+     * Find the proxy of a user that was launched from the given spec.
+     *
+     * @param userId              The ID of the user owning the proxy.
+     * @param specId              The ID of the ProxySpec the proxy was launched from.
+     * @param ignoreAccessControl True to search in all proxies, regardless of the current security context.
+     * @return The matching proxy, or null if no match was found.
+     */
+    public Proxy findUserProxy(String userId, String specId, boolean ignoreAccessControl) {
+        Proxy proxy = activeProxies.findByUserAndSpec(userId, specId);
+        if (proxy == null || !hasAccess(proxy, ignoreAccessControl)) return null;
+        return proxy;
+    }
+
     /**
      * Find all proxies that match an optional filter.
      *
@@ -168,19 +209,38 @@ public class ProxyService {
      * @return A List of matching proxies, may be empty.
      */
     public List<Proxy> getProxies(Predicate<Proxy> filter, boolean ignoreAccessControl) {
-        boolean isAdmin = userService.isAdmin();
+        return filterProxies(activeProxies.getAll(), filter, ignoreAccessControl);
+    }
+
+    /**
+     * Find all proxies of a user that match an optional filter.
+     * Unlike {@link #getProxies(Predicate, boolean)}, this only visits the proxies of the given user.
+     *
+     * @param userId              The ID of the user owning the proxies.
+     * @param filter              The filter to match, or null.
+     * @param ignoreAccessControl True to search in all proxies, regardless of the current security context.
+     * @return A List of matching proxies, may be empty.
+     */
+    public List<Proxy> getUserProxies(String userId, Predicate<Proxy> filter, boolean ignoreAccessControl) {
+        return filterProxies(activeProxies.getByUser(userId), filter, ignoreAccessControl);
+    }
+
+    private List<Proxy> filterProxies(Collection<Proxy> proxies, Predicate<Proxy> filter, boolean ignoreAccessControl) {
+        boolean isAdmin = ignoreAccessControl || userService.isAdmin();
         List<Proxy> matches = new ArrayList<>();
-        synchronized (activeProxies) {
-            for (Proxy proxy : activeProxies) {
-                boolean hasAccess = ignoreAccessControl || isAdmin || userService.isOwner(proxy);
-                if (hasAccess && (filter == null || filter.test(proxy))) matches.add(proxy);
-            }
+        for (Proxy proxy : proxies) {
+            boolean hasAccess = isAdmin || userService.isOwner(proxy);
+            if (hasAccess && (filter == null || filter.test(proxy))) matches.add(proxy);
         }
         return matches;
     }
 
+    private boolean hasAccess(Proxy proxy, boolean ignoreAccessControl) {
+        return ignoreAccessControl || userService.isAdmin() || userService.isOwner(proxy);
+    }
+
     /**
-     * Launch a new proxy using the given ProxySpec.
+     * Launch a new proxy using the given ProxySpec, and wait until it is up.
      *
      * @param spec                The ProxySpec to base the new proxy on.
      * @param ignoreAccessControl True to allow access to the given ProxySpec, regardless of the current security context.
@@ -188,42 +248,129 @@ public class ProxyService {
      * @throws VLabControllerException If the proxy fails to start for any reason.
      */
     public Proxy startProxy(ProxySpec spec, boolean ignoreAccessControl) throws VLabControllerException {
+        try {
+            return startPipeline(createProxy(spec, ignoreAccessControl)).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof VLabControllerException) throw (VLabControllerException) e.getCause();
+            throw new VLabControllerException("Failed to start proxy", e.getCause());
+        }
+    }
+
+    /**
+     * Launch a new proxy using the given ProxySpec, without waiting for it.
+     * <p>
+     * The proxy is registered immediately with status {@link ProxyStatus#Starting}, while the container is started,
+     * tested and mapped on the startup executor. The proxy is {@link ProxyStatus#Up} once it is mapped.
+     * Use {@link #getStartupFuture(String)} to be notified when the startup completes.
+     * If the startup fails, the proxy is unregistered again.
+     *
+     * @param spec                The ProxySpec to base the new proxy on.
+     * @param ignoreAccessControl True to allow access to the given ProxySpec, regardless of the current security context.
+     * @return The proxy that is being launched.
+     */
+    public Proxy startProxyAsync(ProxySpec spec, boolean ignoreAccessControl) {
+        Proxy proxy = createProxy(spec, ignoreAccessControl);
+        startPipeline(proxy);
+        return proxy;
+    }
+
+    /**
+     * Startup stage: check access to the spec, and register a new proxy for it.
+     */
+    private Proxy createProxy(ProxySpec spec, boolean ignoreAccessControl) {
         if (!ignoreAccessControl && !userService.canAccess(spec)) {
             throw new AccessDeniedException(String.format("Cannot start proxy %s: access denied", spec.getId()));
         }
 
         Proxy proxy = new Proxy();
-        proxy.setStatus(ProxyStatus.New);
+        proxy.setId(UUID.randomUUID().toString());
+        proxy.setStatus(ProxyStatus.Starting);
+        proxy.setCreatedTimestamp(System.currentTimeMillis());
         proxy.setUserId(userService.getCurrentUserId());
         proxy.setSpec(spec);
         proxy.setAdmin(userService.isAdmin());
+        // resolved while the request of the user is still bound, e.g. the OpenID backend reads the access token from
+        // the session: the container is created on the startup executor, once the request may be completed
+        List<String> authEnv = new ArrayList<>();
+        if (authBackend != null) authBackend.customizeContainerEnv(authEnv);
+        proxy.setAuthEnv(authEnv);
         activeProxies.add(proxy);
+        return proxy;
+    }
 
-        try {
-            backend.startProxy(proxy);
-        } finally {
-            if (proxy.getStatus() != ProxyStatus.Up) {
-                activeProxies.remove(proxy);
-                applicationEventPublisher.publishEvent(new ProxyStartFailedEvent(this, proxy.getUserId(), spec.getId()));
-            }
-        }
+    /**
+     * Run the remaining startup stages of a registered proxy on the startup executor.
+     */
+    private CompletableFuture<Proxy> startPipeline(Proxy proxy) {
+        ProxySpec spec = proxy.getSpec();
+        // register the future before the pipeline runs, so that it can never miss the completion
+        CompletableFuture<Proxy> startup = new CompletableFuture<>();
+        pendingStartups.put(proxy.getId(), startup);
+        CompletableFuture
+                .supplyAsync(() -> launchContainer(proxy), startupExecutor)
+                .thenApply(this::mapProxy)
+                .whenComplete((startedProxy, throwable) -> {
+                    pendingStartups.remove(proxy.getId());
+                    if (throwable == null) {
+                        startup.complete(startedProxy);
+                        return;
+                    }
+                    Throwable cause = throwable instanceof CompletionException ? throwable.getCause() : throwable;
+                    activeProxies.remove(proxy);
+                    applicationEventPublisher.publishEvent(new ProxyStartFailedEvent(this, proxy.getUserId(), spec.getId()));
+                    log.error(String.format("Proxy failed to start [user: %s] [spec: %s] [id: %s]", proxy.getUserId(), spec.getId(), proxy.getId()), cause);
+                    startup.completeExceptionally(cause);
+                });
+        return startup;
+    }
 
-        for (Entry<String, URI> target : proxy.getTargets().entrySet()) {
-            mappingManager.addMapping(proxy.getId(), target.getKey(), target.getValue());
-        }
+    /**
+     * @param proxyId The ID of the proxy.
+     * @return A future that completes when the startup of the proxy is finished, or null if the proxy is unknown.
+     */
+    public CompletableFuture<Proxy> getStartupFuture(String proxyId) {
+        CompletableFuture<Proxy> startup = pendingStartups.get(proxyId);
+        if (startup != null) return startup;
+        Proxy proxy = activeProxies.get(proxyId);
+        if (proxy == null) return null;
+        return CompletableFuture.completedFuture(proxy);
+    }
 
-        if (logService.isLoggingEnabled()) {
-            BiConsumer<OutputStream, OutputStream> outputAttacher = backend.getOutputAttacher(proxy);
-            if (outputAttacher == null) {
-                log.warn("Cannot log proxy output: " + backend.getClass() + " does not support output attaching.");
-            } else {
-                logService.attachToOutput(proxy, outputAttacher);
+    /**
+     * Startup stage: create the container(s), wait until they are ready and test them.
+     */
+    private Proxy launchContainer(Proxy proxy) {
+        backend.startProxy(proxy);
+        return proxy;
+    }
+
+    /**
+     * Startup stage: make the proxy reachable and announce it.
+     * The proxy is only marked {@link ProxyStatus#Up} once its mappings exist, so that whoever sees the status can
+     * route requests to it.
+     */
+    private Proxy mapProxy(Proxy proxy) {
+        // the lock of the proxy orders this stage with stopProxy: the proxy is either stopped before, and never
+        // mapped, or mapped completely before its mappings are removed
+        boolean stopped;
+        synchronized (proxy) {
+            stopped = activeProxies.get(proxy.getId()) != proxy;
+            if (!stopped) {
+                for (Entry<String, URI> target : proxy.getTargets().entrySet()) {
+                    mappingManager.addMapping(proxy.getId(), proxy.getSpec(), target.getKey(), target.getValue());
+                }
+                logService.attachToOutput(proxy, backend);
+                proxy.setStatus(ProxyStatus.Up);
             }
         }
+        if (stopped) {
+            // the proxy was stopped while it was starting
+            backend.stopProxy(proxy);
+            throw new VLabControllerException("Proxy was stopped during startup");
+        }
 
-        log.info(String.format("Proxy activated [user: %s] [spec: %s] [id: %s]", proxy.getUserId(), spec.getId(), proxy.getId()));
-        applicationEventPublisher.publishEvent(new ProxyStartEvent(this, proxy.getUserId(), spec.getId(), Duration.ofMillis(proxy.getStartupTimestamp() - proxy.getCreatedTimestamp())));
-
+        log.info(String.format("Proxy activated [user: %s] [spec: %s] [id: %s]", proxy.getUserId(), proxy.getSpec().getId(), proxy.getId()));
+        applicationEventPublisher.publishEvent(new ProxyStartEvent(this, proxy.getId(), proxy.getUserId(), proxy.getSpec().getId(), Duration.ofMillis(proxy.getStartupTimestamp() - proxy.getCreatedTimestamp())));
         return proxy;
     }
 
@@ -240,7 +387,10 @@ public class ProxyService {
             throw new AccessDeniedException(String.format("Cannot stop proxy %s: access denied", proxy.getId()));
         }
 
-        activeProxies.remove(proxy);
+        synchronized (proxy) {
+            activeProxies.remove(proxy);
+            mappingManager.removeProxyMapping(proxy.getId());
+        }
 
         Runnable releaser = () -> {
             try {
@@ -248,7 +398,7 @@ public class ProxyService {
                 logService.detach(proxy);
                 log.info(String.format("Proxy released [user: %s] [spec: %s] [id: %s]", proxy.getUserId(), proxy.getSpec().getId(), proxy.getId()));
                 if (proxy.getStartupTimestamp() > 0) {
-                    applicationEventPublisher.publishEvent(new ProxyStopEvent(this, proxy.getUserId(),
+                    applicationEventPublisher.publishEvent(new ProxyStopEvent(this, proxy.getId(), proxy.getUserId(),
                             proxy.getSpec().getId(),
                             Duration.ofMillis(System.currentTimeMillis() - proxy.getStartupTimestamp() - silenceOffset)));
                 }
@@ -258,7 +408,5 @@ public class ProxyService {
         };
         if (async) containerKiller.submit(releaser);
         else releaser.run();
-
-        mappingManager.removeProxyMapping(proxy.getId());
     }
 }
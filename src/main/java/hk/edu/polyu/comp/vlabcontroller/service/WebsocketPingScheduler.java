@@ -0,0 +1,171 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Hashed-wheel timer that sends the websocket pings of all connections.
+ * </p><p>
+ * One revolution of the wheel takes exactly one heartbeat interval, so a connection is put in a bucket once, when it
+ * is registered, and stays there until it is closed: nothing is re-inserted after a ping.
+ * A single ticker thread visits one bucket per tick and groups the connections that need a ping by the XNIO I/O
+ * thread that owns them. Each group is then handed to its I/O thread as a single task, so the pings are written by
+ * the thread that owns the channel and the number of tasks per tick is bounded by the number of I/O threads.
+ * </p>
+ */
+@Log4j2
+class WebsocketPingScheduler {
+
+    /**
+     * A websocket connection that is pinged periodically.
+     */
+    interface PingTarget {
+
+        /**
+         * @return The executor running the tasks of the connection, i.e. the XNIO I/O thread owning its channel.
+         */
+        Executor getExecutor();
+
+        boolean isOpen();
+
+        /**
+         * Called on the ticker thread, must be cheap.
+         *
+         * @return True if a ping must be sent in this round.
+         */
+        boolean needsPing();
+
+        /**
+         * Send a ping, called on the I/O thread of the connection.
+         */
+        void ping();
+    }
+
+    private final List<Set<PingTarget>> buckets;
+    private final long tickNanos;
+    private final Timer lagTimer;
+    private final DistributionSummary pingsPerTick;
+
+    private volatile long nextTick;
+    private volatile Thread ticker;
+
+    WebsocketPingScheduler(long revolutionMillis, int wheelSize, MeterRegistry registry) {
+        if (wheelSize <= 0) throw new IllegalArgumentException("Wheel size must be positive");
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(ConcurrentHashMap.newKeySet());
+        }
+        this.tickNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(revolutionMillis) / wheelSize);
+        this.lagTimer = Timer.builder("heartbeatPingLag")
+                .description("Delay between the planned and the actual start of a ping scheduler tick")
+                .register(registry);
+        this.pingsPerTick = DistributionSummary.builder("heartbeatPingsPerTick")
+                .description("Number of websocket pings sent per ping scheduler tick")
+                .register(registry);
+        registry.gauge("heartbeatPingConnections", this, WebsocketPingScheduler::size);
+    }
+
+    synchronized void start() {
+        if (ticker != null) return;
+        ticker = new Thread(this::run, getClass().getSimpleName());
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    synchronized void stop() {
+        if (ticker == null) return;
+        ticker.interrupt();
+        ticker = null;
+    }
+
+    /**
+     * Register a connection. Its first ping is sent about one revolution later.
+     */
+    void register(PingTarget target) {
+        // the bucket right before the next tick is the one that will be visited last
+        int bucket = (int) ((nextTick + buckets.size() - 1) % buckets.size());
+        buckets.get(bucket).add(target);
+    }
+
+    int size() {
+        int size = 0;
+        for (Set<PingTarget> bucket : buckets) {
+            size += bucket.size();
+        }
+        return size;
+    }
+
+    private void run() {
+        long start = System.nanoTime();
+        long tick = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                long deadline = start + tick * tickNanos;
+                long sleep = deadline - System.nanoTime();
+                if (sleep > 0) TimeUnit.NANOSECONDS.sleep(sleep);
+                lagTimer.record(Math.max(0, System.nanoTime() - deadline), TimeUnit.NANOSECONDS);
+                tick(tick++);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Visit the bucket of the given tick, called by the ticker thread.
+     */
+    void tick(long tick) {
+        try {
+            processBucket(buckets.get((int) (tick % buckets.size())));
+        } catch (Throwable t) {
+            log.error("Error in " + getClass().getSimpleName(), t);
+        } finally {
+            nextTick = tick + 1;
+        }
+    }
+
+    private void processBucket(Set<PingTarget> bucket) {
+        Map<Executor, List<PingTarget>> batches = new HashMap<>();
+        int pings = 0;
+        for (Iterator<PingTarget> it = bucket.iterator(); it.hasNext(); ) {
+            PingTarget target = it.next();
+            if (!target.isOpen()) {
+                it.remove();
+                continue;
+            }
+            if (!target.needsPing()) continue;
+            batches.computeIfAbsent(target.getExecutor(), k -> new ArrayList<>()).add(target);
+            pings++;
+        }
+        for (Map.Entry<Executor, List<PingTarget>> batch : batches.entrySet()) {
+            List<PingTarget> targets = batch.getValue();
+            try {
+                batch.getKey().execute(() -> {
+                    for (PingTarget target : targets) {
+                        try {
+                            if (target.isOpen()) target.ping();
+                        } catch (Throwable t) {
+                            log.debug("Failed to send websocket ping", t);
+                        }
+                    }
+                });
+            } catch (Throwable t) {
+                // e.g. the I/O thread is shutting down, its connections will be closed anyway
+                log.debug("Failed to dispatch websocket pings", t);
+            }
+        }
+        pingsPerTick.record(pings);
+    }
+}
@@ -1,5 +1,6 @@
 package hk.edu.polyu.comp.vlabcontroller.spec.expression;
 
+import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.EntryPointSpec;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.ContainerSpec;
@@ -8,9 +9,12 @@ import io.fabric8.kubernetes.api.model.VolumeMount;
 import io.fabric8.kubernetes.api.model.VolumeMountBuilder;
 import org.springframework.data.util.Pair;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -21,6 +25,9 @@ import java.util.stream.Collectors;
  * </p>
  * For more information on the expression language, see:
  * https://docs.spring.io/spring/docs/current/spring-framework-reference/core.html#expressions
+ * <p>
+ * Every getter resolves the expressions again. Use {@link #resolve()} to resolve all of them once.
+ * </p>
  */
 public class ExpressionAwareContainerSpec extends ContainerSpec {
 
@@ -119,6 +126,71 @@ public class ExpressionAwareContainerSpec extends ContainerSpec {
                 .build()).collect(Collectors.toList());
     }
 
+    /**
+     * Resolve all expressions of the spec in a single pass.
+     *
+     * @return A plain ContainerSpec holding the resolved values. Its collections cannot be modified.
+     * @throws VLabControllerException If any expression cannot be resolved, listing all of them.
+     */
+    public ContainerSpec resolve() {
+        List<String> errors = new ArrayList<>();
+        Function<String, String> resolveString = expression -> {
+            try {
+                return resolve(expression);
+            } catch (Exception e) {
+                errors.add(String.format("'%s': %s", expression, e.getMessage()));
+                return null;
+            }
+        };
+
+        ContainerSpec resolved = new ContainerSpec();
+        resolved.setImage(resolveString.apply(source.getImage()));
+        resolved.setCmd(resolveList(source.getCmd(), resolveString));
+        resolved.setEnv(resolveMap(source.getEnv(), resolveString));
+        resolved.setEnvFile(resolveString.apply(source.getEnvFile()));
+        resolved.setNetwork(resolveString.apply(source.getNetwork()));
+        resolved.setNetworkConnections(resolveList(source.getNetworkConnections(), resolveString));
+        resolved.setDns(resolveList(source.getDns(), resolveString));
+        resolved.setEntryPoints(Collections.unmodifiableList(new ArrayList<>(source.getEntryPoints())));
+        resolved.setPortMapping(Collections.unmodifiableMap(new HashMap<>(source.getPortMapping())));
+        resolved.setPrivileged(source.isPrivileged());
+        ResourceSpec resources = new ResourceSpec();
+        resources.setLimits(resolveMap(source.getResources().getLimits(), resolveString));
+        resources.setRequests(resolveMap(source.getResources().getRequests(), resolveString));
+        resolved.setResources(resources);
+        resolved.setVolumeMounts(resolveVolumeMounts(source.getVolumeMounts(), resolveString));
+        resolved.setAdminVolumeMounts(resolveVolumeMounts(source.getAdminVolumeMounts(), resolveString));
+        resolved.setSettings(resolveMap(source.getSettings(), resolveString));
+        // intentionally no SPeL applied!
+        resolved.setRuntimeLabels(Collections.unmodifiableMap(new HashMap<>(source.getRuntimeLabels())));
+
+        if (!errors.isEmpty()) {
+            throw new VLabControllerException("Cannot resolve the expressions of the container spec: " + String.join(", ", errors));
+        }
+        return resolved;
+    }
+
+    private static List<String> resolveList(List<String> expressions, Function<String, String> resolveString) {
+        return Collections.unmodifiableList(expressions.stream().map(resolveString).collect(Collectors.toList()));
+    }
+
+    private static Map<String, String> resolveMap(Map<String, String> expressions, Function<String, String> resolveString) {
+        Map<String, String> resolved = new HashMap<>();
+        expressions.forEach((key, value) -> resolved.put(key, resolveString.apply(value)));
+        return Collections.unmodifiableMap(resolved);
+    }
+
+    private static List<VolumeMount> resolveVolumeMounts(List<VolumeMount> volumeMounts, Function<String, String> resolveString) {
+        return Collections.unmodifiableList(volumeMounts.stream().map(volumeMount -> new VolumeMountBuilder()
+                .withMountPath(resolveString.apply(volumeMount.getMountPath()))
+                .withMountPropagation(resolveString.apply(volumeMount.getMountPropagation()))
+                .withName(resolveString.apply(volumeMount.getName()))
+                .withSubPath(resolveString.apply(volumeMount.getSubPath()))
+                .withSubPathExpr(resolveString.apply(volumeMount.getSubPathExpr()))
+                .withReadOnly(volumeMount.getReadOnly())
+                .build()).collect(Collectors.toList()));
+    }
+
     protected String resolve(String expression) {
         if (expression == null) return null;
         return resolver.evaluateToString(expression, context);
@@ -3,12 +3,16 @@ package hk.edu.polyu.comp.vlabcontroller.spec.expression;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.ContainerSpec;
 import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import java.util.function.Function;
 
 public class SpecExpressionContext {
 
     private ContainerSpec containerSpec;
     private ProxySpec proxySpec;
     private Proxy proxy;
+    private StandardEvaluationContext evaluationContext;
 
     public static SpecExpressionContext create(Object... objects) {
         SpecExpressionContext ctx = new SpecExpressionContext();
@@ -35,4 +39,12 @@ public class SpecExpressionContext {
     public Proxy getProxy() {
         return proxy;
     }
+
+    /**
+     * @return The evaluation context of this context, created with the given factory on the first call.
+     */
+    synchronized StandardEvaluationContext getEvaluationContext(Function<SpecExpressionContext, StandardEvaluationContext> factory) {
+        if (evaluationContext == null) evaluationContext = factory.apply(this);
+        return evaluationContext;
+    }
 }
@@ -1,5 +1,9 @@
 package hk.edu.polyu.comp.vlabcontroller.spec.expression;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ConfigurableApplicationContext;
@@ -8,22 +12,29 @@ import org.springframework.core.convert.ConversionService;
 import org.springframework.expression.Expression;
 import org.springframework.expression.ExpressionParser;
 import org.springframework.expression.ParserContext;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
 import org.springframework.expression.spel.standard.SpelExpressionParser;
 import org.springframework.expression.spel.support.StandardEvaluationContext;
 import org.springframework.expression.spel.support.StandardTypeConverter;
 import org.springframework.expression.spel.support.StandardTypeLocator;
 import org.springframework.stereotype.Component;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
 /**
+ * <p>
  * Note: inspired by org.springframework.context.expression.StandardBeanExpressionResolver
+ * </p><p>
+ * Parsed expressions are cached by their template string (at most <b>proxy.spec-expression.cache-size</b> entries,
+ * default 1000), and are compiled by SpEL in {@link SpelCompilerMode#MIXED} mode: expressions that cannot be compiled,
+ * or whose compiled form fails, keep being interpreted. The evaluation context of a {@link SpecExpressionContext} is
+ * created on its first evaluation and kept on it, so it is shared by all the expressions resolved against it and
+ * released together with it.
+ * </p>
  */
 @Component
 public class SpecExpressionResolver {
 
-    private final Map<SpecExpressionContext, StandardEvaluationContext> evaluationCache = new ConcurrentHashMap<>(8);
+    private final LoadingCache<String, Expression> expressionCache;
     private final ParserContext beanExpressionParserContext = new ParserContext() {
         @Override
         public boolean isTemplate() {
@@ -44,34 +55,49 @@ public class SpecExpressionResolver {
     private final ApplicationContext appContext;
 
     public SpecExpressionResolver(ApplicationContext appContext) {
-        this.expressionParser = new SpelExpressionParser();
+        this.expressionParser = new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.MIXED, getClass().getClassLoader()));
         this.appContext = appContext;
+        long cacheSize = appContext.getEnvironment().getProperty("proxy.spec-expression.cache-size", Long.class, 1000L);
+        this.expressionCache = CacheBuilder.newBuilder().maximumSize(cacheSize).build(new CacheLoader<String, Expression>() {
+            @Override
+            public Expression load(String expression) {
+                return expressionParser.parseExpression(expression, beanExpressionParserContext);
+            }
+        });
     }
 
     public Object evaluate(String expression, SpecExpressionContext context) {
         if (expression == null) return null;
         if (expression.isEmpty()) return "";
 
-        Expression expr = this.expressionParser.parseExpression(expression, this.beanExpressionParserContext);
+        Expression expr = parse(expression);
 
-        ConfigurableBeanFactory beanFactory = ((ConfigurableApplicationContext) appContext).getBeanFactory();
+        return expr.getValue(context.getEvaluationContext(this::createEvaluationContext));
+    }
 
-        StandardEvaluationContext sec = evaluationCache.get(context);
-        if (sec == null) {
-            sec = new StandardEvaluationContext();
-            sec.setRootObject(context);
-            sec.addPropertyAccessor(new BeanExpressionContextAccessor());
-            sec.addPropertyAccessor(new BeanFactoryAccessor());
-            sec.addPropertyAccessor(new MapAccessor());
-            sec.addPropertyAccessor(new EnvironmentAccessor());
-            sec.setBeanResolver(new BeanFactoryResolver(appContext));
-            sec.setTypeLocator(new StandardTypeLocator(beanFactory.getBeanClassLoader()));
-            ConversionService conversionService = beanFactory.getConversionService();
-            if (conversionService != null) sec.setTypeConverter(new StandardTypeConverter(conversionService));
-            evaluationCache.put(context, sec);
+    Expression parse(String expression) {
+        try {
+            return expressionCache.getUnchecked(expression);
+        } catch (UncheckedExecutionException e) {
+            // e.g. a ParseException, thrown as if the expression was not cached
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
         }
+    }
 
-        return expr.getValue(sec);
+    private StandardEvaluationContext createEvaluationContext(SpecExpressionContext context) {
+        ConfigurableBeanFactory beanFactory = ((ConfigurableApplicationContext) appContext).getBeanFactory();
+        StandardEvaluationContext sec = new StandardEvaluationContext();
+        sec.setRootObject(context);
+        sec.addPropertyAccessor(new BeanExpressionContextAccessor());
+        sec.addPropertyAccessor(new BeanFactoryAccessor());
+        sec.addPropertyAccessor(new MapAccessor());
+        sec.addPropertyAccessor(new EnvironmentAccessor());
+        sec.setBeanResolver(new BeanFactoryResolver(appContext));
+        sec.setTypeLocator(new StandardTypeLocator(beanFactory.getBeanClassLoader()));
+        ConversionService conversionService = beanFactory.getConversionService();
+        if (conversionService != null) sec.setTypeConverter(new StandardTypeConverter(conversionService));
+        return sec;
     }
 
     public String evaluateToString(String expression, SpecExpressionContext context) {
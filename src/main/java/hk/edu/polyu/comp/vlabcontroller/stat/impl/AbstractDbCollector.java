@@ -2,29 +2,58 @@ package hk.edu.polyu.comp.vlabcontroller.stat.impl;
 
 import hk.edu.polyu.comp.vlabcontroller.stat.IStatCollector;
 import hk.edu.polyu.comp.vlabcontroller.event.*;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import java.io.IOException;
+import java.util.List;
 
+/**
+ * Collects the usage statistics events and writes them to a database, asynchronously and in batches (see
+ * {@link StatEventPipeline}).
+ */
 public abstract class AbstractDbCollector implements IStatCollector {
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private MeterRegistry registry;
+
+    private StatEventPipeline pipeline;
+
+    @PostConstruct
+    public void startPipeline() {
+        pipeline = new StatEventPipeline(getClass().getSimpleName(), environment, registry, this::writeToDb);
+    }
+
+    @PreDestroy
+    public void stopPipeline() throws InterruptedException {
+        pipeline.shutdown(5000);
+    }
+
     @EventListener
     public void onUserLogoutEvent(UserLogoutEvent event) throws IOException {
-        writeToDb(event.getTimestamp(), event.getUserId(), "Logout", null, String.valueOf(event.getWasExpired()));
+        pipeline.submit(new StatEvent(event.getTimestamp(), event.getUserId(), "Logout", null, String.valueOf(event.getWasExpired())));
     }
 
     @EventListener
     public void onUserLoginEvent(UserLoginEvent event) throws IOException {
-        writeToDb(event.getTimestamp(), event.getUserId(), "Login", null, null);
+        pipeline.submit(new StatEvent(event.getTimestamp(), event.getUserId(), "Login", null, null));
     }
 
     @EventListener
     public void onProxyStartEvent(ProxyStartEvent event) throws IOException {
-        writeToDb(event.getTimestamp(), event.getUserId(), "ProxyStart", event.getSpecId(), String.valueOf(event.getStartupTime().toMillis()));
+        pipeline.submit(new StatEvent(event.getTimestamp(), event.getUserId(), "ProxyStart", event.getSpecId(), String.valueOf(event.getStartupTime().toMillis())));
     }
 
     @EventListener
     public void onProxyStopEvent(ProxyStopEvent event) throws IOException {
-        writeToDb(event.getTimestamp(), event.getUserId(), "ProxyStop", event.getSpecId(), String.valueOf(event.getUsageTime().toMillis()));
+        pipeline.submit(new StatEvent(event.getTimestamp(), event.getUserId(), "ProxyStop", event.getSpecId(), String.valueOf(event.getUsageTime().toMillis())));
     }
 
     @EventListener
@@ -37,6 +66,15 @@ public abstract class AbstractDbCollector implements IStatCollector {
         // TODO
     }
 
+    /**
+     * Write a batch of events. By default, the events are written one by one.
+     */
+    protected void writeToDb(List<StatEvent> events) throws IOException {
+        for (StatEvent event : events) {
+            writeToDb(event.getTimestamp(), event.getUserId(), event.getType(), event.getSpecId(), event.getInfo());
+        }
+    }
+
     protected abstract void writeToDb(long timestamp, String userId, String type, String specId, String info) throws IOException;
 
 }
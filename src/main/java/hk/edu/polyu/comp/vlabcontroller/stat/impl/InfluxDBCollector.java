@@ -11,33 +11,84 @@ import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 
 /**
  * E.g.:
  * usage-stats-url: http://localhost:8086/write?db=usagestats
+ * <p>
+ * The timestamps of the events are written in the unit of the <code>precision</code> parameter of the URL, if any
+ * (e.g. <code>&amp;precision=ms</code>), and in nanoseconds otherwise.
+ * </p>
  */
 public class InfluxDBCollector extends AbstractDbCollector {
 
     private String destination;
+    private TimeUnit precision;
     @Inject
     private Environment environment;
 
     @PostConstruct
     public void init() {
         destination = environment.getProperty("proxy.usage-stats-url.influx-url");
+        precision = precisionOf(destination);
+    }
+
+    /**
+     * The unit of the timestamps expected by the given write URL, as given by its <code>precision</code> parameter.
+     */
+    static TimeUnit precisionOf(String url) {
+        int query = url == null ? -1 : url.indexOf('?');
+        if (query < 0) return TimeUnit.NANOSECONDS;
+        for (String param : url.substring(query + 1).split("&")) {
+            if (!param.startsWith("precision=")) continue;
+            String value = param.substring("precision=".length());
+            switch (value) {
+                case "n":
+                case "ns":
+                    return TimeUnit.NANOSECONDS;
+                case "u":
+                case "us":
+                    return TimeUnit.MICROSECONDS;
+                case "ms":
+                    return TimeUnit.MILLISECONDS;
+                case "s":
+                    return TimeUnit.SECONDS;
+                case "m":
+                    return TimeUnit.MINUTES;
+                case "h":
+                    return TimeUnit.HOURS;
+                default:
+                    throw new IllegalArgumentException("Unsupported InfluxDB precision: " + value);
+            }
+        }
+        return TimeUnit.NANOSECONDS;
     }
 
     @Override
     protected void writeToDb(long timestamp, String userId, String type, String specId, String info) throws IOException {
+        writeToDb(List.of(new StatEvent(timestamp, userId, type, specId, info)));
+    }
+
+    /**
+     * Write the events in a single request, one line per event, with their timestamps in the precision of the URL.
+     */
+    @Override
+    protected void writeToDb(List<StatEvent> events) throws IOException {
         String identifier = environment.getProperty("proxy.identifier-value", "default-identifier");
-        String body = String.format("event,username=%s,type=%s,identifier=%s specid=\"%s\",info=\"%s\"",
-                userId.replace(" ", "\\ "),
-                type.replace(" ", "\\ "),
-                identifier.replace(" ", "\\ "),
-                Optional.ofNullable(specId).orElse(""),
-                Optional.ofNullable(info).orElse(""));
+        String body = events.stream()
+                .map(event -> String.format("event,username=%s,type=%s,identifier=%s specid=\"%s\",info=\"%s\" %d",
+                        event.getUserId().replace(" ", "\\ "),
+                        event.getType().replace(" ", "\\ "),
+                        identifier.replace(" ", "\\ "),
+                        Optional.ofNullable(event.getSpecId()).orElse(""),
+                        Optional.ofNullable(event.getInfo()).orElse(""),
+                        precision.convert(event.getTimestamp(), TimeUnit.MILLISECONDS)))
+                .collect(Collectors.joining("\n"));
 
         HttpURLConnection conn = (HttpURLConnection) new URL(destination).openConnection();
         conn.setRequestMethod("POST");
@@ -10,6 +10,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.List;
 
 /**
  * # MonetDB, Postgresql, MySQL/MariaDB usage-stats-url:
@@ -95,4 +96,26 @@ public class JDBCCollector extends AbstractDbCollector {
             throw new IOException("Exception while logging stats", e);
         }
     }
+
+    @Override
+    protected void writeToDb(List<StatEvent> events) throws IOException {
+        String identifier = environment.getProperty("proxy.identifier-value", "default-identifier");
+        String sql = "INSERT INTO event(event_time, username, type, specid, identifier, info) VALUES (?,?,?,?,?,?)";
+        try (Connection con = ds.getConnection()) {
+            try (PreparedStatement stmt = con.prepareStatement(sql)) {
+                for (StatEvent event : events) {
+                    stmt.setTimestamp(1, new Timestamp(event.getTimestamp()));
+                    stmt.setString(2, event.getUserId());
+                    stmt.setString(3, event.getType());
+                    stmt.setString(4, event.getSpecId());
+                    stmt.setString(5, identifier);
+                    stmt.setString(6, event.getInfo());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Exception while logging stats", e);
+        }
+    }
 }
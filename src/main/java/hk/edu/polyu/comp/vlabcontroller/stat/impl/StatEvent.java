@@ -0,0 +1,34 @@
+package hk.edu.polyu.comp.vlabcontroller.stat.impl;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+
+/**
+ * A usage statistics event, as written to the database by {@link AbstractDbCollector}.
+ */
+public class StatEvent {
+    @Getter
+    private final long timestamp;
+    @Getter
+    private final String userId;
+    @Getter
+    private final String type;
+    @Getter
+    private final String specId;
+    @Getter
+    private final String info;
+
+    @JsonCreator
+    public StatEvent(@JsonProperty("timestamp") long timestamp,
+                     @JsonProperty("userId") String userId,
+                     @JsonProperty("type") String type,
+                     @JsonProperty("specId") String specId,
+                     @JsonProperty("info") String info) {
+        this.timestamp = timestamp;
+        this.userId = userId;
+        this.type = type;
+        this.specId = specId;
+        this.info = info;
+    }
+}
@@ -0,0 +1,283 @@
+package hk.edu.polyu.comp.vlabcontroller.stat.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.core.env.Environment;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Writes the usage statistics events of a collector asynchronously, so that publishing an event (e.g. on login or
+ * when a proxy starts) never waits for the database.
+ * </p><p>
+ * The events are put in a bounded queue (<b>proxy.usage-stats-pipeline.capacity</b>, default 10000), from which a
+ * single thread writes them in batches: a batch is written as soon as it holds
+ * <b>proxy.usage-stats-pipeline.batch-size</b> events (default 100), or <b>proxy.usage-stats-pipeline.linger</b>
+ * milliseconds (default 1000) after its first event. When the queue is full,
+ * <b>proxy.usage-stats-pipeline.overflow</b> decides what happens to a new event:
+ * <ul>
+ * <li><code>drop-oldest</code> (default): the oldest event in the queue is dropped;</li>
+ * <li><code>block</code>: the publishing thread waits until there is room in the queue;</li>
+ * <li><code>spill</code>: the event is appended to a file in <b>proxy.usage-stats-pipeline.spill-path</b> (default
+ * the temporary directory), and written once the queue is empty again. Batches that fail to be written are spilled
+ * as well, and so are kept across restarts.</li>
+ * </ul>
+ * When the spilled events fail to be written, the replay stops at the failed batch and is retried after
+ * <b>proxy.usage-stats-pipeline.replay-backoff</b> milliseconds (default 1000), doubled after every further failure
+ * up to 5 minutes. Spilled lines that cannot be read back are skipped and counted as dropped.
+ * </p><p>
+ * The depth of the queue (<b>usageStatsQueueDepth</b>), the size of the batches (<b>usageStatsBatchSize</b>), their
+ * write latency (<b>usageStatsWriteLatency</b>) and the dropped, spilled and failed events are reported per collector.
+ * </p>
+ */
+class StatEventPipeline {
+
+    enum OverflowPolicy {
+        DROP_OLDEST, BLOCK, SPILL;
+
+        static OverflowPolicy of(String value) {
+            return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+        }
+    }
+
+    interface BatchWriter {
+        void write(List<StatEvent> batch) throws IOException;
+    }
+
+    private static final long IDLE_POLL_MS = 500;
+    private static final long MAX_REPLAY_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final Logger log = LogManager.getLogger(StatEventPipeline.class);
+    private final BlockingQueue<StatEvent> queue;
+    private final int batchSize;
+    private final long lingerMs;
+    private final OverflowPolicy overflowPolicy;
+    private final Path spillFile;
+    private final Path replayFile;
+    private final Path retryFile;
+    private final long replayBackoffMs;
+    private final Object spillLock = new Object();
+    private final BatchWriter writer;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private long replayDelayMs;
+    private long nextReplay = System.nanoTime();
+
+    private final DistributionSummary batchSizes;
+    private final Timer writeLatency;
+    private final Counter dropped;
+    private final Counter spilled;
+    private final Counter failed;
+
+    StatEventPipeline(String name, Environment environment, MeterRegistry registry, BatchWriter writer) {
+        this.queue = new ArrayBlockingQueue<>(environment.getProperty("proxy.usage-stats-pipeline.capacity", Integer.class, 10000));
+        this.batchSize = Math.max(1, environment.getProperty("proxy.usage-stats-pipeline.batch-size", Integer.class, 100));
+        this.lingerMs = environment.getProperty("proxy.usage-stats-pipeline.linger", Long.class, 1000L);
+        this.overflowPolicy = OverflowPolicy.of(environment.getProperty("proxy.usage-stats-pipeline.overflow", "drop-oldest"));
+        String spillPath = environment.getProperty("proxy.usage-stats-pipeline.spill-path", System.getProperty("java.io.tmpdir"));
+        this.spillFile = Paths.get(spillPath, "usage-stats-" + name + ".spill");
+        this.replayFile = Paths.get(spillPath, "usage-stats-" + name + ".replay");
+        this.retryFile = Paths.get(spillPath, "usage-stats-" + name + ".retry");
+        this.replayBackoffMs = Math.max(IDLE_POLL_MS, environment.getProperty("proxy.usage-stats-pipeline.replay-backoff", Long.class, 1000L));
+        this.writer = writer;
+
+        Gauge.builder("usageStatsQueueDepth", queue, BlockingQueue::size).tag("collector", name).register(registry);
+        batchSizes = DistributionSummary.builder("usageStatsBatchSize").tag("collector", name).register(registry);
+        writeLatency = Timer.builder("usageStatsWriteLatency").tag("collector", name).register(registry);
+        dropped = Counter.builder("usageStatsDropped").tag("collector", name).register(registry);
+        spilled = Counter.builder("usageStatsSpilled").tag("collector", name).register(registry);
+        failed = Counter.builder("usageStatsFailed").tag("collector", name).register(registry);
+
+        thread = new Thread(this::run, "usage-stats-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void submit(StatEvent event) {
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(event);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    dropped.increment();
+                }
+                break;
+            case SPILL:
+                if (!queue.offer(event)) spill(List.of(event));
+                break;
+            default:
+                while (!queue.offer(event)) {
+                    if (queue.poll() != null) dropped.increment();
+                }
+        }
+    }
+
+    /**
+     * Write the queued events and stop the writing thread, waiting at most the given time.
+     */
+    void shutdown(long timeoutMs) throws InterruptedException {
+        running = false;
+        thread.join(timeoutMs);
+    }
+
+    private void run() {
+        List<StatEvent> batch = new ArrayList<>(batchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                StatEvent first = queue.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (overflowPolicy == OverflowPolicy.SPILL && running && System.nanoTime() - nextReplay >= 0) replaySpilled();
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (batch.size() < batchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !running) {
+                        queue.drainTo(batch, batchSize - batch.size());
+                        break;
+                    }
+                    // wake up regularly, so that a shutdown does not wait for the linger
+                    StatEvent event = queue.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(IDLE_POLL_MS)), TimeUnit.NANOSECONDS);
+                    if (event != null) batch.add(event);
+                }
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(List<StatEvent> batch) {
+        if (!tryWrite(batch) && overflowPolicy == OverflowPolicy.SPILL) spill(batch);
+    }
+
+    private boolean tryWrite(List<StatEvent> batch) {
+        long start = System.nanoTime();
+        try {
+            writer.write(batch);
+            return true;
+        } catch (Exception e) {
+            log.error(String.format("Failed to write %d usage statistics events", batch.size()), e);
+            failed.increment(batch.size());
+            return false;
+        } finally {
+            writeLatency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batchSizes.record(batch.size());
+        }
+    }
+
+    private void spill(List<StatEvent> events) {
+        synchronized (spillLock) {
+            try (BufferedWriter out = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (StatEvent event : events) {
+                    out.write(MAPPER.writeValueAsString(event));
+                    out.newLine();
+                }
+                spilled.increment(events.size());
+            } catch (IOException e) {
+                log.error(String.format("Failed to spill %d usage statistics events, dropping them", events.size()), e);
+                dropped.increment(events.size());
+            }
+        }
+    }
+
+    /**
+     * Write the spilled events, in batches. When a batch fails to be written, it is kept with the events after it
+     * for the next replay, which is postponed with an exponential backoff.
+     */
+    private void replaySpilled() {
+        boolean written = true;
+        int malformed = 0;
+        try {
+            synchronized (spillLock) {
+                if (!Files.exists(replayFile)) {
+                    if (!Files.exists(spillFile)) return;
+                    Files.move(spillFile, replayFile);
+                }
+            }
+            List<StatEvent> batch = new ArrayList<>(batchSize);
+            try (BufferedReader in = Files.newBufferedReader(replayFile, StandardCharsets.UTF_8)) {
+                String line;
+                while (written && (line = in.readLine()) != null) {
+                    if (line.isBlank()) continue;
+                    try {
+                        batch.add(MAPPER.readValue(line, StatEvent.class));
+                    } catch (JsonProcessingException e) {
+                        malformed++;
+                        continue;
+                    }
+                    if (batch.size() >= batchSize) written = replay(batch, in);
+                }
+                if (written && !batch.isEmpty()) written = replay(batch, in);
+            }
+            if (written) {
+                Files.delete(replayFile);
+            } else {
+                Files.move(retryFile, replayFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            log.error("Failed to replay spilled usage statistics events", e);
+            written = false;
+        } finally {
+            if (malformed > 0) {
+                log.warn(String.format("Skipped %d malformed spilled usage statistics events", malformed));
+                dropped.increment(malformed);
+            }
+        }
+        if (written) {
+            replayDelayMs = 0;
+        } else {
+            replayDelayMs = replayDelayMs == 0 ? replayBackoffMs : Math.min(2 * replayDelayMs, MAX_REPLAY_BACKOFF_MS);
+            nextReplay = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(replayDelayMs);
+        }
+    }
+
+    /**
+     * Write a batch of spilled events. When this fails, the batch and the remaining spilled lines are copied to the
+     * retry file.
+     */
+    private boolean replay(List<StatEvent> batch, BufferedReader remaining) throws IOException {
+        if (tryWrite(batch)) {
+            batch.clear();
+            return true;
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(retryFile, StandardCharsets.UTF_8)) {
+            for (StatEvent event : batch) {
+                out.write(MAPPER.writeValueAsString(event));
+                out.newLine();
+            }
+            String line;
+            while ((line = remaining.readLine()) != null) {
+                out.write(line);
+                out.newLine();
+            }
+        }
+        return false;
+    }
+}
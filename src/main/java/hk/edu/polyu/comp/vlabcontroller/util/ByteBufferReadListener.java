@@ -0,0 +1,24 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives a view on the bytes that were just read into a buffer, without copying them.
+ */
+@FunctionalInterface
+public interface ByteBufferReadListener {
+
+    /**
+     * Called after bytes were read into <b>buffer</b>.
+     * The new bytes are located at <code>[offset, offset + length)</code>.
+     * <p>
+     * Implementations must only use absolute reads (e.g. {@link ByteBuffer#get(int)}),
+     * must not change the position, limit or content of the buffer and must not keep a reference to it.
+     *
+     * @param buffer The buffer the bytes were read into.
+     * @param offset The index of the first byte that was read.
+     * @param length The number of bytes that were read.
+     */
+    void onRead(ByteBuffer buffer, int offset, int length);
+
+}
@@ -5,7 +5,7 @@ package hk.edu.polyu.comp.vlabcontroller.util;
  */
 public class ChannelActiveListener implements Runnable {
 
-    private long lastWrite = 0;
+    private volatile long lastWrite = 0;
 
     @Override
     public void run() {
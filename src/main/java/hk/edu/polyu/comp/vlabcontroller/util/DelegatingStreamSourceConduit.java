@@ -10,14 +10,19 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
 
 public class DelegatingStreamSourceConduit implements StreamSourceConduit {
 
     private final StreamSourceConduit delegate;
-    private final Consumer<byte[]> readListener;
+    private final ByteBufferReadListener readListener;
 
-    public DelegatingStreamSourceConduit(StreamSourceConduit delegate, Consumer<byte[]> readListener) {
+    /**
+     * Positions of the buffers passed to a scattering read, recorded before the read.
+     * Conduits are only used by their read thread, so this can be reused between reads.
+     */
+    private int[] scatterPositions = new int[0];
+
+    public DelegatingStreamSourceConduit(StreamSourceConduit delegate, ByteBufferReadListener readListener) {
         this.delegate = delegate;
         this.readListener = readListener;
     }
@@ -92,20 +97,29 @@ public class DelegatingStreamSourceConduit implements StreamSourceConduit {
         if (readListener == null) {
             return delegate.read(dst);
         } else {
+            int position = dst.position();
             int read = delegate.read(dst);
-            ByteBuffer copy = dst.duplicate();
-            copy.flip();
-            byte[] data = new byte[copy.remaining()];
-            copy.get(data);
-            readListener.accept(data);
+            if (read > 0) readListener.onRead(dst, position, read);
             return read;
         }
     }
 
     @Override
     public long read(ByteBuffer[] dsts, int offs, int len) throws IOException {
-        return delegate.read(dsts, offs, len);
+        if (readListener == null) {
+            return delegate.read(dsts, offs, len);
+        } else {
+            if (scatterPositions.length < len) scatterPositions = new int[len];
+            for (int i = 0; i < len; i++) {
+                scatterPositions[i] = dsts[offs + i].position();
+            }
+            long read = delegate.read(dsts, offs, len);
+            for (int i = 0; i < len && read > 0; i++) {
+                int length = dsts[offs + i].position() - scatterPositions[i];
+                if (length > 0) readListener.onRead(dsts[offs + i], scatterPositions[i], length);
+            }
+            return read;
+        }
     }
 
-
 }
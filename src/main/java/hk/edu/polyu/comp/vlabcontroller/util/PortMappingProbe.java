@@ -0,0 +1,171 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import io.undertow.client.ClientCallback;
+import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientExchange;
+import io.undertow.client.ClientRequest;
+import io.undertow.client.UndertowClient;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import lombok.extern.log4j.Log4j2;
+import org.xnio.ChannelListeners;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.XnioWorker;
+import org.xnio.channels.StreamSinkChannel;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * Probes whether the target of a port mapping is reachable, before the mapping is registered.
+ * </p><p>
+ * The probe never blocks the calling thread: the requests are sent by the Undertow client on the I/O threads of the
+ * server, and the retries are scheduled with an increasing delay. Concurrent probes of the same port mapping share a
+ * single probe. A failed probe is remembered for a short time, so that the requests to an unreachable port fail fast
+ * instead of probing the target again.
+ * </p>
+ */
+@Log4j2
+class PortMappingProbe {
+
+    private static final long ATTEMPT_TIMEOUT_MS = 5000;
+    private static final long INITIAL_BACKOFF_MS = 250;
+    private static final long MAX_BACKOFF_MS = 2000;
+    private static final long FAILURE_TTL_MS = 5000;
+
+    private final Map<String, Probe> probes = new ConcurrentHashMap<>(); // port mapping -> probe
+    private final int tries;
+
+    PortMappingProbe() {
+        this(5);
+    }
+
+    PortMappingProbe(int tries) {
+        this.tries = tries;
+    }
+
+    /**
+     * Probe a target, or join the probe of the same port mapping that is in flight or failed recently.
+     *
+     * @param portMapping The port mapping, used as key of the probe.
+     * @param target      The target of the port mapping.
+     * @param path        The path (and query) of the probing request.
+     * @return A future completing with the response code of the target, or completing exceptionally if the target
+     * could not be reached.
+     */
+    CompletableFuture<Integer> probe(String portMapping, URI target, String path, XnioWorker worker, ByteBufferPool bufferPool) {
+        Probe newProbe = new Probe();
+        Probe probe = probes.compute(portMapping, (key, existing) -> existing != null && !existing.isExpired() ? existing : newProbe);
+        if (probe == newProbe) {
+            probe.result.whenComplete((responseCode, error) -> {
+                if (error == null) {
+                    // the mapping is registered from now on, no need to keep the probe
+                    probes.remove(portMapping, probe);
+                } else {
+                    probe.expiresAt = System.currentTimeMillis() + FAILURE_TTL_MS;
+                }
+            });
+            attempt(target, path, worker, bufferPool, 1, probe.result);
+        }
+        return probe.result;
+    }
+
+    /**
+     * Forget the probes of the port mappings of a proxy.
+     */
+    void remove(String proxyId) {
+        probes.keySet().removeIf(portMapping -> portMapping.startsWith(proxyId + "/"));
+    }
+
+    private void attempt(URI target, String path, XnioWorker worker, ByteBufferPool bufferPool, int currentTry, CompletableFuture<Integer> result) {
+        log.debug("Testing url of {}{} ({}/{})", target, path, currentTry, tries);
+        send(target, path, worker, bufferPool).whenComplete((responseCode, error) -> {
+            if (error == null) {
+                log.debug("received response from {}{}, status code: {}", target, path, responseCode);
+                result.complete(responseCode);
+            } else if (currentTry >= tries) {
+                log.debug("Target {} is not reachable", target, error);
+                result.completeExceptionally(error);
+            } else {
+                long backoff = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << (currentTry - 1));
+                CompletableFuture.runAsync(() -> attempt(target, path, worker, bufferPool, currentTry + 1, result),
+                        CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS, worker));
+            }
+        });
+    }
+
+    /**
+     * Send a single GET request to the target.
+     *
+     * @return A future completing with the response code of the target.
+     */
+    CompletableFuture<Integer> send(URI target, String path, XnioWorker worker, ByteBufferPool bufferPool) {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        UndertowClient.getInstance().connect(new ClientCallback<>() {
+            @Override
+            public void completed(ClientConnection connection) {
+                if (result.isDone()) {
+                    // timed out in the meantime
+                    IoUtils.safeClose(connection);
+                    return;
+                }
+                result.whenComplete((responseCode, error) -> IoUtils.safeClose(connection));
+                ClientRequest request = new ClientRequest().setMethod(Methods.GET).setPath(path);
+                request.getRequestHeaders().put(Headers.HOST, target.getHost() + ":" + target.getPort());
+                connection.sendRequest(request, new ClientCallback<>() {
+                    @Override
+                    public void completed(ClientExchange exchange) {
+                        exchange.setResponseListener(new ClientCallback<>() {
+                            @Override
+                            public void completed(ClientExchange response) {
+                                result.complete(response.getResponse().getResponseCode());
+                            }
+
+                            @Override
+                            public void failed(IOException e) {
+                                result.completeExceptionally(e);
+                            }
+                        });
+                        try {
+                            StreamSinkChannel requestChannel = exchange.getRequestChannel();
+                            requestChannel.shutdownWrites();
+                            if (!requestChannel.flush()) {
+                                requestChannel.getWriteSetter().set(ChannelListeners.flushingChannelListener(null, null));
+                                requestChannel.resumeWrites();
+                            }
+                        } catch (IOException e) {
+                            result.completeExceptionally(e);
+                        }
+                    }
+
+                    @Override
+                    public void failed(IOException e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+            }
+
+            @Override
+            public void failed(IOException e) {
+                result.completeExceptionally(e);
+            }
+        }, target, worker, bufferPool, OptionMap.EMPTY);
+        return result.orTimeout(ATTEMPT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Probe {
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
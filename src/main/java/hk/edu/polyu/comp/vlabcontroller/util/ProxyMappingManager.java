@@ -3,36 +3,31 @@ package hk.edu.polyu.comp.vlabcontroller.util;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.PortMappingMetadata;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
 import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyMappingMetadata;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
 import hk.edu.polyu.comp.vlabcontroller.service.HeartbeatService;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
-import io.undertow.server.handlers.PathHandler;
 import io.undertow.server.handlers.ResponseCodeHandler;
 import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
-import io.undertow.server.handlers.proxy.ProxyCallback;
-import io.undertow.server.handlers.proxy.ProxyConnection;
 import io.undertow.server.handlers.proxy.ProxyHandler;
 import io.undertow.servlet.handlers.ServletRequestContext;
 import io.undertow.util.AttachmentKey;
-import io.undertow.util.PathMatcher;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Component;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
 import java.nio.ByteBuffer;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 
 /**
  * This component keeps track of which proxy mappings (i.e. URL endpoints) are currently registered,
@@ -45,12 +40,16 @@ public class ProxyMappingManager {
     private static final String PROXY_INTERNAL_ENDPOINT = "/proxy_endpoint";
     private static final String PROXY_PORT_MAPPINGS_ENDPOINT = "/port_mappings";
     private static final AttachmentKey<ProxyMappingManager> ATTACHMENT_KEY_DISPATCHER = AttachmentKey.create(ProxyMappingManager.class);
-    private final Map<String, ProxyMappingMetadata> proxyMappings = new HashMap<>(); // proxyId -> metadata
-    private PathHandler pathHandler;
+    private final Map<String, ProxyMappingMetadata> proxyMappings = new ConcurrentHashMap<>(); // proxyId -> metadata
+    private final RouteTable<String> proxyIdsByMapping = new RouteTable<>(); // mapping -> proxyId
+    private ProxyPathHandler pathHandler;
     private final HeartbeatService heartbeatService;
+    private final UpstreamConnectionManager upstreamConnectionManager;
+    private final PortMappingProbe portMappingProbe = new PortMappingProbe();
 
-    public ProxyMappingManager(HeartbeatService heartbeatService) {
+    public ProxyMappingManager(HeartbeatService heartbeatService, UpstreamConnectionManager upstreamConnectionManager) {
         this.heartbeatService = heartbeatService;
+        this.upstreamConnectionManager = upstreamConnectionManager;
     }
 
     public synchronized HttpHandler createHttpHandler(HttpHandler defaultHandler) {
@@ -60,8 +59,15 @@ public class ProxyMappingManager {
         return pathHandler;
     }
 
+    public void addMapping(String proxyId, String mapping, URI target) {
+        addMapping(proxyId, null, mapping, target);
+    }
+
+    /**
+     * Add a mapping of a proxy. The connections to the target are configured by the upstream settings of the spec.
+     */
     @SuppressWarnings("deprecation")
-    public synchronized void addMapping(String proxyId, String mapping, URI target) {
+    public synchronized void addMapping(String proxyId, ProxySpec spec, String mapping, URI target) {
         if (pathHandler == null)
             throw new IllegalStateException("Cannot change mappings: web server is not yet running.");
         if (proxyMappings.containsKey(proxyId)) {
@@ -69,22 +75,12 @@ public class ProxyMappingManager {
         }
         ProxyMappingMetadata proxyMappingMetadata = proxyMappings.computeIfAbsent(proxyId, value -> new ProxyMappingMetadata());
 
-        LoadBalancingProxyClient proxyClient = new LoadBalancingProxyClient() {
-            @Override
-            public void getConnection(ProxyTarget target, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, long timeout, TimeUnit timeUnit) {
-                try {
-                    exchange.addResponseCommitListener(ex -> heartbeatService.attachHeartbeatChecker(ex, proxyId));
-                } catch (Exception e) {
-                    log.error(e);
-                }
-                super.getConnection(target, exchange, callback, timeout, timeUnit);
-            }
-        };
-        proxyClient.setMaxQueueSize(100);
-        proxyClient.addHost(target);
+        LoadBalancingProxyClient proxyClient = upstreamConnectionManager.getClient(proxyId, spec, target,
+                exchange -> exchange.addResponseCommitListener(ex -> heartbeatService.attachHeartbeatChecker(ex, proxyId)));
 
         String path = PROXY_INTERNAL_ENDPOINT + "/" + mapping;
-        pathHandler.addPrefixPath(path, new ProxyHandler(proxyClient, ResponseCodeHandler.HANDLE_404));
+        pathHandler.routes.put(path, new ProxyHandler(proxyClient, ResponseCodeHandler.HANDLE_404));
+        proxyIdsByMapping.put(mapping, proxyId);
 
         proxyMappingMetadata.setDefaultTarget(target);
         proxyMappingMetadata.getPortMappingMetadataList().add(new PortMappingMetadata(mapping, target, proxyClient));
@@ -97,21 +93,29 @@ public class ProxyMappingManager {
         if (proxyMappings.containsKey(proxyId)) {
             ProxyMappingMetadata metadata = proxyMappings.get(proxyId);
             metadata.getPortMappingMetadataList().forEach(e -> {
-                e.getLoadBalancingProxyClient().closeCurrentConnections();
-                e.getLoadBalancingProxyClient().removeHost(e.getTarget());
-                pathHandler.removePrefixPath(PROXY_INTERNAL_ENDPOINT + "/"  + e.getPortMapping());
+                pathHandler.routes.remove(PROXY_INTERNAL_ENDPOINT + "/" + e.getPortMapping());
+                proxyIdsByMapping.remove(e.getPortMapping());
             });
             proxyMappings.remove(proxyId);
         }
+        upstreamConnectionManager.release(proxyId);
+        portMappingProbe.remove(proxyId);
         log.debug("removed proxy {}, current mappings: {}", proxyId, proxyMappings);
     }
 
+    /**
+     * Find the proxy owning the given request path, i.e. the proxy with the longest mapping that is a prefix of the path.
+     * <p>
+     * The first segment of the path (the proxy id, for the default mapping strategy) is resolved with a single hash
+     * lookup, the following segments are only walked as long as longer mappings exist (e.g. port mappings).
+     * This never locks, see {@link RouteTable}.
+     *
+     * @param mapping The request path, relative to the route endpoint.
+     * @return The id of the proxy, or null if no mapping matches the path.
+     */
     public String getProxyId(String mapping) {
-        for (Entry<String, ProxyMappingMetadata> e : proxyMappings.entrySet()) {
-            ProxyMappingMetadata metadata = e.getValue();
-            if (metadata.containsMappingPathPrefix(mapping)) return e.getKey();
-        }
-        return null;
+        RouteTable.Match<String> match = proxyIdsByMapping.match(mapping);
+        return match == null ? null : match.getValue();
     }
 
     public String getProxyPortMappingsEndpoint() {
@@ -153,6 +157,9 @@ public class ProxyMappingManager {
      * <p>
      * Note that clients should create port-mappings when they are using docker backends.
      * Dispatching is the only allowed method to access proxy handlers.
+     * <p>
+     * The target is probed before the port-mapping is created, see {@link PortMappingProbe}. The probe does not
+     * block the request thread: the request is dispatched once the target responded, or fails if it did not.
      *
      * @param proxy    The target's proxy.
      * @param mapping  The target mapping to dispatch to.
@@ -171,76 +178,86 @@ public class ProxyMappingManager {
         URI defaultTarget = proxyMappings.get(proxyId).getDefaultTarget();
         String port_mapping = proxyId + PROXY_PORT_MAPPINGS_ENDPOINT + "/" + port;
         URI newTarget = new URI(defaultTarget.getScheme() + "://" + defaultTarget.getHost() + ":" + port);
-        int[] failedResponseCode = new int[1];
-        boolean targetConnected = Retrying.retry(i -> {
-            try {
-                String query = request.getQueryString() == null ? "" : "?" + request.getQueryString();
-                log.debug("request protocol: {}, scheme: {}, headers: {}", request.getProtocol(), request.getScheme(), Collections.list(request.getHeaderNames()));
-
-                // Handle websocket case
-                if (request.getHeaders("Upgrade").hasMoreElements()) {
-                    return true;
-                }
-                URL testURL = new URL(newTarget + mapping + query);
-                log.debug("Testing url of {}", testURL);
-                HttpURLConnection connection = (HttpURLConnection) testURL.openConnection();
-                connection.setConnectTimeout(5000);
-                connection.setInstanceFollowRedirects(false);
-                int responseCode = connection.getResponseCode();
-                log.debug("received connection from {}, status code: {}", testURL, responseCode);
-                if (responseCode < 500) {
-                    log.debug("successfully connected to target {}", testURL);
-                }else{
-                    failedResponseCode[0] = responseCode;
-                }
-                return true;
-            }catch (IOException ioe) {
-                failedResponseCode[0] = 404;
-                log.debug("Trying to connect target URL ({}/{})", i, 5);
-            } catch (Exception e) {
-                failedResponseCode[0] = 500;
-                log.debug(e);
-                log.debug("Trying to connect target URL ({}/{})", i, 5);
-            }
-            return false;
-        }, 5, 2000, true);
+        String queryString = request.getQueryString();
+        queryString = (queryString == null) ? "" : "?" + queryString;
+        String targetPath = PROXY_INTERNAL_ENDPOINT + "/" + port_mapping + mapping + queryString;
+        log.debug("request protocol: {}, scheme: {}, headers: {}", request.getProtocol(), request.getScheme(), Collections.list(request.getHeaderNames()));
 
-        if (!targetConnected) {
-            response.sendError(failedResponseCode[0]);
+        // Handle websocket case, and targets that are already known to be reachable
+        if (proxyIdsByMapping.get(port_mapping) != null || request.getHeaders("Upgrade").hasMoreElements()) {
+            addPortMapping(proxy, port_mapping, newTarget);
+            request.startAsync();
+            request.getRequestDispatcher(targetPath).forward(request, response);
             return;
         }
-        addMapping(proxyId, port_mapping, newTarget);
-        proxy.getTargets().put(port_mapping, newTarget);
 
-        String queryString = request.getQueryString();
-        queryString = (queryString == null) ? "" : "?" + queryString;
-        String targetPath = PROXY_INTERNAL_ENDPOINT + "/" + port_mapping + mapping + queryString;
-        request.startAsync();
-        request.getRequestDispatcher(targetPath).forward(request, response);
+        AsyncContext asyncContext = request.startAsync();
+        portMappingProbe.probe(port_mapping, newTarget, mapping + queryString, exchange.getConnection().getWorker(), exchange.getConnection().getByteBufferPool())
+                .whenComplete((responseCode, error) -> {
+                    try {
+                        if (error != null) {
+                            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                            int failedResponseCode = cause instanceof IOException || cause instanceof TimeoutException ? 404 : 500;
+                            ((HttpServletResponse) asyncContext.getResponse()).sendError(failedResponseCode);
+                            asyncContext.complete();
+                            return;
+                        }
+                        if (responseCode < 500) {
+                            log.debug("successfully connected to target {}", newTarget);
+                        }
+                        addPortMapping(proxy, port_mapping, newTarget);
+                        asyncContext.dispatch(targetPath);
+                    } catch (Exception e) {
+                        log.debug("Error routing port mapping request: {}", targetPath, e);
+                        asyncContext.complete();
+                    }
+                });
+    }
+
+    private void addPortMapping(Proxy proxy, String portMapping, URI target) {
+        if (proxyIdsByMapping.get(portMapping) != null) return;
+        addMapping(proxy.getId(), proxy.getSpec(), portMapping, target);
+        proxy.getTargets().put(portMapping, target);
     }
 
-    private static class ProxyPathHandler extends PathHandler {
+    /**
+     * Dispatches the requests for the proxy mappings to their proxy handler, and all other requests to the default
+     * handler (i.e. the servlet chain). The routes are kept in a {@link RouteTable}, so that changing the mappings
+     * never blocks the dispatch of requests.
+     */
+    private static class ProxyPathHandler implements HttpHandler {
+
+        private final HttpHandler defaultHandler;
+        private final RouteTable<HttpHandler> routes = new RouteTable<>();
 
         public ProxyPathHandler(HttpHandler defaultHandler) {
-            super(defaultHandler);
+            this.defaultHandler = defaultHandler;
         }
 
-        @SuppressWarnings("unchecked")
         @Override
         public void handleRequest(HttpServerExchange exchange) throws Exception {
-            Field field = PathHandler.class.getDeclaredField("pathMatcher");
-            field.setAccessible(true);
-            PathMatcher<HttpHandler> pathMatcher = (PathMatcher<HttpHandler>) field.get(this);
-            PathMatcher.PathMatch<HttpHandler> match = pathMatcher.match(exchange.getRelativePath());
+            RouteTable.Match<HttpHandler> match = routes.match(exchange.getRelativePath());
+            if (match == null) {
+                defaultHandler.handleRequest(exchange);
+                return;
+            }
 
             // Note: this handler may never be accessed directly (because it bypasses Spring security).
             // Only allowed if the request was dispatched via this class.
-            if (match.getValue() instanceof ProxyHandler && exchange.getAttachment(ATTACHMENT_KEY_DISPATCHER) == null) {
+            if (exchange.getAttachment(ATTACHMENT_KEY_DISPATCHER) == null) {
                 exchange.setStatusCode(403);
                 exchange.getResponseChannel().write(ByteBuffer.wrap("Not authorized to access this proxy".getBytes()));
+                return;
+            }
+
+            // same as io.undertow.server.handlers.PathHandler
+            exchange.setRelativePath(match.getRemaining());
+            if (exchange.getResolvedPath().isEmpty()) {
+                exchange.setResolvedPath(match.getMatched());
             } else {
-                super.handleRequest(exchange);
+                exchange.setResolvedPath(exchange.getResolvedPath() + match.getMatched());
             }
+            match.getValue().handleRequest(exchange);
         }
     }
 }
@@ -0,0 +1,144 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import lombok.Getter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Route table mapping path prefixes to values, e.g. the handlers of the proxy mappings.
+ * </p><p>
+ * The table is a prefix trie with one node per path segment. Lookups never lock: they only read
+ * {@link ConcurrentHashMap}s and volatile fields, so adding or removing a route never blocks the dispatch of
+ * in-flight requests. Writers are serialized on the table, which keeps the pruning of empty nodes consistent.
+ * </p><p>
+ * Like Undertow's {@link io.undertow.util.PathMatcher}, a prefix only matches on a segment boundary:
+ * <code>/a/b</code> matches <code>/a/b</code> and <code>/a/b/c</code>, but not <code>/a/bc</code>.
+ * The longest matching prefix wins.
+ * </p>
+ */
+public class RouteTable<T> {
+
+    private final Node<T> root = new Node<>();
+    private volatile int size;
+
+    /**
+     * Add a route, replacing the value of an existing route with the same prefix.
+     *
+     * @return The previous value of the route, or null.
+     */
+    public synchronized T put(String prefix, T value) {
+        if (value == null) throw new IllegalArgumentException("Route value cannot be null");
+        Node<T> node = root;
+        for (String segment : segments(prefix)) {
+            node = node.children.computeIfAbsent(segment, s -> new Node<>());
+        }
+        T previous = node.value;
+        node.value = value;
+        if (previous == null) size++;
+        return previous;
+    }
+
+    /**
+     * Remove a route.
+     *
+     * @return The value of the removed route, or null if there was no route with this prefix.
+     */
+    public synchronized T remove(String prefix) {
+        String[] segments = segments(prefix);
+        @SuppressWarnings("unchecked")
+        Node<T>[] path = new Node[segments.length + 1];
+        path[0] = root;
+        for (int i = 0; i < segments.length; i++) {
+            path[i + 1] = path[i].children.get(segments[i]);
+            if (path[i + 1] == null) return null;
+        }
+        Node<T> node = path[segments.length];
+        T previous = node.value;
+        if (previous == null) return null;
+        node.value = null;
+        size--;
+        // prune the nodes that no longer lead to any route
+        for (int i = segments.length; i > 0 && path[i].value == null && path[i].children.isEmpty(); i--) {
+            path[i - 1].children.remove(segments[i - 1], path[i]);
+        }
+        return previous;
+    }
+
+    /**
+     * @return The value of the route with exactly this prefix, or null.
+     */
+    public T get(String prefix) {
+        Node<T> node = root;
+        for (String segment : segments(prefix)) {
+            node = node.children.get(segment);
+            if (node == null) return null;
+        }
+        return node.value;
+    }
+
+    /**
+     * Find the route with the longest prefix matching the given path.
+     *
+     * @return The match, or null if no route matches.
+     */
+    public Match<T> match(String path) {
+        Node<T> node = root;
+        T value = root.value;
+        int matchedLength = 0;
+        int length = path.length();
+        int start = path.startsWith("/") ? 1 : 0;
+        while (start <= length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) end = length;
+            node = node.children.get(path.substring(start, end));
+            if (node == null) break;
+            T nodeValue = node.value;
+            if (nodeValue != null) {
+                value = nodeValue;
+                matchedLength = end;
+            }
+            start = end + 1;
+        }
+        if (value == null) return null;
+        return new Match<>(value, path.substring(0, matchedLength), path.substring(matchedLength));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private static String[] segments(String prefix) {
+        int start = prefix.startsWith("/") ? 1 : 0;
+        int end = prefix.endsWith("/") && prefix.length() > start ? prefix.length() - 1 : prefix.length();
+        if (start >= end) return new String[0];
+        return prefix.substring(start, end).split("/", -1);
+    }
+
+    private static class Node<T> {
+        private final Map<String, Node<T>> children = new ConcurrentHashMap<>();
+        private volatile T value;
+    }
+
+    public static class Match<T> {
+        @Getter
+        private final T value;
+        /**
+         * The part of the path matched by the prefix of the route.
+         */
+        @Getter
+        private final String matched;
+        /**
+         * The rest of the path, either empty or starting with a slash.
+         */
+        @Getter
+        private final String remaining;
+
+        private Match(T value, String matched, String remaining) {
+            this.value = value;
+            this.matched = matched;
+            this.remaining = remaining;
+        }
+    }
+}
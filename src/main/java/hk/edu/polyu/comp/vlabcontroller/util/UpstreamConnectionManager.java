@@ -0,0 +1,174 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpecUpstream;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.undertow.client.ClientConnection;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
+import io.undertow.server.handlers.proxy.ProxyCallback;
+import io.undertow.server.handlers.proxy.ProxyConnection;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * <p>
+ * Manages the proxy clients that connect to the targets of the proxies.
+ * </p><p>
+ * All mappings of a proxy that point to the same target share a single client, and thus a single connection pool.
+ * The pools are configured per spec (see {@link ProxySpecUpstream}), falling back to the <b>proxy.upstream.*</b>
+ * properties. The activity of the pools is exposed per spec: the active, idle and open connections, the requests
+ * waiting for a connection, and the requests rejected because the queue was full or the target was unreachable.
+ * </p>
+ */
+@Log4j2
+@Component
+public class UpstreamConnectionManager {
+
+    private static final String DEFAULT_SPEC_ID = "default";
+
+    private final Environment environment;
+    private final MeterRegistry registry;
+
+    private final Map<String, Map<URI, LoadBalancingProxyClient>> clientsByProxy = new ConcurrentHashMap<>();
+    private final Map<String, UpstreamStats> statsBySpec = new ConcurrentHashMap<>();
+
+    public UpstreamConnectionManager(Environment environment, MeterRegistry registry) {
+        this.environment = environment;
+        this.registry = registry;
+    }
+
+    /**
+     * Get the client connecting a proxy to the given target, creating it if it does not exist yet.
+     *
+     * @param proxyId            The id of the proxy.
+     * @param spec               The spec of the proxy, or null to use the default settings.
+     * @param target             The target.
+     * @param connectionListener Called for every exchange that requests a connection to the target.
+     */
+    public LoadBalancingProxyClient getClient(String proxyId, ProxySpec spec, URI target, Consumer<HttpServerExchange> connectionListener) {
+        return clientsByProxy.computeIfAbsent(proxyId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(target, t -> createClient(spec, t, connectionListener));
+    }
+
+    /**
+     * Close the connections of all clients of a proxy.
+     */
+    public void release(String proxyId) {
+        Map<URI, LoadBalancingProxyClient> clients = clientsByProxy.remove(proxyId);
+        if (clients == null) return;
+        clients.forEach((target, client) -> {
+            client.closeCurrentConnections();
+            client.removeHost(target);
+        });
+    }
+
+    private LoadBalancingProxyClient createClient(ProxySpec spec, URI target, Consumer<HttpServerExchange> connectionListener) {
+        ProxySpecUpstream upstream = spec == null || spec.getUpstream() == null ? new ProxySpecUpstream() : spec.getUpstream();
+        UpstreamStats stats = statsBySpec.computeIfAbsent(spec == null ? DEFAULT_SPEC_ID : spec.getId(), this::registerStats);
+
+        LoadBalancingProxyClient client = new LoadBalancingProxyClient() {
+            @Override
+            public void getConnection(ProxyTarget proxyTarget, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, long timeout, TimeUnit timeUnit) {
+                try {
+                    connectionListener.accept(exchange);
+                } catch (Exception e) {
+                    log.error(e);
+                }
+                super.getConnection(proxyTarget, exchange, stats.instrument(callback), timeout, timeUnit);
+            }
+        };
+        client.setConnectionsPerThread(setting(upstream, ProxySpecUpstream::getConnectionsPerThread, "connections-per-thread", 20));
+        client.setSoftMaxConnectionsPerThread(setting(upstream, ProxySpecUpstream::getSoftMaxConnectionsPerThread, "soft-max-connections-per-thread", 10));
+        client.setMaxQueueSize(setting(upstream, ProxySpecUpstream::getMaxQueueSize, "max-queue-size", 100));
+        client.setTtl(setting(upstream, ProxySpecUpstream::getTtl, "ttl", -1));
+        client.setProblemServerRetry(setting(upstream, ProxySpecUpstream::getProblemServerRetry, "problem-server-retry", 10));
+        client.addHost(target);
+        return client;
+    }
+
+    private int setting(ProxySpecUpstream upstream, Function<ProxySpecUpstream, Integer> getter, String property, int defaultValue) {
+        Integer value = getter.apply(upstream);
+        if (value != null) return value;
+        return environment.getProperty("proxy.upstream." + property, Integer.class, defaultValue);
+    }
+
+    private UpstreamStats registerStats(String specId) {
+        UpstreamStats stats = new UpstreamStats(Counter.builder("upstreamRequestsRejected").tag("spec.id", specId).register(registry));
+        Gauge.builder("upstreamConnectionsActive", stats, s -> s.active.get()).tag("spec.id", specId).register(registry);
+        Gauge.builder("upstreamConnectionsIdle", stats, UpstreamStats::getIdle).tag("spec.id", specId).register(registry);
+        Gauge.builder("upstreamConnectionsOpen", stats, s -> s.openConnections.size()).tag("spec.id", specId).register(registry);
+        Gauge.builder("upstreamRequestsQueued", stats, s -> s.queued.get()).tag("spec.id", specId).register(registry);
+        return stats;
+    }
+
+    /**
+     * Activity of the connection pools of the proxies of a spec, tracked from the callbacks of the proxy clients.
+     */
+    private static class UpstreamStats {
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final Set<ClientConnection> openConnections = ConcurrentHashMap.newKeySet();
+        private final Counter rejected;
+
+        private UpstreamStats(Counter rejected) {
+            this.rejected = rejected;
+        }
+
+        private int getIdle() {
+            return Math.max(0, openConnections.size() - active.get());
+        }
+
+        private ProxyCallback<ProxyConnection> instrument(ProxyCallback<ProxyConnection> callback) {
+            queued.incrementAndGet();
+            return new ProxyCallback<>() {
+                @Override
+                public void completed(HttpServerExchange exchange, ProxyConnection result) {
+                    queued.decrementAndGet();
+                    active.incrementAndGet();
+                    exchange.addExchangeCompleteListener((ex, nextListener) -> {
+                        active.decrementAndGet();
+                        nextListener.proceed();
+                    });
+                    ClientConnection connection = result.getConnection();
+                    if (openConnections.add(connection)) {
+                        connection.addCloseListener(openConnections::remove);
+                    }
+                    callback.completed(exchange, result);
+                }
+
+                @Override
+                public void failed(HttpServerExchange exchange) {
+                    queued.decrementAndGet();
+                    callback.failed(exchange);
+                }
+
+                @Override
+                public void couldNotResolveBackend(HttpServerExchange exchange) {
+                    queued.decrementAndGet();
+                    rejected.increment();
+                    callback.couldNotResolveBackend(exchange);
+                }
+
+                @Override
+                public void queuedRequestFailed(HttpServerExchange exchange) {
+                    queued.decrementAndGet();
+                    rejected.increment();
+                    callback.queuedRequestFailed(exchange);
+                }
+            };
+        }
+    }
+}
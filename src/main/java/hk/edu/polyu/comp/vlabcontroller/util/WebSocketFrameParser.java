@@ -0,0 +1,179 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * <p>
+ * Incremental parser for the framing layer of RFC 6455 websockets.
+ * See https://datatracker.ietf.org/doc/html/rfc6455#section-5.2
+ * </p><p>
+ * The parser is fed with the raw bytes of a TCP stream, in whatever chunks they arrive:
+ * frame headers may be split across reads and a single read may contain several frames.
+ * It keeps its state in a few primitive fields, so feeding it never allocates.
+ * Payload bytes are reported as they are consumed, which makes the accounting exact.
+ * </p><p>
+ * Instances are not thread-safe; a parser belongs to a single connection and is driven by its I/O thread.
+ * </p>
+ */
+public class WebSocketFrameParser implements ByteBufferReadListener {
+
+    public static final int OPCODE_CONTINUATION = 0x0;
+    public static final int OPCODE_TEXT = 0x1;
+    public static final int OPCODE_BINARY = 0x2;
+    public static final int OPCODE_CLOSE = 0x8;
+    public static final int OPCODE_PING = 0x9;
+    public static final int OPCODE_PONG = 0xA;
+
+    private static final int STATE_OPCODE = 0;
+    private static final int STATE_LENGTH = 1;
+    private static final int STATE_EXTENDED_LENGTH = 2;
+    private static final int STATE_MASKING_KEY = 3;
+    private static final int STATE_PAYLOAD = 4;
+
+    /**
+     * Receives the payload of the parsed frames.
+     */
+    @FunctionalInterface
+    public interface PayloadListener {
+        /**
+         * Called for every chunk of payload, and once with length 0 for frames without payload.
+         *
+         * @param opcode The opcode of the frame the payload belongs to.
+         * @param length The number of payload bytes consumed in the current chunk.
+         */
+        void onPayload(int opcode, long length);
+    }
+
+    private final PayloadListener listener;
+    private final boolean expectMasked;
+
+    private int state = STATE_OPCODE;
+    private int opcode;
+    private boolean masked;
+    private int remainingHeaderBytes;
+    private long payloadRemaining;
+    private long frameCount;
+    private long desyncCount;
+
+    /**
+     * @param listener     The listener receiving payload notifications.
+     * @param expectMasked True if all frames must be masked (i.e. the stream goes from client to server).
+     *                     This is used to detect that the parser is not aligned with the frame boundaries.
+     */
+    public WebSocketFrameParser(PayloadListener listener, boolean expectMasked) {
+        this.listener = listener;
+        this.expectMasked = expectMasked;
+    }
+
+    @Override
+    public void onRead(ByteBuffer buffer, int offset, int length) {
+        int index = offset;
+        int end = offset + length;
+        while (index < end) {
+            if (state == STATE_PAYLOAD) {
+                int consumed = (int) Math.min(payloadRemaining, end - index);
+                index += consumed;
+                payloadRemaining -= consumed;
+                listener.onPayload(opcode, consumed);
+                if (payloadRemaining == 0) state = STATE_OPCODE;
+                continue;
+            }
+
+            int b = buffer.get(index++) & 0xFF;
+            switch (state) {
+                case STATE_OPCODE:
+                    opcode = b & 0x0F;
+                    if (!isKnownOpcode(opcode)) {
+                        // Not a frame header: we are not aligned with the frame boundaries (e.g. the parser was
+                        // attached in the middle of a frame). Drop the rest of this chunk and retry on the next read.
+                        desync();
+                        return;
+                    }
+                    state = STATE_LENGTH;
+                    break;
+                case STATE_LENGTH:
+                    masked = (b & 0x80) != 0;
+                    if (expectMasked && !masked) {
+                        desync();
+                        return;
+                    }
+                    int length7 = b & 0x7F;
+                    if (length7 == 126) {
+                        payloadRemaining = 0;
+                        remainingHeaderBytes = 2;
+                        state = STATE_EXTENDED_LENGTH;
+                    } else if (length7 == 127) {
+                        payloadRemaining = 0;
+                        remainingHeaderBytes = 8;
+                        state = STATE_EXTENDED_LENGTH;
+                    } else {
+                        payloadRemaining = length7;
+                        if (!afterLength()) return;
+                    }
+                    break;
+                case STATE_EXTENDED_LENGTH:
+                    payloadRemaining = (payloadRemaining << 8) | b;
+                    if (--remainingHeaderBytes == 0 && !afterLength()) return;
+                    break;
+                case STATE_MASKING_KEY:
+                    if (--remainingHeaderBytes == 0) afterHeader();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown parser state " + state);
+            }
+        }
+    }
+
+    /**
+     * @return The number of frame headers that were parsed completely.
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return The number of times the parser found bytes that were not a valid frame header.
+     */
+    public long getDesyncCount() {
+        return desyncCount;
+    }
+
+    /**
+     * @return False if the length is invalid, in which case the rest of the chunk must be dropped.
+     */
+    private boolean afterLength() {
+        if (payloadRemaining < 0) {
+            // the most significant bit of a 64-bit length must be 0
+            desync();
+            return false;
+        }
+        if (masked) {
+            remainingHeaderBytes = 4;
+            state = STATE_MASKING_KEY;
+        } else {
+            afterHeader();
+        }
+        return true;
+    }
+
+    private void afterHeader() {
+        frameCount++;
+        if (payloadRemaining > 0) {
+            state = STATE_PAYLOAD;
+        } else {
+            state = STATE_OPCODE;
+            listener.onPayload(opcode, 0);
+        }
+    }
+
+    private void desync() {
+        desyncCount++;
+        state = STATE_OPCODE;
+        payloadRemaining = 0;
+        remainingHeaderBytes = 0;
+    }
+
+    private static boolean isKnownOpcode(int opcode) {
+        return opcode <= OPCODE_BINARY || (opcode >= OPCODE_CLOSE && opcode <= OPCODE_PONG);
+    }
+}
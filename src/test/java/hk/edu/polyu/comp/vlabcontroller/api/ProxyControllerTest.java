@@ -0,0 +1,53 @@
+package hk.edu.polyu.comp.vlabcontroller.api;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+class ProxyControllerTest {
+
+    @Test
+    void logStreamSendsEveryLineAsADataLine() throws Exception {
+        var body = new StringBuilder();
+        var emitter = new SseEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) {
+                builder.build().forEach(part -> body.append(part.getData()));
+            }
+        };
+        var listener = new ProxyController.LogStreamListener(emitter);
+        byte[] first = "started\nlisten".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "ing on :8888\r\n  50%\r 100%\n".getBytes(StandardCharsets.UTF_8);
+        listener.onData(0, first);
+        listener.onData(first.length, second);
+
+        Assertions.assertEquals("id:14\ndata:started\ndata:listen\n\n"
+                + "id:40\ndata:ing on :8888\ndata:   50%\ndata:  100%\ndata:\n\n", body.toString());
+        Assertions.assertEquals(List.of("started\nlisten", "ing on :8888\n  50%\n 100%\n"), receive(body.toString()));
+    }
+
+    /**
+     * @return The data of every event of an event stream, as an EventSource receives it.
+     */
+    private static List<String> receive(String body) {
+        List<String> events = new ArrayList<>();
+        StringBuilder data = null;
+        for (String line : body.split("\n", -1)) {
+            if (line.isEmpty()) {
+                if (data != null) events.add(data.substring(0, data.length() - 1));
+                data = null;
+            } else if (line.startsWith("data:")) {
+                String value = line.substring("data:".length());
+                if (data == null) data = new StringBuilder();
+                data.append(value.startsWith(" ") ? value.substring(1) : value).append('\n');
+            } else if (!line.startsWith("id:")) {
+                Assertions.fail("Unexpected field " + line);
+            }
+        }
+        return events;
+    }
+}
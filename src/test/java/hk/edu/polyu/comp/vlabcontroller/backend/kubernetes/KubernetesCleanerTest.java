@@ -0,0 +1,49 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.ServiceBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.EnableKubernetesMockClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+@EnableKubernetesMockClient(crud = true)
+class KubernetesCleanerTest {
+
+    private static final String LABEL = "comp.polyu.edu.hk/vl-identifier";
+    private static final String VALUE = "test";
+    private static final String BOOT_LABEL = "comp.polyu.edu.hk/vl-boot-id";
+
+    static KubernetesClient client;
+
+    @Test
+    void cleansOrphansOfPreviousRuns() {
+        createPod("ns-a", "orphan-1", Map.of(LABEL, VALUE));
+        createPod("ns-a", "current-1", Map.of(LABEL, VALUE, BOOT_LABEL, "current"));
+        createPod("ns-b", "orphan-2", Map.of(LABEL, VALUE, BOOT_LABEL, "previous"));
+        createPod("ns-b", "foreign", Map.of("app", "other"));
+        client.services().inNamespace("ns-c").create(new ServiceBuilder()
+                .withNewMetadata().withName("orphan-3").addToLabels(LABEL, VALUE).endMetadata()
+                .build());
+
+        var registry = new SimpleMeterRegistry();
+        new KubernetesCleaner(client, Map.of(LABEL, VALUE), BOOT_LABEL, "current", 2, registry).clean();
+
+        Assertions.assertNull(client.pods().inNamespace("ns-a").withName("orphan-1").get());
+        Assertions.assertNull(client.pods().inNamespace("ns-b").withName("orphan-2").get());
+        Assertions.assertNull(client.services().inNamespace("ns-c").withName("orphan-3").get());
+        Assertions.assertNotNull(client.pods().inNamespace("ns-a").withName("current-1").get());
+        Assertions.assertNotNull(client.pods().inNamespace("ns-b").withName("foreign").get());
+        Assertions.assertEquals(2.0, registry.counter("kubernetesCleanupObjects", "kind", "pods").count());
+        Assertions.assertEquals(1.0, registry.counter("kubernetesCleanupObjects", "kind", "services").count());
+    }
+
+    private void createPod(String namespace, String name, Map<String, String> labels) {
+        client.pods().inNamespace(namespace).create(new PodBuilder()
+                .withNewMetadata().withName(name).withLabels(labels).endMetadata()
+                .build());
+    }
+}
@@ -0,0 +1,184 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ContainerSpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.PodPoolScheduleSpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.PodPoolSpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import io.fabric8.kubernetes.api.model.PersistentVolumeClaim;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.EnableKubernetesMockClient;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+@EnableKubernetesMockClient(crud = true)
+class KubernetesPodPoolTest {
+
+    private static final ZoneId ZONE = ZoneId.of("Asia/Hong_Kong");
+    private static final String LABEL = "comp.polyu.edu.hk/vl-identifier";
+    private static final String VALUE = "test";
+
+    static KubernetesClient client;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void targetIdleFollowsSchedule() {
+        var schedule = new PodPoolScheduleSpec();
+        // every Monday at 09:30, for two hours, scaled up 15 minutes in advance
+        schedule.setCron("0 30 9 * * MON");
+        schedule.setDuration(Duration.ofHours(2));
+        schedule.setLeadTime(Duration.ofMinutes(15));
+        schedule.setMinIdle(30);
+
+        var pool = new PodPoolSpec();
+        pool.setMinIdle(2);
+        pool.setMaxIdle(20);
+        pool.getSchedules().add(schedule);
+
+        // 2021-11-01 is a Monday
+        Assertions.assertEquals(2, KubernetesPodPool.targetIdle(pool, ZonedDateTime.of(2021, 11, 1, 9, 0, 0, 0, ZONE)));
+        Assertions.assertEquals(20, KubernetesPodPool.targetIdle(pool, ZonedDateTime.of(2021, 11, 1, 9, 20, 0, 0, ZONE)));
+        Assertions.assertEquals(20, KubernetesPodPool.targetIdle(pool, ZonedDateTime.of(2021, 11, 1, 11, 0, 0, 0, ZONE)));
+        Assertions.assertEquals(2, KubernetesPodPool.targetIdle(pool, ZonedDateTime.of(2021, 11, 1, 11, 30, 0, 0, ZONE)));
+        Assertions.assertEquals(2, KubernetesPodPool.targetIdle(pool, ZonedDateTime.of(2021, 11, 2, 9, 30, 0, 0, ZONE)));
+    }
+
+    @Test
+    void disabledPoolHasNoTarget() {
+        var pool = new PodPoolSpec();
+        pool.setMinIdle(5);
+        Assertions.assertFalse(pool.isEnabled());
+        Assertions.assertEquals(0, KubernetesPodPool.targetIdle(pool, ZonedDateTime.now(ZONE)));
+    }
+
+    @Test
+    void hashIgnoresThePoolSizing() {
+        var pool = pool(null);
+        var spec = spec("jupyter/base-notebook");
+        String hash = pool.hash(spec);
+        Assertions.assertNotNull(hash);
+
+        spec.getKubernetes().getPool().setMinIdle(10);
+        spec.getKubernetes().getPool().setMaxIdle(50);
+        spec.getKubernetes().getPool().getSchedules().add(new PodPoolScheduleSpec());
+        Assertions.assertEquals(hash, pool.hash(spec));
+
+        Assertions.assertNotEquals(hash, pool.hash(spec("jupyter/scipy-notebook")));
+        var patched = spec("jupyter/base-notebook");
+        patched.getKubernetes().setPodPatches("- op: add\n  path: /spec/nodeName\n  value: node-1");
+        Assertions.assertNotEquals(hash, pool.hash(patched));
+    }
+
+    @Test
+    void specsThatDependOnTheUserAreNotPooled() {
+        var pool = pool(null);
+
+        // the containers read their identity from the environment
+        var environmentIdentity = spec("jupyter/base-notebook");
+        environmentIdentity.getKubernetes().getPool().setIdentityFromPodInfo(false);
+        Assertions.assertNull(pool.hash(environmentIdentity));
+
+        var expression = spec("jupyter/base-notebook");
+        expression.getContainerSpecs().get(0).getEnv().put("HOME", "/home/#{proxy.userId}");
+        Assertions.assertNull(pool.hash(expression));
+
+        var pvc = spec("jupyter/base-notebook");
+        pvc.getKubernetes().getPersistentVolumeClaims().add(new PersistentVolumeClaim());
+        Assertions.assertNull(pool.hash(pvc));
+
+        var manifest = spec("jupyter/base-notebook");
+        manifest.getKubernetes().getAdditionalManifests().add("kind: Secret");
+        Assertions.assertNull(pool.hash(manifest));
+    }
+
+    @Test
+    void acquireBindsAReadyIdlePodOfTheSameSpec() throws Exception {
+        var resourceCache = new KubernetesResourceCache(client, Map.of(LABEL, VALUE), pod -> {}, pod -> {});
+        resourceCache.start();
+        try {
+            var pool = pool(resourceCache);
+            var spec = spec("jupyter/base-notebook");
+            String hash = pool.hash(spec);
+            client.pods().inNamespace("ns").create(idlePod("stale", spec.getId(), "other-hash", "True"));
+            client.pods().inNamespace("ns").create(idlePod("starting", spec.getId(), hash, "False"));
+            client.pods().inNamespace("ns").create(idlePod("ready", spec.getId(), hash, "True"));
+            awaitPods(resourceCache, 3);
+
+            Pod bound = pool.acquire(spec, Map.of("comp.polyu.edu.hk/vl-user-id", "alice"), Map.of("comp.polyu.edu.hk/vl-user-groups", "students"));
+
+            Assertions.assertNotNull(bound);
+            Assertions.assertEquals("ready", bound.getMetadata().getName());
+            Pod stored = client.pods().inNamespace("ns").withName("ready").get();
+            Assertions.assertEquals(KubernetesPodPool.STATE_BOUND, stored.getMetadata().getLabels().get(KubernetesPodPool.LABEL_POOL_STATE));
+            Assertions.assertEquals("alice", stored.getMetadata().getLabels().get("comp.polyu.edu.hk/vl-user-id"));
+            Assertions.assertEquals("students", stored.getMetadata().getAnnotations().get("comp.polyu.edu.hk/vl-user-groups"));
+
+            // the only other candidate is not ready yet
+            Assertions.assertNull(pool.acquire(spec, Map.of(), Map.of()));
+            Assertions.assertEquals(1.0, registry.get("podPoolRequests").tag("result", "hit").counter().count());
+            Assertions.assertEquals(1.0, registry.get("podPoolRequests").tag("result", "miss").counter().count());
+        } finally {
+            resourceCache.stop();
+        }
+    }
+
+    @Test
+    void acquireMissesForSpecsThatAreNotPooled() {
+        var pool = pool(null);
+        var spec = spec("jupyter/base-notebook");
+        spec.getKubernetes().getPool().setIdentityFromPodInfo(false);
+
+        Assertions.assertNull(pool.acquire(spec, Map.of(), Map.of()));
+
+        spec.getKubernetes().getPool().setIdentityFromPodInfo(true);
+        spec.getKubernetes().getPool().setMaxIdle(0);
+        Assertions.assertNull(pool.acquire(spec, Map.of(), Map.of()));
+    }
+
+    private KubernetesPodPool pool(KubernetesResourceCache resourceCache) {
+        return new KubernetesPodPool(client, resourceCache, List::of, Function.identity(),
+                (spec, poolLabels) -> {}, new ObjectMapper(), registry, 1000);
+    }
+
+    private static ProxySpec spec(String image) {
+        var containerSpec = new ContainerSpec();
+        containerSpec.setImage(image);
+        var spec = new ProxySpec();
+        spec.setId("jupyter");
+        spec.setContainerSpecs(List.of(containerSpec));
+        spec.getKubernetes().getPool().setMaxIdle(5);
+        spec.getKubernetes().getPool().setIdentityFromPodInfo(true);
+        return spec;
+    }
+
+    private static Pod idlePod(String name, String specId, String hash, String ready) {
+        return new PodBuilder()
+                .withNewMetadata().withName(name).withNamespace("ns")
+                .addToLabels(LABEL, VALUE)
+                .addToLabels(KubernetesPodPool.LABEL_POOL_SPEC_ID, specId)
+                .addToLabels(KubernetesPodPool.LABEL_POOL_STATE, KubernetesPodPool.STATE_IDLE)
+                .addToLabels(KubernetesPodPool.LABEL_POOL_HASH, hash)
+                .endMetadata()
+                .withNewStatus().withPhase("Running").addNewCondition().withType("Ready").withStatus(ready).endCondition().endStatus()
+                .build();
+    }
+
+    private static void awaitPods(KubernetesResourceCache resourceCache, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (resourceCache.getPods(pod -> true).size() < count) {
+            if (System.currentTimeMillis() > deadline) Assertions.fail("The pods did not reach the cache");
+            Thread.sleep(50);
+        }
+    }
+}
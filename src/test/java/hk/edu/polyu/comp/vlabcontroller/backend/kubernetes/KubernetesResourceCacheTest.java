@@ -0,0 +1,77 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.EnableKubernetesMockClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+@EnableKubernetesMockClient(crud = true)
+class KubernetesResourceCacheTest {
+
+    private static final String LABEL = "comp.polyu.edu.hk/vl-identifier";
+    private static final String VALUE = "test";
+
+    static KubernetesClient client;
+
+    private final LinkedBlockingQueue<Pod> failedPods = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<Pod> readyPods = new LinkedBlockingQueue<>();
+    private KubernetesResourceCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new KubernetesResourceCache(client, Map.of(LABEL, VALUE), failedPods::add, readyPods::add);
+        cache.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        cache.stop();
+    }
+
+    @Test
+    void completesWhenPodBecomesReady() throws Exception {
+        client.pods().inNamespace("ns").create(pod("ready-pod", "Pending", "False"));
+        CompletableFuture<Pod> ready = cache.waitForPodReady("ns", "ready-pod");
+        Assertions.assertFalse(ready.isDone());
+
+        client.pods().inNamespace("ns").createOrReplace(pod("ready-pod", "Running", "True"));
+
+        Pod pod = ready.get(10, TimeUnit.SECONDS);
+        Assertions.assertEquals("Running", pod.getStatus().getPhase());
+        Assertions.assertEquals(pod, cache.getPod("ns", "ready-pod"));
+        Assertions.assertEquals(1, cache.getPods(cached -> cached.getMetadata().getName().equals("ready-pod")).size());
+        Pod reported = readyPods.poll(10, TimeUnit.SECONDS);
+        Assertions.assertNotNull(reported);
+        Assertions.assertEquals("ready-pod", reported.getMetadata().getName());
+    }
+
+    @Test
+    void failsWhenPodFails() throws Exception {
+        client.pods().inNamespace("ns").create(pod("failed-pod", "Pending", "False"));
+        CompletableFuture<Pod> ready = cache.waitForPodReady("ns", "failed-pod");
+
+        client.pods().inNamespace("ns").createOrReplace(pod("failed-pod", "Failed", "False"));
+
+        Assertions.assertThrows(ExecutionException.class, () -> ready.get(10, TimeUnit.SECONDS));
+        Pod failed = failedPods.poll(10, TimeUnit.SECONDS);
+        Assertions.assertNotNull(failed);
+        Assertions.assertEquals("failed-pod", failed.getMetadata().getName());
+    }
+
+    private static Pod pod(String name, String phase, String ready) {
+        return new PodBuilder()
+                .withNewMetadata().withName(name).withNamespace("ns").addToLabels(LABEL, VALUE).endMetadata()
+                .withNewStatus().withPhase(phase).addNewCondition().withType("Ready").withStatus(ready).endCondition().endStatus()
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import io.fabric8.kubernetes.api.model.Volume;
+import io.fabric8.kubernetes.api.model.VolumeBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.function.UnaryOperator;
+
+class ManifestTemplateTest {
+
+    private static final UnaryOperator<String> RESOLVER = expression -> expression.replace("#{proxy.userId}", "jdoe");
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    void resolvesOnlyExpressionFields() throws Exception {
+        Volume volume = new VolumeBuilder().withName("home-#{proxy.userId}")
+                .withNewNfs().withServer("10.0.0.1").withPath("/export/#{proxy.userId}").endNfs()
+                .build();
+        ManifestTemplate template = ManifestTemplate.fromObject(volume, objectMapper);
+        Assertions.assertTrue(template.hasExpressions());
+
+        Volume rendered = template.render(RESOLVER, objectMapper, Volume.class);
+        Assertions.assertEquals("home-jdoe", rendered.getName());
+        Assertions.assertEquals("/export/jdoe", rendered.getNfs().getPath());
+        Assertions.assertEquals("10.0.0.1", rendered.getNfs().getServer());
+
+        // the template itself is left untouched
+        Volume other = template.render(expression -> expression.replace("#{proxy.userId}", "other"), objectMapper, Volume.class);
+        Assertions.assertEquals("home-other", other.getName());
+    }
+
+    @Test
+    void resolvesDocuments() throws Exception {
+        ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
+        ManifestTemplate template = ManifestTemplate.fromDocument(String.join("\n",
+                "apiVersion: v1",
+                "kind: ConfigMap",
+                "metadata:",
+                "  name: config-#{proxy.userId}",
+                "data:",
+                "  user-#{proxy.userId}: enabled",
+                "  hosts: [a, 'b-#{proxy.userId}']"), yamlMapper);
+
+        var tree = template.render(RESOLVER, yamlMapper);
+        Assertions.assertEquals("config-jdoe", tree.at("/metadata/name").textValue());
+        Assertions.assertEquals("enabled", tree.at("/data/user-jdoe").textValue());
+        Assertions.assertEquals("b-jdoe", tree.at("/data/hosts/1").textValue());
+    }
+}
@@ -0,0 +1,92 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.fasterxml.jackson.datatype.jsr353.JSR353Module;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import javax.json.JsonPatch;
+
+class PodPatcherTest {
+
+    private final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory()).registerModule(new JSR353Module());
+    private PodPatcher podPatcher;
+
+    @BeforeEach
+    void setUp() {
+        podPatcher = new PodPatcher(new MockEnvironment());
+        podPatcher.init();
+    }
+
+    @Test
+    void modelPatchMatchesJsonPatch() throws Exception {
+        String patch = String.join("\n",
+                "- op: add",
+                "  path: /spec/volumes",
+                "  value: [{name: home, emptyDir: {}}]",
+                "- op: add",
+                "  path: /spec/containers/0/volumeMounts/-",
+                "  value: {name: home, mountPath: /home/jovyan}",
+                "- op: replace",
+                "  path: /spec/containers/0/image",
+                "  value: jupyter/base-notebook",
+                "- op: add",
+                "  path: /metadata/labels/app~1role",
+                "  value: notebook",
+                "- op: add",
+                "  path: /spec/serviceAccountName",
+                "  value: vlab");
+        JsonNode tree = yamlMapper.readTree(patch);
+        Assertions.assertTrue(ModelPatcher.isSupported(tree));
+
+        Pod pod = pod();
+        Pod direct = podPatcher.patch(pod, tree);
+        Pod viaJson = podPatcher.patch(pod(), yamlMapper.readValue(patch, JsonPatch.class));
+        Assertions.assertEquals(viaJson, direct);
+        Assertions.assertEquals("notebook", direct.getMetadata().getLabels().get("app/role"));
+        Assertions.assertEquals("vlab", direct.getSpec().getServiceAccountName());
+        // the original pod is not modified
+        Assertions.assertEquals("busybox", pod.getSpec().getContainers().get(0).getImage());
+    }
+
+    @Test
+    void replacingAMissingPropertyFailsLikeJsonPatch() throws Exception {
+        String patch = String.join("\n",
+                "- op: replace",
+                "  path: /spec/serviceAccountName",
+                "  value: vlab");
+        JsonNode tree = yamlMapper.readTree(patch);
+
+        Assertions.assertFalse(new ModelPatcher(new ObjectMapper()).apply(pod(), tree));
+        Assertions.assertThrows(RuntimeException.class, () -> podPatcher.patch(pod(), yamlMapper.readValue(patch, JsonPatch.class)));
+        Assertions.assertThrows(RuntimeException.class, () -> podPatcher.patch(pod(), tree));
+    }
+
+    @Test
+    void otherOperationsFallBackToJsonPatch() throws Exception {
+        JsonNode tree = yamlMapper.readTree(String.join("\n",
+                "- op: remove",
+                "  path: /metadata/labels/app"));
+        Assertions.assertFalse(ModelPatcher.isSupported(tree));
+
+        Pod patched = podPatcher.patch(pod(), tree);
+        Assertions.assertFalse(patched.getMetadata().getLabels().containsKey("app"));
+    }
+
+    private static Pod pod() {
+        return new PodBuilder()
+                .withNewMetadata().withName("vl-pod").addToLabels("app", "vlab").endMetadata()
+                .withNewSpec()
+                .addNewContainer().withName("vl-container").withImage("busybox")
+                .addNewVolumeMount().withName("data").withMountPath("/data").endVolumeMount()
+                .endContainer()
+                .endSpec()
+                .build();
+    }
+}
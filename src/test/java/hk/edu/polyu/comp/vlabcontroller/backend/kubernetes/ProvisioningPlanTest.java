@@ -0,0 +1,61 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.kubernetes;
+
+import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+class ProvisioningPlanTest {
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final Map<String, Long> timings = new ConcurrentHashMap<>();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void independentStagesRunConcurrently() {
+        var plan = new ProvisioningPlan(executor, timings);
+        // both stages only complete once the other one has started
+        var latch = new CountDownLatch(2);
+        var first = plan.submit("pvc/a", () -> {
+            latch.countDown();
+            return latch.await(5, TimeUnit.SECONDS);
+        }, List.of());
+        var second = plan.submit("pvc/b", () -> {
+            latch.countDown();
+            return latch.await(5, TimeUnit.SECONDS);
+        }, List.of());
+        var pod = plan.submit("pod", () -> first.join() && second.join(), List.of(first, second));
+        plan.await();
+
+        Assertions.assertTrue(pod.join());
+        Assertions.assertEquals(Set.of("pvc/a", "pvc/b", "pod"), timings.keySet());
+    }
+
+    @Test
+    void failedStageSkipsDependents() {
+        var plan = new ProvisioningPlan(executor, timings);
+        var podCreated = new AtomicBoolean();
+        var pvc = plan.submit("pvc/a", () -> {
+            throw new VLabControllerException("quota exceeded");
+        }, List.of());
+        plan.submit("pod", () -> podCreated.getAndSet(true), List.of(pvc));
+
+        var e = Assertions.assertThrows(VLabControllerException.class, plan::await);
+        Assertions.assertEquals("quota exceeded", e.getMessage());
+        Assertions.assertFalse(podCreated.get());
+    }
+}
@@ -0,0 +1,173 @@
+package hk.edu.polyu.comp.vlabcontroller.backend.strategy.impl;
+
+import com.sun.net.httpserver.HttpServer;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ReadinessProbeSpec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+class HttpClientTestStrategyTest {
+
+    private final MockEnvironment environment = new MockEnvironment();
+    private final HttpClientTestStrategy strategy = new HttpClientTestStrategy(environment);
+    private final Queue<String> requests = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch firstRequest = new CountDownLatch(1);
+    private volatile int status = 200;
+    private HttpServer server;
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            requests.add(exchange.getRequestURI().getPath());
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            firstRequest.countDown();
+        });
+        server.start();
+        environment.setProperty("proxy.container-wait-time", "1000");
+        environment.setProperty("proxy.container-wait-initial-backoff", "50");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void probesThePathOfTheSpecOnEveryTarget() {
+        Assertions.assertEquals(URI.create("http://10.0.0.1:8080"), HttpClientTestStrategy.probeURI(URI.create("http://10.0.0.1:8080"), null));
+        Assertions.assertEquals(URI.create("http://10.0.0.1:8080/app"), HttpClientTestStrategy.probeURI(URI.create("http://10.0.0.1:8080/app"), ""));
+        Assertions.assertEquals(URI.create("http://10.0.0.1:8080/app/health"), HttpClientTestStrategy.probeURI(URI.create("http://10.0.0.1:8080/app/"), "/health"));
+        Assertions.assertEquals(URI.create("http://10.0.0.1:8080/app/health"), HttpClientTestStrategy.probeURI(URI.create("http://10.0.0.1:8080/app"), "health"));
+
+        var proxy = proxy("/health");
+        proxy.getTargets().put("other", URI.create(target() + "/other"));
+
+        Assertions.assertTrue(strategy.testProxy(proxy));
+        Assertions.assertEquals(List.of("/health", "/other/health"), requests.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    void acceptsAnyNonErrorStatusCodeByDefault() {
+        status = 404;
+        Assertions.assertTrue(strategy.testProxy(proxy(null)));
+
+        status = 503;
+        Assertions.assertFalse(strategy.testProxy(proxy(null)));
+    }
+
+    @Test
+    void acceptsOnlyTheExpectedStatusCodes() {
+        var proxy = proxy(null);
+        proxy.getSpec().getReadinessProbe().getExpectedStatusCodes().add(200);
+
+        status = 404;
+        Assertions.assertFalse(strategy.testProxy(proxy));
+        Assertions.assertTrue(requests.size() > 1);
+
+        status = 200;
+        Assertions.assertTrue(strategy.testProxy(proxy));
+    }
+
+    @Test
+    void capsTheBackoff() {
+        Assertions.assertEquals(200, HttpClientTestStrategy.nextBackoff(100));
+        Assertions.assertEquals(2000, HttpClientTestStrategy.nextBackoff(1500));
+        Assertions.assertEquals(2000, HttpClientTestStrategy.nextBackoff(2000));
+    }
+
+    @Test
+    void readySignalCutsTheBackoffShort() throws Exception {
+        environment.setProperty("proxy.container-wait-time", "30000");
+        environment.setProperty("proxy.container-wait-initial-backoff", "20000");
+        status = 503;
+        var proxy = proxy(null);
+
+        CompletableFuture<Boolean> result = strategy.testProxyAsync(proxy);
+        Assertions.assertTrue(firstRequest.await(5, TimeUnit.SECONDS));
+        status = 200;
+        strategy.notifyTargetReady(proxy);
+
+        // without the signal, the second attempt would only be made after 20 seconds
+        Assertions.assertTrue(result.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(2, requests.size());
+    }
+
+    @Test
+    void readySignalWakesUpEveryTarget() throws Exception {
+        environment.setProperty("proxy.container-wait-time", "30000");
+        environment.setProperty("proxy.container-wait-initial-backoff", "20000");
+        status = 503;
+        var proxy = proxy(null);
+        proxy.getTargets().put("other", URI.create(target() + "/other"));
+        var otherRequest = new CountDownLatch(1);
+        server.createContext("/other", exchange -> {
+            requests.add(exchange.getRequestURI().getPath());
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+            otherRequest.countDown();
+        });
+
+        CompletableFuture<Boolean> result = strategy.testProxyAsync(proxy);
+        Assertions.assertTrue(firstRequest.await(5, TimeUnit.SECONDS));
+        Assertions.assertTrue(otherRequest.await(5, TimeUnit.SECONDS));
+        status = 200;
+        strategy.notifyTargetReady(proxy);
+
+        // both targets are woken up: without the signal, their second attempt would only be made after 20 seconds
+        Assertions.assertTrue(result.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(4, requests.size());
+    }
+
+    @Test
+    void stoppedProxiesAreNotProbed() {
+        var proxy = proxy(null);
+        proxy.setStatus(ProxyStatus.Stopping);
+
+        Assertions.assertTrue(strategy.testProxy(proxy));
+        Assertions.assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    void proxiesWithoutTargetsAreNotResponsive() {
+        var proxy = proxy(null);
+        proxy.getTargets().clear();
+
+        Assertions.assertFalse(strategy.testProxy(proxy));
+    }
+
+    private Proxy proxy(String path) {
+        var readinessProbe = new ReadinessProbeSpec();
+        readinessProbe.setPath(path);
+        var spec = new ProxySpec();
+        spec.setId("app");
+        spec.setReadinessProbe(readinessProbe);
+        var proxy = new Proxy();
+        proxy.setId("proxy-" + System.nanoTime());
+        proxy.setSpec(spec);
+        proxy.setStatus(ProxyStatus.Starting);
+        proxy.getTargets().put("app", target());
+        return proxy;
+    }
+
+    private URI target() {
+        return URI.create("http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort());
+    }
+}
@@ -0,0 +1,88 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark of the throughput of writing container output to a log file, as seen by the thread copying the output:
+ * directly to a {@link FileOutputStream} (the former storage), or through {@link WriteBehindLogWriter} to a
+ * {@link RotatingFileOutputStream}. Note that the write-behind storage drops output when the disk cannot keep up.
+ * Run with <code>java -cp target/test-classes:&lt;test classpath&gt; hk.edu.polyu.comp.vlabcontroller.log.FileLogStorageBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileLogStorageBenchmark {
+
+    @Param({"plain", "write-behind"})
+    private String storage;
+
+    @Param({"128", "8192"})
+    private int chunkSize;
+
+    private Path directory;
+    private WriteBehindLogWriter writer;
+    private OutputStream stream;
+    private byte[] chunk;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("log-benchmark");
+        Path file = directory.resolve("app_stdout.log");
+        if (storage.equals("plain")) {
+            stream = new FileOutputStream(file.toFile());
+        } else {
+            writer = new WriteBehindLogWriter("benchmark-log-writer");
+            stream = writer.open(new RotatingFileOutputStream(file, 64 * 1024 * 1024, 0, segment -> {
+            }), 1024 * 1024);
+        }
+        var line = "2021-11-01T12:00:00.000Z INFO [main] Kernel started, the quick brown fox jumps over the lazy dog\n";
+        chunk = line.repeat(chunkSize / line.length() + 1).substring(0, chunkSize).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        stream.close();
+        if (writer != null) writer.shutdown(10000);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        stream.write(chunk);
+        stream.flush();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(FileLogStorageBenchmark.class.getSimpleName()).build()).run();
+    }
+}
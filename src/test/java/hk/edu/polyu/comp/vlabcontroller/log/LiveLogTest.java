@@ -0,0 +1,152 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+class LiveLogTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void replaysTheBacklogFromTheFirstCompleteLine() throws Exception {
+        var liveLog = new LiveLog(16, 1024, executor);
+        append(liveLog, "line1\nline2\n");
+        append(liveLog, "line3\n");
+
+        var viewer = new Viewer();
+        liveLog.subscribe(0, viewer);
+        append(liveLog, "line4\n");
+        liveLog.close();
+
+        Assertions.assertFalse(viewer.ended.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("line2\nline3\nline4\n", viewer.output());
+        Assertions.assertEquals(6, viewer.firstOffset);
+    }
+
+    @Test
+    void dropsViewersThatFallBehind() throws Exception {
+        var liveLog = new LiveLog(1024, 8, executor);
+        var fast = new Viewer();
+        var slow = new Viewer();
+        var blocked = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        slow.onData = () -> {
+            blocked.countDown();
+            release.await();
+        };
+        liveLog.subscribe(0, fast);
+        liveLog.subscribe(0, slow);
+
+        append(liveLog, "abc\n");
+        Assertions.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (var output : new String[]{"def\n", "ghi\n", "jkl\n"}) {
+            append(liveLog, output);
+            // the fast viewer keeps up, while the output piles up for the slow one
+            fast.awaitOutput(output);
+        }
+        Assertions.assertEquals(1, liveLog.getSubscriberCount());
+        release.countDown();
+        liveLog.close();
+
+        Assertions.assertFalse(fast.ended.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("abc\ndef\nghi\njkl\n", fast.output());
+        Assertions.assertTrue(slow.ended.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void stalledViewersDoNotHoldUpTheOthers() throws Exception {
+        var hub = new LiveLogHub(new MockEnvironment().withProperty("proxy.container-log-live-max-pending", "8"));
+        var release = new CountDownLatch(1);
+        try {
+            var output = hub.tee("proxy-1", new ByteArrayOutputStream());
+            var liveLog = hub.get("proxy-1");
+            // more stalled viewers than a small fixed set of delivery threads could serve
+            var stalled = new ArrayList<Viewer>();
+            var blocked = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                var viewer = new Viewer();
+                viewer.onData = () -> {
+                    blocked.countDown();
+                    release.await();
+                };
+                liveLog.subscribe(0, viewer);
+                stalled.add(viewer);
+            }
+            var fast = new Viewer();
+            liveLog.subscribe(0, fast);
+
+            output.write("abc\n".getBytes(StandardCharsets.UTF_8));
+            Assertions.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            for (var line : new String[]{"def\n", "ghi\n", "jkl\n"}) {
+                output.write(line.getBytes(StandardCharsets.UTF_8));
+                fast.awaitOutput(line);
+            }
+
+            Assertions.assertEquals("abc\ndef\nghi\njkl\n", fast.output());
+            // the stalled viewers are dropped while their delivery is still blocked
+            Assertions.assertEquals(1, liveLog.getSubscriberCount());
+            Assertions.assertTrue(stalled.stream().noneMatch(viewer -> viewer.ended.isDone()));
+            release.countDown();
+            for (Viewer viewer : stalled) Assertions.assertTrue(viewer.ended.get(5, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            hub.shutdown();
+        }
+    }
+
+    private static void append(LiveLog liveLog, String output) {
+        var bytes = output.getBytes(StandardCharsets.UTF_8);
+        liveLog.append(bytes, 0, bytes.length);
+    }
+
+    private static class Viewer implements LiveLog.Listener {
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final CompletableFuture<Boolean> ended = new CompletableFuture<>();
+        private volatile long firstOffset = -1;
+        private volatile Callback onData = () -> {
+        };
+
+        @Override
+        public void onData(long offset, byte[] data) throws Exception {
+            if (firstOffset < 0) firstOffset = offset;
+            received.write(data);
+            onData.run();
+        }
+
+        @Override
+        public void onEnd(boolean dropped) {
+            ended.complete(dropped);
+        }
+
+        private String output() {
+            return received.toString(StandardCharsets.UTF_8);
+        }
+
+        private void awaitOutput(String suffix) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!output().endsWith(suffix) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private interface Callback {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,107 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+class LogFileReaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsAcrossCompressedAndActiveSegments() throws Exception {
+        var activeFile = directory.resolve("app_stdout.log");
+        var stream = new RotatingFileOutputStream(activeFile, 20, 0, segment -> {
+            if (segment.getFileName().toString().equals("app_stdout.1.log")) {
+                try {
+                    RotatingFileOutputStream.gzip(segment);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            // segments of two lines, the first one being compressed
+            stream.write(String.format("line %d\n", i).getBytes(StandardCharsets.UTF_8));
+        }
+        stream.flush();
+
+        var reader = new LogFileReader(activeFile, 1024);
+        var tail = reader.read(LogRange.lastLines(3));
+        Assertions.assertEquals("line 7\nline 8\nline 9\n", new String(tail.getContent(), StandardCharsets.UTF_8));
+        Assertions.assertEquals(70, tail.getLength());
+        Assertions.assertEquals(49, tail.getStart());
+
+        var all = reader.read(LogRange.lastLines(100));
+        Assertions.assertEquals(0, all.getStart());
+        Assertions.assertTrue(new String(all.getContent(), StandardCharsets.UTF_8).startsWith("line 0\nline 1\n"));
+
+        var bytes = reader.read(LogRange.bytes(7, 21));
+        Assertions.assertEquals("line 1\nline 2\n", new String(bytes.getContent(), StandardCharsets.UTF_8));
+        Assertions.assertEquals(21, bytes.getEnd());
+
+        var limited = new LogFileReader(activeFile, 10).read(LogRange.bytes(0, 70));
+        Assertions.assertEquals(10, limited.getContent().length);
+
+        var time = reader.read(LogRange.time(0, Long.MAX_VALUE));
+        Assertions.assertEquals(70, time.getContent().length);
+        Assertions.assertEquals(0, reader.read(LogRange.time(0, 1)).getContent().length);
+        stream.close();
+    }
+
+    @Test
+    void readsTheLastLinesOfCompressedSegmentsFromTheirIndex() throws Exception {
+        var activeFile = directory.resolve("app_stdout.log");
+        var stream = new RotatingFileOutputStream(activeFile, 200_000, 0, segment -> {
+            try {
+                RotatingFileOutputStream.gzip(segment);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        var written = new StringBuilder();
+        for (int i = 0; i < 33_400; i++) {
+            var line = String.format("line %06d\n", i);
+            stream.write(line.getBytes(StandardCharsets.UTF_8));
+            written.append(line);
+        }
+        stream.close();
+        Assertions.assertEquals(68 * 12, Files.size(activeFile));
+
+        // the missing lines are read from an entry in the middle of the compressed segment
+        var segment = RotatingFileOutputStream.segmentFile(activeFile, 2);
+        var last = LogIndex.readLast(segment);
+        Assertions.assertTrue(LogIndex.lastWithLinesAtMost(segment, last.lines - 100 - 2).offset > 0);
+
+        var reader = new LogFileReader(activeFile, 1024 * 1024);
+        var tail = reader.read(LogRange.lastLines(655));
+        var expected = written.substring(written.length() - 655 * 12);
+        Assertions.assertEquals(expected, new String(tail.getContent(), StandardCharsets.UTF_8));
+        Assertions.assertEquals(written.length() - 655 * 12, tail.getStart());
+
+        var all = reader.read(LogRange.lastLines(100_000));
+        Assertions.assertEquals(0, all.getStart());
+        Assertions.assertEquals(written.toString(), new String(all.getContent(), StandardCharsets.UTF_8));
+
+        var limited = new LogFileReader(activeFile, 100_000).read(LogRange.lastLines(100_000));
+        Assertions.assertEquals(written.length() - 100_000, limited.getStart());
+        Assertions.assertEquals(100_000, limited.getContent().length);
+
+        var time = reader.read(LogRange.time(0, Long.MAX_VALUE));
+        Assertions.assertEquals(written.length(), time.getContent().length);
+        Assertions.assertEquals(0, reader.read(LogRange.time(Long.MAX_VALUE - 1, Long.MAX_VALUE)).getContent().length);
+    }
+
+    @Test
+    void rejectsInvertedByteRanges() {
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LogRange.bytes(100, 50));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> LogRange.bytes(-10, -5));
+        Assertions.assertEquals(50, LogRange.bytes(50, 50).getTo());
+        Assertions.assertEquals(0, LogRange.bytes(-10, 5).getFrom());
+    }
+}
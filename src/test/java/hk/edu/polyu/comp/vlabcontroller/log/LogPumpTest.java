@@ -0,0 +1,119 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+class LogPumpTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final LogPump pump = new LogPump(new MockEnvironment().withProperty("proxy.container-log-pump-buffer-size", "4"), registry);
+
+    @AfterEach
+    void shutdown() {
+        pump.shutdown();
+    }
+
+    @Test
+    void pumpsChunksOneAtATime() throws Exception {
+        var proxy = new Proxy();
+        proxy.setId("proxy-1");
+        var spec = new ProxySpec();
+        spec.setId("jupyter");
+        proxy.setSpec(spec);
+        var sink = new ByteArrayOutputStream();
+        var requests = new LinkedBlockingQueue<Long>();
+        var subscriber = pump.subscriber(proxy, sink);
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                requests.add(n);
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        Assertions.assertEquals(1L, requests.poll(5, TimeUnit.SECONDS));
+
+        subscriber.onNext(List.of(ByteBuffer.wrap("hello ".getBytes(StandardCharsets.UTF_8))));
+        Assertions.assertEquals(1L, requests.poll(5, TimeUnit.SECONDS));
+        // read-only buffers are copied through the scratch buffer of the pump thread
+        subscriber.onNext(List.of(ByteBuffer.wrap("world\n".getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer()));
+        Assertions.assertEquals(1L, requests.poll(5, TimeUnit.SECONDS));
+
+        Assertions.assertEquals("hello world\n", sink.toString(StandardCharsets.UTF_8));
+        var bytes = registry.find("logPumpBytes").tag("proxy.id", "proxy-1").tag("spec.id", "jupyter").counter();
+        Assertions.assertNotNull(bytes);
+        Assertions.assertEquals(12, bytes.count());
+        Assertions.assertEquals(2, registry.find("logPumpLag").tag("proxy.id", "proxy-1").timer().count());
+
+        subscriber.onComplete();
+        Assertions.assertNull(registry.find("logPumpBytes").tag("proxy.id", "proxy-1").counter());
+    }
+
+    @Test
+    void blockingWritesDoNotHoldUpTheClientThreads() throws Exception {
+        var proxy = new Proxy();
+        proxy.setId("proxy-2");
+        var writing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var writerThread = new AtomicReference<String>();
+        // e.g. the upload of a part to S3
+        var sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                writerThread.set(Thread.currentThread().getName());
+                writing.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        var subscriber = pump.subscriber(proxy, sink);
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+
+        subscriber.onNext(List.of(ByteBuffer.wrap("output".getBytes(StandardCharsets.UTF_8))));
+        Assertions.assertTrue(writing.await(5, TimeUnit.SECONDS));
+        try {
+            // every client thread is still available to read the other streams
+            var clientTasks = new ArrayList<Future<String>>();
+            for (int i = 0; i < 2; i++) clientTasks.add(pump.getExecutor().submit(() -> Thread.currentThread().getName()));
+            for (Future<String> task : clientTasks) Assertions.assertTrue(task.get(5, TimeUnit.SECONDS).startsWith("log-pump-client-"));
+            Assertions.assertTrue(writerThread.get().startsWith("log-pump-writer-"));
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+class RotatingFileOutputStreamTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rotatesBySizeAndCompressesSegments() throws Exception {
+        var activeFile = directory.resolve("app_stdout.log");
+        List<Path> segments = new ArrayList<>();
+        var stream = new RotatingFileOutputStream(activeFile, 10, 0, segments::add);
+        stream.write("0123456789".getBytes(StandardCharsets.UTF_8));
+        stream.write("abcdef".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(List.of(directory.resolve("app_stdout.1.log")), segments);
+
+        stream.write("ghijklmnop".getBytes(StandardCharsets.UTF_8));
+        Assertions.assertEquals(List.of(directory.resolve("app_stdout.1.log"), directory.resolve("app_stdout.2.log")), segments);
+
+        RotatingFileOutputStream.gzip(segments.get(1));
+        Assertions.assertFalse(Files.exists(segments.get(1)));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(directory.resolve("app_stdout.2.log.gz")))) {
+            Assertions.assertEquals("abcdef", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        Assertions.assertEquals("0123456789", Files.readString(segments.get(0)));
+        stream.close();
+    }
+
+    @Test
+    void closingKeepsTheEndOfTheLogAtItsPath() throws Exception {
+        var activeFile = directory.resolve("app_stdout.log");
+        List<Path> segments = new ArrayList<>();
+        var stream = new RotatingFileOutputStream(activeFile, 20, 0, segments::add);
+        for (int i = 0; i < 5; i++) {
+            stream.write(String.format("line %d\n", i).getBytes(StandardCharsets.UTF_8));
+        }
+        stream.close();
+
+        Assertions.assertEquals(List.of(directory.resolve("app_stdout.1.log"), directory.resolve("app_stdout.2.log")), segments);
+        Assertions.assertEquals("line 4\n", Files.readString(activeFile));
+        var last = LogIndex.readLast(activeFile);
+        Assertions.assertEquals(7, last.offset);
+        Assertions.assertEquals(1, last.lines);
+
+        // the whole log is still readable from its path
+        var log = new LogFileReader(activeFile, 1024).read(LogRange.lastLines(2));
+        Assertions.assertEquals("line 3\nline 4\n", new String(log.getContent(), StandardCharsets.UTF_8));
+        Assertions.assertEquals(35, log.getLength());
+
+        // reopening the stream appends to the log
+        stream = new RotatingFileOutputStream(activeFile, 20, 0, segments::add);
+        stream.write("line 5\n".getBytes(StandardCharsets.UTF_8));
+        stream.close();
+        Assertions.assertEquals(2, segments.size());
+        Assertions.assertEquals("line 4\nline 5\n", Files.readString(activeFile));
+    }
+
+    @Test
+    void closingAnEmptyLogRemovesIt() throws Exception {
+        var activeFile = directory.resolve("app_stderr.log");
+        new RotatingFileOutputStream(activeFile, 20, 0, segment -> Assertions.fail()).close();
+        Assertions.assertFalse(Files.exists(activeFile));
+        Assertions.assertFalse(Files.exists(LogIndex.indexFile(activeFile)));
+    }
+}
@@ -0,0 +1,164 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import com.amazonaws.services.s3.AbstractAmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadResult;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadResult;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.PutObjectResult;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import com.amazonaws.services.s3.model.UploadPartResult;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+class S3MultipartOutputStreamTest {
+
+    private static final String BUCKET = "logs";
+    private static final int PART_SIZE = S3MultipartOutputStream.MIN_PART_SIZE;
+
+    private final FakeS3 s3 = new FakeS3();
+
+    @Test
+    void uploadsPartsAsTheBufferFills() throws Exception {
+        var stream = new S3MultipartOutputStream(s3, BUCKET, "app_stdout.log", PART_SIZE, false);
+        byte[] chunk = new byte[1024 * 1024];
+        Arrays.fill(chunk, (byte) 'x');
+        for (int i = 0; i < 11; i++) stream.write(chunk);
+
+        // two full parts were uploaded, one megabyte is still buffered
+        Assertions.assertEquals(2, s3.uploadedParts);
+        Assertions.assertFalse(s3.objects.containsKey("app_stdout.log"));
+
+        stream.flush();
+        Assertions.assertEquals(3, s3.uploadedParts);
+        Assertions.assertEquals(11 * chunk.length, s3.objects.get("app_stdout.log").length);
+
+        stream.close();
+        Assertions.assertEquals(3, s3.uploadedParts);
+        Assertions.assertEquals(1, s3.objects.size());
+    }
+
+    @Test
+    void partsHoldTheBytesInTheOrderTheyWereWritten() throws Exception {
+        var stream = new S3MultipartOutputStream(s3, BUCKET, "app_stdout.log", PART_SIZE, false);
+        var written = new ByteArrayOutputStream();
+        // chunks that do not line up with the parts, so that every part is filled by several writes
+        byte[] chunk = new byte[999_999];
+        for (int i = 0; i < 13; i++) {
+            Arrays.fill(chunk, (byte) ('a' + i));
+            stream.write(chunk, 0, chunk.length - i);
+            written.write(chunk, 0, chunk.length - i);
+        }
+        stream.write('z');
+        written.write('z');
+        stream.close();
+
+        Assertions.assertEquals(3, s3.uploadedParts);
+        Assertions.assertArrayEquals(written.toByteArray(), s3.objects.get("app_stdout.log"));
+    }
+
+    @Test
+    void smallLogsAreUploadedAtOnce() throws Exception {
+        var stream = new S3MultipartOutputStream(s3, BUCKET, "app_stderr.log", PART_SIZE, false);
+        stream.write("started\n".getBytes());
+        stream.flush();
+        stream.close();
+        stream.close();
+
+        Assertions.assertEquals(0, s3.uploadedParts);
+        Assertions.assertEquals("started\n", new String(s3.objects.get("app_stderr.log")));
+    }
+
+    @Test
+    void everyFlushMakesTheBufferedLogsAvailable() throws Exception {
+        var stream = new S3MultipartOutputStream(s3, BUCKET, "logs/app_stdout.log", PART_SIZE, false);
+        stream.write("first\n".getBytes());
+        stream.flush();
+        Assertions.assertEquals("first\n", new String(s3.objects.get("logs/app_stdout.log")));
+
+        // nothing was written since the last flush
+        stream.flush();
+        Assertions.assertEquals(1, s3.objects.size());
+
+        stream.write("second\n".getBytes());
+        stream.flush();
+        stream.write("third\n".getBytes());
+        stream.close();
+
+        Assertions.assertEquals(0, s3.uploadedParts);
+        Assertions.assertEquals("second\n", new String(s3.objects.get("logs/app_stdout.1.log")));
+        Assertions.assertEquals("third\n", new String(s3.objects.get("logs/app_stdout.2.log")));
+        Assertions.assertEquals(3, s3.objects.size());
+    }
+
+    /**
+     * In-process stand-in for the multipart upload API of S3.
+     */
+    private static class FakeS3 extends AbstractAmazonS3 {
+
+        private final Map<String, byte[]> objects = new HashMap<>();
+        private final Map<String, TreeMap<Integer, byte[]>> uploads = new HashMap<>();
+        private int uploadedParts;
+
+        @Override
+        public InitiateMultipartUploadResult initiateMultipartUpload(InitiateMultipartUploadRequest request) {
+            String uploadId = "upload-" + uploads.size();
+            uploads.put(uploadId, new TreeMap<>());
+            InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+            result.setUploadId(uploadId);
+            return result;
+        }
+
+        @Override
+        public UploadPartResult uploadPart(UploadPartRequest request) {
+            uploads.get(request.getUploadId()).put(request.getPartNumber(), read(request.getInputStream()));
+            uploadedParts++;
+            UploadPartResult result = new UploadPartResult();
+            result.setPartNumber(request.getPartNumber());
+            result.setETag("etag-" + request.getPartNumber());
+            return result;
+        }
+
+        @Override
+        public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            var parts = uploads.remove(request.getUploadId());
+            var content = new ByteArrayOutputStream();
+            for (PartETag partETag : request.getPartETags()) {
+                content.writeBytes(parts.get(partETag.getPartNumber()));
+            }
+            objects.put(request.getKey(), content.toByteArray());
+            return new CompleteMultipartUploadResult();
+        }
+
+        @Override
+        public void abortMultipartUpload(AbortMultipartUploadRequest request) {
+            uploads.remove(request.getUploadId());
+        }
+
+        @Override
+        public PutObjectResult putObject(PutObjectRequest request) {
+            objects.put(request.getKey(), read(request.getInputStream()));
+            return new PutObjectResult();
+        }
+
+        private static byte[] read(InputStream in) {
+            try {
+                return in.readAllBytes();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package hk.edu.polyu.comp.vlabcontroller.log;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+class WriteBehindLogWriterTest {
+
+    @Test
+    void dropsWhatDoesNotFitTheBuffer() throws Exception {
+        var writer = new WriteBehindLogWriter("test-log-writer");
+        var blocked = new Object();
+        var target = new ByteArrayOutputStream() {
+            @Override
+            public synchronized void write(byte[] b, int off, int len) {
+                synchronized (blocked) {
+                    super.write(b, off, len);
+                }
+            }
+        };
+        var stream = writer.open(target, 8);
+        synchronized (blocked) {
+            // the background thread takes the first bytes, and then waits for the target
+            stream.write("12345678".getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(200);
+            stream.write("9abcdefgh".getBytes(StandardCharsets.UTF_8));
+        }
+        stream.close();
+        writer.shutdown(5000);
+
+        var written = target.toString(StandardCharsets.UTF_8);
+        Assertions.assertTrue(written.startsWith("12345678"));
+        Assertions.assertTrue(written.contains("bytes of output dropped ...]"));
+    }
+}
@@ -0,0 +1,96 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+class HeartbeatStoreTest {
+
+    @Test
+    void recordsHeartbeatsAndPayloads() {
+        var store = new HeartbeatStore();
+        Assertions.assertNull(store.getLastHttpHeartbeat("p1"));
+        Assertions.assertNull(store.getWebsocketStatus("p1"));
+
+        store.recordHttpHeartbeat("p1", 1000);
+        store.recordHttpHeartbeat("p1", 2000);
+        store.recordWebsocketPayload("p2", 10);
+        store.recordWebsocketPayload("p2", 5);
+
+        Assertions.assertEquals(2000L, store.getLastHttpHeartbeat("p1"));
+        Assertions.assertNull(store.getWebsocketStatus("p1"));
+        Assertions.assertNull(store.getLastHttpHeartbeat("p2"));
+        Assertions.assertEquals(15, store.getWebsocketStatus("p2").getTotalPayloadLength());
+        Assertions.assertEquals(Set.of("p1"), store.snapshotHttpHeartbeats().keySet());
+        Assertions.assertEquals(Set.of("p2"), store.snapshotWebsocketHeartbeats().keySet());
+
+        store.remove("p1");
+        Assertions.assertNull(store.getLastHttpHeartbeat("p1"));
+    }
+
+    @Test
+    void countsConcurrentPayloads() throws Exception {
+        var store = new HeartbeatStore();
+        int threads = 8;
+        int records = 10_000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            var start = new CountDownLatch(1);
+            List<Future<?>> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                writers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < records; i++) {
+                        // every writer records on a shared and on a proxy of its own, allocating slots concurrently
+                        store.recordWebsocketPayload("shared", 1);
+                        store.recordWebsocketPayload("p" + (i % 16), 1);
+                        store.recordHttpHeartbeat("shared", i + 1);
+                    }
+                    return null;
+                }));
+            }
+            Future<?> reader = executor.submit(() -> {
+                start.await();
+                while (!writers.stream().allMatch(Future::isDone)) {
+                    store.snapshotWebsocketHeartbeats();
+                    store.snapshotHttpHeartbeats();
+                }
+                return null;
+            });
+            start.countDown();
+            for (Future<?> writer : writers) writer.get(30, TimeUnit.SECONDS);
+            reader.get(30, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assertions.assertEquals((long) threads * records, store.getWebsocketStatus("shared").getTotalPayloadLength());
+        long perProxy = 0;
+        for (int i = 0; i < 16; i++) perProxy += store.getWebsocketStatus("p" + i).getTotalPayloadLength();
+        Assertions.assertEquals((long) threads * records, perProxy);
+        Assertions.assertEquals((long) records, store.getLastHttpHeartbeat("shared"));
+    }
+
+    @Test
+    void prunesStaleSlots() {
+        var store = new HeartbeatStore();
+        store.recordHttpHeartbeat("active", 1000);
+        store.recordHttpHeartbeat("stopped", 1000);
+        store.recordWebsocketPayload("stopped", 10);
+
+        store.prune(Set.of("active")::contains);
+
+        Assertions.assertEquals(1000L, store.getLastHttpHeartbeat("active"));
+        Assertions.assertNull(store.getLastHttpHeartbeat("stopped"));
+        Assertions.assertNull(store.getWebsocketStatus("stopped"));
+        Assertions.assertEquals(Set.of("active"), store.snapshotHttpHeartbeats().keySet());
+    }
+}
@@ -0,0 +1,67 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+class IdleDeadlineQueueTest {
+
+    private final IdleDeadlineQueue queue = new IdleDeadlineQueue();
+
+    @Test
+    void takesDeadlinesInOrderOfExpiry() throws Exception {
+        long now = System.currentTimeMillis();
+        queue.schedule("late", now + 200);
+        queue.schedule("early", now - 100);
+        queue.schedule("middle", now);
+
+        Assertions.assertEquals("early", queue.take());
+        Assertions.assertEquals("middle", queue.take());
+        Assertions.assertEquals("late", queue.take());
+        Assertions.assertTrue(System.currentTimeMillis() >= now + 200);
+        Assertions.assertEquals(0, queue.size());
+    }
+
+    @Test
+    void replacesThePendingDeadline() throws Exception {
+        long now = System.currentTimeMillis();
+        queue.schedule("p1", now + 60_000);
+        queue.schedule("p1", now - 1);
+
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertEquals(1, queue.queuedSize());
+        Assertions.assertEquals("p1", queue.take());
+        Assertions.assertEquals(0, queue.queuedSize());
+    }
+
+    @Test
+    void cancelRemovesTheDeadlineFromTheQueue() throws Exception {
+        long now = System.currentTimeMillis();
+        queue.schedule("cancelled", now - 1);
+        queue.schedule("kept", now + 50);
+        queue.cancel("cancelled");
+        queue.cancel("unknown");
+
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertEquals(1, queue.queuedSize());
+        Assertions.assertEquals("kept", queue.take());
+    }
+
+    @Test
+    void waitsUntilADeadlineExpires() throws Exception {
+        var next = CompletableFuture.supplyAsync(() -> {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Assertions.assertThrows(TimeoutException.class, () -> next.get(100, TimeUnit.MILLISECONDS));
+
+        queue.schedule("p1", System.currentTimeMillis());
+        Assertions.assertEquals("p1", next.get(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,34 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class IdleDeadlinesTest {
+
+    @Test
+    void countsTheIntervalsSinceTheLastVisit() {
+        // visited early: still one interval
+        Assertions.assertEquals(1, IdleDeadlines.idleIntervals(10_500, 10_000, 10_000, 5));
+        Assertions.assertEquals(1, IdleDeadlines.idleIntervals(20_000, 10_000, 10_000, 5));
+        Assertions.assertEquals(3, IdleDeadlines.idleIntervals(45_000, 10_000, 10_000, 5));
+        // a long sleep never counts more than the retry limit
+        Assertions.assertEquals(5, IdleDeadlines.idleIntervals(1_000_000, 10_000, 10_000, 5));
+    }
+
+    @Test
+    void computesTheWebsocketDeadline() {
+        Assertions.assertEquals(1000 + 3 * 10_000, IdleDeadlines.websocketDeadline(1000, 10_000, 5, 2));
+        Assertions.assertEquals(1000, IdleDeadlines.websocketDeadline(1000, 10_000, 5, 5));
+        Assertions.assertEquals(1000, IdleDeadlines.websocketDeadline(1000, 10_000, 5, 7));
+    }
+
+    @Test
+    void checksAtTheEarliestDeadline() {
+        // idle detection disabled: only the max-age
+        Assertions.assertEquals(50_001, IdleDeadlines.nextCheck(0, 50_000, Long.MAX_VALUE, 1000));
+        Assertions.assertEquals(20_000, IdleDeadlines.nextCheck(0, 50_000, 20_000, 1000));
+        Assertions.assertEquals(50_001, IdleDeadlines.nextCheck(0, 50_000, 70_000, 1000));
+        // never sooner than the minimum delay
+        Assertions.assertEquals(1000, IdleDeadlines.nextCheck(0, 50_000, 0, 1000));
+    }
+}
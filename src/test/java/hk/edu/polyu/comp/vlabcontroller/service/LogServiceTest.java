@@ -0,0 +1,120 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import hk.edu.polyu.comp.vlabcontroller.backend.IContainerBackend;
+import hk.edu.polyu.comp.vlabcontroller.log.ILogStorage;
+import hk.edu.polyu.comp.vlabcontroller.log.LiveLogHub;
+import hk.edu.polyu.comp.vlabcontroller.log.LogPump;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.ContainerGroup;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+class LogServiceTest {
+
+    private final MockEnvironment environment = new MockEnvironment();
+    private final ILogStorage logStorage = Mockito.mock(ILogStorage.class);
+    private final LogPump logPump = new LogPump(environment, new SimpleMeterRegistry());
+    private final LiveLogHub liveLogHub = new LiveLogHub(environment);
+    private final LogService logService = new LogService(environment, logStorage, logPump, liveLogHub);
+    private final IContainerBackend backend = Mockito.mock(IContainerBackend.class);
+    private final ByteArrayOutputStream stdOut = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream stdErr = new ByteArrayOutputStream();
+    private final CountDownLatch attached = new CountDownLatch(1);
+    private final Proxy proxy = new Proxy();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Mockito.when(logStorage.createOutputStreams(ArgumentMatchers.any())).thenReturn(new OutputStream[]{stdOut, stdErr});
+        Mockito.when(backend.getOutputAttacher(ArgumentMatchers.any())).thenReturn(attacher());
+        logService.init();
+        proxy.setId("proxy-1");
+        proxy.setStatus(ProxyStatus.Up);
+        proxy.setContainerGroup(new ContainerGroup());
+    }
+
+    @AfterEach
+    void shutdown() {
+        logService.shutdown();
+        logPump.shutdown();
+        liveLogHub.shutdown();
+    }
+
+    @Test
+    void pumpsTheOutputIfTheBackendCanFollowIt() throws Exception {
+        Mockito.when(backend.pumpOutput(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+                .thenReturn(new CompletableFuture<>());
+
+        logService.attachToOutput(proxy, backend);
+
+        Assertions.assertFalse(attached.await(200, TimeUnit.MILLISECONDS));
+        Mockito.verify(backend, Mockito.never()).getOutputAttacher(proxy);
+    }
+
+    @Test
+    void attachesToTheOutputIfTheBackendCannotPumpIt() throws Exception {
+        Mockito.when(backend.pumpOutput(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+                .thenReturn(null);
+
+        logService.attachToOutput(proxy, backend);
+
+        Assertions.assertTrue(attached.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("attached\n", stdOut.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void fallsBackToTheOutputAttacherIfTheOutputCannotBeFollowed() throws Exception {
+        // e.g. the API server rejected the credentials of the asynchronous client
+        var output = new CompletableFuture<Boolean>();
+        Mockito.when(backend.pumpOutput(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+                .thenReturn(output);
+
+        logService.attachToOutput(proxy, backend);
+        Assertions.assertFalse(attached.await(100, TimeUnit.MILLISECONDS));
+        output.complete(false);
+
+        Assertions.assertTrue(attached.await(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("attached\n", stdOut.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void doesNotFallBackForStoppedProxies() throws Exception {
+        var output = new CompletableFuture<Boolean>();
+        Mockito.when(backend.pumpOutput(ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any(), ArgumentMatchers.any()))
+                .thenReturn(output);
+
+        logService.attachToOutput(proxy, backend);
+        proxy.setStatus(ProxyStatus.Stopped);
+        output.complete(false);
+
+        Assertions.assertFalse(attached.await(200, TimeUnit.MILLISECONDS));
+        Mockito.verify(backend, Mockito.never()).getOutputAttacher(proxy);
+    }
+
+    private BiConsumer<OutputStream, OutputStream> attacher() {
+        return (out, err) -> {
+            try {
+                out.write("attached\n".getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            attached.countDown();
+        };
+    }
+}
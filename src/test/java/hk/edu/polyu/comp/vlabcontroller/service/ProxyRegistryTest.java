@@ -0,0 +1,62 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ProxyRegistryTest {
+
+    private static Proxy proxy(String id, String userId, String specId) {
+        var spec = new ProxySpec();
+        spec.setId(specId);
+        var proxy = new Proxy();
+        proxy.setId(id);
+        proxy.setUserId(userId);
+        proxy.setSpec(spec);
+        return proxy;
+    }
+
+    @Test
+    void indexesByIdUserAndSpec() {
+        var registry = new ProxyRegistry();
+        var first = proxy("p1", "alice", "vscode");
+        var second = proxy("p2", "alice", "jupyter");
+        var third = proxy("p3", "bob", "vscode");
+        registry.add(first);
+        registry.add(second);
+        registry.add(third);
+
+        Assertions.assertEquals(3, registry.size());
+        Assertions.assertSame(second, registry.get("p2"));
+        Assertions.assertNull(registry.get("unknown"));
+        Assertions.assertNull(registry.get(null));
+        Assertions.assertEquals(2, registry.getByUser("alice").size());
+        Assertions.assertEquals(2, registry.getBySpec("vscode").size());
+        Assertions.assertSame(third, registry.findByUserAndSpec("bob", "vscode"));
+        Assertions.assertNull(registry.findByUserAndSpec("bob", "jupyter"));
+    }
+
+    @Test
+    void removeDropsAllIndexEntries() {
+        var registry = new ProxyRegistry();
+        var first = proxy("p1", "alice", "vscode");
+        registry.add(first);
+
+        Assertions.assertTrue(registry.remove(first));
+        Assertions.assertFalse(registry.remove(first));
+        Assertions.assertNull(registry.get("p1"));
+        Assertions.assertTrue(registry.getByUser("alice").isEmpty());
+        Assertions.assertTrue(registry.getBySpec("vscode").isEmpty());
+        Assertions.assertTrue(registry.getAll().isEmpty());
+    }
+
+    @Test
+    void rejectsDuplicateIds() {
+        var registry = new ProxyRegistry();
+        registry.add(proxy("p1", "alice", "vscode"));
+        Assertions.assertThrows(IllegalStateException.class, () -> registry.add(proxy("p1", "bob", "vscode")));
+        Assertions.assertEquals(1, registry.getByUser("alice").size());
+        Assertions.assertTrue(registry.getByUser("bob").isEmpty());
+    }
+}
@@ -0,0 +1,239 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
+import hk.edu.polyu.comp.vlabcontroller.auth.IAuthenticationBackend;
+import hk.edu.polyu.comp.vlabcontroller.auth.impl.OpenIDAuthenticationBackend;
+import hk.edu.polyu.comp.vlabcontroller.backend.IContainerBackend;
+import hk.edu.polyu.comp.vlabcontroller.event.ProxyStartEvent;
+import hk.edu.polyu.comp.vlabcontroller.event.ProxyStartFailedEvent;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.ProxyStatus;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import hk.edu.polyu.comp.vlabcontroller.util.ProxyMappingManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.client.OAuth2AuthorizedClient;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.web.HttpSessionOAuth2AuthorizedClientRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.oidc.OidcIdToken;
+import org.springframework.security.oauth2.core.oidc.user.DefaultOidcUser;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+class ProxyServiceTest {
+
+    private final FakeBackend backend = new FakeBackend();
+    private final ProxyMappingManager mappingManager = Mockito.mock(ProxyMappingManager.class);
+    private final LogService logService = Mockito.mock(LogService.class);
+    private final List<Object> events = new CopyOnWriteArrayList<>();
+    private final ProxyService proxyService = newProxyService(null);
+
+    @AfterEach
+    void shutdown() {
+        proxyService.shutdown();
+        SecurityContextHolder.clearContext();
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    void startsProxiesAsynchronously() throws Exception {
+        var release = new CountDownLatch(1);
+        backend.starter = proxy -> {
+            await(release);
+            proxy.getTargets().put(proxy.getId(), URI.create("http://10.0.0.1:8080"));
+            proxy.setStartupTimestamp(System.currentTimeMillis());
+            proxy.setStatus(ProxyStatus.Up);
+        };
+
+        Proxy proxy = proxyService.startProxyAsync(spec(), true);
+        Assertions.assertEquals(ProxyStatus.Starting, proxy.getStatus());
+        Assertions.assertSame(proxy, proxyService.getProxy(proxy.getId()));
+        CompletableFuture<Proxy> startup = proxyService.getStartupFuture(proxy.getId());
+        Assertions.assertFalse(startup.isDone());
+        Assertions.assertSame(startup, proxyService.getStartupFuture(proxy.getId()));
+
+        release.countDown();
+        Assertions.assertSame(proxy, startup.get(5, TimeUnit.SECONDS));
+        Mockito.verify(mappingManager).addMapping(proxy.getId(), proxy.getSpec(), proxy.getId(), URI.create("http://10.0.0.1:8080"));
+        Mockito.verify(logService).attachToOutput(proxy, backend);
+        Assertions.assertEquals(ProxyStatus.Up, proxy.getStatus());
+        Assertions.assertTrue(events.stream().anyMatch(event -> event instanceof ProxyStartEvent));
+
+        // once started, the future of the proxy is a completed one
+        CompletableFuture<Proxy> started = proxyService.getStartupFuture(proxy.getId());
+        Assertions.assertTrue(started.isDone());
+        Assertions.assertSame(proxy, started.get());
+        Assertions.assertNull(proxyService.getStartupFuture("unknown"));
+    }
+
+    @Test
+    void proxiesAreUpOnlyOnceMapped() throws Exception {
+        backend.starter = proxy -> proxy.getTargets().put(proxy.getId(), URI.create("http://10.0.0.1:8080"));
+        var statusWhenMapped = new CompletableFuture<ProxyStatus>();
+        Mockito.doAnswer(invocation -> {
+            statusWhenMapped.complete(proxyService.getProxy(invocation.getArgument(0)).getStatus());
+            return null;
+        }).when(mappingManager).addMapping(ArgumentMatchers.anyString(), ArgumentMatchers.any(), ArgumentMatchers.anyString(), ArgumentMatchers.any());
+
+        Proxy proxy = proxyService.startProxyAsync(spec(), true);
+
+        Assertions.assertSame(proxy, proxyService.getStartupFuture(proxy.getId()).get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(ProxyStatus.Starting, statusWhenMapped.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(ProxyStatus.Up, proxy.getStatus());
+    }
+
+    @Test
+    void failureUnregistersTheProxy() throws Exception {
+        var release = new CountDownLatch(1);
+        backend.starter = proxy -> {
+            await(release);
+            throw new VLabControllerException("Container failed");
+        };
+
+        Proxy proxy = proxyService.startProxyAsync(spec(), true);
+        CompletableFuture<Proxy> startup = proxyService.getStartupFuture(proxy.getId());
+        release.countDown();
+
+        var e = Assertions.assertThrows(ExecutionException.class, () -> startup.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("Container failed", e.getCause().getMessage());
+        Assertions.assertNull(proxyService.getProxy(proxy.getId()));
+        Assertions.assertNull(proxyService.getStartupFuture(proxy.getId()));
+        Assertions.assertTrue(events.stream().anyMatch(event -> event instanceof ProxyStartFailedEvent));
+        Mockito.verify(mappingManager, Mockito.never()).addMapping(ArgumentMatchers.anyString(), ArgumentMatchers.any(), ArgumentMatchers.anyString(), ArgumentMatchers.any());
+    }
+
+    @Test
+    void stopDuringStartupNeverMapsTheProxy() throws Exception {
+        var release = new CountDownLatch(1);
+        backend.starter = proxy -> {
+            await(release);
+            proxy.getTargets().put(proxy.getId(), URI.create("http://10.0.0.1:8080"));
+            proxy.setStatus(ProxyStatus.Up);
+        };
+
+        Proxy proxy = proxyService.startProxyAsync(spec(), true);
+        CompletableFuture<Proxy> startup = proxyService.getStartupFuture(proxy.getId());
+        proxyService.stopProxy(proxy, false, true, 0);
+        release.countDown();
+
+        var e = Assertions.assertThrows(ExecutionException.class, () -> startup.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("Proxy was stopped during startup", e.getCause().getMessage());
+        Assertions.assertNull(proxyService.getProxy(proxy.getId()));
+        // stopped by the releaser, and again once its container is up
+        Assertions.assertEquals(List.of(proxy, proxy), backend.stopped);
+        Mockito.verify(mappingManager, Mockito.never()).addMapping(ArgumentMatchers.anyString(), ArgumentMatchers.any(), ArgumentMatchers.anyString(), ArgumentMatchers.any());
+        Mockito.verify(logService, Mockito.never()).attachToOutput(ArgumentMatchers.any(), ArgumentMatchers.any(IContainerBackend.class));
+    }
+
+    @Test
+    void passesTheAccessTokenOfOpenIdUsersToProxiesStartedAsynchronously() throws Exception {
+        var authentication = new OAuth2AuthenticationToken(
+                new DefaultOidcUser(List.of(new SimpleGrantedAuthority("ROLE_USERS")),
+                        new OidcIdToken("id-token", Instant.now(), Instant.now().plusSeconds(60), Map.of("sub", "alice"))),
+                List.of(new SimpleGrantedAuthority("ROLE_USERS")), "vlab");
+        var registration = ClientRegistration.withRegistrationId("vlab")
+                .clientId("vlab")
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/login/oauth2/code/{registrationId}")
+                .authorizationUri("https://idp/auth")
+                .tokenUri("https://idp/token")
+                .build();
+        var accessToken = new OAuth2AccessToken(OAuth2AccessToken.TokenType.BEARER, "access-token", Instant.now(), Instant.now().plusSeconds(60));
+        var clientRepository = new HttpSessionOAuth2AuthorizedClientRepository();
+        var request = new MockHttpServletRequest();
+        clientRepository.saveAuthorizedClient(new OAuth2AuthorizedClient(registration, "alice", accessToken), authentication, request, new MockHttpServletResponse());
+
+        var authBackend = new OpenIDAuthenticationBackend();
+        ReflectionTestUtils.setField(authBackend, "oAuth2AuthorizedClientRepository", clientRepository);
+        var openIdProxyService = newProxyService(authBackend);
+        var env = new CompletableFuture<List<String>>();
+        backend.starter = proxy -> {
+            env.complete(proxy.getAuthEnv());
+            proxy.setStatus(ProxyStatus.Up);
+        };
+
+        try {
+            // the user starts the proxy from a request: the access token is resolved before the request completes
+            SecurityContextHolder.getContext().setAuthentication(authentication);
+            RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+            Proxy proxy = openIdProxyService.startProxyAsync(spec(), true);
+            RequestContextHolder.resetRequestAttributes();
+            SecurityContextHolder.clearContext();
+            Assertions.assertEquals("alice", proxy.getUserId());
+
+            Assertions.assertSame(proxy, openIdProxyService.getStartupFuture(proxy.getId()).get(5, TimeUnit.SECONDS));
+            Assertions.assertEquals(List.of("VLAB_OIDC_ACCESS_TOKEN=access-token"), env.get(5, TimeUnit.SECONDS));
+        } finally {
+            openIdProxyService.shutdown();
+        }
+    }
+
+    private ProxyService newProxyService(IAuthenticationBackend authBackend) {
+        return new ProxyService(null, null, backend, mappingManager, new UserService(new MockEnvironment(), null, null, null),
+                authBackend, logService, events::add, new MockEnvironment());
+    }
+
+    private static ProxySpec spec() {
+        var spec = new ProxySpec();
+        spec.setId("jupyter");
+        return spec;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            if (!latch.await(5, TimeUnit.SECONDS)) throw new IllegalStateException("Timed out");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class FakeBackend implements IContainerBackend {
+        private volatile Consumer<Proxy> starter = proxy -> proxy.setStatus(ProxyStatus.Up);
+        private final List<Proxy> stopped = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public void startProxy(Proxy proxy) {
+            starter.accept(proxy);
+        }
+
+        @Override
+        public void stopProxy(Proxy proxy) {
+            stopped.add(proxy);
+        }
+
+        @Override
+        public BiConsumer<OutputStream, OutputStream> getOutputAttacher(Proxy proxy) {
+            return null;
+        }
+    }
+}
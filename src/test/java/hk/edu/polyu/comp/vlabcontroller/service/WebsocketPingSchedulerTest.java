@@ -0,0 +1,152 @@
+package hk.edu.polyu.comp.vlabcontroller.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+class WebsocketPingSchedulerTest {
+
+    private static final int WHEEL_SIZE = 4;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final WebsocketPingScheduler scheduler = new WebsocketPingScheduler(1000, WHEEL_SIZE, registry);
+
+    private long currentTick;
+
+    @Test
+    void pingsOncePerRevolutionStartingOneRevolutionAfterRegistration() {
+        var executor = new RecordingExecutor();
+        var first = new Target(executor);
+        scheduler.register(first);
+        tick(executor, 0);
+        // registered after tick 0: its bucket is the one of tick 0, visited last in the next revolution
+        var second = new Target(executor);
+        scheduler.register(second);
+
+        for (int tick = 1; tick < 3 * WHEEL_SIZE; tick++) tick(executor, tick);
+
+        Assertions.assertEquals(List.of(3L, 7L, 11L), first.pingTicks);
+        Assertions.assertEquals(List.of(4L, 8L), second.pingTicks);
+        Assertions.assertEquals(2, scheduler.size());
+    }
+
+    @Test
+    void batchesPingsPerExecutor() {
+        var executorA = new RecordingExecutor();
+        var executorB = new RecordingExecutor();
+        var targets = List.of(new Target(executorA), new Target(executorA), new Target(executorA), new Target(executorB));
+        targets.forEach(scheduler::register);
+
+        scheduler.tick(WHEEL_SIZE - 1);
+
+        // one task per executor, whatever the number of connections it owns
+        Assertions.assertEquals(1, executorA.tasks.size());
+        Assertions.assertEquals(1, executorB.tasks.size());
+        Assertions.assertTrue(targets.stream().allMatch(target -> target.pings == 0));
+        executorA.runAll();
+        executorB.runAll();
+        Assertions.assertTrue(targets.stream().allMatch(target -> target.pings == 1));
+        Assertions.assertEquals(4.0, registry.find("heartbeatPingsPerTick").summary().totalAmount());
+    }
+
+    @Test
+    void skipsTargetsThatDoNotNeedAPing() {
+        var executor = new RecordingExecutor();
+        var target = new Target(executor);
+        target.needsPing = false;
+        scheduler.register(target);
+
+        scheduler.tick(WHEEL_SIZE - 1);
+
+        Assertions.assertTrue(executor.tasks.isEmpty());
+        Assertions.assertEquals(1, scheduler.size());
+    }
+
+    @Test
+    void removesClosedTargets() {
+        var executor = new RecordingExecutor();
+        var open = new Target(executor);
+        var closed = new Target(executor);
+        scheduler.register(open);
+        scheduler.register(closed);
+        Assertions.assertEquals(2, scheduler.size());
+
+        closed.open = false;
+        scheduler.tick(WHEEL_SIZE - 1);
+        executor.runAll();
+
+        Assertions.assertEquals(1, scheduler.size());
+        Assertions.assertEquals(1, open.pings);
+        Assertions.assertEquals(0, closed.pings);
+    }
+
+    @Test
+    void doesNotPingTargetsClosedBeforeTheirTaskRuns() {
+        var executor = new RecordingExecutor();
+        var target = new Target(executor);
+        scheduler.register(target);
+
+        scheduler.tick(WHEEL_SIZE - 1);
+        target.open = false;
+        executor.runAll();
+
+        Assertions.assertEquals(0, target.pings);
+    }
+
+    private void tick(RecordingExecutor executor, long tick) {
+        currentTick = tick;
+        scheduler.tick(tick);
+        executor.runAll();
+    }
+
+    private static class RecordingExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        private void runAll() {
+            tasks.forEach(Runnable::run);
+            tasks.clear();
+        }
+    }
+
+    private class Target implements WebsocketPingScheduler.PingTarget {
+        private final RecordingExecutor executor;
+        private final List<Long> pingTicks = new ArrayList<>();
+        private boolean open = true;
+        private boolean needsPing = true;
+        private int pings;
+
+        private Target(RecordingExecutor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public Executor getExecutor() {
+            return executor;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public boolean needsPing() {
+            return needsPing;
+        }
+
+        @Override
+        public void ping() {
+            pings++;
+            pingTicks.add(currentTick);
+        }
+    }
+}
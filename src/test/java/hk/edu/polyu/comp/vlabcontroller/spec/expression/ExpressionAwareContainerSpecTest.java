@@ -0,0 +1,59 @@
+package hk.edu.polyu.comp.vlabcontroller.spec.expression;
+
+import hk.edu.polyu.comp.vlabcontroller.VLabControllerException;
+import hk.edu.polyu.comp.vlabcontroller.model.runtime.Proxy;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ContainerSpec;
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import io.fabric8.kubernetes.api.model.VolumeMountBuilder;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.StaticApplicationContext;
+
+import java.util.List;
+import java.util.Map;
+
+class ExpressionAwareContainerSpecTest {
+
+    private SpecExpressionResolver resolver;
+    private Proxy proxy;
+
+    @BeforeEach
+    void setUp() {
+        StaticApplicationContext appContext = new StaticApplicationContext();
+        appContext.refresh();
+        resolver = new SpecExpressionResolver(appContext);
+        ProxySpec proxySpec = new ProxySpec();
+        proxySpec.setId("jupyter");
+        proxy = new Proxy();
+        proxy.setUserId("jdoe");
+        proxy.setSpec(proxySpec);
+    }
+
+    @Test
+    void resolvesAllExpressionsOnce() {
+        ContainerSpec source = new ContainerSpec();
+        source.setImage("registry/#{proxySpec.id}:latest");
+        source.setCmd(List.of("start", "--user=#{proxy.userId}"));
+        source.setEnv(Map.of("HOME", "/home/#{proxy.userId}"));
+        source.setVolumeMounts(List.of(new VolumeMountBuilder().withName("home").withMountPath("/home/#{proxy.userId}").build()));
+
+        ContainerSpec resolved = new ExpressionAwareContainerSpec(source, proxy, resolver).resolve();
+        Assertions.assertEquals("registry/jupyter:latest", resolved.getImage());
+        Assertions.assertEquals(List.of("start", "--user=jdoe"), resolved.getCmd());
+        Assertions.assertEquals("/home/jdoe", resolved.getEnv().get("HOME"));
+        Assertions.assertEquals("/home/jdoe", resolved.getVolumeMounts().get(0).getMountPath());
+        Assertions.assertThrows(UnsupportedOperationException.class, () -> resolved.getEnv().put("HOME", "/root"));
+    }
+
+    @Test
+    void reportsAllUnresolvableExpressions() {
+        ContainerSpec source = new ContainerSpec();
+        source.setImage("#{proxy.unknownProperty}");
+        source.setEnv(Map.of("USER", "#{proxy.userId"));
+
+        var e = Assertions.assertThrows(VLabControllerException.class, () -> new ExpressionAwareContainerSpec(source, proxy, resolver).resolve());
+        Assertions.assertTrue(e.getMessage().contains("#{proxy.unknownProperty}"));
+        Assertions.assertTrue(e.getMessage().contains("#{proxy.userId"));
+    }
+}
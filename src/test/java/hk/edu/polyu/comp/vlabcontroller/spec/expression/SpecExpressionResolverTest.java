@@ -0,0 +1,58 @@
+package hk.edu.polyu.comp.vlabcontroller.spec.expression;
+
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.expression.ParseException;
+
+import java.lang.ref.WeakReference;
+
+class SpecExpressionResolverTest {
+
+    private SpecExpressionResolver resolver;
+
+    @BeforeEach
+    void setUp() {
+        StaticApplicationContext appContext = new StaticApplicationContext();
+        appContext.refresh();
+        resolver = new SpecExpressionResolver(appContext);
+    }
+
+    @Test
+    void expressionsAreParsedOnce() {
+        String template = "app-#{proxySpec.id}";
+        Assertions.assertSame(resolver.parse(template), resolver.parse(template));
+
+        // many evaluations of the same expression, so that it gets compiled
+        for (int i = 0; i < 200; i++) {
+            ProxySpec spec = new ProxySpec();
+            spec.setId("spec-" + i);
+            Assertions.assertEquals("app-spec-" + i, resolver.evaluateToString(template, SpecExpressionContext.create(spec)));
+        }
+    }
+
+    @Test
+    void evaluationContextsAreReleasedWithTheirContext() throws InterruptedException {
+        ProxySpec spec = new ProxySpec();
+        spec.setId("jupyter");
+        SpecExpressionContext context = SpecExpressionContext.create(spec);
+        Assertions.assertEquals("app-jupyter", resolver.evaluateToString("app-#{proxySpec.id}", context));
+        Assertions.assertEquals("jupyter-app", resolver.evaluateToString("#{proxySpec.id}-app", context));
+
+        WeakReference<SpecExpressionContext> reference = new WeakReference<>(context);
+        context = null;
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assertions.assertNull(reference.get());
+    }
+
+    @Test
+    void invalidExpressionsFail() {
+        Assertions.assertThrows(ParseException.class, () -> resolver.evaluate("#{proxySpec.}", SpecExpressionContext.create()));
+        Assertions.assertThrows(ParseException.class, () -> resolver.evaluate("#{proxySpec.}", SpecExpressionContext.create()));
+    }
+}
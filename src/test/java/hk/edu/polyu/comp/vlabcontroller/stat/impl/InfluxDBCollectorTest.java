@@ -0,0 +1,19 @@
+package hk.edu.polyu.comp.vlabcontroller.stat.impl;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+class InfluxDBCollectorTest {
+
+    @Test
+    void writesTimestampsInThePrecisionOfTheUrl() {
+        Assertions.assertEquals(TimeUnit.NANOSECONDS, InfluxDBCollector.precisionOf("http://localhost:8086/write?db=usagestats"));
+        Assertions.assertEquals(TimeUnit.NANOSECONDS, InfluxDBCollector.precisionOf("http://localhost:8086/write"));
+        Assertions.assertEquals(TimeUnit.MILLISECONDS, InfluxDBCollector.precisionOf("http://localhost:8086/write?db=usagestats&precision=ms"));
+        Assertions.assertEquals(TimeUnit.SECONDS, InfluxDBCollector.precisionOf("http://localhost:8086/write?precision=s&db=usagestats"));
+        Assertions.assertEquals(TimeUnit.MICROSECONDS, InfluxDBCollector.precisionOf("http://localhost:8086/api/v2/write?bucket=usagestats&precision=us"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> InfluxDBCollector.precisionOf("http://localhost:8086/write?precision=d"));
+    }
+}
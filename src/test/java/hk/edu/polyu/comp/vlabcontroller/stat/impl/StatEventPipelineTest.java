@@ -0,0 +1,180 @@
+package hk.edu.polyu.comp.vlabcontroller.stat.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+class StatEventPipelineTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final LinkedBlockingQueue<List<StatEvent>> batches = new LinkedBlockingQueue<>();
+
+    @Test
+    void writesFullBatches() throws Exception {
+        var pipeline = new StatEventPipeline("test", new MockEnvironment()
+                .withProperty("proxy.usage-stats-pipeline.batch-size", "3")
+                .withProperty("proxy.usage-stats-pipeline.linger", "60000"),
+                registry, batch -> batches.add(new ArrayList<>(batch)));
+        for (int i = 0; i < 6; i++) pipeline.submit(event(i));
+
+        Assertions.assertEquals(List.of("0", "1", "2"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        Assertions.assertEquals(List.of("3", "4", "5"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        pipeline.shutdown(5000);
+        Assertions.assertEquals(2, registry.find("usageStatsBatchSize").tag("collector", "test").summary().count());
+    }
+
+    @Test
+    void writesPartialBatchesAfterLinger() throws Exception {
+        var pipeline = new StatEventPipeline("test", new MockEnvironment()
+                .withProperty("proxy.usage-stats-pipeline.linger", "50"),
+                registry, batch -> batches.add(new ArrayList<>(batch)));
+        pipeline.submit(event(0));
+        pipeline.submit(event(1));
+
+        Assertions.assertEquals(List.of("0", "1"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        pipeline.shutdown(5000);
+    }
+
+    @Test
+    void writesQueuedEventsOnShutdown() throws Exception {
+        var pipeline = new StatEventPipeline("test", new MockEnvironment()
+                .withProperty("proxy.usage-stats-pipeline.linger", "60000"),
+                registry, batch -> batches.add(new ArrayList<>(batch)));
+        pipeline.submit(event(0));
+        pipeline.shutdown(5000);
+
+        Assertions.assertEquals(List.of("0"), infos(batches.poll()));
+    }
+
+    @Test
+    void dropsOldestEventsWhenFull() throws Exception {
+        var release = new CountDownLatch(1);
+        var pipeline = new StatEventPipeline("test", new MockEnvironment()
+                .withProperty("proxy.usage-stats-pipeline.capacity", "2")
+                .withProperty("proxy.usage-stats-pipeline.batch-size", "1"),
+                registry, batch -> {
+                    batches.add(new ArrayList<>(batch));
+                    await(release);
+                });
+        pipeline.submit(event(0));
+        Assertions.assertEquals(List.of("0"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        // the writer is blocked: the queue holds two events
+        pipeline.submit(event(1));
+        pipeline.submit(event(2));
+        pipeline.submit(event(3));
+        release.countDown();
+
+        Assertions.assertEquals(List.of("2"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        Assertions.assertEquals(List.of("3"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        Assertions.assertEquals(1, registry.find("usageStatsDropped").tag("collector", "test").counter().count());
+        pipeline.shutdown(5000);
+    }
+
+    @Test
+    void spillsEventsWhenFull(@TempDir Path dir) throws Exception {
+        var release = new CountDownLatch(1);
+        var pipeline = new StatEventPipeline("test", new MockEnvironment()
+                .withProperty("proxy.usage-stats-pipeline.capacity", "1")
+                .withProperty("proxy.usage-stats-pipeline.batch-size", "1")
+                .withProperty("proxy.usage-stats-pipeline.overflow", "spill")
+                .withProperty("proxy.usage-stats-pipeline.spill-path", dir.toString()),
+                registry, batch -> {
+                    batches.add(new ArrayList<>(batch));
+                    await(release);
+                });
+        pipeline.submit(event(0));
+        Assertions.assertEquals(List.of("0"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        pipeline.submit(event(1));
+        pipeline.submit(event(2));
+        Assertions.assertEquals(1, registry.find("usageStatsSpilled").tag("collector", "test").counter().count());
+        release.countDown();
+
+        Assertions.assertEquals(List.of("1"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        // the spilled event is written once the queue is empty
+        List<StatEvent> spilled = batches.poll(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(List.of("2"), infos(spilled));
+        Assertions.assertEquals("user-2", spilled.get(0).getUserId());
+        Assertions.assertEquals(2, spilled.get(0).getTimestamp());
+        pipeline.shutdown(5000);
+    }
+
+    @Test
+    void skipsMalformedSpilledEvents(@TempDir Path dir) throws Exception {
+        Files.write(dir.resolve("usage-stats-test.spill"), List.of(json(event(0)), "{\"timestamp\":", json(event(1))), StandardCharsets.UTF_8);
+        var pipeline = new StatEventPipeline("test", new MockEnvironment()
+                .withProperty("proxy.usage-stats-pipeline.overflow", "spill")
+                .withProperty("proxy.usage-stats-pipeline.spill-path", dir.toString()),
+                registry, batch -> batches.add(new ArrayList<>(batch)));
+
+        Assertions.assertEquals(List.of("0", "1"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        pipeline.shutdown(5000);
+        Assertions.assertEquals(1, registry.find("usageStatsDropped").tag("collector", "test").counter().count());
+        Assertions.assertNull(batches.poll());
+    }
+
+    @Test
+    void retriesFailedReplaysFromTheFailedBatchAfterABackoff(@TempDir Path dir) throws Exception {
+        Files.write(dir.resolve("usage-stats-test.spill"), List.of(json(event(0)), json(event(1)), json(event(2)), json(event(3))), StandardCharsets.UTF_8);
+        var failing = new AtomicBoolean(true);
+        var attempts = new ArrayList<Long>();
+        var pipeline = new StatEventPipeline("test", new MockEnvironment()
+                .withProperty("proxy.usage-stats-pipeline.batch-size", "2")
+                .withProperty("proxy.usage-stats-pipeline.overflow", "spill")
+                .withProperty("proxy.usage-stats-pipeline.spill-path", dir.toString())
+                .withProperty("proxy.usage-stats-pipeline.replay-backoff", "1000"),
+                registry, batch -> {
+                    if (batch.get(0).getInfo().equals("2")) {
+                        attempts.add(System.nanoTime());
+                        if (failing.getAndSet(false)) throw new IOException("Database is down");
+                    }
+                    batches.add(new ArrayList<>(batch));
+                });
+
+        Assertions.assertEquals(List.of("0", "1"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        // the events after the failed batch are kept, and the written ones are not written again
+        Assertions.assertEquals(List.of("2", "3"), infos(batches.poll(5, TimeUnit.SECONDS)));
+        pipeline.shutdown(5000);
+        Assertions.assertNull(batches.poll());
+        Assertions.assertEquals(2, attempts.size());
+        Assertions.assertTrue(attempts.get(1) - attempts.get(0) >= TimeUnit.MILLISECONDS.toNanos(900));
+        Assertions.assertEquals(2, registry.find("usageStatsFailed").tag("collector", "test").counter().count());
+        Assertions.assertFalse(Files.exists(dir.resolve("usage-stats-test.replay")));
+    }
+
+    private static String json(StatEvent event) throws IOException {
+        return new ObjectMapper().writeValueAsString(event);
+    }
+
+    private static void await(CountDownLatch latch) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static StatEvent event(int i) {
+        return new StatEvent(i, "user-" + i, "Login", null, String.valueOf(i));
+    }
+
+    private static List<String> infos(List<StatEvent> batch) {
+        Assertions.assertNotNull(batch);
+        return batch.stream().map(StatEvent::getInfo).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,57 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import io.undertow.connector.ByteBufferPool;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.xnio.XnioWorker;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class PortMappingProbeTest {
+
+    private static final String PORT_MAPPING = "1ca3dde2-8fdf-4fe4-8327-6849e4d77fcd/port_mappings/8888";
+    private static final URI TARGET = URI.create("http://10.0.0.1:8888");
+
+    private final AtomicInteger requests = new AtomicInteger();
+    private CompletableFuture<Integer> response = new CompletableFuture<>();
+
+    private final PortMappingProbe probe = new PortMappingProbe(1) {
+        @Override
+        CompletableFuture<Integer> send(URI target, String path, XnioWorker worker, ByteBufferPool bufferPool) {
+            requests.incrementAndGet();
+            return response;
+        }
+    };
+
+    @Test
+    void concurrentProbesAreShared() {
+        var first = probe.probe(PORT_MAPPING, TARGET, "/", null, null);
+        var second = probe.probe(PORT_MAPPING, TARGET, "/api", null, null);
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals(1, requests.get());
+
+        response.complete(200);
+        Assertions.assertEquals(200, first.join());
+
+        // a successful probe is not kept
+        response = new CompletableFuture<>();
+        Assertions.assertNotSame(first, probe.probe(PORT_MAPPING, TARGET, "/", null, null));
+        Assertions.assertEquals(2, requests.get());
+    }
+
+    @Test
+    void failedProbesAreRemembered() {
+        response.completeExceptionally(new IOException("Connection refused"));
+        var first = probe.probe(PORT_MAPPING, TARGET, "/", null, null);
+        Assertions.assertTrue(first.isCompletedExceptionally());
+        Assertions.assertSame(first, probe.probe(PORT_MAPPING, TARGET, "/", null, null));
+        Assertions.assertEquals(1, requests.get());
+
+        probe.remove("1ca3dde2-8fdf-4fe4-8327-6849e4d77fcd");
+        probe.probe(PORT_MAPPING, TARGET, "/", null, null);
+        Assertions.assertEquals(2, requests.get());
+    }
+}
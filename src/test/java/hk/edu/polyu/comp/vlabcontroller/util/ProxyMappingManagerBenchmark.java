@@ -0,0 +1,74 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.net.URI;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the lookup of the proxy owning a route, see {@link ProxyMappingManager#getProxyId(String)}.
+ * Run with <code>java -cp target/test-classes:&lt;test classpath&gt; hk.edu.polyu.comp.vlabcontroller.util.ProxyMappingManagerBenchmark</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyMappingManagerBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    private int mappings;
+
+    private ProxyMappingManager mappingManager;
+    private String[] requestPaths;
+
+    @Setup
+    public void setUp() {
+        mappingManager = new ProxyMappingManager(null, new UpstreamConnectionManager(new MockEnvironment(), new SimpleMeterRegistry()));
+        mappingManager.createHttpHandler(ResponseCodeHandler.HANDLE_404);
+        var target = URI.create("http://10.0.0.1:8080");
+        requestPaths = new String[1024];
+        var proxyIds = new String[mappings];
+        for (int i = 0; i < mappings; i++) {
+            proxyIds[i] = UUID.randomUUID().toString();
+            mappingManager.addMapping(proxyIds[i], proxyIds[i], target);
+            // a tenth of the proxies also have a port mapping
+            if (i % 10 == 0) {
+                mappingManager.addMapping(proxyIds[i], proxyIds[i] + "/port_mappings/8888", URI.create("http://10.0.0.1:8888"));
+            }
+        }
+        var random = ThreadLocalRandom.current();
+        for (int i = 0; i < requestPaths.length; i++) {
+            var proxyId = proxyIds[random.nextInt(mappings)];
+            requestPaths[i] = i % 2 == 0 ? proxyId + "/static/js/main.js" : proxyId + "/port_mappings/8888/api/kernels";
+        }
+    }
+
+    @Benchmark
+    public String getProxyId() {
+        return mappingManager.getProxyId(requestPaths[ThreadLocalRandom.current().nextInt(requestPaths.length)]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ProxyMappingManagerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,45 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.net.URI;
+
+class ProxyMappingManagerTest {
+
+    private static final String PROXY_1 = "1ca3dde2-8fdf-4fe4-8327-6849e4d77fcd";
+    private static final String PROXY_2 = "6480d0f4-d5c1-4bfd-9d73-d9c92f4f1e42";
+
+    private ProxyMappingManager mappingManager;
+
+    @BeforeEach
+    void setUp() {
+        mappingManager = new ProxyMappingManager(null, new UpstreamConnectionManager(new MockEnvironment(), new SimpleMeterRegistry()));
+        mappingManager.createHttpHandler(ResponseCodeHandler.HANDLE_404);
+        mappingManager.addMapping(PROXY_1, PROXY_1, URI.create("http://10.0.0.1:8080"));
+        mappingManager.addMapping(PROXY_1, PROXY_1 + "/port_mappings/8888", URI.create("http://10.0.0.1:8888"));
+        mappingManager.addMapping(PROXY_2, PROXY_2, URI.create("http://10.0.0.2:8080"));
+    }
+
+    @Test
+    void getProxyId() {
+        Assertions.assertEquals(PROXY_1, mappingManager.getProxyId(PROXY_1));
+        Assertions.assertEquals(PROXY_1, mappingManager.getProxyId(PROXY_1 + "/"));
+        Assertions.assertEquals(PROXY_1, mappingManager.getProxyId(PROXY_1 + "/port_mappings/8888/api"));
+        Assertions.assertEquals(PROXY_2, mappingManager.getProxyId(PROXY_2 + "/index.html"));
+        Assertions.assertNull(mappingManager.getProxyId(PROXY_2 + "0/index.html"));
+        Assertions.assertNull(mappingManager.getProxyId("unknown"));
+    }
+
+    @Test
+    void removeProxyMapping() {
+        mappingManager.removeProxyMapping(PROXY_1);
+        Assertions.assertNull(mappingManager.getProxyId(PROXY_1 + "/port_mappings/8888/api"));
+        Assertions.assertNull(mappingManager.getProxyId(PROXY_1));
+        Assertions.assertEquals(PROXY_2, mappingManager.getProxyId(PROXY_2));
+    }
+}
@@ -0,0 +1,48 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class RouteTableTest {
+
+    private final RouteTable<String> routes = new RouteTable<>();
+
+    @Test
+    void longestPrefixOnSegmentBoundary() {
+        routes.put("/proxy_endpoint/abc", "app");
+        routes.put("/proxy_endpoint/abc/port_mappings/8080/", "port");
+
+        var match = routes.match("/proxy_endpoint/abc/index.html");
+        Assertions.assertEquals("app", match.getValue());
+        Assertions.assertEquals("/proxy_endpoint/abc", match.getMatched());
+        Assertions.assertEquals("/index.html", match.getRemaining());
+
+        match = routes.match("/proxy_endpoint/abc/port_mappings/8080");
+        Assertions.assertEquals("port", match.getValue());
+        Assertions.assertEquals("", match.getRemaining());
+
+        match = routes.match("/proxy_endpoint/abc/port_mappings/8081/x");
+        Assertions.assertEquals("app", match.getValue());
+        Assertions.assertEquals("/port_mappings/8081/x", match.getRemaining());
+
+        Assertions.assertNull(routes.match("/proxy_endpoint/abcd"));
+        Assertions.assertNull(routes.match("/proxy_endpoint"));
+        Assertions.assertNull(routes.match("/"));
+    }
+
+    @Test
+    void removePrunesEmptyNodes() {
+        routes.put("/proxy_endpoint/abc", "app");
+        routes.put("/proxy_endpoint/abc/port_mappings/8080", "port");
+        Assertions.assertEquals(2, routes.size());
+
+        Assertions.assertEquals("app", routes.remove("/proxy_endpoint/abc"));
+        Assertions.assertNull(routes.remove("/proxy_endpoint/abc"));
+        Assertions.assertNull(routes.match("/proxy_endpoint/abc/index.html"));
+        Assertions.assertEquals("port", routes.get("/proxy_endpoint/abc/port_mappings/8080"));
+
+        Assertions.assertEquals("port", routes.remove("/proxy_endpoint/abc/port_mappings/8080"));
+        Assertions.assertEquals(0, routes.size());
+        Assertions.assertNull(routes.match("/proxy_endpoint/abc/port_mappings/8080"));
+    }
+}
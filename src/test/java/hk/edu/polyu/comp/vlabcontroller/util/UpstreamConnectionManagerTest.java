@@ -0,0 +1,36 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import hk.edu.polyu.comp.vlabcontroller.model.spec.ProxySpec;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.net.URI;
+
+class UpstreamConnectionManagerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final UpstreamConnectionManager connectionManager = new UpstreamConnectionManager(new MockEnvironment(), registry);
+
+    @Test
+    void clientsAreSharedPerProxyAndTarget() {
+        var spec = new ProxySpec();
+        spec.setId("jupyter");
+        var target = URI.create("http://10.0.0.1:8080");
+
+        var client = connectionManager.getClient("proxy-1", spec, target, exchange -> {
+        });
+        Assertions.assertSame(client, connectionManager.getClient("proxy-1", spec, target, exchange -> {
+        }));
+        Assertions.assertNotSame(client, connectionManager.getClient("proxy-1", spec, URI.create("http://10.0.0.1:8888"), exchange -> {
+        }));
+        Assertions.assertNotSame(client, connectionManager.getClient("proxy-2", spec, target, exchange -> {
+        }));
+        Assertions.assertNotNull(registry.find("upstreamConnectionsActive").tag("spec.id", "jupyter").gauge());
+
+        connectionManager.release("proxy-1");
+        Assertions.assertNotSame(client, connectionManager.getClient("proxy-1", spec, target, exchange -> {
+        }));
+    }
+}
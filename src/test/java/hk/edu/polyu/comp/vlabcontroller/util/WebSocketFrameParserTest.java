@@ -0,0 +1,131 @@
+package hk.edu.polyu.comp.vlabcontroller.util;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+class WebSocketFrameParserTest {
+
+    private final Map<Integer, Long> payloadByOpcode = new HashMap<>();
+    private final WebSocketFrameParser parser = new WebSocketFrameParser((opcode, length) -> payloadByOpcode.merge(opcode, length, Long::sum), true);
+
+    @Test
+    void multipleFramesInOneRead() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFrame(out, WebSocketFrameParser.OPCODE_TEXT, 5);
+        writeFrame(out, WebSocketFrameParser.OPCODE_PONG, 0);
+        writeFrame(out, WebSocketFrameParser.OPCODE_BINARY, 300);
+        writeFrame(out, WebSocketFrameParser.OPCODE_BINARY, 70000);
+
+        feed(out.toByteArray(), out.size());
+
+        Assertions.assertEquals(4, parser.getFrameCount());
+        Assertions.assertEquals(0, parser.getDesyncCount());
+        Assertions.assertEquals(5L, payloadByOpcode.get(WebSocketFrameParser.OPCODE_TEXT));
+        Assertions.assertEquals(70300L, payloadByOpcode.get(WebSocketFrameParser.OPCODE_BINARY));
+        // frames without payload are reported too
+        Assertions.assertEquals(0L, payloadByOpcode.get(WebSocketFrameParser.OPCODE_PONG));
+    }
+
+    @Test
+    void framesSplitAcrossReads() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFrame(out, WebSocketFrameParser.OPCODE_TEXT, 200);
+        writeFrame(out, WebSocketFrameParser.OPCODE_PING, 2);
+        writeFrame(out, WebSocketFrameParser.OPCODE_BINARY, 66000);
+
+        // feed one byte at a time, so that every header is split
+        feed(out.toByteArray(), 1);
+
+        Assertions.assertEquals(3, parser.getFrameCount());
+        Assertions.assertEquals(0, parser.getDesyncCount());
+        Assertions.assertEquals(200L, payloadByOpcode.get(WebSocketFrameParser.OPCODE_TEXT));
+        Assertions.assertEquals(2L, payloadByOpcode.get(WebSocketFrameParser.OPCODE_PING));
+        Assertions.assertEquals(66000L, payloadByOpcode.get(WebSocketFrameParser.OPCODE_BINARY));
+    }
+
+    @Test
+    void onlyReadsTheGivenRange() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x7F);
+        writeFrame(out, WebSocketFrameParser.OPCODE_TEXT, 10);
+        out.write(0x7F);
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+
+        parser.onRead(buffer, 1, out.size() - 2);
+
+        Assertions.assertEquals(1, parser.getFrameCount());
+        Assertions.assertEquals(10L, payloadByOpcode.get(WebSocketFrameParser.OPCODE_TEXT));
+        Assertions.assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void resynchronizesOnNextRead() {
+        // unmasked frame from a client: the parser is not aligned with the frames
+        byte[] garbage = {(byte) 0x81, 0x05, 'h', 'e', 'l', 'l', 'o'};
+        parser.onRead(ByteBuffer.wrap(garbage), 0, garbage.length);
+        Assertions.assertEquals(1, parser.getDesyncCount());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeFrame(out, WebSocketFrameParser.OPCODE_TEXT, 3);
+        feed(out.toByteArray(), out.size());
+
+        Assertions.assertEquals(1, parser.getFrameCount());
+        Assertions.assertEquals(3L, payloadByOpcode.get(WebSocketFrameParser.OPCODE_TEXT));
+    }
+
+    @Test
+    void dropsTheChunkAfterAnInvalidLength() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // 64-bit length with the most significant bit set
+        out.write(0x80 | WebSocketFrameParser.OPCODE_BINARY);
+        out.write(0x80 | 127);
+        out.write(0x80);
+        out.write(new byte[7], 0, 7);
+        // the rest of the chunk must not be parsed as frame headers
+        writeFrame(out, WebSocketFrameParser.OPCODE_TEXT, 3);
+        feed(out.toByteArray(), out.size());
+
+        Assertions.assertEquals(1, parser.getDesyncCount());
+        Assertions.assertEquals(0, parser.getFrameCount());
+        Assertions.assertTrue(payloadByOpcode.isEmpty());
+
+        out.reset();
+        writeFrame(out, WebSocketFrameParser.OPCODE_TEXT, 3);
+        feed(out.toByteArray(), out.size());
+        Assertions.assertEquals(1, parser.getFrameCount());
+        Assertions.assertEquals(3L, payloadByOpcode.get(WebSocketFrameParser.OPCODE_TEXT));
+    }
+
+    private void feed(byte[] data, int chunkSize) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        for (int offset = 0; offset < data.length; offset += chunkSize) {
+            parser.onRead(buffer, offset, Math.min(chunkSize, data.length - offset));
+        }
+    }
+
+    private static void writeFrame(ByteArrayOutputStream out, int opcode, int payloadLength) {
+        out.write(0x80 | opcode);
+        if (payloadLength < 126) {
+            out.write(0x80 | payloadLength);
+        } else if (payloadLength <= 0xFFFF) {
+            out.write(0x80 | 126);
+            out.write(payloadLength >>> 8);
+            out.write(payloadLength & 0xFF);
+        } else {
+            out.write(0x80 | 127);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (((long) payloadLength >>> shift) & 0xFF));
+            }
+        }
+        // masking key
+        out.write(new byte[]{1, 2, 3, 4}, 0, 4);
+        for (int i = 0; i < payloadLength; i++) {
+            out.write(i);
+        }
+    }
+}